@@ -26,7 +26,9 @@ CREATE TABLE `friendships` (
   `id1` bigint(20) unsigned NOT NULL,
   `id2` bigint(20) unsigned NOT NULL,
   `status` enum('ALLOWED','DISALLOWED','BLOCKED') NOT NULL,
-  `follow` enum('FOLLOWED','UNFOLLOWED') NOT NULL
+  `follow` enum('FOLLOWED','UNFOLLOWED') NOT NULL,
+  `last_update` datetime NOT NULL DEFAULT '1970-01-01 00:00:00',
+  KEY `idx_friendships_update` (`id1`, `last_update`)
 ) ENGINE=InnoDB DEFAULT CHARSET=latin1;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
@@ -88,6 +90,21 @@ CREATE TABLE `users` (
 ) ENGINE=InnoDB DEFAULT CHARSET=latin1;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
+--
+-- Table structure for table `user_search_names`
+--
+
+DROP TABLE IF EXISTS `user_search_names`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `user_search_names` (
+  `search_name` varchar(120) NOT NULL,
+  `idusers` bigint(20) unsigned NOT NULL,
+  PRIMARY KEY (`search_name`, `idusers`),
+  KEY `idx_user_search_names_user` (`idusers`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
 DROP TABLE IF EXISTS `events`;
 /*!40101 SET @saved_cs_client     = @@character_set_client */;
 /*!40101 SET character_set_client = utf8 */;
@@ -101,7 +118,9 @@ CREATE TABLE `events` (
   `latitude` double NOT NULL,
   `position_name` varchar(60) NOT NULL,
   `name` varchar(60) NOT NULL,
-  `description` varchar(255) NOT NULL
+  `description` varchar(255) NOT NULL,
+  `last_update` datetime NOT NULL DEFAULT '1970-01-01 00:00:00',
+  KEY `idx_events_position` (`latitude`, `longitude`)
 ) ENGINE=InnoDB DEFAULT CHARSET=latin1;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
@@ -24,6 +24,7 @@ import ch.epfl.smartmap.callbacks.NetworkRequestCallback;
 import ch.epfl.smartmap.callbacks.SearchRequestCallback;
 import ch.epfl.smartmap.gui.FriendListItemAdapter;
 import ch.epfl.smartmap.gui.FriendListItemAdapter.FriendViewHolder;
+import ch.epfl.smartmap.search.SearchScheduler;
 
 /**
  * This Activity displays a list of users from the DB and lets you send them
@@ -33,7 +34,11 @@ import ch.epfl.smartmap.gui.FriendListItemAdapter.FriendViewHolder;
  */
 public class AddFriendActivity extends ListActivity {
 
+    // Time the typing must pause before searching, longer than for local searches since each is a request
+    private static final long STRANGER_SEARCH_DELAY = 300;
+
     private SearchView mSearchBar;
+    private SearchScheduler<Set<User>> mStrangerSearchScheduler;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -45,6 +50,16 @@ public class AddFriendActivity extends ListActivity {
         // Set action bar color to main color
         this.getActionBar().setBackgroundDrawable(
             new ColorDrawable(this.getResources().getColor(R.color.main_blue)));
+
+        mStrangerSearchScheduler =
+            new SearchScheduler<Set<User>>(STRANGER_SEARCH_DELAY, new FindFriendsCallback());
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Results arriving after the activity is closed are not needed
+        mStrangerSearchScheduler.cancel();
     }
 
     @Override
@@ -83,19 +98,19 @@ public class AddFriendActivity extends ListActivity {
     /**
      * sets a listener on the searchbar that updates the views (users) displayed
      * every time the text chnanges or is
-     * submitted
+     * submitted, once the typing pauses
      */
     private void setSearchBarListener() {
         mSearchBar.setOnQueryTextListener(new OnQueryTextListener() {
             @Override
             public boolean onQueryTextChange(String newText) {
-                ServiceContainer.getSearchEngine().findStrangersByName(newText, new FindFriendsCallback());
+                mStrangerSearchScheduler.submit(newText, new StrangerSearch());
                 return true;
             }
 
             @Override
             public boolean onQueryTextSubmit(String newText) {
-                ServiceContainer.getSearchEngine().findStrangersByName(newText, new FindFriendsCallback());
+                mStrangerSearchScheduler.submitNow(newText, new StrangerSearch());
                 return true;
             }
         });
@@ -212,4 +227,21 @@ public class AddFriendActivity extends ListActivity {
             });
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Search of strangers on the server, run by the {@code SearchScheduler}
+     * 
+     * @author jfperren
+     */
+    private static class StrangerSearch implements SearchScheduler.Search<Set<User>> {
+
+        /*
+         * (non-Javadoc)
+         * @see ch.epfl.smartmap.search.SearchScheduler.Search#search(java.lang.String)
+         */
+        @Override
+        public Set<User> search(String query) throws Exception {
+            return ServiceContainer.getSearchEngine().searchStrangersByName(query);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package ch.epfl.smartmap.activities;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import android.app.ActionBar;
 import android.app.Dialog;
@@ -29,6 +30,7 @@ import ch.epfl.smartmap.background.OwnPositionService;
 import ch.epfl.smartmap.background.ServiceContainer;
 import ch.epfl.smartmap.background.UpdateDatabaseThread;
 import ch.epfl.smartmap.cache.Cache;
+import ch.epfl.smartmap.cache.CacheUpdate;
 import ch.epfl.smartmap.cache.Displayable;
 import ch.epfl.smartmap.cache.Event;
 import ch.epfl.smartmap.cache.Invitation;
@@ -38,6 +40,7 @@ import ch.epfl.smartmap.gui.SideMenu;
 import ch.epfl.smartmap.gui.SlidingPanel;
 import ch.epfl.smartmap.listeners.AddEventOnMapLongClickListener;
 import ch.epfl.smartmap.listeners.CacheListener;
+import ch.epfl.smartmap.map.ClusteringMarkerManager;
 import ch.epfl.smartmap.map.DefaultMarkerManager;
 import ch.epfl.smartmap.map.DefaultZoomManager;
 import ch.epfl.smartmap.util.Utils;
@@ -45,11 +48,14 @@ import ch.epfl.smartmap.util.Utils;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GooglePlayServicesUtil;
 import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.GoogleMap.OnCameraChangeListener;
 import com.google.android.gms.maps.GoogleMap.OnMapClickListener;
 import com.google.android.gms.maps.GoogleMap.OnMarkerClickListener;
 import com.google.android.gms.maps.SupportMapFragment;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.CameraPosition;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Marker;
 
 /**
@@ -113,6 +119,16 @@ public class MainActivity extends FragmentActivity implements CacheListener {
         @Override
         public boolean onMarkerClick(Marker arg0) {
 
+            // Zoom on clusters until they split
+            LatLngBounds clusterBounds = mFriendMarkerManager.getClusterBounds(arg0);
+            if (clusterBounds == null) {
+                clusterBounds = mEventMarkerManager.getClusterBounds(arg0);
+            }
+            if (clusterBounds != null) {
+                mMapZoomer.zoomOnBounds(clusterBounds);
+                return true;
+            }
+
             if (mFriendMarkerManager.isDisplayedMarker(arg0)) {
                 Displayable itemClicked = mFriendMarkerManager.getItemForMarker(arg0);
                 mMapZoomer.centerOnLocation(arg0.getPosition());
@@ -131,6 +147,19 @@ public class MainActivity extends FragmentActivity implements CacheListener {
         }
     }
 
+    /**
+     * A listener that shows the markers of the items entering the visible region of the map, and hides the
+     * others
+     */
+    private class UpdateMarkersOnCameraChange implements OnCameraChangeListener {
+
+        @Override
+        public void onCameraChange(CameraPosition position) {
+            mFriendMarkerManager.updateViewport(MainActivity.this);
+            mEventMarkerManager.updateViewport(MainActivity.this);
+        }
+    }
+
     private static final String TAG = MainActivity.class.getSimpleName();
     private static final int GOOGLE_PLAY_REQUEST_CODE = 10;
     // Indexes in ActionBar of different menuItems
@@ -144,8 +173,8 @@ public class MainActivity extends FragmentActivity implements CacheListener {
     private SideMenu mSideMenu;
 
     private GoogleMap mGoogleMap;
-    private DefaultMarkerManager mFriendMarkerManager;
-    private DefaultMarkerManager mEventMarkerManager;
+    private ClusteringMarkerManager mFriendMarkerManager;
+    private ClusteringMarkerManager mEventMarkerManager;
 
     private DefaultZoomManager mMapZoomer;
     private SupportMapFragment mFragmentMap;
@@ -216,6 +245,51 @@ public class MainActivity extends FragmentActivity implements CacheListener {
         }
     }
 
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.listeners.CacheListener#onCacheUpdate(ch.epfl.smartmap.cache.CacheUpdate)
+     * Only the markers of the items that changed are updated, except when filters changed since the
+     * visibility of every friend may have changed.
+     */
+    @Override
+    public void onCacheUpdate(CacheUpdate update) {
+        if ((mFriendMarkerManager == null) || (mEventMarkerManager == null)) {
+            return;
+        }
+        Cache cache = ServiceContainer.getCache();
+
+        if (!update.getFilterChanges().isEmpty()) {
+            mFriendMarkerManager.updateMarkers(this, new HashSet<Displayable>(cache.getAllVisibleFriends()));
+        } else if (!update.getUserChanges().isEmpty()) {
+            Set<Displayable> visibleFriends = new HashSet<Displayable>();
+            Set<Long> hiddenIds = new HashSet<Long>(update.getUserChanges().getRemovedIds());
+            for (long id : update.getUserChanges().getChangedIds()) {
+                // The cache may have changed since the update, a user removed meanwhile is hidden
+                User user = cache.getUser(id);
+                if ((user != null) && cache.isVisibleFriend(id)) {
+                    visibleFriends.add(user);
+                } else {
+                    hiddenIds.add(id);
+                }
+            }
+            mFriendMarkerManager.updateItems(this, visibleFriends, hiddenIds);
+        }
+
+        if (!update.getEventChanges().isEmpty()) {
+            Set<Displayable> visibleEvents = new HashSet<Displayable>();
+            Set<Long> hiddenIds = new HashSet<Long>(update.getEventChanges().getRemovedIds());
+            for (long id : update.getEventChanges().getChangedIds()) {
+                Event event = cache.getEvent(id);
+                if ((event != null) && event.isVisible()) {
+                    visibleEvents.add(event);
+                } else {
+                    hiddenIds.add(id);
+                }
+            }
+            mEventMarkerManager.updateItems(this, visibleEvents, hiddenIds);
+        }
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -246,8 +320,12 @@ public class MainActivity extends FragmentActivity implements CacheListener {
 
         if (mGoogleMap != null) {
             // Set different tools for the GoogleMap
-            mFriendMarkerManager = new DefaultMarkerManager(mGoogleMap);
-            mEventMarkerManager = new DefaultMarkerManager(mGoogleMap);
+            mFriendMarkerManager =
+                new ClusteringMarkerManager(mGoogleMap, this.getResources().getColor(R.color.main_blue));
+            mEventMarkerManager =
+                new ClusteringMarkerManager(mGoogleMap, this.getResources().getColor(R.color.event_cluster));
+            mFriendMarkerManager.setViewportCulling(true);
+            mEventMarkerManager.setViewportCulling(true);
             mMapZoomer = new DefaultZoomManager(mFragmentMap);
             // Adds markers
             this.initializeMarkers();
@@ -257,6 +335,7 @@ public class MainActivity extends FragmentActivity implements CacheListener {
             mGoogleMap.setOnMapLongClickListener(new AddEventOnMapLongClickListener(this));
             mGoogleMap.setOnMarkerClickListener(new ShowInfoOnMarkerClick());
             mGoogleMap.setOnMapClickListener(new ResetMarkerColorAndInfoPannelOnMapClick());
+            mGoogleMap.setOnCameraChangeListener(new UpdateMarkersOnCameraChange());
         }
 
         ServiceContainer.getCache().addOnCacheListener(this);
@@ -341,14 +420,7 @@ public class MainActivity extends FragmentActivity implements CacheListener {
      */
     @Override
     public void onEventListUpdate() {
-        this.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                mEventMarkerManager.updateMarkers(MainActivity.this, new HashSet<Displayable>(ServiceContainer
-                    .getCache().getAllVisibleEvents()));
-                MainActivity.this.updateItemMenu();
-            }
-        });
+        this.updateItemMenu();
     }
 
     @Override
@@ -359,12 +431,7 @@ public class MainActivity extends FragmentActivity implements CacheListener {
     @Override
     public void onInvitationListUpdate() {
         // Update LayerDrawable's BadgeDrawable
-        MainActivity.this.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                MainActivity.this.updateNotifCountBadge();
-            }
-        });
+        this.updateNotifCountBadge();
     }
 
     @Override
@@ -452,14 +519,7 @@ public class MainActivity extends FragmentActivity implements CacheListener {
 
     @Override
     public void onUserListUpdate() {
-        this.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                mFriendMarkerManager.updateMarkers(MainActivity.this, new HashSet<Displayable>(ServiceContainer
-                    .getCache().getAllVisibleFriends()));
-                MainActivity.this.updateItemMenu();
-            }
-        });
+        this.updateItemMenu();
     }
 
     /**
@@ -626,6 +686,8 @@ public class MainActivity extends FragmentActivity implements CacheListener {
 
         List<Marker> allMarkers = new ArrayList<Marker>(mFriendMarkerManager.getDisplayedMarkers());
         allMarkers.addAll(mEventMarkerManager.getDisplayedMarkers());
+        allMarkers.addAll(mFriendMarkerManager.getClusterMarkers());
+        allMarkers.addAll(mEventMarkerManager.getClusterMarkers());
 
         Intent startingIntent = this.getIntent();
         if (startingIntent.getParcelableExtra(AddEventActivity.LOCATION_EXTRA) == null) {
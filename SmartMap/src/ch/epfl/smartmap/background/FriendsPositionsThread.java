@@ -5,6 +5,7 @@ import java.util.HashSet;
 import android.util.Log;
 import ch.epfl.smartmap.cache.UserContainer;
 import ch.epfl.smartmap.servercom.SmartMapClientException;
+import ch.epfl.smartmap.servercom.SyncBag;
 
 /**
  * A thread that periodically retrieves friends' locations
@@ -16,6 +17,9 @@ public class FriendsPositionsThread extends Thread {
     private static final String TAG = FriendsPositionsThread.class.getSimpleName();
     private boolean mEnabled = true;
 
+    // Server date of the last received positions, only newer positions are fetched
+    private String mCursor = null;
+
     /**
      * Disables position updates
      */
@@ -36,8 +40,13 @@ public class FriendsPositionsThread extends Thread {
             if ((!ServiceContainer.getSettingsManager().isOffline()) && mEnabled) {
                 try {
                     Log.d(TAG, "Update Friends Positions");
-                    ServiceContainer.getCache().putUsers(
-                        new HashSet<UserContainer>(ServiceContainer.getNetworkClient().listFriendsPos()));
+                    SyncBag<UserContainer> positions =
+                        ServiceContainer.getNetworkClient().listFriendsPosSince(mCursor);
+                    ServiceContainer.getCache().putUsers(new HashSet<UserContainer>(positions.getItems()));
+                    // Friends that became invisible or stopped sharing their position
+                    ServiceContainer.getCache().hideFriendPositions(
+                        new HashSet<Long>(positions.getRemovedIds()));
+                    mCursor = positions.getCursor();
                 } catch (SmartMapClientException e) {
                     Log.e(InvitationsService.class.getSimpleName(), "Network error: " + e);
                 }
@@ -114,7 +114,10 @@ public class InvitationsService extends Service {
                     (NetworkFriendInvitationBag) ServiceContainer.getNetworkClient().getFriendInvitations();
                 InvitationBag eventInvitBag = ServiceContainer.getNetworkClient().getEventInvitations();
 
-                // Acknowledge removed friends
+                // Forget and acknowledge removed friends, the server keeps no other trace of them
+                if (!userInvitBag.getRemovedFriendsIds().isEmpty()) {
+                    ServiceContainer.getCache().removeUsers(userInvitBag.getRemovedFriendsIds());
+                }
                 for (Long id : userInvitBag.getRemovedFriendsIds()) {
                     ServiceContainer.getNetworkClient().ackRemovedFriend(id);
                 }
@@ -6,8 +6,10 @@ import java.util.Set;
 
 import android.location.Location;
 import android.util.Log;
+import ch.epfl.smartmap.cache.Event;
 import ch.epfl.smartmap.cache.EventContainer;
 import ch.epfl.smartmap.servercom.SmartMapClientException;
+import ch.epfl.smartmap.servercom.SyncBag;
 
 /**
  * Periodically fetches nearby events
@@ -19,6 +21,11 @@ public class NearEventsThread extends Thread {
     private static final String TAG = NearEventsThread.class.getSimpleName();
     private static final int REFRESH_DELAY = 20000;
 
+    // Server date of the last synchronization of the synced events
+    private String mCursor = null;
+    // Events known to be up to date as of the cursor, the other cached events are fetched entirely
+    private Set<Long> mSyncedIds = new HashSet<Long>();
+
     @Override
     public void run() {
         while (true) {
@@ -28,14 +35,68 @@ public class NearEventsThread extends Thread {
                     ServiceContainer.getNetworkClient().getPublicEvents(pos.getLatitude(),
                         pos.getLongitude(), ServiceContainer.getSettingsManager().getNearEventsMaxDistance());
 
-                Set<EventContainer> nearEvents = new HashSet<EventContainer>();
+                // Events we never saw are fetched entirely, the others only if modified since last time
+                Set<Long> unknownIds = new HashSet<Long>();
+                Set<Long> knownIds = new HashSet<Long>();
                 for (long id : nearEventIds) {
-                    nearEvents.add(ServiceContainer.getNetworkClient().getEventInfo(id));
+                    if (ServiceContainer.getCache().getEvent(id) == null) {
+                        unknownIds.add(id);
+                    } else {
+                        knownIds.add(id);
+                    }
+                }
+                // Cached near events are checked too, to forget those that were deleted
+                for (Event event : ServiceContainer.getCache().getNearEvents()) {
+                    knownIds.add(event.getId());
+                }
+
+                // An event cached by another part of the app may have changed before the cursor
+                Set<Long> syncedIds = new HashSet<Long>();
+                Set<Long> newIds = new HashSet<Long>();
+                for (long id : knownIds) {
+                    if ((mCursor != null) && mSyncedIds.contains(id)) {
+                        syncedIds.add(id);
+                    } else {
+                        newIds.add(id);
+                    }
+                }
+
+                Set<EventContainer> nearEvents = new HashSet<EventContainer>();
+                Set<Long> removedIds = new HashSet<Long>();
+                // The cursor of the first request, as the events read after it are at least as recent
+                String cursor = mCursor;
+                if (!syncedIds.isEmpty()) {
+                    SyncBag<EventContainer> modified =
+                        ServiceContainer.getNetworkClient().getEventsInfoSince(syncedIds, mCursor);
+                    nearEvents.addAll(modified.getItems());
+                    removedIds.addAll(modified.getRemovedIds());
+                    cursor = modified.getCursor();
+                }
+                if (!newIds.isEmpty()) {
+                    SyncBag<EventContainer> all =
+                        ServiceContainer.getNetworkClient().getEventsInfoSince(newIds, null);
+                    nearEvents.addAll(all.getItems());
+                    removedIds.addAll(all.getRemovedIds());
+                    if (syncedIds.isEmpty()) {
+                        cursor = all.getCursor();
+                    }
                 }
+                Set<EventContainer> fetched = ServiceContainer.getParallelFetcher().fetchEvents(unknownIds);
+                nearEvents.addAll(fetched);
+
+                mCursor = cursor;
+                mSyncedIds = new HashSet<Long>(knownIds);
+                for (EventContainer event : fetched) {
+                    mSyncedIds.add(event.getId());
+                }
+                mSyncedIds.removeAll(removedIds);
+
                 ServiceContainer.getCache().putEvents(nearEvents);
+                ServiceContainer.getCache().removeEvents(removedIds);
 
                 Log.d(TAG, "Fetch Near Events : " + nearEventIds + " radius "
-                    + ServiceContainer.getSettingsManager().getNearEventsMaxDistance());
+                    + ServiceContainer.getSettingsManager().getNearEventsMaxDistance() + ", "
+                    + nearEvents.size() + " new or modified");
 
             } catch (SmartMapClientException e) {
                 Log.e(TAG, "Couldn't retrieve public events: " + e);
@@ -2,10 +2,12 @@ package ch.epfl.smartmap.background;
 
 import android.content.Context;
 import ch.epfl.smartmap.cache.Cache;
+import ch.epfl.smartmap.cache.PictureCache;
 import ch.epfl.smartmap.database.DatabaseHelper;
 import ch.epfl.smartmap.database.DatabaseHelperInterface;
 import ch.epfl.smartmap.search.CachedSearchEngine;
 import ch.epfl.smartmap.servercom.NetworkSmartMapClient;
+import ch.epfl.smartmap.servercom.ParallelFetcher;
 import ch.epfl.smartmap.servercom.SmartMapClient;
 
 /**
@@ -22,8 +24,10 @@ import ch.epfl.smartmap.servercom.SmartMapClient;
  */
 public final class ServiceContainer {
     private static SmartMapClient mNetworkClient;
+    private static ParallelFetcher mParallelFetcher;
     private static DatabaseHelperInterface mDBHelper;
     private static Cache mCache;
+    private static PictureCache mPictureCache;
     private static CachedSearchEngine mSearchEngine;
     private static SettingsManager mSettingsManager;
 
@@ -43,6 +47,8 @@ public final class ServiceContainer {
     public static void forceInitSmartMapServices(Context context) {
         setSettingsManager(new SettingsManager(context));
         setNetworkClient(new NetworkSmartMapClient());
+        setParallelFetcher(new ParallelFetcher());
+        setPictureCache(new PictureCache(context));
         setDatabaseHelper(new DatabaseHelper(context));
         setCache(new Cache());
         setSearchEngine(new CachedSearchEngine());
@@ -75,6 +81,24 @@ public final class ServiceContainer {
         return mNetworkClient;
     }
 
+    /**
+     * Get the parallel fetcher service.
+     * 
+     * @return ParallelFetcher
+     */
+    public static ParallelFetcher getParallelFetcher() {
+        return mParallelFetcher;
+    }
+
+    /**
+     * Get the picture cache service.
+     * 
+     * @return PictureCache
+     */
+    public static PictureCache getPictureCache() {
+        return mPictureCache;
+    }
+
     /**
      * Get the search engine service.
      * 
@@ -106,6 +130,12 @@ public final class ServiceContainer {
         if (ServiceContainer.getNetworkClient() == null) {
             setNetworkClient(new NetworkSmartMapClient());
         }
+        if (ServiceContainer.getParallelFetcher() == null) {
+            setParallelFetcher(new ParallelFetcher());
+        }
+        if (ServiceContainer.getPictureCache() == null) {
+            setPictureCache(new PictureCache(context));
+        }
         if (ServiceContainer.getDatabase() == null) {
             setDatabaseHelper(new DatabaseHelper(context));
         }
@@ -144,6 +174,27 @@ public final class ServiceContainer {
         mNetworkClient = client;
     }
 
+    /**
+     * Set the parallel fetcher service.
+     * 
+     * @param fetcher
+     */
+    public static void setParallelFetcher(ParallelFetcher fetcher) {
+        if ((mParallelFetcher != null) && (mParallelFetcher != fetcher)) {
+            mParallelFetcher.shutdown();
+        }
+        mParallelFetcher = fetcher;
+    }
+
+    /**
+     * Set the picture cache service.
+     * 
+     * @param pictureCache
+     */
+    public static void setPictureCache(PictureCache pictureCache) {
+        mPictureCache = pictureCache;
+    }
+
     /**
      * Set the search engine service.
      * 
@@ -1,29 +1,104 @@
 package ch.epfl.smartmap.background;
 
+import android.os.SystemClock;
 import android.util.Log;
+import ch.epfl.smartmap.cache.Cache;
+import ch.epfl.smartmap.cache.CacheChanges;
+import ch.epfl.smartmap.cache.CacheUpdate;
+import ch.epfl.smartmap.listeners.OnCacheListener;
 
 /**
- * Periodically updates the database from the cache
- * 
+ * Writes the changes of the cache in the database shortly after they happen. Changes announced by the cache
+ * listeners less than {@code DEBOUNCE_DELAY} apart are written together, at most {@code MAX_DELAY} after the
+ * first one. The cache is also checked every {@code CHECK_PERIOD} for changes that were not announced.
+ *
  * @author jfperren
  */
 public class UpdateDatabaseThread extends Thread {
 
     private static final String TAG = UpdateDatabaseThread.class.getSimpleName();
-    // Update is done every 5 minutes
-    private static final int UPDATE_PERIOD = 5 * 60 * 1000;
+
+    // Delays in milliseconds
+    private static final int DEBOUNCE_DELAY = 2 * 1000;
+    private static final int MAX_DELAY = 10 * 1000;
+    private static final int CHECK_PERIOD = 60 * 1000;
+
+    private final Object mLock = new Object();
+    // Uptimes of the first and last changes announced since the last write, 0 if there is none
+    private long mFirstChangeTime;
+    private long mLastChangeTime;
 
     @Override
     public void run() {
-        while (true) {
-            try {
-                sleep(UPDATE_PERIOD);
-            } catch (InterruptedException e) {
-                Log.e(TAG, "Can't sleep : " + e);
+        Cache cache = ServiceContainer.getCache();
+        OnCacheListener listener = new OnCacheListener() {
+            @Override
+            public void onCacheUpdate(CacheUpdate update) {
+                UpdateDatabaseThread.this.onChange();
+            }
+        };
+        cache.addOnCacheListener(listener);
+
+        try {
+            while (!this.isInterrupted()) {
+                try {
+                    this.waitForChanges();
+                } catch (InterruptedException e) {
+                    // Write the last changes before stopping
+                    this.interrupt();
+                }
+                this.writeChanges();
+            }
+        } finally {
+            // The cache outlives the thread, it must not keep it alive
+            cache.removeOnCacheListener(listener);
+        }
+    }
+
+    private void onChange() {
+        synchronized (mLock) {
+            long now = SystemClock.uptimeMillis();
+            if (mFirstChangeTime == 0) {
+                mFirstChangeTime = now;
             }
+            mLastChangeTime = now;
+            mLock.notifyAll();
+        }
+    }
 
-            Log.d(TAG, "Update Database");
-            ServiceContainer.getDatabase().updateFromCache();
+    /**
+     * Waits until changes were announced and no other came for {@code DEBOUNCE_DELAY}, or for
+     * {@code CHECK_PERIOD} if there was none
+     */
+    private void waitForChanges() throws InterruptedException {
+        synchronized (mLock) {
+            if (mLastChangeTime == 0) {
+                mLock.wait(CHECK_PERIOD);
+            }
+            while (mLastChangeTime != 0) {
+                long writeTime = Math.min(mLastChangeTime + DEBOUNCE_DELAY, mFirstChangeTime + MAX_DELAY);
+                long now = SystemClock.uptimeMillis();
+                if (now >= writeTime) {
+                    break;
+                }
+                mLock.wait(writeTime - now);
+            }
+            mFirstChangeTime = 0;
+            mLastChangeTime = 0;
+        }
+    }
+
+    private void writeChanges() {
+        Cache cache = ServiceContainer.getCache();
+        CacheChanges changes = cache.takeChanges();
+        if (!changes.isEmpty()) {
+            try {
+                ServiceContainer.getDatabase().writeChanges(changes);
+            } catch (RuntimeException e) {
+                // Includes SQLException, the changes are written again at the next flush
+                Log.e(TAG, "Could not write changes : " + e);
+                cache.putBackChanges(changes);
+            }
         }
     }
 }
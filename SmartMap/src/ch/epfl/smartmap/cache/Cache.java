@@ -6,9 +6,13 @@ import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import android.graphics.Bitmap;
+import android.location.Location;
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.util.LongSparseArray;
 import ch.epfl.smartmap.background.Notifications;
@@ -20,6 +24,8 @@ import ch.epfl.smartmap.listeners.CacheListener;
 import ch.epfl.smartmap.servercom.SmartMapClient;
 import ch.epfl.smartmap.servercom.SmartMapClientException;
 
+import com.google.android.gms.maps.model.LatLngBounds;
+
 /**
  * Note from @jfperren
  * Since the architecture change (which was really needed otherwise we
@@ -37,7 +43,17 @@ import ch.epfl.smartmap.servercom.SmartMapClientException;
  * {@code Filter} that is used by the GUI. You can initialize the Cache from a DatabaseHelper with
  * {@code initFromDatabase}, and then update it with a SmartMapClient using {@code updateFromNetwork}. All
  * methods in the Cache that call the {@code SmartMapClient} use {@code AsyncTask}s and then update the
- * {@code Cache} with the results
+ * {@code Cache} with the results.
+ * <p>
+ * Readers never wait: the getters read an immutable snapshot of the collections of live instances, which is
+ * replaced atomically after each modification. Modifications are made one at a time under the lock of the
+ * {@code Cache}, which publishes a new snapshot of the kinds of items they changed. No request to the server
+ * is made while holding the lock. The live instances are not copied but updated in place, and their
+ * mutable fields are volatile and only replaced, never modified, so that readers on other threads see
+ * whole values.
+ * <p>
+ * The listeners are notified on the main thread, once for all the modifications published within a frame,
+ * with the ids of the items that were added, updated or removed since their previous notification.
  * 
  * @author jfperren
  */
@@ -45,27 +61,58 @@ public class Cache implements CacheInterface {
 
     private static final String TAG = Cache.class.getSimpleName();
 
+    // Kinds of items, to know which parts of the snapshot need to be copied and which listeners to notify
+    private static final int USERS = 1;
+    private static final int EVENTS = 1 << 1;
+    private static final int FILTERS = 1 << 2;
+    private static final int INVITATIONS = 1 << 3;
+    private static final int ALL_KINDS = USERS | EVENTS | FILTERS | INVITATIONS;
+
+    // Delay before notifying the listeners of a modification, in milliseconds, to group those of a frame
+    private static final long NOTIFICATION_DELAY = 16;
+
+    // The structures below are only accessed by the writers, under the lock of the Cache
+
     // SparseArrays containing live instances
     private final LongSparseArray<User> mUserInstances;
     private final LongSparseArray<Event> mEventInstances;
     private final LongSparseArray<Filter> mFilterInstances;
     private final LongSparseArray<Invitation> mInvitationInstances;
 
-    // These sets are the keys for the LongSparseArrays
-    private final Set<Long> mUserIds;
-    private final Set<Long> mEventIds;
-    private final Set<Long> mFilterIds;
-    private final Set<Long> mInvitationIds;
-
     // Contains the ids of the friends
-    private final Set<Long> mFriendIds;
+    private final LongHashSet mFriendIds;
     private long mSelfId;
+    // Contains the ids of the friends kept by every active filter, updated with each friend or filter change
+    private final LongHashSet mVisibleFriendIds;
+
+    // Spatial indexes of the events and of the friends positions
+    private final SpatialIndex mEventPositions;
+    private final SpatialIndex mFriendPositions;
 
     // Id for the next filter to be added
     private long nextFilterId;
 
     // Contains all listeners
     private final List<CacheListener> mListeners;
+    private final Handler mMainHandler;
+    private final Runnable mNotifyListeners;
+
+    // Ids of the items changed since the database was last written
+    private CacheChanges mChanges;
+    // Ids of the items changed since the listeners were last notified
+    private CacheChanges mUnnotifiedChanges;
+    // Whether the notification of these changes is already posted on the main thread
+    private boolean mIsNotificationPosted;
+    // Snapshot seen by the listeners at their last notification, to know which items are new to them
+    private Snapshot mNotifiedSnapshot;
+
+    // Kinds of items modified since the last snapshot was published
+    private int mModifiedKinds;
+    // Whether a batch of modifications is being applied, the snapshot is then only published at its end
+    private boolean mInBatch;
+
+    // Last published copy of the live instances, read without locking
+    private volatile Snapshot mSnapshot;
 
     /**
      * Constructor
@@ -77,17 +124,29 @@ public class Cache implements CacheInterface {
         mFilterInstances = new LongSparseArray<Filter>();
         mInvitationInstances = new LongSparseArray<Invitation>();
 
-        mFriendIds = new HashSet<Long>();
+        mFriendIds = new LongHashSet();
         mSelfId = ServiceContainer.getSettingsManager().getUserId();
+        mVisibleFriendIds = new LongHashSet();
 
-        mUserIds = new HashSet<Long>();
-        mEventIds = new HashSet<Long>();
-        mFilterIds = new HashSet<Long>();
-        mInvitationIds = new HashSet<Long>();
+        mEventPositions = new SpatialIndex();
+        mFriendPositions = new SpatialIndex();
 
         nextFilterId = Filter.DEFAULT_FILTER_ID + 1;
 
-        mListeners = new ArrayList<CacheListener>();
+        mListeners = new CopyOnWriteArrayList<CacheListener>();
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mNotifyListeners = new Runnable() {
+            @Override
+            public void run() {
+                Cache.this.notifyListeners();
+            }
+        };
+
+        mChanges = new CacheChanges();
+        mUnnotifiedChanges = new CacheChanges();
+
+        mSnapshot = new Snapshot(this, null, ALL_KINDS);
+        mNotifiedSnapshot = mSnapshot;
 
         this.putUser(UserContainer.newEmptyContainer().setId(mSelfId)
             .setName(ServiceContainer.getSettingsManager().getUserName()));
@@ -101,7 +160,7 @@ public class Cache implements CacheInterface {
      * ch.epfl.smartmap.callbacks.NetworkRequestCallback)
      */
     @Override
-    public synchronized void acceptInvitation(final Invitation invitation,
+    public void acceptInvitation(final Invitation invitation,
         final NetworkRequestCallback<Void> callback) {
         new AsyncTask<Void, Void, Void>() {
             @Override
@@ -118,7 +177,7 @@ public class Cache implements CacheInterface {
      * .listeners.CacheListener)
      */
     @Override
-    public synchronized void addOnCacheListener(CacheListener listener) {
+    public void addOnCacheListener(CacheListener listener) {
         mListeners.add(listener);
     }
 
@@ -131,7 +190,7 @@ public class Cache implements CacheInterface {
      * ch.epfl.smartmap.callbacks.NetworkRequestCallback)
      */
     @Override
-    public synchronized void addParticipantsToEvent(Set<Long> ids, final Event event,
+    public void addParticipantsToEvent(Set<Long> ids, final Event event,
         final NetworkRequestCallback<Void> callback) {
         Set<Long> newParticipantIds = event.getContainerCopy().getParticipantIds();
         newParticipantIds.addAll(ids);
@@ -166,7 +225,7 @@ public class Cache implements CacheInterface {
      * ch.epfl.smartmap.callbacks.NetworkRequestCallback)
      */
     @Override
-    public synchronized void createEvent(final EventContainer createdEvent,
+    public void createEvent(final EventContainer createdEvent,
         final NetworkRequestCallback<Event> callback) {
         new AsyncTask<Void, Void, Void>() {
             @Override
@@ -184,7 +243,7 @@ public class Cache implements CacheInterface {
      * ch.epfl.smartmap.callbacks.NetworkRequestCallback)
      */
     @Override
-    public synchronized void declineInvitation(final Invitation invitation,
+    public void declineInvitation(final Invitation invitation,
         final NetworkRequestCallback<Void> callback) {
         new AsyncTask<Void, Void, Void>() {
             @Override
@@ -200,10 +259,10 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getAllActiveFilters()
      */
     @Override
-    public synchronized Set<Filter> getAllActiveFilters() {
+    public Set<Filter> getAllActiveFilters() {
         return this.getFilters(new SearchFilter<Filter>() {
             @Override
-            public synchronized boolean filter(Filter filter) {
+            public boolean filter(Filter filter) {
                 return filter.isActive();
             }
         });
@@ -214,10 +273,13 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getAllCustomFilters()
      */
     @Override
-    public synchronized Set<Filter> getAllCustomFilters() {
-        Set<Long> customFilterIds = new HashSet<Long>(mFilterIds);
-        customFilterIds.remove(Filter.DEFAULT_FILTER_ID);
-        return this.getFilters(customFilterIds);
+    public Set<Filter> getAllCustomFilters() {
+        return this.getFilters(new SearchFilter<Filter>() {
+            @Override
+            public boolean filter(Filter filter) {
+                return filter.getId() != Filter.DEFAULT_FILTER_ID;
+            }
+        });
     }
 
     /*
@@ -225,8 +287,8 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getAllEvents()
      */
     @Override
-    public synchronized Set<Event> getAllEvents() {
-        return this.getEvents(mEventIds);
+    public Set<Event> getAllEvents() {
+        return valuesOf(mSnapshot.mEvents);
     }
 
     /*
@@ -234,8 +296,8 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getAllFilters()
      */
     @Override
-    public synchronized Set<Filter> getAllFilters() {
-        return this.getFilters(mFilterIds);
+    public Set<Filter> getAllFilters() {
+        return valuesOf(mSnapshot.mFilters);
     }
 
     /*
@@ -243,8 +305,9 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getAllFriends()
      */
     @Override
-    public synchronized Set<User> getAllFriends() {
-        return this.getUsers(mFriendIds);
+    public Set<User> getAllFriends() {
+        Snapshot snapshot = mSnapshot;
+        return valuesOf(snapshot.mUsers, snapshot.mFriendIds);
     }
 
     /*
@@ -252,8 +315,8 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getAllInvitations()
      */
     @Override
-    public synchronized SortedSet<Invitation> getAllInvitations() {
-        return this.getInvitations(mInvitationIds);
+    public SortedSet<Invitation> getAllInvitations() {
+        return new TreeSet<Invitation>(valuesOf(mSnapshot.mInvitations));
     }
 
     /*
@@ -261,8 +324,8 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getAllUsers()
      */
     @Override
-    public synchronized Set<User> getAllUsers() {
-        return this.getUsers(mUserIds);
+    public Set<User> getAllUsers() {
+        return valuesOf(mSnapshot.mUsers);
     }
 
     /*
@@ -270,15 +333,13 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getAllVisibleEvents()
      */
     @Override
-    public synchronized Set<Event> getAllVisibleEvents() {
-        Set<Event> allVisibleEvents = new HashSet<Event>();
-        for (Event event : this.getAllEvents()) {
-            if (event.isVisible()) {
-                allVisibleEvents.add(event);
+    public Set<Event> getAllVisibleEvents() {
+        return valuesOf(mSnapshot.mEvents, new SearchFilter<Event>() {
+            @Override
+            public boolean filter(Event event) {
+                return event.isVisible();
             }
-        }
-
-        return this.getEvents(mEventIds);
+        });
     }
 
     /*
@@ -286,26 +347,10 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getAllVisibleFriends()
      */
     @Override
-    public synchronized Set<User> getAllVisibleFriends() {
-        // Get all friends
-        Set<Long> allVisibleUsersId = new HashSet<Long>();
-        if (this.getDefaultFilter() != null) {
-            // Get all friends
-            allVisibleUsersId.addAll(this.getDefaultFilter().getVisibleFriends());
-        } else {
-            allVisibleUsersId.addAll(mFriendIds);
-        }
-
-        // For each active filter, keep friends in it
-        for (Long id : mFilterIds) {
-            Filter filter = this.getFilter(id);
-            if (filter.isActive()) {
-                allVisibleUsersId.retainAll(filter.getVisibleFriends());
-            }
-        }
-
-        // Return all friends that passed all filters
-        return this.getUsers(allVisibleUsersId);
+    public Set<User> getAllVisibleFriends() {
+        // The visible friends are maintained by the writers, nothing is computed here
+        Snapshot snapshot = mSnapshot;
+        return valuesOf(snapshot.mUsers, snapshot.mVisibleFriendIds);
     }
 
     /*
@@ -313,7 +358,7 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getDefaultFilter()
      */
     @Override
-    public synchronized Filter getDefaultFilter() {
+    public Filter getDefaultFilter() {
         return this.getFilter(Filter.DEFAULT_FILTER_ID);
     }
 
@@ -322,8 +367,8 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getEvent(long)
      */
     @Override
-    public synchronized Event getEvent(long id) {
-        return mEventInstances.get(id);
+    public Event getEvent(long id) {
+        return mSnapshot.mEvents.get(id);
     }
 
     /*
@@ -333,15 +378,8 @@ public class Cache implements CacheInterface {
      * .Cache.SearchFilter)
      */
     @Override
-    public synchronized Set<Event> getEvents(SearchFilter<Event> filter) {
-        Set<Event> events = new HashSet<Event>();
-        for (long id : mEventIds) {
-            Event event = this.getEvent(id);
-            if (filter.filter(event)) {
-                events.add(event);
-            }
-        }
-        return events;
+    public Set<Event> getEvents(SearchFilter<Event> filter) {
+        return valuesOf(mSnapshot.mEvents, filter);
     }
 
     /*
@@ -349,15 +387,30 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getEvents(java.util.Set)
      */
     @Override
-    public synchronized Set<Event> getEvents(Set<Long> ids) {
-        Set<Event> events = new HashSet<Event>();
-        for (long id : ids) {
-            Event event = this.getEvent(id);
-            if (event != null) {
-                events.add(event);
-            }
-        }
-        return events;
+    public Set<Event> getEvents(Set<Long> ids) {
+        return valuesOf(mSnapshot.mEvents, ids);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see
+     * ch.epfl.smartmap.cache.CacheInterface#getEventsInBounds(com.google.android.gms.maps.model.LatLngBounds)
+     */
+    @Override
+    public Set<Event> getEventsInBounds(LatLngBounds bounds) {
+        Snapshot snapshot = mSnapshot;
+        return valuesOf(snapshot.mEvents, snapshot.mEventPositions.idsInBounds(bounds));
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.cache.CacheInterface#getEventsInRadius(android.location.Location, double)
+     */
+    @Override
+    public Set<Event> getEventsInRadius(Location center, double radius) {
+        Snapshot snapshot = mSnapshot;
+        return valuesOf(snapshot.mEvents,
+            snapshot.mEventPositions.idsInRadius(center.getLatitude(), center.getLongitude(), radius));
     }
 
     /*
@@ -365,8 +418,8 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getFilter(long)
      */
     @Override
-    public synchronized Filter getFilter(long id) {
-        return mFilterInstances.get(id);
+    public Filter getFilter(long id) {
+        return mSnapshot.mFilters.get(id);
     }
 
     /*
@@ -376,17 +429,8 @@ public class Cache implements CacheInterface {
      * .Cache.SearchFilter)
      */
     @Override
-    public synchronized Set<Filter> getFilters(SearchFilter<Filter> searchFilter) {
-        Set<Filter> filters = new HashSet<Filter>();
-
-        for (long id : mFilterIds) {
-            Filter filter = this.getFilter(id);
-            if ((filter != null) && searchFilter.filter(filter)) {
-                filters.add(filter);
-            }
-        }
-
-        return filters;
+    public Set<Filter> getFilters(SearchFilter<Filter> searchFilter) {
+        return valuesOf(mSnapshot.mFilters, searchFilter);
     }
 
     /*
@@ -394,17 +438,8 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getFilters(java.util.Set)
      */
     @Override
-    public synchronized Set<Filter> getFilters(Set<Long> ids) {
-        Set<Filter> filters = new HashSet<Filter>();
-
-        for (long id : ids) {
-            Filter filter = this.getFilter(id);
-            if (filter != null) {
-                filters.add(filter);
-            }
-        }
-
-        return filters;
+    public Set<Filter> getFilters(Set<Long> ids) {
+        return valuesOf(mSnapshot.mFilters, ids);
     }
 
     /*
@@ -412,8 +447,19 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getFriendIds()
      */
     @Override
-    public synchronized Set<Long> getFriendIds() {
-        return mFriendIds;
+    public Set<Long> getFriendIds() {
+        return LongArrays.toSet(mSnapshot.mFriendIds);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see
+     * ch.epfl.smartmap.cache.CacheInterface#getFriendsInBounds(com.google.android.gms.maps.model.LatLngBounds)
+     */
+    @Override
+    public Set<User> getFriendsInBounds(LatLngBounds bounds) {
+        Snapshot snapshot = mSnapshot;
+        return valuesOf(snapshot.mUsers, snapshot.mFriendPositions.idsInBounds(bounds));
     }
 
     /*
@@ -421,8 +467,8 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getInvitation(long)
      */
     @Override
-    public synchronized Invitation getInvitation(long id) {
-        return mInvitationInstances.get(id);
+    public Invitation getInvitation(long id) {
+        return mSnapshot.mInvitations.get(id);
     }
 
     /*
@@ -432,17 +478,10 @@ public class Cache implements CacheInterface {
      * .cache.Cache.SearchFilter)
      */
     @Override
-    public synchronized SortedSet<Invitation> getInvitations(SearchFilter<Invitation> filter) {
-        SortedSet<Invitation> invitations = new TreeSet<Invitation>();
-
-        for (long id : mInvitationIds) {
-            Invitation invitation = mInvitationInstances.get(id);
-            if ((filter == null) || ((invitation != null) && filter.filter(invitation))) {
-                invitations.add(invitation);
-            }
-        }
-
-        return invitations;
+    public SortedSet<Invitation> getInvitations(SearchFilter<Invitation> filter) {
+        LongSparseArray<Invitation> invitations = mSnapshot.mInvitations;
+        return new TreeSet<Invitation>((filter != null) ? valuesOf(invitations, filter)
+            : valuesOf(invitations));
     }
 
     /*
@@ -450,15 +489,8 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getInvitations(java.util.Set)
      */
     @Override
-    public synchronized SortedSet<Invitation> getInvitations(Set<Long> ids) {
-        SortedSet<Invitation> invitations = new TreeSet<Invitation>();
-        for (long id : ids) {
-            Invitation invitation = this.getInvitation(id);
-            if (invitation != null) {
-                invitations.add(invitation);
-            }
-        }
-        return invitations;
+    public SortedSet<Invitation> getInvitations(Set<Long> ids) {
+        return new TreeSet<Invitation>(valuesOf(mSnapshot.mInvitations, ids));
     }
 
     /*
@@ -466,10 +498,10 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getLiveEvents()
      */
     @Override
-    public synchronized Set<Event> getLiveEvents() {
+    public Set<Event> getLiveEvents() {
         return this.getEvents(new SearchFilter<Event>() {
             @Override
-            public synchronized boolean filter(Event item) {
+            public boolean filter(Event item) {
                 return item.isLive();
             }
         });
@@ -480,10 +512,10 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getMyEvents()
      */
     @Override
-    public synchronized Set<Event> getMyEvents() {
+    public Set<Event> getMyEvents() {
         return this.getEvents(new SearchFilter<Event>() {
             @Override
-            public synchronized boolean filter(Event item) {
+            public boolean filter(Event item) {
                 return item.isOwn();
             }
         });
@@ -494,13 +526,9 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getNearEvents()
      */
     @Override
-    public synchronized Set<Event> getNearEvents() {
-        return this.getEvents(new SearchFilter<Event>() {
-            @Override
-            public synchronized boolean filter(Event item) {
-                return item.isNear();
-            }
-        });
+    public Set<Event> getNearEvents() {
+        return this.getEventsInRadius(ServiceContainer.getSettingsManager().getLocation(), ServiceContainer
+            .getSettingsManager().getNearEventsMaxDistance());
     }
 
     /*
@@ -508,10 +536,10 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getParticipatingEvents()
      */
     @Override
-    public synchronized Set<Event> getParticipatingEvents() {
+    public Set<Event> getParticipatingEvents() {
         return this.getEvents(new SearchFilter<Event>() {
             @Override
-            public synchronized boolean filter(Event item) {
+            public boolean filter(Event item) {
                 return item.isGoing();
             }
         });
@@ -522,8 +550,9 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getSelf()
      */
     @Override
-    public synchronized User getSelf() {
-        return mUserInstances.get(mSelfId);
+    public User getSelf() {
+        Snapshot snapshot = mSnapshot;
+        return snapshot.mUsers.get(snapshot.mSelfId);
     }
 
     /*
@@ -532,7 +561,7 @@ public class Cache implements CacheInterface {
      * ch.epfl.smartmap.cache.CacheInterface#getUnansweredFriendInvitations()
      */
     @Override
-    public synchronized SortedSet<Invitation> getUnansweredFriendInvitations() {
+    public SortedSet<Invitation> getUnansweredFriendInvitations() {
         return this.getInvitations(new SearchFilter<Invitation>() {
             @Override
             public boolean filter(Invitation item) {
@@ -549,8 +578,8 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getUser(long)
      */
     @Override
-    public synchronized User getUser(long id) {
-        return mUserInstances.get(id);
+    public User getUser(long id) {
+        return mSnapshot.mUsers.get(id);
     }
 
     /*
@@ -558,15 +587,25 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#getUsers(java.util.Set)
      */
     @Override
-    public synchronized Set<User> getUsers(Set<Long> ids) {
-        Set<User> users = new HashSet<User>();
+    public Set<User> getUsers(Set<Long> ids) {
+        return valuesOf(mSnapshot.mUsers, ids);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.cache.CacheInterface#hideFriendPositions(java.util.Set)
+     */
+    @Override
+    public synchronized void hideFriendPositions(Set<Long> ids) {
         for (long id : ids) {
-            User user = this.getUser(id);
-            if (user != null) {
-                users.add(user);
+            User user = mUserInstances.get(id);
+            if ((user instanceof Friend) && ((Friend) user).clearLocation()) {
+                this.indexUser(user);
+                this.userChanged(id);
             }
         }
-        return users;
+
+        this.publish();
     }
 
     /*
@@ -576,34 +615,58 @@ public class Cache implements CacheInterface {
      * .database.DatabaseHelper)
      */
     @Override
-    public synchronized void initFromDatabase(DatabaseHelperInterface database) {
-        // Clear previous values
-        mEventInstances.clear();
-        mUserInstances.clear();
-        mFilterInstances.clear();
-        mInvitationInstances.clear();
-
-        // Clear ids
-        mUserIds.clear();
-        mEventIds.clear();
-        mFilterIds.clear();
-        mInvitationIds.clear();
-
-        // Clear friend ids
-        mFriendIds.clear();
-        mSelfId = User.NO_ID;
-
-        // Fill with database values
-        this.putUsers(database.getAllUsers());
-        this.putEvents(database.getAllEvents());
-        this.putFilters(database.getAllFilters());
-        this.putInvitations(database.getAllInvitations());
-
-        // Notify listeners
-        for (CacheListener listener : mListeners) {
-            listener.onEventListUpdate();
-            listener.onUserListUpdate();
-            listener.onFilterListUpdate();
+    public void initFromDatabase(DatabaseHelperInterface database) {
+        // Read the database before taking the lock
+        Set<UserContainer> users = database.getAllUsers();
+        Set<EventContainer> events = database.getAllEvents();
+        Set<FilterContainer> filters = database.getAllFilters();
+        Set<InvitationContainer> invitations = database.getAllInvitations();
+
+        synchronized (this) {
+            // Readers keep the previous values until everything is read
+            mInBatch = true;
+            try {
+                // Clear previous values, the listeners are told that they were removed
+                for (int i = 0; i < mEventInstances.size(); i++) {
+                    this.eventRemoved(mEventInstances.keyAt(i));
+                }
+                for (int i = 0; i < mUserInstances.size(); i++) {
+                    this.userRemoved(mUserInstances.keyAt(i));
+                }
+                for (int i = 0; i < mFilterInstances.size(); i++) {
+                    this.filterRemoved(mFilterInstances.keyAt(i));
+                }
+                for (int i = 0; i < mInvitationInstances.size(); i++) {
+                    this.invitationRemoved(mInvitationInstances.keyAt(i));
+                }
+                mEventInstances.clear();
+                mUserInstances.clear();
+                mFilterInstances.clear();
+                mInvitationInstances.clear();
+
+                // Clear friend ids
+                mFriendIds.clear();
+                mSelfId = User.NO_ID;
+
+                // Clear spatial indexes
+                mEventPositions.clear();
+                mFriendPositions.clear();
+
+                // Fill with database values
+                this.putUsers(users);
+                this.putEvents(events);
+                this.putFilters(filters);
+                this.putInvitations(invitations);
+
+                // Values read from the database do not need to be written again
+                mChanges = new CacheChanges();
+            } finally {
+                mInBatch = false;
+            }
+
+            // Publish everything, the snapshot is rebuilt from scratch
+            mModifiedKinds = ALL_KINDS;
+            this.publish();
         }
     }
 
@@ -614,7 +677,7 @@ public class Cache implements CacheInterface {
      * ch.epfl.smartmap.callbacks.NetworkRequestCallback)
      */
     @Override
-    public synchronized void inviteFriendsToEvent(final long eventId, final Set<Long> usersIds,
+    public void inviteFriendsToEvent(final long eventId, final Set<Long> usersIds,
         final NetworkRequestCallback<Void> callback) {
 
         new AsyncTask<Void, Void, Void>() {
@@ -638,7 +701,7 @@ public class Cache implements CacheInterface {
      * ch.epfl.smartmap.callbacks.NetworkRequestCallback)
      */
     @Override
-    public synchronized void inviteUser(long id, final NetworkRequestCallback<Void> callback) {
+    public void inviteUser(long id, final NetworkRequestCallback<Void> callback) {
         new AsyncTask<Long, Void, Void>() {
             @Override
             protected Void doInBackground(Long... params) {
@@ -654,6 +717,15 @@ public class Cache implements CacheInterface {
         }.execute(id);
     }
 
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.cache.CacheInterface#isVisibleFriend(long)
+     */
+    @Override
+    public boolean isVisibleFriend(long id) {
+        return mSnapshot.mVisibleFriendSet.contains(id);
+    }
+
     /*
      * (non-Javadoc)
      * @see
@@ -662,7 +734,7 @@ public class Cache implements CacheInterface {
      * ch.epfl.smartmap.callbacks.NetworkRequestCallback)
      */
     @Override
-    public synchronized void modifyOwnEvent(final EventContainer createdEvent,
+    public void modifyOwnEvent(final EventContainer createdEvent,
         final NetworkRequestCallback<Void> callback) {
         new AsyncTask<EventContainer, Void, Void>() {
 
@@ -688,11 +760,37 @@ public class Cache implements CacheInterface {
      */
     @Override
     public synchronized void notifyEventListeners() {
-        for (CacheListener listener : mListeners) {
-            listener.onEventListUpdate();
+        // Events did not change, but whether they are displayed may have
+        for (int i = 0; i < mEventInstances.size(); i++) {
+            mUnnotifiedChanges.eventChanged(mEventInstances.keyAt(i));
+        }
+        this.postNotification();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.cache.CacheInterface#notifyPictureLoaded(long)
+     */
+    @Override
+    public synchronized void notifyPictureLoaded(long id) {
+        // The user did not change, only the picture it displays
+        User user = mUserInstances.get(id);
+        if (user != null) {
+            user.pictureLoaded();
+            mUnnotifiedChanges.userChanged(id);
+            this.postNotification();
         }
     }
 
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.cache.CacheInterface#putBackChanges(ch.epfl.smartmap.cache.CacheChanges)
+     */
+    @Override
+    public synchronized void putBackChanges(CacheChanges changes) {
+        mChanges.putBack(changes);
+    }
+
     /*
      * (non-Javadoc)
      * @see
@@ -712,8 +810,6 @@ public class Cache implements CacheInterface {
      */
     @Override
     public synchronized void putEvents(Set<EventContainer> newEvents) {
-        boolean needToCallListeners = false;
-
         Set<UserContainer> usersToAdd = new HashSet<UserContainer>();
         Set<EventContainer> eventsToUpdate = new HashSet<EventContainer>();
         Set<EventContainer> eventsToAdd = new HashSet<EventContainer>();
@@ -722,7 +818,7 @@ public class Cache implements CacheInterface {
             // Get id
             long eventId = newEvent.getId();
 
-            if (this.getEvent(eventId) != null) {
+            if (mEventInstances.get(eventId) != null) {
                 // Put in the update list
                 eventsToUpdate.add(newEvent);
             } else {
@@ -732,29 +828,24 @@ public class Cache implements CacheInterface {
                     usersToAdd.add(newEvent.getCreatorContainer());
                 }
             }
+        }
 
-            // Add users that need to be added
-            this.putUsers(usersToAdd);
+        // Add users that need to be added
+        this.putUsers(usersToAdd);
 
-            // Add user to Container for new Events & Add to SparseArray
-            for (EventContainer eventInfo : eventsToAdd) {
-                needToCallListeners = true;
-                eventInfo.setCreator(this.getUser(eventInfo.getCreatorContainer().getId()));
-                mEventIds.add(eventInfo.getId());
-                mEventInstances.put(eventInfo.getId(), Event.createFromContainer(eventInfo));
-            }
+        // Add user to Container for new Events & Add to SparseArray
+        for (EventContainer eventInfo : eventsToAdd) {
+            eventInfo.setCreator(mUserInstances.get(eventInfo.getCreatorContainer().getId()));
+            Event event = Event.createFromContainer(eventInfo);
+            mEventInstances.put(eventInfo.getId(), event);
+            this.indexEvent(event);
+            this.eventChanged(eventInfo.getId());
+        }
 
-            // Update Events to need to be updated & put true if update didnt
-            // call listeners
-            needToCallListeners = !this.updateEvents(eventsToUpdate) && needToCallListeners;
+        // Update Events that need to be updated
+        this.updateEvents(eventsToUpdate);
 
-            // Update Listeners if needed
-            if (needToCallListeners) {
-                for (CacheListener listener : mListeners) {
-                    listener.onEventListUpdate();
-                }
-            }
-        }
+        this.publish();
     }
 
     /*
@@ -776,12 +867,10 @@ public class Cache implements CacheInterface {
      */
     @Override
     public synchronized void putFilters(Set<FilterContainer> newFilters) {
-        boolean needToCallListeners = false;
-
         Set<FilterContainer> filtersToUpdate = new HashSet<FilterContainer>();
 
         for (FilterContainer newFilter : newFilters) {
-            if (!mFilterIds.contains(newFilter.getId())) {
+            if (mFilterInstances.get(newFilter.getId()) == null) {
                 // if not default
                 if (newFilter.getId() != Filter.DEFAULT_FILTER_ID) {
                     // Need to set an id
@@ -789,9 +878,8 @@ public class Cache implements CacheInterface {
                     nextFilterId++;
                 }
 
-                mFilterIds.add(newFilter.getId());
                 mFilterInstances.put(newFilter.getId(), Filter.createFromContainer(newFilter));
-                needToCallListeners = true;
+                this.filterChanged(newFilter.getId());
             } else {
                 // Put in update set
                 filtersToUpdate.add(newFilter);
@@ -799,14 +887,9 @@ public class Cache implements CacheInterface {
         }
 
         // Update filters that need to be added
-        needToCallListeners = !this.updateFilters(filtersToUpdate) && needToCallListeners;
+        this.updateFilters(filtersToUpdate);
 
-        // Notify listeners
-        if (needToCallListeners) {
-            for (CacheListener listener : mListeners) {
-                listener.onFilterListUpdate();
-            }
-        }
+        this.publish();
     }
 
     /*
@@ -827,59 +910,60 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#putInvitations(java.util.Set)
      */
     @Override
-    public synchronized void putInvitations(Set<InvitationContainer> invitationInfos) {
-        boolean needToCallListeners = false;
+    public void putInvitations(Set<InvitationContainer> invitationInfos) {
+        // New invitations get their id from the database, before taking the lock
+        for (InvitationContainer invitationInfo : invitationInfos) {
+            if (invitationInfo.getId() == Invitation.NO_ID) {
+                invitationInfo.setId(ServiceContainer.getDatabase().addInvitation(invitationInfo));
+            }
+        }
 
-        // Contains values to add later all at once
-        Set<UserContainer> usersToAdd = new HashSet<UserContainer>();
-        Set<EventContainer> eventsToAdd = new HashSet<EventContainer>();
-        Set<InvitationContainer> invitationsToAdd = new HashSet<InvitationContainer>();
+        synchronized (this) {
+            // Contains values to add later all at once
+            Set<UserContainer> usersToAdd = new HashSet<UserContainer>();
+            Set<EventContainer> eventsToAdd = new HashSet<EventContainer>();
+            Set<InvitationContainer> invitationsToAdd = new HashSet<InvitationContainer>();
 
-        this.processInvitations(invitationInfos, usersToAdd, eventsToAdd, invitationsToAdd);
+            this.processInvitations(invitationInfos, usersToAdd, eventsToAdd, invitationsToAdd);
 
-        // Add all users
-        this.putUsers(usersToAdd);
+            // Add all users
+            this.putUsers(usersToAdd);
 
-        // Add all events
-        this.putEvents(eventsToAdd);
+            // Add all events
+            this.putEvents(eventsToAdd);
 
-        // Create and add live instances of Invitations
-        for (InvitationContainer invitationInfo : invitationsToAdd) {
-            boolean isSetCorrectly = false;
+            // Create and add live instances of Invitations
+            for (InvitationContainer invitationInfo : invitationsToAdd) {
+                boolean isSetCorrectly = false;
 
-            switch (invitationInfo.getType()) {
-                case Invitation.FRIEND_INVITATION:
-                case Invitation.ACCEPTED_FRIEND_INVITATION:
-                    invitationInfo.setUser(this.getUser(invitationInfo.getUserInfos().getId()));
-                    isSetCorrectly = invitationInfo.getUser() != null;
-                    break;
-                case Invitation.EVENT_INVITATION:
-                    invitationInfo.setEvent(this.getEvent(invitationInfo.getEventInfos().getId()));
-                    isSetCorrectly = invitationInfo.getEvent() != null;
-                    break;
-                default:
-                    assert false;
-                    break;
-            }
+                switch (invitationInfo.getType()) {
+                    case Invitation.FRIEND_INVITATION:
+                    case Invitation.ACCEPTED_FRIEND_INVITATION:
+                        invitationInfo.setUser(mUserInstances.get(invitationInfo.getUserInfos().getId()));
+                        isSetCorrectly = invitationInfo.getUser() != null;
+                        break;
+                    case Invitation.EVENT_INVITATION:
+                        invitationInfo.setEvent(mEventInstances.get(invitationInfo.getEventInfos().getId()));
+                        isSetCorrectly = invitationInfo.getEvent() != null;
+                        break;
+                    default:
+                        assert false;
+                        break;
+                }
 
-            if (isSetCorrectly) {
-                mInvitationIds.add(invitationInfo.getId());
-                long invitationId = invitationInfo.getId();
-                Invitation invitation = Invitation.createFromContainer(invitationInfo);
-                mInvitationInstances.put(invitationInfo.getId(), invitation);
-                if (invitationId != Invitation.ALREADY_RECEIVED) {
-                    Notifications.createNotification(invitation, ServiceContainer.getSettingsManager()
-                        .getContext());
+                if (isSetCorrectly) {
+                    long invitationId = invitationInfo.getId();
+                    Invitation invitation = Invitation.createFromContainer(invitationInfo);
+                    mInvitationInstances.put(invitationInfo.getId(), invitation);
+                    this.invitationChanged(invitationId);
+                    if (invitationId != Invitation.ALREADY_RECEIVED) {
+                        Notifications.createNotification(invitation, ServiceContainer.getSettingsManager()
+                            .getContext());
+                    }
                 }
             }
 
-            needToCallListeners = true;
-        }
-
-        if (needToCallListeners) {
-            for (CacheListener listener : mListeners) {
-                listener.onInvitationListUpdate();
-            }
+            this.publish();
         }
     }
 
@@ -902,13 +986,9 @@ public class Cache implements CacheInterface {
      */
     @Override
     public synchronized void putUsers(Set<UserContainer> newUsers) {
-        boolean needToCallListeners = false;
-
         Set<UserContainer> usersToUpdate = new HashSet<UserContainer>();
 
         for (UserContainer newUser : newUsers) {
-            mUserIds.add(newUser.getId());
-
             if (newUser.getFriendship() == User.FRIEND) {
                 mFriendIds.add(newUser.getId());
             } else if (newUser.getFriendship() == User.SELF) {
@@ -918,8 +998,10 @@ public class Cache implements CacheInterface {
             if (mUserInstances.get(newUser.getId()) == null) {
                 if ((newUser.getFriendship() == User.FRIEND) || (newUser.getFriendship() == User.STRANGER)
                     || (newUser.getFriendship() == User.SELF)) {
-                    mUserInstances.put(newUser.getId(), User.createFromContainer(newUser));
-                    needToCallListeners = true;
+                    User user = User.createFromContainer(newUser);
+                    mUserInstances.put(newUser.getId(), user);
+                    this.indexUser(user);
+                    this.userChanged(newUser.getId());
                 }
             } else {
                 // Put in set for update
@@ -928,14 +1010,9 @@ public class Cache implements CacheInterface {
         }
 
         // Update users that need to be updated
-        needToCallListeners = !this.updateUsers(usersToUpdate) && needToCallListeners;
+        this.updateUsers(usersToUpdate);
 
-        // Notify listeners if needed
-        if (needToCallListeners) {
-            for (CacheListener listener : mListeners) {
-                listener.onUserListUpdate();
-            }
-        }
+        this.publish();
     }
 
     /*
@@ -978,26 +1055,19 @@ public class Cache implements CacheInterface {
      */
     @Override
     public synchronized void removeEvents(Set<Long> ids) {
-        boolean isListModified = false;
-
         for (long id : ids) {
-            if (mEventIds.contains(id)) {
-                // Remove id from sets
-                mEventIds.remove(id);
-
+            if (mEventInstances.get(id) != null) {
                 // Remove instance from array
                 mEventInstances.remove(id);
 
-                isListModified = true;
-            }
-        }
+                // Remove position from index
+                mEventPositions.remove(id);
 
-        // Notify listeners if needed
-        if (isListModified) {
-            for (CacheListener l : mListeners) {
-                l.onEventListUpdate();
+                this.eventRemoved(id);
             }
         }
+
+        this.publish();
     }
 
     /*
@@ -1017,27 +1087,17 @@ public class Cache implements CacheInterface {
      */
     @Override
     public synchronized void removeFilters(Set<Long> ids) {
-        boolean isListModified = false;
-
         for (long id : ids) {
             // Check that we are not trying to remove the default filter
-            if (mFilterIds.contains(id) && (id != Filter.DEFAULT_FILTER_ID)) {
-                // Remove id from sets
-                mFilterIds.remove(id);
-
+            if ((mFilterInstances.get(id) != null) && (id != Filter.DEFAULT_FILTER_ID)) {
                 // Remove instance from array
                 mFilterInstances.remove(id);
 
-                isListModified = true;
+                this.filterRemoved(id);
             }
         }
 
-        // Notify listeners if needed
-        if (isListModified) {
-            for (CacheListener l : mListeners) {
-                l.onFilterListUpdate();
-            }
-        }
+        this.publish();
     }
 
     /*
@@ -1059,7 +1119,6 @@ public class Cache implements CacheInterface {
      */
     @Override
     public synchronized void removeFriends(Set<Long> ids, final NetworkRequestCallback<Void> callback) {
-        boolean isListModified = false;
         for (long id : ids) {
             if (mFriendIds.contains(id)) {
                 new AsyncTask<Long, Void, Void>() {
@@ -1077,20 +1136,28 @@ public class Cache implements CacheInterface {
 
                 // Remove id from sets
                 mFriendIds.remove(id);
-                mUserInstances.remove(id);
                 // Remove instance from array
                 mUserInstances.remove(id);
 
-                isListModified = true;
-            }
-        }
+                // Remove position from index
+                mFriendPositions.remove(id);
 
-        // Notify listeners if needed
-        if (isListModified) {
-            for (CacheListener l : mListeners) {
-                l.onUserListUpdate();
+                this.userRemoved(id);
             }
         }
+
+        this.publish();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see
+     * ch.epfl.smartmap.cache.CacheInterface#removeOnCacheListener(ch.epfl.smartmap
+     * .listeners.CacheListener)
+     */
+    @Override
+    public void removeOnCacheListener(CacheListener listener) {
+        mListeners.remove(listener);
     }
 
     /*
@@ -1133,22 +1200,16 @@ public class Cache implements CacheInterface {
      */
     @Override
     public synchronized void removeUsers(Set<Long> userIds) {
-        boolean isListModified = false;
-
         for (long id : userIds) {
-            if (this.getUser(id) != null) {
+            if (mUserInstances.get(id) != null) {
                 mUserInstances.remove(id);
-                mUserIds.remove(id);
                 mFriendIds.remove(id);
-                isListModified = true;
+                mFriendPositions.remove(id);
+                this.userRemoved(id);
             }
         }
 
-        if (isListModified) {
-            for (CacheListener listener : mListeners) {
-                listener.onUserListUpdate();
-            }
-        }
+        this.publish();
     }
 
     /*
@@ -1159,7 +1220,7 @@ public class Cache implements CacheInterface {
      * ch.epfl.smartmap.callbacks.NetworkRequestCallback)
      */
     @Override
-    public synchronized void setBlockedStatus(final UserContainer user,
+    public void setBlockedStatus(final UserContainer user,
         final NetworkRequestCallback<Void> callback) {
         new AsyncTask<Void, Void, Void>() {
             @Override
@@ -1169,6 +1230,17 @@ public class Cache implements CacheInterface {
         }.execute();
     }
 
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.cache.CacheInterface#takeChanges()
+     */
+    @Override
+    public synchronized CacheChanges takeChanges() {
+        CacheChanges changes = mChanges;
+        mChanges = new CacheChanges();
+        return changes;
+    }
+
     /*
      * (non-Javadoc)
      * @see
@@ -1177,69 +1249,61 @@ public class Cache implements CacheInterface {
      * ch.epfl.smartmap.callbacks.NetworkRequestCallback)
      */
     @Override
-    public synchronized void updateFromNetwork(final SmartMapClient networkClient)
+    public void updateFromNetwork(final SmartMapClient networkClient)
         throws SmartMapClientException {
 
         // Get settings
         SettingsManager settingsManager = ServiceContainer.getSettingsManager();
+        long myId = settingsManager.getUserId();
 
         // Sets with new values (avoid calling multiple times the
         // listeners)
         Set<UserContainer> updatedUsers = new HashSet<UserContainer>();
         Set<EventContainer> updatedEvents = new HashSet<EventContainer>();
 
-        // Update self informations
-        long myId = settingsManager.getUserId();
-        UserContainer self = networkClient.getUserInfo(myId);
-        if (self != null) {
-            self.setImage(networkClient.getProfilePicture(myId));
-            updatedUsers.add(self);
-        }
-
         // Fetch friend ids
         Set<Long> friendIds = new HashSet<Long>(networkClient.getFriendsIds());
-        Set<Long> friendPosIds = new HashSet<Long>();
-        // Fetch friends via listFriendPos
-        Set<UserContainer> listFriendPos = new HashSet<UserContainer>(networkClient.listFriendsPos());
+        // Fetch friends positions via listFriendPos
+        LongSparseArray<UserContainer> friendPositions = new LongSparseArray<UserContainer>();
+        for (UserContainer positionInfos : networkClient.listFriendsPos()) {
+            friendPositions.put(positionInfos.getId(), positionInfos);
+        }
 
-        for (UserContainer positionInfos : listFriendPos) {
-            // get id
-            long id = positionInfos.getId();
-            // Get other online info
-            UserContainer onlineInfos = networkClient.getUserInfo(id);
-            // Get picture
-            Bitmap image = networkClient.getProfilePicture(id);
-            // Put all inside container
-            onlineInfos.setLocation(positionInfos.getLocation());
-            onlineInfos.setLocationString(positionInfos.getLocationString());
-            onlineInfos.setImage(image);
-
-            // Put friend in Set
-            friendPosIds.add(id);
-            updatedUsers.add(onlineInfos);
+        // Collect the ids of every user we need informations about, so that they are fetched all at once
+        Set<Long> userIds = new HashSet<Long>(friendIds);
+        userIds.add(myId);
+        for (int i = 0; i < friendPositions.size(); i++) {
+            userIds.add(friendPositions.keyAt(i));
+        }
+        for (Invitation invitation : this.getAllInvitations()) {
+            if (invitation.getType() == Invitation.FRIEND_INVITATION) {
+                userIds.add(invitation.getUser().getId());
+            }
         }
 
-        // For friends that blocked us or that we blocked, try to find a value
-        // in cache or database
-        Set<Long> friendThatBlockedUsIds = friendIds;
-        friendThatBlockedUsIds.removeAll(friendPosIds);
-        for (long id : friendThatBlockedUsIds) {
-            User cached = Cache.this.getUser(id);
-            if (cached != null) {
-                updatedUsers.add(cached.getContainerCopy());
-            } else {
-                UserContainer friend = ServiceContainer.getDatabase().getUser(id);
-                if (friend != null) {
-                    UserContainer onlineValues = networkClient.getUserInfo(id);
-                    friend.setName(onlineValues.getName());
-                } else {
-                    friend = networkClient.getUserInfo(id);
-                }
-                Bitmap image = networkClient.getProfilePicture(id);
-                friend.setImage(image);
-                friend.setFriendship(User.FRIEND);
-                updatedUsers.add(friend);
+        for (UserContainer onlineInfos : networkClient.getUsersInfo(userIds)) {
+            // get id
+            long id = onlineInfos.getId();
+            UserContainer positionInfos = friendPositions.get(id);
+            User cached = this.getUser(id);
+
+            UserContainer userInfos = onlineInfos;
+            if (positionInfos != null) {
+                // Put position inside container
+                userInfos.setLocation(positionInfos.getLocation());
+                userInfos.setLocationString(positionInfos.getLocationString());
+            } else if (friendIds.contains(id) && (cached != null) && (cached.getFriendship() == User.FRIEND)) {
+                // Friends that blocked us or that we blocked do not send their position, keep the
+                // cached values
+                userInfos = cached.getContainerCopy().setName(onlineInfos.getName());
+            }
+
+            if (friendIds.contains(id)) {
+                userInfos.setFriendship(User.FRIEND);
             }
+            this.checkProfilePicture(id, onlineInfos.getPictureVersion());
+
+            updatedUsers.add(userInfos);
         }
 
         // Get near Events
@@ -1248,9 +1312,12 @@ public class Cache implements CacheInterface {
                 settingsManager.getLocation().getLongitude(), settingsManager.getNearEventsMaxDistance()));
 
         // Update all cached event if needed
-        for (long id : mEventIds) {
-            // Get event infos
-            EventContainer onlineInfos = networkClient.getEventInfo(id);
+        Set<Long> eventIds = new HashSet<Long>();
+        for (Event event : this.getAllEvents()) {
+            eventIds.add(event.getId());
+        }
+        for (EventContainer onlineInfos : networkClient.getEventsInfo(eventIds)) {
+            long id = onlineInfos.getId();
             // Check if event needs to be kept
             if (nearEventIds.contains(id) || (onlineInfos.getCreatorContainer().getId() == myId)
                 || onlineInfos.getParticipantIds().contains(myId)) {
@@ -1260,27 +1327,17 @@ public class Cache implements CacheInterface {
             }
         }
 
-        // Update users from invitations
-        for (Invitation invitation : Cache.this.getAllInvitations()) {
-            if (invitation.getType() == Invitation.FRIEND_INVITATION) {
-                // get id
-                long id = invitation.getUser().getId();
-                // Get online info
-                UserContainer onlineInfos = networkClient.getUserInfo(id);
-                // Get picture
-                Bitmap image = networkClient.getProfilePicture(id);
-                // Put all inside container
-                onlineInfos.setImage(image);
-
-                // Put friend in Set
-                updatedUsers.add(onlineInfos);
+        // Put new values in cache, readers only see them once both users and events are replaced
+        synchronized (this) {
+            mInBatch = true;
+            try {
+                this.keepOnlyTheseUsers(updatedUsers);
+                this.keepOnlyTheseEvents(updatedEvents);
+            } finally {
+                mInBatch = false;
             }
+            this.publish();
         }
-
-        // Put new values in cache
-        Cache.this.keepOnlyTheseUsers(updatedUsers);
-        Cache.this.keepOnlyTheseEvents(updatedEvents);
-
     }
 
     /*
@@ -1288,14 +1345,16 @@ public class Cache implements CacheInterface {
      * @see ch.epfl.smartmap.cache.CacheInterface#updateUserInfos(long)
      */
     @Override
-    public synchronized void updateUserInfos(long id) {
+    public void updateUserInfos(long id) {
         new AsyncTask<Long, Void, Void>() {
             @Override
             protected Void doInBackground(Long... params) {
                 try {
-                    UserContainer userInfos = ServiceContainer.getNetworkClient().getUserInfo(params[0]);
+                    // Shares the request with the other lookups of this user
+                    UserContainer userInfos = ServiceContainer.getParallelFetcher().fetchUser(params[0]);
                     if ((userInfos != null) && (ServiceContainer.getNetworkClient() != null)) {
-                        userInfos.setImage(ServiceContainer.getNetworkClient().getProfilePicture(params[0]));
+                        userInfos.setImage(ServiceContainer.getPictureCache().getOrFetch(params[0],
+                            ServiceContainer.getNetworkClient()));
                     }
                     Cache.this.updateUser(userInfos);
                 } catch (SmartMapClientException e) {
@@ -1313,7 +1372,7 @@ public class Cache implements CacheInterface {
      * @param invitation
      * @throws SmartMapClientException
      */
-    private synchronized void acceptFriendInvitation(Invitation invitation) throws SmartMapClientException {
+    private void acceptFriendInvitation(Invitation invitation) throws SmartMapClientException {
         UserContainer newFriend =
             ServiceContainer.getNetworkClient().acceptInvitation(invitation.getUser().getId());
         ServiceContainer.getDatabase().deletePendingFriend(invitation.getUser().getId());
@@ -1387,6 +1446,26 @@ public class Cache implements CacheInterface {
         return null;
     }
 
+    /**
+     * Computes again the friends visible through the active filters, after filters changed. The ids are
+     * sorted arrays, so that each intersection is a single pass without boxing.
+     */
+    private void computeVisibleFriends() {
+        long[] friendIds = mFriendIds.toSortedArray();
+        long[] visibleIds = friendIds;
+        for (int i = 0; i < mFilterInstances.size(); i++) {
+            Filter filter = mFilterInstances.valueAt(i);
+            if (filter.isActive()) {
+                visibleIds = LongArrays.intersection(visibleIds, filter.getVisibleFriendIds(friendIds));
+            }
+        }
+
+        mVisibleFriendIds.clear();
+        for (long id : visibleIds) {
+            mVisibleFriendIds.add(id);
+        }
+    }
+
     /**
      * Body of doInBackground in declineInvitation asyncTask
      * 
@@ -1423,21 +1502,200 @@ public class Cache implements CacheInterface {
         return null;
     }
 
+    /**
+     * Marks the event as added or updated, for the database and the listeners
+     */
+    private void eventChanged(long id) {
+        mChanges.eventChanged(id);
+        mUnnotifiedChanges.eventChanged(id);
+        mModifiedKinds |= EVENTS;
+    }
+
+    /**
+     * Marks the event as removed, for the database and the listeners
+     */
+    private void eventRemoved(long id) {
+        mChanges.eventRemoved(id);
+        mUnnotifiedChanges.eventRemoved(id);
+        mModifiedKinds |= EVENTS;
+    }
+
+    /**
+     * Marks the filter as added or updated, for the database and the listeners
+     */
+    private void filterChanged(long id) {
+        mChanges.filterChanged(id);
+        mUnnotifiedChanges.filterChanged(id);
+        mModifiedKinds |= FILTERS;
+    }
+
+    /**
+     * Marks the filter as removed, for the database and the listeners
+     */
+    private void filterRemoved(long id) {
+        mChanges.filterRemoved(id);
+        mUnnotifiedChanges.filterRemoved(id);
+        mModifiedKinds |= FILTERS;
+    }
+
+    /**
+     * Checks the version of the given user's profile picture when updating from network. Pictures whose
+     * version given along with the user's informations is the one kept by the {@link PictureCache} are not
+     * asked for. The other ones, including the missing ones, are only marked as outdated, and downloaded once
+     * displayed, so that an update does not download the pictures of every user.
+     * 
+     * @param id
+     *            the id of the user
+     * @param version
+     *            the version of the user's picture on the server, {@code null} if unknown
+     */
+    private void checkProfilePicture(long id, String version) {
+        PictureCache pictures = ServiceContainer.getPictureCache();
+        if (!pictures.isUpToDate(id, version)) {
+            pictures.markOutdated(id);
+        }
+    }
+
+    /**
+     * Puts the position of the event in the spatial index, or removes it if the event has no position
+     * 
+     * @param event
+     */
+    private synchronized void indexEvent(Event event) {
+        Location location = event.getLocation();
+        if (location != null) {
+            mEventPositions.put(event.getId(), location.getLatitude(), location.getLongitude());
+        } else {
+            mEventPositions.remove(event.getId());
+        }
+    }
+
+    /**
+     * Puts the position of the user in the spatial index if it is a friend with a known position, removes it
+     * otherwise
+     * 
+     * @param user
+     */
+    private synchronized void indexUser(User user) {
+        Location location = user.getLocation();
+        boolean hasPosition =
+            (location != null)
+                && ((location.getLatitude() != User.NO_LOCATION.getLatitude()) || (location.getLongitude() != User.NO_LOCATION
+                    .getLongitude()));
+        if ((user.getFriendship() == User.FRIEND) && hasPosition) {
+            mFriendPositions.put(user.getId(), location.getLatitude(), location.getLongitude());
+        } else {
+            mFriendPositions.remove(user.getId());
+        }
+    }
+
+    /**
+     * Marks the invitation as added or updated, for the database and the listeners
+     */
+    private void invitationChanged(long id) {
+        mChanges.invitationChanged(id);
+        mUnnotifiedChanges.invitationChanged(id);
+        mModifiedKinds |= INVITATIONS;
+    }
+
+    /**
+     * Marks the invitation as removed, for the database and the listeners
+     */
+    private void invitationRemoved(long id) {
+        mChanges.invitationRemoved(id);
+        mUnnotifiedChanges.invitationRemoved(id);
+        mModifiedKinds |= INVITATIONS;
+    }
+
     private synchronized void keepOnlyTheseEvents(Set<EventContainer> events) {
-        mEventIds.clear();
+        for (int i = 0; i < mEventInstances.size(); i++) {
+            this.eventRemoved(mEventInstances.keyAt(i));
+        }
         mEventInstances.clear();
+        mEventPositions.clear();
         this.putEvents(events);
     }
 
     private synchronized void keepOnlyTheseUsers(Set<UserContainer> users) {
+        for (int i = 0; i < mUserInstances.size(); i++) {
+            this.userRemoved(mUserInstances.keyAt(i));
+        }
         mFriendIds.clear();
-        mUserIds.clear();
         mUserInstances.clear();
+        mFriendPositions.clear();
         this.putUsers(users);
     }
 
     /**
-     * Processes invitations and puts them in sets to add to the cache if
+     * Notifies the listeners of the modifications published since their previous notification, on the main
+     * thread
+     */
+    private void notifyListeners() {
+        CacheChanges changes;
+        Snapshot notified;
+        synchronized (this) {
+            // Every change taken is already in the published snapshot
+            mIsNotificationPosted = false;
+            changes = mUnnotifiedChanges;
+            mUnnotifiedChanges = new CacheChanges();
+            notified = mNotifiedSnapshot;
+            mNotifiedSnapshot = mSnapshot;
+        }
+
+        CacheUpdate.Changes userChanges =
+            new CacheUpdate.Changes(changes.getChangedUserIds(), changes.getRemovedUserIds(),
+                notified.mUsers);
+        CacheUpdate.Changes eventChanges =
+            new CacheUpdate.Changes(changes.getChangedEventIds(), changes.getRemovedEventIds(),
+                notified.mEvents);
+        CacheUpdate.Changes filterChanges =
+            new CacheUpdate.Changes(changes.getChangedFilterIds(), changes.getRemovedFilterIds(),
+                notified.mFilters);
+        CacheUpdate.Changes invitationChanges =
+            new CacheUpdate.Changes(changes.getChangedInvitationIds(), changes.getRemovedInvitationIds(),
+                notified.mInvitations);
+        CacheUpdate update = new CacheUpdate(userChanges, eventChanges, filterChanges, invitationChanges);
+        if (update.isEmpty()) {
+            return;
+        }
+
+        for (CacheListener listener : mListeners) {
+            listener.onCacheUpdate(update);
+        }
+        if (!update.getUserChanges().isEmpty()) {
+            for (CacheListener listener : mListeners) {
+                listener.onUserListUpdate();
+            }
+        }
+        if (!update.getEventChanges().isEmpty()) {
+            for (CacheListener listener : mListeners) {
+                listener.onEventListUpdate();
+            }
+        }
+        if (!update.getFilterChanges().isEmpty()) {
+            for (CacheListener listener : mListeners) {
+                listener.onFilterListUpdate();
+            }
+        }
+        if (!update.getInvitationChanges().isEmpty()) {
+            for (CacheListener listener : mListeners) {
+                listener.onInvitationListUpdate();
+            }
+        }
+    }
+
+    /**
+     * Posts the notification of the listeners on the main thread, unless it is already posted
+     */
+    private synchronized void postNotification() {
+        if (!mIsNotificationPosted) {
+            mIsNotificationPosted = true;
+            mMainHandler.postDelayed(mNotifyListeners, NOTIFICATION_DELAY);
+        }
+    }
+
+    /**
+     * Processes invitations, whose ids are already known, and puts them in sets to add to the cache if
      * necessary.
      * 
      * @param invitationInfos
@@ -1448,16 +1706,8 @@ public class Cache implements CacheInterface {
     private void processInvitations(Set<InvitationContainer> invitationInfos, Set<UserContainer> usersToAdd,
         Set<EventContainer> eventsToAdd, Set<InvitationContainer> invitationsToAdd) {
         for (final InvitationContainer invitationInfo : invitationInfos) {
-
-            // Get Id
-            if (invitationInfo.getId() == Invitation.NO_ID) {
-                // Get Id from database
-                long id = ServiceContainer.getDatabase().addInvitation(invitationInfo);
-                invitationInfo.setId(id);
-            }
-
             if ((invitationInfo.getId() != Invitation.ALREADY_RECEIVED)
-                && (this.getInvitation(invitationInfo.getId()) == null)) {
+                && (mInvitationInstances.get(invitationInfo.getId()) == null)) {
                 switch (invitationInfo.getType()) {
                     case Invitation.FRIEND_INVITATION:
                         // Check that it contains all informations
@@ -1514,6 +1764,27 @@ public class Cache implements CacheInterface {
         }
     }
 
+    /**
+     * Publishes a new snapshot, with copies of the kinds of items modified since the last one, and posts the
+     * notification of the listeners. Every modification calls it before releasing the lock, so that the
+     * readers that come after see its result.
+     */
+    private synchronized void publish() {
+        if (mInBatch || (mModifiedKinds == 0)) {
+            return;
+        }
+
+        int modifiedKinds = mModifiedKinds;
+        mModifiedKinds = 0;
+        if ((modifiedKinds & FILTERS) != 0) {
+            // Rare, but may change the visibility of every friend
+            this.computeVisibleFriends();
+        }
+        mSnapshot = new Snapshot(this, mSnapshot, modifiedKinds);
+
+        this.postNotification();
+    }
+
     /**
      * Body of doInBackground in setBlockedStatus asyncTask
      * 
@@ -1525,19 +1796,12 @@ public class Cache implements CacheInterface {
      */
     private Void setBlockedStatusTaskInBackground(UserContainer user, NetworkRequestCallback<Void> callback) {
         try {
-            boolean changed = false;
             if (user.isBlocked() == User.BlockStatus.UNBLOCKED) {
                 ServiceContainer.getNetworkClient().unblockFriend(user.getId());
-                changed = Cache.this.updateUser(user);
             } else {
                 ServiceContainer.getNetworkClient().blockFriend(user.getId());
-                changed = Cache.this.updateUser(user);
-            }
-            if (changed) {
-                for (CacheListener listener : mListeners) {
-                    listener.onUserListUpdate();
-                }
             }
+            Cache.this.updateUser(user);
             if (callback != null) {
                 callback.onSuccess(null);
             }
@@ -1558,17 +1822,15 @@ public class Cache implements CacheInterface {
     private synchronized boolean updateEvents(Set<EventContainer> eventInfos) {
         boolean isListModified = false;
         for (EventContainer eventInfo : eventInfos) {
-            Event event = this.getEvent(eventInfo.getId());
+            Event event = mEventInstances.get(eventInfo.getId());
             if ((event != null) && event.update(eventInfo)) {
+                this.indexEvent(event);
+                this.eventChanged(event.getId());
                 isListModified = true;
             }
         }
 
-        if (isListModified) {
-            for (CacheListener listener : mListeners) {
-                listener.onEventListUpdate();
-            }
-        }
+        this.publish();
 
         return isListModified;
     }
@@ -1584,17 +1846,14 @@ public class Cache implements CacheInterface {
         boolean isListModified = false;
 
         for (FilterContainer filterInfo : filterInfos) {
-            Filter filter = this.getFilter(filterInfo.getId());
+            Filter filter = mFilterInstances.get(filterInfo.getId());
             if ((filter != null) && filter.update(filterInfo)) {
+                this.filterChanged(filter.getId());
                 isListModified = true;
             }
         }
 
-        if (isListModified) {
-            for (CacheListener listener : mListeners) {
-                listener.onFilterListUpdate();
-            }
-        }
+        this.publish();
 
         return isListModified;
     }
@@ -1608,15 +1867,14 @@ public class Cache implements CacheInterface {
     private synchronized boolean updateInvitations(Set<InvitationContainer> invitations) {
         boolean isListModified = false;
         for (InvitationContainer invitation : invitations) {
-            isListModified = isListModified || this.getInvitation(invitation.getId()).update(invitation);
-        }
-
-        if (isListModified) {
-            for (CacheListener listener : mListeners) {
-                listener.onInvitationListUpdate();
+            if (mInvitationInstances.get(invitation.getId()).update(invitation)) {
+                this.invitationChanged(invitation.getId());
+                isListModified = true;
             }
         }
 
+        this.publish();
+
         return isListModified;
     }
 
@@ -1643,11 +1901,15 @@ public class Cache implements CacheInterface {
         Set<UserContainer> usersWithNewType = new HashSet<UserContainer>();
 
         for (UserContainer userInfo : userInfos) {
-            User user = this.getUser(userInfo.getId());
+            User user = mUserInstances.get(userInfo.getId());
             if (user != null) {
                 // Check if friendship has changed
                 if (user.getFriendship() == userInfo.getFriendship()) {
-                    isListModified = user.update(userInfo) || isListModified;
+                    if (user.update(userInfo)) {
+                        this.indexUser(user);
+                        this.userChanged(user.getId());
+                        isListModified = true;
+                    }
                 } else {
                     // Need to remove and add user again to change the instance
                     // type
@@ -1663,13 +1925,109 @@ public class Cache implements CacheInterface {
             this.putUsers(usersWithNewType);
         }
 
-        if (isListModified) {
-            for (CacheListener listener : mListeners) {
-                listener.onUserListUpdate();
+        this.publish();
+
+        return isListModified;
+    }
+
+    /**
+     * Puts the user in the visible friends if it is a friend kept by every active filter, removes it
+     * otherwise
+     * 
+     * @param id
+     */
+    private void updateVisibility(long id) {
+        boolean isVisible = mFriendIds.contains(id);
+        for (int i = 0; isVisible && (i < mFilterInstances.size()); i++) {
+            Filter filter = mFilterInstances.valueAt(i);
+            isVisible = !filter.isActive() || filter.isFriendVisible(id);
+        }
+
+        if (isVisible) {
+            mVisibleFriendIds.add(id);
+        } else {
+            mVisibleFriendIds.remove(id);
+        }
+    }
+
+    /**
+     * Marks the user as added or updated, for the database and the listeners, and updates its visibility
+     */
+    private void userChanged(long id) {
+        mChanges.userChanged(id);
+        mUnnotifiedChanges.userChanged(id);
+        mModifiedKinds |= USERS;
+        this.updateVisibility(id);
+    }
+
+    /**
+     * Marks the user as removed, for the database and the listeners, it is then no longer visible
+     */
+    private void userRemoved(long id) {
+        mChanges.userRemoved(id);
+        mUnnotifiedChanges.userRemoved(id);
+        mModifiedKinds |= USERS;
+        mVisibleFriendIds.remove(id);
+    }
+
+    /**
+     * @param instances
+     * @return all the instances of the array
+     */
+    private static <T> Set<T> valuesOf(LongSparseArray<T> instances) {
+        Set<T> values = new HashSet<T>();
+        for (int i = 0; i < instances.size(); i++) {
+            values.add(instances.valueAt(i));
+        }
+        return values;
+    }
+
+    /**
+     * @param instances
+     * @param filter
+     * @return the instances of the array accepted by the filter
+     */
+    private static <T> Set<T> valuesOf(LongSparseArray<T> instances, SearchFilter<T> filter) {
+        Set<T> values = new HashSet<T>();
+        for (int i = 0; i < instances.size(); i++) {
+            T value = instances.valueAt(i);
+            if (filter.filter(value)) {
+                values.add(value);
             }
         }
+        return values;
+    }
 
-        return isListModified;
+    /**
+     * @param instances
+     * @param ids
+     * @return the instances of the array with the given ids, ids without instance are ignored
+     */
+    private static <T> Set<T> valuesOf(LongSparseArray<T> instances, long[] ids) {
+        Set<T> values = new HashSet<T>();
+        for (long id : ids) {
+            T value = instances.get(id);
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @param instances
+     * @param ids
+     * @return the instances of the array with the given ids, ids without instance are ignored
+     */
+    private static <T> Set<T> valuesOf(LongSparseArray<T> instances, Set<Long> ids) {
+        Set<T> values = new HashSet<T>();
+        for (long id : ids) {
+            T value = instances.get(id);
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        return values;
     }
 
     /**
@@ -1683,4 +2041,75 @@ public class Cache implements CacheInterface {
     public interface SearchFilter<T> {
         boolean filter(T item);
     }
+
+    /**
+     * Copy of the collections of live instances of the {@code Cache} at some point, which is never modified
+     * and can thus be read without locking. The instances themselves are not copied: an update of an item
+     * modifies its instance in place, so a reader of an older snapshot sees the newer values of the items
+     * it contains. Each value is read whole, but two getters of the same item may return values of
+     * different updates.
+     * 
+     * @author jfperren
+     */
+    private static final class Snapshot {
+
+        private final LongSparseArray<User> mUsers;
+        private final LongSparseArray<Event> mEvents;
+        private final LongSparseArray<Filter> mFilters;
+        private final LongSparseArray<Invitation> mInvitations;
+
+        // Sorted
+        private final long[] mFriendIds;
+        private final long mSelfId;
+        // Sorted, and as a set for lookups
+        private final long[] mVisibleFriendIds;
+        private final LongHashSet mVisibleFriendSet;
+
+        private final SpatialIndex mEventPositions;
+        private final SpatialIndex mFriendPositions;
+
+        /**
+         * Constructor, must be called under the lock of the cache
+         * 
+         * @param cache
+         *            the cache whose structures are copied
+         * @param previous
+         *            the previous snapshot, whose copies are reused for the kinds of items not modified
+         * @param modifiedKinds
+         *            the kinds of items modified since the previous snapshot
+         */
+        private Snapshot(Cache cache, Snapshot previous, int modifiedKinds) {
+            boolean usersModified = (modifiedKinds & USERS) != 0;
+            boolean eventsModified = (modifiedKinds & EVENTS) != 0;
+
+            mUsers = usersModified ? copyOf(cache.mUserInstances) : previous.mUsers;
+            mEvents = eventsModified ? copyOf(cache.mEventInstances) : previous.mEvents;
+            mFilters = ((modifiedKinds & FILTERS) != 0) ? copyOf(cache.mFilterInstances) : previous.mFilters;
+            mInvitations =
+                ((modifiedKinds & INVITATIONS) != 0) ? copyOf(cache.mInvitationInstances)
+                    : previous.mInvitations;
+
+            mFriendIds = usersModified ? cache.mFriendIds.toSortedArray() : previous.mFriendIds;
+            mSelfId = cache.mSelfId;
+            if (usersModified || ((modifiedKinds & FILTERS) != 0)) {
+                mVisibleFriendIds = cache.mVisibleFriendIds.toSortedArray();
+                mVisibleFriendSet = new LongHashSet(cache.mVisibleFriendIds);
+            } else {
+                mVisibleFriendIds = previous.mVisibleFriendIds;
+                mVisibleFriendSet = previous.mVisibleFriendSet;
+            }
+
+            mEventPositions =
+                eventsModified ? new SpatialIndex(cache.mEventPositions) : previous.mEventPositions;
+            mFriendPositions =
+                usersModified ? new SpatialIndex(cache.mFriendPositions) : previous.mFriendPositions;
+        }
+
+        private static <T> LongSparseArray<T> copyOf(LongSparseArray<T> instances) {
+            LongSparseArray<T> copy = instances.clone();
+            // Compact the array now, otherwise its first reader would modify it
+            copy.size();
+            return copy;
+        }
+    }
 }
@@ -0,0 +1,191 @@
+package ch.epfl.smartmap.cache;
+
+import java.util.Set;
+
+/**
+ * The ids of the items that were added, updated or removed from the {@code Cache} since the last time the
+ * changes were taken, so that only those need to be written in the database. An item is either changed or
+ * removed, whichever happened last. The ids are kept unboxed, since every modification of the {@code Cache}
+ * marks some. This class is not thread safe, the {@code Cache} guards its instance.
+ *
+ * @author jfperren
+ */
+public final class CacheChanges {
+
+    private final LongHashSet mChangedUserIds;
+    private final LongHashSet mRemovedUserIds;
+    private final LongHashSet mChangedEventIds;
+    private final LongHashSet mRemovedEventIds;
+    private final LongHashSet mChangedFilterIds;
+    private final LongHashSet mRemovedFilterIds;
+    private final LongHashSet mChangedInvitationIds;
+    private final LongHashSet mRemovedInvitationIds;
+
+    /**
+     * Constructor, without any change
+     */
+    public CacheChanges() {
+        mChangedUserIds = new LongHashSet();
+        mRemovedUserIds = new LongHashSet();
+        mChangedEventIds = new LongHashSet();
+        mRemovedEventIds = new LongHashSet();
+        mChangedFilterIds = new LongHashSet();
+        mRemovedFilterIds = new LongHashSet();
+        mChangedInvitationIds = new LongHashSet();
+        mRemovedInvitationIds = new LongHashSet();
+    }
+
+    /**
+     * @return the ids of the events added or updated
+     */
+    public Set<Long> getChangedEventIds() {
+        return mChangedEventIds.toSet();
+    }
+
+    /**
+     * @return the ids of the filters added or updated
+     */
+    public Set<Long> getChangedFilterIds() {
+        return mChangedFilterIds.toSet();
+    }
+
+    /**
+     * @return the ids of the invitations added or updated
+     */
+    public Set<Long> getChangedInvitationIds() {
+        return mChangedInvitationIds.toSet();
+    }
+
+    /**
+     * @return the ids of the users added or updated
+     */
+    public Set<Long> getChangedUserIds() {
+        return mChangedUserIds.toSet();
+    }
+
+    /**
+     * @return the ids of the events removed
+     */
+    public Set<Long> getRemovedEventIds() {
+        return mRemovedEventIds.toSet();
+    }
+
+    /**
+     * @return the ids of the filters removed
+     */
+    public Set<Long> getRemovedFilterIds() {
+        return mRemovedFilterIds.toSet();
+    }
+
+    /**
+     * @return the ids of the invitations removed
+     */
+    public Set<Long> getRemovedInvitationIds() {
+        return mRemovedInvitationIds.toSet();
+    }
+
+    /**
+     * @return the ids of the users removed
+     */
+    public Set<Long> getRemovedUserIds() {
+        return mRemovedUserIds.toSet();
+    }
+
+    /**
+     * @return whether there is no change at all
+     */
+    public boolean isEmpty() {
+        return mChangedUserIds.isEmpty() && mRemovedUserIds.isEmpty() && mChangedEventIds.isEmpty()
+            && mRemovedEventIds.isEmpty() && mChangedFilterIds.isEmpty() && mRemovedFilterIds.isEmpty()
+            && mChangedInvitationIds.isEmpty() && mRemovedInvitationIds.isEmpty();
+    }
+
+    void eventChanged(long id) {
+        mRemovedEventIds.remove(id);
+        mChangedEventIds.add(id);
+    }
+
+    void eventRemoved(long id) {
+        mChangedEventIds.remove(id);
+        mRemovedEventIds.add(id);
+    }
+
+    void filterChanged(long id) {
+        mRemovedFilterIds.remove(id);
+        mChangedFilterIds.add(id);
+    }
+
+    void filterRemoved(long id) {
+        mChangedFilterIds.remove(id);
+        mRemovedFilterIds.add(id);
+    }
+
+    void invitationChanged(long id) {
+        mRemovedInvitationIds.remove(id);
+        mChangedInvitationIds.add(id);
+    }
+
+    void invitationRemoved(long id) {
+        mChangedInvitationIds.remove(id);
+        mRemovedInvitationIds.add(id);
+    }
+
+    /**
+     * Adds changes that happened before these ones, used when they could not be written
+     *
+     * @param older
+     *            the older changes
+     */
+    void putBack(CacheChanges older) {
+        for (long id : older.mChangedUserIds.toArray()) {
+            if (!mRemovedUserIds.contains(id)) {
+                mChangedUserIds.add(id);
+            }
+        }
+        for (long id : older.mRemovedUserIds.toArray()) {
+            if (!mChangedUserIds.contains(id)) {
+                mRemovedUserIds.add(id);
+            }
+        }
+        for (long id : older.mChangedEventIds.toArray()) {
+            if (!mRemovedEventIds.contains(id)) {
+                mChangedEventIds.add(id);
+            }
+        }
+        for (long id : older.mRemovedEventIds.toArray()) {
+            if (!mChangedEventIds.contains(id)) {
+                mRemovedEventIds.add(id);
+            }
+        }
+        for (long id : older.mChangedFilterIds.toArray()) {
+            if (!mRemovedFilterIds.contains(id)) {
+                mChangedFilterIds.add(id);
+            }
+        }
+        for (long id : older.mRemovedFilterIds.toArray()) {
+            if (!mChangedFilterIds.contains(id)) {
+                mRemovedFilterIds.add(id);
+            }
+        }
+        for (long id : older.mChangedInvitationIds.toArray()) {
+            if (!mRemovedInvitationIds.contains(id)) {
+                mChangedInvitationIds.add(id);
+            }
+        }
+        for (long id : older.mRemovedInvitationIds.toArray()) {
+            if (!mChangedInvitationIds.contains(id)) {
+                mRemovedInvitationIds.add(id);
+            }
+        }
+    }
+
+    void userChanged(long id) {
+        mRemovedUserIds.remove(id);
+        mChangedUserIds.add(id);
+    }
+
+    void userRemoved(long id) {
+        mChangedUserIds.remove(id);
+        mRemovedUserIds.add(id);
+    }
+}
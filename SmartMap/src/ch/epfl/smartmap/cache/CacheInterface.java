@@ -3,6 +3,7 @@ package ch.epfl.smartmap.cache;
 import java.util.Set;
 import java.util.SortedSet;
 
+import android.location.Location;
 import ch.epfl.smartmap.cache.Cache.SearchFilter;
 import ch.epfl.smartmap.callbacks.NetworkRequestCallback;
 import ch.epfl.smartmap.database.DatabaseHelperInterface;
@@ -10,6 +11,8 @@ import ch.epfl.smartmap.listeners.CacheListener;
 import ch.epfl.smartmap.servercom.SmartMapClient;
 import ch.epfl.smartmap.servercom.SmartMapClientException;
 
+import com.google.android.gms.maps.model.LatLngBounds;
+
 /**
  * All methods that must be implemented by the Cache
  * 
@@ -26,7 +29,7 @@ interface CacheInterface {
     void acceptInvitation(Invitation invitation, NetworkRequestCallback<Void> callback);
 
     /**
-     * Adds a listener to the Cache
+     * Adds a listener to the Cache, which will be notified on the main thread
      * 
      * @param listener
      */
@@ -106,7 +109,7 @@ interface CacheInterface {
     Set<Event> getAllVisibleEvents();
 
     /**
-     * @return all Friends that should be displayed on the map
+     * @return all Friends that should be displayed on the map, that is those kept by every active filter
      */
     Set<User> getAllVisibleFriends();
 
@@ -135,6 +138,21 @@ interface CacheInterface {
      */
     Set<Event> getEvents(Set<Long> ids);
 
+    /**
+     * @param bounds
+     *            region of the map, for instance the visible region
+     * @return Events whose location is in the region, found through a spatial index
+     */
+    Set<Event> getEventsInBounds(LatLngBounds bounds);
+
+    /**
+     * @param center
+     * @param radius
+     *            in meters
+     * @return Events at most {@code radius} meters away from {@code center}, found through a spatial index
+     */
+    Set<Event> getEventsInRadius(Location center, double radius);
+
     /**
      * @param id
      *            Filter's id
@@ -162,6 +180,13 @@ interface CacheInterface {
      */
     Set<Long> getFriendIds();
 
+    /**
+     * @param bounds
+     *            region of the map, for instance the visible region
+     * @return friends whose last known position is in the region, found through a spatial index
+     */
+    Set<User> getFriendsInBounds(LatLngBounds bounds);
+
     /**
      * @param id
      * @return the Invitation with the given id, {@code null} if not found
@@ -226,6 +251,15 @@ interface CacheInterface {
      */
     Set<User> getUsers(Set<Long> ids);
 
+    /**
+     * Forgets the positions of the given friends, so that they are no longer displayed on the Map, for
+     * instance because they became invisible.
+     * 
+     * @param ids
+     *            ids of the friends
+     */
+    void hideFriendPositions(Set<Long> ids);
+
     /**
      * Completely wipes values and fill the Cache with what is contained in the
      * database
@@ -243,10 +277,38 @@ interface CacheInterface {
 
     void inviteUser(long id, NetworkRequestCallback<Void> callback);
 
+    /**
+     * @param id
+     * @return whether the user is a friend that {@code getAllVisibleFriends} would return, in constant time
+     */
+    boolean isVisibleFriend(long id);
+
     void modifyOwnEvent(EventContainer createdEvent, NetworkRequestCallback<Void> callback);
 
+    /**
+     * Notifies the listeners that every event may need to be displayed again, for instance after a setting
+     * changed
+     */
     void notifyEventListeners();
 
+    /**
+     * Notifies the listeners that the picture of a user was loaded in memory, so that it is displayed
+     * instead of the default one
+     * 
+     * @param id
+     *            id of the user
+     */
+    void notifyPictureLoaded(long id);
+
+    /**
+     * Adds back changes taken with {@code takeChanges} that could not be written, so that they are taken
+     * again with the next ones.
+     * 
+     * @param changes
+     *            the changes that were not written
+     */
+    void putBackChanges(CacheChanges changes);
+
     /**
      * Creates a live instance with values from the EventContainer. Update
      * previous instance if it was already
@@ -378,6 +440,13 @@ interface CacheInterface {
      */
     void removeFriends(Set<Long> ids, NetworkRequestCallback<Void> callback);
 
+    /**
+     * Removes a listener added with {@code addOnCacheListener}, it will not be notified anymore
+     * 
+     * @param listener
+     */
+    void removeOnCacheListener(CacheListener listener);
+
     /**
      * Remove participants to an Event
      * 
@@ -408,6 +477,13 @@ interface CacheInterface {
      */
     void setBlockedStatus(UserContainer user, NetworkRequestCallback<Void> callback);
 
+    /**
+     * Gives the ids of the items added, updated or removed since the last call, and forgets them.
+     * 
+     * @return the changes since the last call
+     */
+    CacheChanges takeChanges();
+
     /**
      * Updates all values contained in the Cache with the ones from the Network
      * 
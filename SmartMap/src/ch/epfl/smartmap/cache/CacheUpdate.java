@@ -0,0 +1,149 @@
+package ch.epfl.smartmap.cache;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import android.util.LongSparseArray;
+
+/**
+ * The modifications of the {@code Cache} since its listeners were last notified, as the ids of the items that
+ * were added, updated or removed for each kind of item. An item added then removed before the notification
+ * does not appear, and one added then updated only appears as added. Instances are created by the
+ * {@code Cache}, and delivered to its listeners on the main thread.
+ *
+ * @author jfperren
+ */
+public final class CacheUpdate {
+
+    private final Changes mUserChanges;
+    private final Changes mEventChanges;
+    private final Changes mFilterChanges;
+    private final Changes mInvitationChanges;
+
+    CacheUpdate(Changes userChanges, Changes eventChanges, Changes filterChanges, Changes invitationChanges) {
+        mUserChanges = userChanges;
+        mEventChanges = eventChanges;
+        mFilterChanges = filterChanges;
+        mInvitationChanges = invitationChanges;
+    }
+
+    /**
+     * @return the changes of the events
+     */
+    public Changes getEventChanges() {
+        return mEventChanges;
+    }
+
+    /**
+     * @return the changes of the filters
+     */
+    public Changes getFilterChanges() {
+        return mFilterChanges;
+    }
+
+    /**
+     * @return the changes of the invitations
+     */
+    public Changes getInvitationChanges() {
+        return mInvitationChanges;
+    }
+
+    /**
+     * @return the changes of the users
+     */
+    public Changes getUserChanges() {
+        return mUserChanges;
+    }
+
+    /**
+     * @return whether nothing changed at all
+     */
+    public boolean isEmpty() {
+        return mUserChanges.isEmpty() && mEventChanges.isEmpty() && mFilterChanges.isEmpty()
+            && mInvitationChanges.isEmpty();
+    }
+
+    /**
+     * The ids of the items of one kind that were added, updated or removed. The sets are not modifiable.
+     *
+     * @author jfperren
+     */
+    public static final class Changes {
+
+        private final Set<Long> mAddedIds;
+        private final Set<Long> mUpdatedIds;
+        private final Set<Long> mRemovedIds;
+
+        /**
+         * Constructor, sorts the ids marked as changed or removed since the previous notification
+         *
+         * @param changedIds
+         *            ids of the items added or updated, which are all in the cache
+         * @param removedIds
+         *            ids of the items removed
+         * @param notifiedItems
+         *            the items of this kind in the cache at the previous notification
+         */
+        Changes(Set<Long> changedIds, Set<Long> removedIds, LongSparseArray<?> notifiedItems) {
+            Set<Long> addedIds = new HashSet<Long>();
+            Set<Long> updatedIds = new HashSet<Long>();
+            for (long id : changedIds) {
+                if (notifiedItems.get(id) != null) {
+                    updatedIds.add(id);
+                } else {
+                    addedIds.add(id);
+                }
+            }
+
+            // Items added and removed since the previous notification were never seen by the listeners
+            Set<Long> notifiedRemovedIds = new HashSet<Long>();
+            for (long id : removedIds) {
+                if (notifiedItems.get(id) != null) {
+                    notifiedRemovedIds.add(id);
+                }
+            }
+
+            mAddedIds = Collections.unmodifiableSet(addedIds);
+            mUpdatedIds = Collections.unmodifiableSet(updatedIds);
+            mRemovedIds = Collections.unmodifiableSet(notifiedRemovedIds);
+        }
+
+        /**
+         * @return the ids of the items added
+         */
+        public Set<Long> getAddedIds() {
+            return mAddedIds;
+        }
+
+        /**
+         * @return the ids of the items added or updated, that is of all the items that are still there
+         */
+        public Set<Long> getChangedIds() {
+            Set<Long> changedIds = new HashSet<Long>(mAddedIds);
+            changedIds.addAll(mUpdatedIds);
+            return changedIds;
+        }
+
+        /**
+         * @return the ids of the items removed
+         */
+        public Set<Long> getRemovedIds() {
+            return mRemovedIds;
+        }
+
+        /**
+         * @return the ids of the items updated
+         */
+        public Set<Long> getUpdatedIds() {
+            return mUpdatedIds;
+        }
+
+        /**
+         * @return whether no item of this kind changed
+         */
+        public boolean isEmpty() {
+            return mAddedIds.isEmpty() && mUpdatedIds.isEmpty() && mRemovedIds.isEmpty();
+        }
+    }
+}
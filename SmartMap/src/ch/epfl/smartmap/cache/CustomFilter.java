@@ -10,8 +10,8 @@ import java.util.Set;
  */
 public class CustomFilter extends Filter {
 
-    private String mName;
-    private boolean mIsActive;
+    private volatile String mName;
+    private volatile boolean mIsActive;
 
     /**
      * @param name
@@ -85,4 +85,21 @@ public class CustomFilter extends Filter {
         return hasChanged;
     }
 
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.cache.Filter#getVisibleFriendIds(long[])
+     */
+    @Override
+    long[] getVisibleFriendIds(long[] friendIds) {
+        return this.getSortedIds();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.cache.Filter#isFriendVisible(long)
+     */
+    @Override
+    boolean isFriendVisible(long friendId) {
+        return this.containsId(friendId);
+    }
 }
\ No newline at end of file
@@ -61,4 +61,22 @@ public class DefaultFilter extends Filter {
     public boolean isActive() {
         return true;
     }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.cache.Filter#getVisibleFriendIds(long[])
+     */
+    @Override
+    long[] getVisibleFriendIds(long[] friendIds) {
+        return LongArrays.difference(friendIds, this.getSortedIds());
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.cache.Filter#isFriendVisible(long)
+     */
+    @Override
+    boolean isFriendVisible(long friendId) {
+        return !this.containsId(friendId);
+    }
 }
\ No newline at end of file
@@ -43,15 +43,18 @@ public abstract class Event implements Displayable, EventInterface {
     public static final Bitmap DEFAULT_BLUE_IMAGE = BitmapFactory.decodeResource(ServiceContainer
         .getSettingsManager().getContext().getResources(), R.drawable.ic_event_blue);
 
+    // Marker icon shared by all events, created on first use once the map is initialized
+    private static BitmapDescriptor sMarkerIcon;
+
     private final long mId;
-    private String mName;
-    private User mCreator;
-    private Set<Long> mParticipantIds;
-    private Calendar mStartDate;
-    private Calendar mEndDate;
-    private Location mLocation;
-    private String mDescription;
-    private String mLocationString;
+    private volatile String mName;
+    private volatile User mCreator;
+    private volatile Set<Long> mParticipantIds;
+    private volatile Calendar mStartDate;
+    private volatile Calendar mEndDate;
+    private volatile Location mLocation;
+    private volatile String mDescription;
+    private volatile String mLocationString;
 
     /**
      * Constructor
@@ -155,7 +158,10 @@ public abstract class Event implements Displayable, EventInterface {
 
     @Override
     public BitmapDescriptor getMarkerIcon(Context context) {
-        return BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_ORANGE);
+        if (sMarkerIcon == null) {
+            sMarkerIcon = BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_ORANGE);
+        }
+        return sMarkerIcon;
     }
 
     @Override
@@ -183,7 +189,7 @@ public abstract class Event implements Displayable, EventInterface {
 
     @Override
     public Calendar getStartDate() {
-        return mStartDate;
+        return (Calendar) mStartDate.clone();
     }
 
     /*
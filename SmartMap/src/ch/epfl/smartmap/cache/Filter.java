@@ -1,5 +1,6 @@
 package ch.epfl.smartmap.cache;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -39,7 +40,8 @@ public abstract class Filter implements FilterInterface {
         .getSettingsManager().getContext().getResources(), R.drawable.ic_filter_blue);
 
     private long mId;
-    private final Set<Long> mIds;
+    // Sorted, replaced instead of modified so that it can be shared
+    private volatile long[] mIds;
 
     /**
      * Constructor
@@ -54,7 +56,15 @@ public abstract class Filter implements FilterInterface {
             throw new IllegalArgumentException();
         }
         mId = (id >= 0) ? id : Filter.NO_ID;
-        mIds = (ids != null) ? new HashSet<Long>(ids) : Filter.NO_IDS;
+        mIds = (ids != null) ? LongArrays.sortedCopyOf(ids) : LongArrays.EMPTY;
+    }
+
+    /**
+     * @param id
+     * @return whether the filter contains the given id, without copying its ids
+     */
+    public boolean containsId(long id) {
+        return LongArrays.contains(mIds, id);
     }
 
     /*
@@ -90,7 +100,7 @@ public abstract class Filter implements FilterInterface {
      */
     @Override
     public Set<Long> getIds() {
-        return new HashSet<Long>(mIds);
+        return LongArrays.toSet(mIds);
     }
 
     /*
@@ -176,15 +186,41 @@ public abstract class Filter implements FilterInterface {
             throw new IllegalArgumentException();
         }
 
-        if ((filter.getIds() != null) && !filter.getIds().equals(mIds)) {
-            mIds.clear();
-            mIds.addAll(filter.getIds());
-            hasChanged = true;
+        if (filter.getIds() != null) {
+            long[] ids = LongArrays.sortedCopyOf(filter.getIds());
+            if (!Arrays.equals(ids, mIds)) {
+                mIds = ids;
+                hasChanged = true;
+            }
         }
 
         return hasChanged;
     }
 
+    /**
+     * @return the ids of the filter, sorted, as kept by the filter: the array must not be modified
+     */
+    long[] getSortedIds() {
+        return mIds;
+    }
+
+    /**
+     * Computes {@link #getVisibleFriends()} from the given friends, without boxing
+     * 
+     * @param friendIds
+     *            the sorted ids of all friends
+     * @return the sorted ids of the friends visible through this filter, may be one of the arrays given or
+     *         kept by the filter: it must not be modified
+     */
+    abstract long[] getVisibleFriendIds(long[] friendIds);
+
+    /**
+     * @param friendId
+     *            the id of a friend
+     * @return whether the friend is visible through this filter, as in {@link #getVisibleFriendIds(long[])}
+     */
+    abstract boolean isFriendVisible(long friendId);
+
     /**
      * Does the conversion container -> live instance. DO NOT CALL THIS METHOD OUTSIDE CACHE.
      * 
@@ -28,12 +28,15 @@ import com.google.android.gms.maps.model.LatLng;
 
 public final class Friend extends User {
 
-    private String mPhoneNumber;
-    private String mEmail;
-    private String mLocationString;
-    private Location mLocation;
-    private User.BlockStatus mIsBlocked;
+    private volatile String mPhoneNumber;
+    private volatile String mEmail;
+    private volatile String mLocationString;
+    private volatile Location mLocation;
+    private volatile User.BlockStatus mIsBlocked;
     private final MarkerIconMaker mMarkerIconMaker;
+    // Last marker icon and its descriptor, reused as long as the icon does not change
+    private Bitmap mMarkerIcon;
+    private BitmapDescriptor mMarkerIconDescriptor;
 
     /**
      * Constructor
@@ -163,7 +166,12 @@ public final class Friend extends User {
 
     @Override
     public BitmapDescriptor getMarkerIcon(Context context) {
-        return BitmapDescriptorFactory.fromBitmap(mMarkerIconMaker.getMarkerIcon(context));
+        Bitmap icon = mMarkerIconMaker.getMarkerIcon(context);
+        if ((mMarkerIconDescriptor == null) || (icon != mMarkerIcon)) {
+            mMarkerIcon = icon;
+            mMarkerIconDescriptor = BitmapDescriptorFactory.fromBitmap(icon);
+        }
+        return mMarkerIconDescriptor;
     }
 
     /**
@@ -187,16 +195,26 @@ public final class Friend extends User {
         return infos;
     }
 
+    /**
+     * Forgets the last known Location of this Friend, it is then no longer displayed on the Map
+     *
+     * @return True if the Friend had a Location
+     */
+    boolean clearLocation() {
+        if (mLocation == NO_LOCATION) {
+            return false;
+        }
+        mLocation = NO_LOCATION;
+        mLocationString = NO_LOCATION_STRING;
+        return true;
+    }
+
     /**
      * @return True if the Friend should be displayed on the Map
      */
     public boolean isVisible() {
-        boolean isInFilters = false;
-        for (Filter filter : ServiceContainer.getCache().getAllActiveFilters()) {
-            // This friend was found in a previous filter OR is contained in the current one
-            isInFilters = isInFilters || filter.getIds().contains(this.getId());
-        }
-        return isInFilters && !mLocation.equals(NO_LOCATION);
+        // The visible friends are maintained by the cache
+        return ServiceContainer.getCache().isVisibleFriend(this.getId()) && !mLocation.equals(NO_LOCATION);
     }
 
     @Override
@@ -208,9 +226,11 @@ public final class Friend extends User {
             && ((newValues.getLocation().getLatitude() != mLocation.getLatitude())
                 || (newValues.getLocation().getLongitude() != mLocation.getLongitude()) || (newValues
                 .getLocation().getTime() != mLocation.getTime()))) {
-            mLocation = new Location(newValues.getLocation());
-            mLocation.setLatitude(newValues.getLocation().getLatitude());
-            mLocation.setLongitude(newValues.getLocation().getLongitude());
+            // Assigned once complete, as readers may access it concurrently
+            Location location = new Location(newValues.getLocation());
+            location.setLatitude(newValues.getLocation().getLatitude());
+            location.setLongitude(newValues.getLocation().getLongitude());
+            mLocation = location;
 
             hasChanged = true;
         }
@@ -27,8 +27,8 @@ public class GenericInvitation extends Invitation {
     private static final Bitmap NEW_EVENT_BITMAP = BitmapFactory.decodeResource(ServiceContainer.getSettingsManager()
         .getContext().getResources(), R.drawable.ic_action_event_request);
 
-    private User mUser;
-    private Event mEvent;
+    private volatile User mUser;
+    private volatile Event mEvent;
     private int mType;
 
     /**
@@ -34,10 +34,10 @@ public abstract class Invitation implements InvitationInterface, Comparable<Invi
     public static final int EVENT_INVITATION = 1;
     public static final int ACCEPTED_FRIEND_INVITATION = 2;
 
-    private int mStatus;
+    private volatile int mStatus;
 
     private final long mId;
-    private long mTimeStamp;
+    private volatile long mTimeStamp;
 
     /**
      * Constructor
@@ -0,0 +1,126 @@
+package ch.epfl.smartmap.cache;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Operations on sorted arrays of {@code long}s without duplicates, used as immutable sets of ids. They take a
+ * fraction of the memory of a set of {@code Long}s, and their intersection or difference is computed in a
+ * single pass over both arrays. The arrays passed to these methods must never be modified, since they may be
+ * returned as results.
+ *
+ * @author jfperren
+ */
+public final class LongArrays {
+
+    /**
+     * The empty set of ids
+     */
+    public static final long[] EMPTY = new long[0];
+
+    private LongArrays() {
+        // Not instantiable
+    }
+
+    /**
+     * @param sorted
+     * @param value
+     * @return whether the sorted array contains the value
+     */
+    public static boolean contains(long[] sorted, long value) {
+        return Arrays.binarySearch(sorted, value) >= 0;
+    }
+
+    /**
+     * @param sorted
+     * @param removed
+     * @return the values of {@code sorted} that are not in {@code removed}, {@code sorted} itself if there is
+     *         none
+     */
+    public static long[] difference(long[] sorted, long[] removed) {
+        long[] result = null;
+        int size = 0;
+        int j = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            while ((j < removed.length) && (removed[j] < sorted[i])) {
+                j++;
+            }
+            boolean isRemoved = (j < removed.length) && (removed[j] == sorted[i]);
+            if (isRemoved && (result == null)) {
+                // First removed value, the values before it are kept
+                result = Arrays.copyOf(sorted, sorted.length - 1);
+                size = i;
+            } else if (!isRemoved && (result != null)) {
+                result[size++] = sorted[i];
+            }
+        }
+        if (result == null) {
+            return sorted;
+        }
+        return (size == result.length) ? result : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * @param first
+     * @param second
+     * @return the values that are in both sorted arrays, {@code first} itself if all its values are in
+     *         {@code second}
+     */
+    public static long[] intersection(long[] first, long[] second) {
+        long[] result = new long[Math.min(first.length, second.length)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while ((i < first.length) && (j < second.length)) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                result[size++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        if (size == first.length) {
+            return first;
+        }
+        return (size == result.length) ? result : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * @param values
+     * @return a new sorted array with the values of the collection, without duplicates
+     */
+    public static long[] sortedCopyOf(Collection<Long> values) {
+        long[] sorted = new long[values.size()];
+        int i = 0;
+        for (long value : values) {
+            sorted[i++] = value;
+        }
+        Arrays.sort(sorted);
+
+        // Remove duplicates
+        int size = 0;
+        for (i = 0; i < sorted.length; i++) {
+            if ((size == 0) || (sorted[size - 1] != sorted[i])) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        return (size == sorted.length) ? sorted : Arrays.copyOf(sorted, size);
+    }
+
+    /**
+     * @param values
+     * @return a new set with the values of the array, boxed
+     */
+    public static Set<Long> toSet(long[] values) {
+        Set<Long> set = new HashSet<Long>();
+        for (long value : values) {
+            set.add(value);
+        }
+        return set;
+    }
+}
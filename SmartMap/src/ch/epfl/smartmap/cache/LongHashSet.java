@@ -0,0 +1,234 @@
+package ch.epfl.smartmap.cache;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A set of {@code long}s kept in an open addressing hash table, so that adding or looking up an id neither
+ * boxes it nor allocates an entry. A value is looked for from the slot given by its hash, then in the next
+ * slots until an empty one; removals move the following values back instead of leaving a tombstone.
+ * This class is not thread safe.
+ *
+ * @author jfperren
+ */
+public final class LongHashSet {
+
+    private static final int MIN_CAPACITY = 16;
+    // The table is grown when more than half full, to keep the probe sequences short
+    private static final int LOAD_FACTOR_INVERSE = 2;
+    // Marks an empty slot, whether the set contains this value is kept apart
+    private static final long EMPTY = 0;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private long[] mSlots;
+    // Number of values in the slots, without the empty marker
+    private int mSlotsUsed;
+    private boolean mContainsEmpty;
+
+    /**
+     * Constructor, for an empty set
+     */
+    public LongHashSet() {
+        this(MIN_CAPACITY / LOAD_FACTOR_INVERSE);
+    }
+
+    /**
+     * Constructor, for an empty set that can take the expected number of values without being grown
+     *
+     * @param expectedSize
+     */
+    public LongHashSet(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < (expectedSize * LOAD_FACTOR_INVERSE)) {
+            capacity *= 2;
+        }
+        mSlots = new long[capacity];
+    }
+
+    /**
+     * Copy constructor
+     *
+     * @param other
+     *            the set to copy
+     */
+    public LongHashSet(LongHashSet other) {
+        mSlots = other.mSlots.clone();
+        mSlotsUsed = other.mSlotsUsed;
+        mContainsEmpty = other.mContainsEmpty;
+    }
+
+    /**
+     * @param value
+     * @return whether the value was added, {@code false} if it was already in the set
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            boolean isAdded = !mContainsEmpty;
+            mContainsEmpty = true;
+            return isAdded;
+        }
+
+        int mask = mSlots.length - 1;
+        int slot = this.slotOf(value);
+        while (mSlots[slot] != EMPTY) {
+            if (mSlots[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        mSlots[slot] = value;
+        mSlotsUsed++;
+        if ((mSlotsUsed * LOAD_FACTOR_INVERSE) > mSlots.length) {
+            this.resize(mSlots.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * Removes all values, without shrinking the table
+     */
+    public void clear() {
+        Arrays.fill(mSlots, EMPTY);
+        mSlotsUsed = 0;
+        mContainsEmpty = false;
+    }
+
+    /**
+     * @param value
+     * @return whether the set contains the value
+     */
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return mContainsEmpty;
+        }
+
+        int mask = mSlots.length - 1;
+        int slot = this.slotOf(value);
+        while (mSlots[slot] != EMPTY) {
+            if (mSlots[slot] == value) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the set is empty
+     */
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    /**
+     * @param value
+     * @return whether the value was removed, {@code false} if it was not in the set
+     */
+    public boolean remove(long value) {
+        if (value == EMPTY) {
+            boolean isRemoved = mContainsEmpty;
+            mContainsEmpty = false;
+            return isRemoved;
+        }
+
+        int mask = mSlots.length - 1;
+        int gap = this.slotOf(value);
+        while (mSlots[gap] != value) {
+            if (mSlots[gap] == EMPTY) {
+                return false;
+            }
+            gap = (gap + 1) & mask;
+        }
+
+        // Move back the following values that could not be found anymore once the gap is emptied
+        int slot = gap;
+        while (mSlots[(slot + 1) & mask] != EMPTY) {
+            slot = (slot + 1) & mask;
+            int home = this.slotOf(mSlots[slot]);
+            // The value can move to the gap if its home slot is not between the gap and its slot
+            if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                mSlots[gap] = mSlots[slot];
+                gap = slot;
+            }
+        }
+        mSlots[gap] = EMPTY;
+        mSlotsUsed--;
+        return true;
+    }
+
+    /**
+     * @return the number of values in the set
+     */
+    public int size() {
+        return mContainsEmpty ? mSlotsUsed + 1 : mSlotsUsed;
+    }
+
+    /**
+     * @return a new array with the values of the set, in no particular order
+     */
+    public long[] toArray() {
+        long[] values = new long[this.size()];
+        int i = 0;
+        for (long value : mSlots) {
+            if (value != EMPTY) {
+                values[i++] = value;
+            }
+        }
+        if (mContainsEmpty) {
+            values[i] = EMPTY;
+        }
+        return values;
+    }
+
+    /**
+     * @return a new set with the values of this one, boxed
+     */
+    public Set<Long> toSet() {
+        Set<Long> values = new HashSet<Long>();
+        for (long value : this.toArray()) {
+            values.add(value);
+        }
+        return values;
+    }
+
+    /**
+     * @return a new array with the values of the set in increasing order, as used by {@link LongArrays}
+     */
+    public long[] toSortedArray() {
+        long[] values = this.toArray();
+        Arrays.sort(values);
+        return values;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return Arrays.toString(this.toSortedArray());
+    }
+
+    private void resize(int capacity) {
+        long[] oldSlots = mSlots;
+        mSlots = new long[capacity];
+        int mask = capacity - 1;
+        for (long value : oldSlots) {
+            if (value != EMPTY) {
+                int slot = this.slotOf(value);
+                while (mSlots[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                mSlots[slot] = value;
+            }
+        }
+    }
+
+    private int slotOf(long value) {
+        // Spread the bits of consecutive ids over the whole table
+        long hash = value * HASH_MULTIPLIER;
+        return (int) (hash ^ (hash >>> 32)) & (mSlots.length - 1);
+    }
+}
@@ -0,0 +1,550 @@
+package ch.epfl.smartmap.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LongSparseArray;
+import android.util.LruCache;
+import ch.epfl.smartmap.servercom.PictureBag;
+import ch.epfl.smartmap.servercom.SmartMapClient;
+import ch.epfl.smartmap.servercom.SmartMapClientException;
+
+/**
+ * A process wide cache of the users' profile pictures, so that a picture is downloaded and decoded only
+ * once. Decoded pictures are kept in memory in a {@link LruCache} bounded by their size in bytes, and every
+ * picture is also written on disk, named after the user's id and the version of the picture given by the
+ * server, so that it is only downloaded again when the server has a new version. The pictures derived from
+ * a profile picture for the map markers are kept in a second, smaller memory tier, so that they are not
+ * computed again for each marker.
+ * This class is thread safe.
+ *
+ * @author jfperren
+ */
+public final class PictureCache {
+
+    /**
+     * Version of the pictures for which the server did not give any
+     */
+    public static final String NO_VERSION = "";
+    /**
+     * Part of the maximum heap size used by the memory tiers
+     */
+    public static final int MEMORY_FRACTION = 8;
+    /**
+     * Part of the memory used by the marker pictures
+     */
+    public static final int MARKER_PICTURES_FRACTION = 4;
+
+    private static final String TAG = PictureCache.class.getSimpleName();
+
+    // Pictures are read and downloaded by a few threads, the others wait in an unbounded queue so that
+    // displaying many users at once never rejects a load
+    private static final int LOADING_THREADS = 2;
+    private static final ExecutorService LOADER = Executors.newFixedThreadPool(LOADING_THREADS);
+
+    private static final int IMAGE_QUALITY = 100;
+    private static final String PICTURE_EXTENSION = ".png";
+    private static final char VERSION_SEPARATOR = '_';
+    private static final int HEX_RADIX = 16;
+    private static final int BYTE_MASK = 0xFF;
+
+    private final File mDirectory;
+    private final LruCache<Long, Bitmap> mPictures;
+    // Marker pictures, with the picture they were made from
+    private final LruCache<Long, Bitmap[]> mMarkerPictures;
+    // Listeners of the pictures being loaded in background, by id
+    private final LongSparseArray<List<OnLoadedListener>> mLoading;
+    private final Handler mMainHandler;
+    // Ids of the pictures for which the server has a newer version, downloaded when next loaded
+    private final Set<Long> mOutdatedIds;
+    // Version of the pictures on disk, loaded on first access
+    private LongSparseArray<String> mVersions;
+
+    /**
+     * Constructor, using a part of the heap given by {@code MEMORY_FRACTION}
+     *
+     * @param context
+     *            the context whose files directory stores the pictures
+     */
+    public PictureCache(Context context) {
+        this(context, (int) Math.min(Runtime.getRuntime().maxMemory() / MEMORY_FRACTION, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Constructor
+     *
+     * @param context
+     *            the context whose files directory stores the pictures
+     * @param maxBytes
+     *            the maximum size of the pictures kept in memory
+     */
+    public PictureCache(Context context, int maxBytes) {
+        if (context == null) {
+            throw new IllegalArgumentException("Null context");
+        }
+        if (maxBytes < MARKER_PICTURES_FRACTION) {
+            throw new IllegalArgumentException("Invalid memory size : " + maxBytes);
+        }
+
+        mDirectory = context.getFilesDir();
+
+        int markerBytes = maxBytes / MARKER_PICTURES_FRACTION;
+        mPictures = new LruCache<Long, Bitmap>(maxBytes - markerBytes) {
+            @Override
+            protected int sizeOf(Long id, Bitmap picture) {
+                return picture.getByteCount();
+            }
+        };
+        mMarkerPictures = new LruCache<Long, Bitmap[]>(markerBytes) {
+            @Override
+            protected int sizeOf(Long id, Bitmap[] pictures) {
+                return pictures[1].getByteCount();
+            }
+        };
+        mLoading = new LongSparseArray<List<OnLoadedListener>>();
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mOutdatedIds = new HashSet<Long>();
+    }
+
+    /**
+     * Removes the pictures from memory, but keeps them on disk
+     */
+    public void evictAll() {
+        mPictures.evictAll();
+        mMarkerPictures.evictAll();
+    }
+
+    /**
+     * @param id
+     *            a user's id
+     * @return the user's picture from memory or disk, {@code null} if it is not known
+     */
+    public Bitmap get(long id) {
+        Bitmap picture = mPictures.get(id);
+        if (picture == null) {
+            picture = this.readFromDisk(id);
+            if (picture != null) {
+                mPictures.put(id, picture);
+            }
+        }
+        return picture;
+    }
+
+    /**
+     * @param id
+     *            a user's id
+     * @return the user's picture if it is in memory, {@code null} otherwise. Unlike {@code get}, never reads
+     *         the disk, and can thus be called from the main thread.
+     */
+    public Bitmap getFromMemory(long id) {
+        return mPictures.get(id);
+    }
+
+    /**
+     * @param id
+     *            a user's id
+     * @param source
+     *            the picture from which the marker picture was made
+     * @return the marker picture made from {@code source}, {@code null} if it is not known
+     */
+    public Bitmap getMarkerPicture(long id, Bitmap source) {
+        Bitmap[] pictures = mMarkerPictures.get(id);
+        if ((pictures != null) && (pictures[0] == source)) {
+            return pictures[1];
+        }
+        return null;
+    }
+
+    /**
+     * Gives the user's picture, downloading it only if it is neither in memory nor on disk
+     *
+     * @param id
+     *            a user's id
+     * @param networkClient
+     *            the client used to download the picture
+     * @return the user's picture
+     * @throws SmartMapClientException
+     */
+    public Bitmap getOrFetch(long id, SmartMapClient networkClient) throws SmartMapClientException {
+        Bitmap picture = this.get(id);
+        if (picture == null) {
+            picture = this.download(id, null, networkClient, null);
+        }
+        return picture;
+    }
+
+    /**
+     * @param id
+     *            a user's id
+     * @return the version of the user's picture, {@code null} if there is no picture for this user
+     */
+    public synchronized String getVersion(long id) {
+        return this.getVersions().get(id);
+    }
+
+    /**
+     * @param id
+     *            a user's id
+     * @return whether a picture of the user is known, in memory or on disk
+     */
+    public boolean hasPicture(long id) {
+        return this.getVersion(id) != null;
+    }
+
+    /**
+     * @param id
+     *            a user's id
+     * @param picture
+     * @return whether {@code picture} is the user's picture currently kept in memory
+     */
+    public boolean isInMemory(long id, Bitmap picture) {
+        return (picture != null) && (mPictures.get(id) == picture);
+    }
+
+    /**
+     * @param id
+     *            a user's id
+     * @return whether the server has a newer version of the user's picture than the known one
+     */
+    public boolean isOutdated(long id) {
+        synchronized (mOutdatedIds) {
+            return mOutdatedIds.contains(id);
+        }
+    }
+
+    /**
+     * @param id
+     *            a user's id
+     * @param version
+     *            the version of the user's picture on the server, {@code null} if unknown
+     * @return whether the known picture of the user is the given version
+     */
+    public synchronized boolean isUpToDate(long id, String version) {
+        return (version != null) && version.equals(this.getVersion(id));
+    }
+
+    /**
+     * Reads the user's picture from disk into memory in background. Requests for a picture already being
+     * loaded are coalesced with the pending one. If the picture is outdated, the new version is downloaded
+     * instead, the known one being kept if this fails.
+     *
+     * @param id
+     *            a user's id
+     * @param networkClient
+     *            the client used to download an outdated picture, {@code null} to only read the disk
+     * @param listener
+     *            called on the main thread once the picture is in memory, not called if there is no picture
+     */
+    public void loadInBackground(final long id, final SmartMapClient networkClient,
+        OnLoadedListener listener) {
+        synchronized (mLoading) {
+            List<OnLoadedListener> listeners = mLoading.get(id);
+            if (listeners != null) {
+                if (listener != null) {
+                    listeners.add(listener);
+                }
+                return;
+            }
+            listeners = new ArrayList<OnLoadedListener>();
+            if (listener != null) {
+                listeners.add(listener);
+            }
+            mLoading.put(id, listeners);
+        }
+
+        LOADER.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap picture = null;
+                try {
+                    picture = PictureCache.this.load(id, networkClient);
+                } finally {
+                    final List<OnLoadedListener> listeners;
+                    synchronized (mLoading) {
+                        listeners = mLoading.get(id);
+                        mLoading.remove(id);
+                    }
+                    if (picture != null) {
+                        final Bitmap loaded = picture;
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                for (OnLoadedListener listener : listeners) {
+                                    listener.onLoaded(id, loaded);
+                                }
+                            }
+                        });
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Remembers that the server has a newer version of the user's picture, so that it is downloaded the next
+     * time the picture is loaded in background instead of right away. The known picture is used meanwhile.
+     *
+     * @param id
+     *            a user's id
+     */
+    public void markOutdated(long id) {
+        synchronized (mOutdatedIds) {
+            mOutdatedIds.add(id);
+        }
+    }
+
+    /**
+     * Stores a user's picture in memory and on disk, replacing any other version
+     *
+     * @param id
+     *            a user's id
+     * @param version
+     *            the version of the picture given by the server, or {@code NO_VERSION}
+     * @param picture
+     */
+    public void put(long id, String version, Bitmap picture) {
+        if (picture == null) {
+            throw new IllegalArgumentException("Null picture");
+        }
+        if (version == null) {
+            throw new IllegalArgumentException("Null version");
+        }
+
+        mPictures.put(id, picture);
+        mMarkerPictures.remove(id);
+        this.writeToDisk(id, version, picture);
+        this.setUpToDate(id);
+    }
+
+    /**
+     * Stores a marker picture, replacing the previous one of the user
+     *
+     * @param id
+     *            a user's id
+     * @param source
+     *            the picture from which the marker picture was made
+     * @param markerPicture
+     */
+    public void putMarkerPicture(long id, Bitmap source, Bitmap markerPicture) {
+        if ((source == null) || (markerPicture == null)) {
+            throw new IllegalArgumentException("Null picture");
+        }
+        mMarkerPictures.put(id, new Bitmap[]{source, markerPicture});
+    }
+
+    /**
+     * Gives the user's picture, asking the server if it changed since the known version. The picture is only
+     * downloaded and decoded if it did, otherwise the known one is returned.
+     *
+     * @param id
+     *            a user's id
+     * @param networkClient
+     *            the client used to download the picture
+     * @return the user's picture
+     * @throws SmartMapClientException
+     */
+    public Bitmap refresh(long id, SmartMapClient networkClient) throws SmartMapClientException {
+        Bitmap picture = this.refreshIfModified(id, networkClient);
+        if (picture == null) {
+            picture = this.get(id);
+        }
+        if (picture == null) {
+            // The known version could not be read, download it again
+            picture = this.download(id, null, networkClient, null);
+        }
+        return picture;
+    }
+
+    /**
+     * Asks the server if the user's picture changed since the known version, and downloads it only if it
+     * did. Unlike {@code refresh}, an unchanged picture is not read from disk.
+     *
+     * @param id
+     *            a user's id
+     * @param networkClient
+     *            the client used to download the picture
+     * @return the new picture, {@code null} if it did not change
+     * @throws SmartMapClientException
+     */
+    public Bitmap refreshIfModified(long id, SmartMapClient networkClient) throws SmartMapClientException {
+        String version = this.getVersion(id);
+        // Without a version, the server cannot tell whether the picture changed
+        boolean hasVersion = (version != null) && !version.equals(NO_VERSION);
+        return this.download(id, hasVersion ? version : null, networkClient, null);
+    }
+
+    /**
+     * Removes a user's picture from memory and disk
+     *
+     * @param id
+     *            a user's id
+     */
+    public synchronized void remove(long id) {
+        mPictures.remove(id);
+        mMarkerPictures.remove(id);
+        this.deleteFromDisk(id);
+        this.setUpToDate(id);
+    }
+
+    private void deleteFromDisk(long id) {
+        String version = this.getVersions().get(id);
+        if (version != null) {
+            File file = this.getFile(id, version);
+            if (file.exists() && !file.delete()) {
+                Log.e(TAG, "Could not delete " + file.getName());
+            }
+            mVersions.remove(id);
+        }
+    }
+
+    private Bitmap download(long id, String version, SmartMapClient networkClient, Bitmap known)
+        throws SmartMapClientException {
+        PictureBag bag = networkClient.getProfilePicture(id, version);
+        if (!bag.isModified()) {
+            this.setUpToDate(id);
+            return known;
+        }
+        this.put(id, (bag.getVersion() == null) ? NO_VERSION : bag.getVersion(), bag.getPicture());
+        return bag.getPicture();
+    }
+
+    private File getFile(long id, String version) {
+        StringBuilder name = new StringBuilder(Long.toString(id));
+        if (!version.equals(NO_VERSION)) {
+            // Versions are stored in hexadecimal so that any version gives a valid file name
+            name.append(VERSION_SEPARATOR);
+            try {
+                for (byte b : version.getBytes("UTF-8")) {
+                    name.append(String.format("%02x", b & BYTE_MASK));
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return new File(mDirectory, name.append(PICTURE_EXTENSION).toString());
+    }
+
+    /**
+     * Lists the pictures on disk when first needed. Must be called with the lock held.
+     */
+    private LongSparseArray<String> getVersions() {
+        if (mVersions == null) {
+            mVersions = new LongSparseArray<String>();
+            String[] names = mDirectory.list();
+            if (names != null) {
+                for (String name : names) {
+                    this.parseFileName(name);
+                }
+            }
+        }
+        return mVersions;
+    }
+
+    /**
+     * Body of the background loads
+     */
+    private Bitmap load(long id, SmartMapClient networkClient) {
+        if ((networkClient != null) && this.isOutdated(id)) {
+            try {
+                return this.refresh(id, networkClient);
+            } catch (SmartMapClientException e) {
+                Log.e(TAG, "Could not download the picture of " + id + " : " + e);
+                // Not tried again at each display, the next update marks it again
+                this.setUpToDate(id);
+            }
+        }
+        return this.get(id);
+    }
+
+    private void parseFileName(String name) {
+        if (!name.endsWith(PICTURE_EXTENSION)) {
+            return;
+        }
+        String base = name.substring(0, name.length() - PICTURE_EXTENSION.length());
+        int separator = base.indexOf(VERSION_SEPARATOR);
+        String idString = (separator < 0) ? base : base.substring(0, separator);
+        String hexVersion = (separator < 0) ? "" : base.substring(separator + 1);
+        if (((hexVersion.length() % 2) != 0) || (idString.length() == 0)) {
+            return;
+        }
+
+        try {
+            long id = Long.parseLong(idString);
+            byte[] bytes = new byte[hexVersion.length() / 2];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) Integer.parseInt(hexVersion.substring(2 * i, (2 * i) + 2), HEX_RADIX);
+            }
+            mVersions.put(id, new String(bytes, "UTF-8"));
+        } catch (NumberFormatException e) {
+            // Not a picture of this cache
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private synchronized Bitmap readFromDisk(long id) {
+        String version = this.getVersions().get(id);
+        if (version == null) {
+            return null;
+        }
+        return BitmapFactory.decodeFile(this.getFile(id, version).getAbsolutePath());
+    }
+
+    private void setUpToDate(long id) {
+        synchronized (mOutdatedIds) {
+            mOutdatedIds.remove(id);
+        }
+    }
+
+    private synchronized void writeToDisk(long id, String version, Bitmap picture) {
+        this.deleteFromDisk(id);
+
+        File file = this.getFile(id, version);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            picture.compress(Bitmap.CompressFormat.PNG, IMAGE_QUALITY, out);
+            mVersions.put(id, version);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write " + file.getName() + " : " + e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not close " + file.getName() + " : " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Listener of the pictures loaded in background
+     *
+     * @author jfperren
+     */
+    public interface OnLoadedListener {
+        /**
+         * Called on the main thread once a picture is loaded in memory
+         *
+         * @param id
+         *            the id of the user
+         * @param picture
+         *            the loaded picture, which may already be evicted from memory
+         */
+        void onLoaded(long id, Bitmap picture);
+    }
+}
@@ -0,0 +1,295 @@
+package ch.epfl.smartmap.cache;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import android.location.Location;
+import android.util.LongSparseArray;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+/**
+ * A grid index of positions by id, allowing to find the ids in a region without looking at every
+ * position. The earth is cut into cells of a fixed number of degrees, and each cell keeps the ids of the
+ * positions it contains. A query only visits the cells overlapping its region (or the non empty cells if
+ * there are less of them), then checks the exact position of each id found.
+ * This class is not thread safe: the {@code Cache} modifies its indexes under its lock, and only publishes
+ * copies that are not modified anymore to its readers. A copy shares its cells with the original until one
+ * of them modifies a cell, which it then copies first, so that copying after a few moves is cheap.
+ *
+ * @author jfperren
+ */
+public final class SpatialIndex {
+
+    /**
+     * Side of a cell in degrees, about 5 kilometers in latitude
+     */
+    public static final double DEFAULT_CELL_SIZE = 0.05;
+
+    private static final double EARTH_RADIUS = 6371000;
+    // Margin on the bounding box of a radius, since Location computes distances on an ellipsoid
+    private static final double RADIUS_MARGIN = 1.01;
+
+    private static final double MAX_LATITUDE = 90;
+    private static final double MAX_LONGITUDE = 180;
+
+    private final double mCellSize;
+    private final long mColumns;
+
+    // Ids in each non empty cell
+    private final Map<Long, Set<Long>> mCells;
+    // Keys of the cells created or copied by this index, the others may be shared with copies
+    private final Set<Long> mOwnedCells;
+    // Position of each id, as {latitude, longitude}
+    private final LongSparseArray<double[]> mPositions;
+
+    /**
+     * Constructor with default cell size
+     */
+    public SpatialIndex() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param cellSize
+     *            side of a cell in degrees
+     */
+    public SpatialIndex(double cellSize) {
+        if ((cellSize <= 0) || (cellSize > MAX_LONGITUDE)) {
+            throw new IllegalArgumentException("Invalid cell size : " + cellSize);
+        }
+
+        mCellSize = cellSize;
+        mColumns = (long) Math.ceil((2 * MAX_LONGITUDE) / cellSize) + 1;
+        mCells = new HashMap<Long, Set<Long>>();
+        mOwnedCells = new HashSet<Long>();
+        mPositions = new LongSparseArray<double[]>();
+    }
+
+    /**
+     * Copy constructor, modifying the copy does not modify the original and conversely. The cells are shared
+     * until modified, so the copy only costs the copy of the positions.
+     *
+     * @param other
+     *            the index to copy
+     */
+    public SpatialIndex(SpatialIndex other) {
+        mCellSize = other.mCellSize;
+        mColumns = other.mColumns;
+        mCells = new HashMap<Long, Set<Long>>(other.mCells);
+        mOwnedCells = new HashSet<Long>();
+        // The cells of the original are now shared as well
+        other.mOwnedCells.clear();
+        // Positions are never modified in place, only replaced
+        mPositions = other.mPositions.clone();
+        // Compact the array now, otherwise its first reader would modify it
+        mPositions.size();
+    }
+
+    /**
+     * Removes all positions from the index
+     */
+    public void clear() {
+        mCells.clear();
+        mOwnedCells.clear();
+        mPositions.clear();
+    }
+
+    /**
+     * @param id
+     * @return whether the index contains a position for this id
+     */
+    public boolean contains(long id) {
+        return mPositions.get(id) != null;
+    }
+
+    /**
+     * @param south
+     *            minimum latitude
+     * @param west
+     *            minimum longitude, greater than {@code east} if the region crosses the antimeridian
+     * @param north
+     *            maximum latitude
+     * @param east
+     *            maximum longitude
+     * @return the ids whose position is in the given region
+     */
+    public Set<Long> idsInBounds(double south, double west, double north, double east) {
+        Set<Long> ids = new HashSet<Long>();
+
+        long minRow = this.row(south);
+        long maxRow = this.row(north);
+        long minColumn = this.column(west);
+        long maxColumn = this.column(east);
+
+        long rows = (maxRow - minRow) + 1;
+        long columns = (minColumn <= maxColumn) ? (maxColumn - minColumn) + 1 : (mColumns - minColumn)
+            + maxColumn + 1;
+
+        if ((rows * columns) > mCells.size()) {
+            // Cheaper to look at the non empty cells than at all cells of the region
+            for (Set<Long> cell : mCells.values()) {
+                this.addInBounds(cell, ids, south, west, north, east);
+            }
+        } else {
+            for (long row = minRow; row <= maxRow; row++) {
+                for (long i = 0; i < columns; i++) {
+                    Set<Long> cell = mCells.get((row * mColumns) + ((minColumn + i) % mColumns));
+                    if (cell != null) {
+                        this.addInBounds(cell, ids, south, west, north, east);
+                    }
+                }
+            }
+        }
+
+        return ids;
+    }
+
+    /**
+     * @param bounds
+     *            region of the map, for instance the visible region
+     * @return the ids whose position is in the given region
+     */
+    public Set<Long> idsInBounds(LatLngBounds bounds) {
+        return this.idsInBounds(bounds.southwest.latitude, bounds.southwest.longitude,
+            bounds.northeast.latitude, bounds.northeast.longitude);
+    }
+
+    /**
+     * @param latitude
+     *            latitude of the center
+     * @param longitude
+     *            longitude of the center
+     * @param radius
+     *            in meters
+     * @return the ids whose position is at most {@code radius} meters away from the center
+     */
+    public Set<Long> idsInRadius(double latitude, double longitude, double radius) {
+        double deltaLatitude = Math.toDegrees((radius * RADIUS_MARGIN) / EARTH_RADIUS);
+
+        double south = Math.max(latitude - deltaLatitude, -MAX_LATITUDE);
+        double north = Math.min(latitude + deltaLatitude, MAX_LATITUDE);
+        double west = -MAX_LONGITUDE;
+        double east = MAX_LONGITUDE;
+
+        double cosLatitude = Math.cos(Math.toRadians(Math.max(Math.abs(south), Math.abs(north))));
+        if ((north < MAX_LATITUDE) && (south > -MAX_LATITUDE) && (cosLatitude > 0)) {
+            double deltaLongitude = deltaLatitude / cosLatitude;
+            if (deltaLongitude < MAX_LONGITUDE) {
+                west = this.wrapLongitude(longitude - deltaLongitude);
+                east = this.wrapLongitude(longitude + deltaLongitude);
+            }
+        }
+
+        Set<Long> ids = new HashSet<Long>();
+        float[] distance = new float[1];
+        for (long id : this.idsInBounds(south, west, north, east)) {
+            double[] position = mPositions.get(id);
+            Location.distanceBetween(latitude, longitude, position[0], position[1], distance);
+            if (distance[0] <= radius) {
+                ids.add(id);
+            }
+        }
+
+        return ids;
+    }
+
+    /**
+     * Adds or moves the position of an id
+     *
+     * @param id
+     * @param latitude
+     * @param longitude
+     */
+    public void put(long id, double latitude, double longitude) {
+        double[] previous = mPositions.get(id);
+        if (previous != null) {
+            if ((previous[0] == latitude) && (previous[1] == longitude)) {
+                return;
+            }
+            this.remove(id);
+        }
+
+        this.ownedCell(this.cellKey(latitude, longitude)).add(id);
+        mPositions.put(id, new double[]{latitude, longitude});
+    }
+
+    /**
+     * Removes the position of an id, if any
+     *
+     * @param id
+     */
+    public void remove(long id) {
+        double[] position = mPositions.get(id);
+        if (position != null) {
+            long key = this.cellKey(position[0], position[1]);
+            Set<Long> cell = this.ownedCell(key);
+            cell.remove(id);
+            if (cell.isEmpty()) {
+                mCells.remove(key);
+                mOwnedCells.remove(key);
+            }
+            mPositions.remove(id);
+        }
+    }
+
+    /**
+     * @return the number of positions in the index
+     */
+    public int size() {
+        return mPositions.size();
+    }
+
+    private void addInBounds(Set<Long> cell, Set<Long> ids, double south, double west, double north,
+        double east) {
+        for (long id : cell) {
+            double[] position = mPositions.get(id);
+            boolean inLongitudes =
+                (west <= east) ? ((position[1] >= west) && (position[1] <= east))
+                    : ((position[1] >= west) || (position[1] <= east));
+            if (inLongitudes && (position[0] >= south) && (position[0] <= north)) {
+                ids.add(id);
+            }
+        }
+    }
+
+    private long cellKey(double latitude, double longitude) {
+        return (this.row(latitude) * mColumns) + this.column(longitude);
+    }
+
+    private long column(double longitude) {
+        return (long) Math.floor((this.wrapLongitude(longitude) + MAX_LONGITUDE) / mCellSize);
+    }
+
+    private long row(double latitude) {
+        return (long) Math.floor((Math.max(-MAX_LATITUDE, Math.min(latitude, MAX_LATITUDE)) + MAX_LATITUDE)
+            / mCellSize);
+    }
+
+    /**
+     * @param key
+     * @return the cell of the key, created if empty or copied if shared, which can thus be modified
+     */
+    private Set<Long> ownedCell(long key) {
+        Set<Long> cell = mCells.get(key);
+        if (!mOwnedCells.contains(key)) {
+            cell = (cell == null) ? new HashSet<Long>() : new HashSet<Long>(cell);
+            mCells.put(key, cell);
+            mOwnedCells.add(key);
+        }
+        return cell;
+    }
+
+    private double wrapLongitude(double longitude) {
+        if (longitude < -MAX_LONGITUDE) {
+            return longitude + (2 * MAX_LONGITUDE);
+        } else if (longitude > MAX_LONGITUDE) {
+            return longitude - (2 * MAX_LONGITUDE);
+        }
+        return longitude;
+    }
+}
@@ -1,5 +1,6 @@
 package ch.epfl.smartmap.cache;
 
+import java.lang.ref.WeakReference;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 
@@ -34,8 +35,12 @@ public abstract class User implements UserInterface {
     public static final int NO_FRIENDSHIP = -1;
 
     private final long mId;
-    private String mName;
-    private Bitmap mImage;
+    private volatile String mName;
+    // Picture not kept by the PictureCache, null if the picture is read from it when needed
+    private volatile Bitmap mImage;
+    // Last picture loaded in background, displayed even if the PictureCache evicted it meanwhile. Only read
+    // and written on the main thread, and kept as long as a view displays it.
+    private WeakReference<Bitmap> mLoadedImage;
 
     /**
      * Constructor
@@ -45,13 +50,21 @@ public abstract class User implements UserInterface {
      * @param name
      *            User's name
      * @param image
-     *            User's profile picture
+     *            User's profile picture, or {@code null} to read it from the {@code PictureCache} on first
+     *            use
      */
     protected User(long id, String name, Bitmap image) {
 
         mId = (id >= 0) ? id : User.NO_ID;
         mName = (name != null) ? name : User.NO_NAME;
-        mImage = (image != null) ? Bitmap.createBitmap(image) : User.NO_IMAGE;
+        if (image != null) {
+            this.setImage(Bitmap.createBitmap(image));
+        } else if ((mId == User.NO_ID) || (ServiceContainer.getPictureCache() == null)
+            || (!ServiceContainer.getPictureCache().hasPicture(mId) && !ServiceContainer.getPictureCache()
+                .isOutdated(mId))) {
+            // Users whose picture is only outdated get it once displayed
+            mImage = User.NO_IMAGE;
+        }
 
         if ((mId != User.NO_ID) && ((mName == User.NO_NAME) || (mImage == User.NO_IMAGE))) {
             // If missing informations, tell cache to ask the client
@@ -74,7 +87,30 @@ public abstract class User implements UserInterface {
      */
     @Override
     public Bitmap getActionImage() {
-        return mImage;
+        PictureCache pictures = ServiceContainer.getPictureCache();
+        // A user without picture gets one once the server tells it has one
+        if ((mImage != null) && ((mImage != User.NO_IMAGE) || !pictures.isOutdated(mId))) {
+            return mImage;
+        }
+        // Read when needed, so that pictures not used recently can be evicted from memory. Views call this
+        // on the main thread, so a picture not in memory is read in background and displayed once loaded.
+        // Likewise, an outdated or missing picture is only downloaded once displayed.
+        Bitmap picture = pictures.getFromMemory(mId);
+        if ((picture == null) && (mLoadedImage != null)) {
+            // Otherwise a picture evicted before the views read it again would be loaded over and over
+            picture = mLoadedImage.get();
+        }
+        if ((picture == null) || pictures.isOutdated(mId)) {
+            pictures.loadInBackground(mId, ServiceContainer.getNetworkClient(),
+                new PictureCache.OnLoadedListener() {
+                    @Override
+                    public void onLoaded(long id, Bitmap loaded) {
+                        mLoadedImage = new WeakReference<Bitmap>(loaded);
+                        ServiceContainer.getCache().notifyPictureLoaded(id);
+                    }
+                });
+        }
+        return (picture != null) ? picture : User.NO_IMAGE;
     }
 
     /*
@@ -132,6 +168,16 @@ public abstract class User implements UserInterface {
         return (int) mId;
     }
 
+    /**
+     * Called by the cache once the picture of the user was loaded by the {@code PictureCache}, so that a user
+     * that had no picture displays it.
+     */
+    void pictureLoaded() {
+        if (mImage == User.NO_IMAGE) {
+            mImage = null;
+        }
+    }
+
     @Override
     public boolean update(UserContainer newValues) {
         boolean hasChanged = false;
@@ -152,8 +198,8 @@ public abstract class User implements UserInterface {
         }
 
         if ((newValues.getImage() != null) && (newValues.getImage() != User.NO_IMAGE)
-            && !newValues.getImage().sameAs(mImage)) {
-            mImage = newValues.getImage();
+            && !newValues.getImage().sameAs(this.getImage())) {
+            this.setImage(newValues.getImage());
             hasChanged = true;
         }
 
@@ -183,6 +229,28 @@ public abstract class User implements UserInterface {
         }
     }
 
+    /**
+     * @return the picture of the user, read from disk if it is not in memory. Must not be called from the
+     *         main thread.
+     */
+    private Bitmap getImage() {
+        if (mImage != null) {
+            return mImage;
+        }
+        Bitmap picture = ServiceContainer.getPictureCache().get(mId);
+        return (picture != null) ? picture : User.NO_IMAGE;
+    }
+
+    /**
+     * Keeps a picture, unless it is the one kept in memory by the {@code PictureCache}
+     * 
+     * @param image
+     */
+    private void setImage(Bitmap image) {
+        PictureCache pictures = ServiceContainer.getPictureCache();
+        mImage = ((pictures != null) && pictures.isInMemory(mId, image)) ? null : image;
+    }
+
     /**
      * Possible Block values
      * 
@@ -22,6 +22,8 @@ public final class UserContainer {
     private Bitmap mImage;
     private User.BlockStatus mIsBlocked;
     private int mFriendship;
+    // Version of the profile picture on the server, null if unknown
+    private String mPictureVersion;
 
     /**
      * Constructor, no check on any of the values
@@ -110,6 +112,13 @@ public final class UserContainer {
         return mPhoneNumber;
     }
 
+    /**
+     * @return pictureVersion field
+     */
+    public String getPictureVersion() {
+        return mPictureVersion;
+    }
+
     /**
      * @return isBlocked field
      */
@@ -198,6 +207,15 @@ public final class UserContainer {
         return this;
     }
 
+    /**
+     * @param newPictureVersion
+     * @return this
+     */
+    public UserContainer setPictureVersion(String newPictureVersion) {
+        mPictureVersion = newPictureVersion;
+        return this;
+    }
+
     public static UserContainer newEmptyContainer() {
         return new UserContainer(User.NO_ID, User.NO_NAME, User.NO_PHONE_NUMBER, User.NO_EMAIL,
             User.NO_LOCATION, User.NO_LOCATION_STRING, User.NO_IMAGE, User.BlockStatus.NOT_SET,
@@ -1,13 +1,11 @@
 package ch.epfl.smartmap.database;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import android.content.ContentValues;
@@ -15,12 +13,15 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.location.Location;
 import android.util.Log;
 import ch.epfl.smartmap.R;
 import ch.epfl.smartmap.background.ServiceContainer;
+import ch.epfl.smartmap.cache.Cache;
+import ch.epfl.smartmap.cache.CacheChanges;
 import ch.epfl.smartmap.cache.Displayable;
 import ch.epfl.smartmap.cache.Event;
 import ch.epfl.smartmap.cache.EventContainer;
@@ -29,6 +30,7 @@ import ch.epfl.smartmap.cache.FilterContainer;
 import ch.epfl.smartmap.cache.Friend;
 import ch.epfl.smartmap.cache.Invitation;
 import ch.epfl.smartmap.cache.InvitationContainer;
+import ch.epfl.smartmap.cache.PictureCache;
 import ch.epfl.smartmap.cache.User;
 import ch.epfl.smartmap.cache.UserContainer;
 
@@ -41,11 +43,12 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
 
     private static final String TAG = DatabaseHelper.class.getSimpleName();
 
-    private static final int DATABASE_VERSION = 12;
+    private static final int DATABASE_VERSION = 13;
+    // Oldest version that can be migrated, older databases are created again
+    private static final int FIRST_MIGRATED_VERSION = 12;
     private static final String DATABASE_NAME = "SmartMapDB";
 
     public static final int DEFAULT_PICTURE = R.drawable.ic_default_user; // placeholder
-    public static final int IMAGE_QUALITY = 100;
 
     public static final String TABLE_USER = "users";
     public static final String TABLE_FILTER = "filters";
@@ -79,6 +82,9 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
 
     private static final String KEY_EVTDESC = "eventDescription";
 
+    // Alias of the participants' ids when the events are joined with their participants
+    private static final String KEY_PARTICIPANT_ID = "participantID";
+
     // Columns for the User table
     private static final String[] USER_COLUMNS = {KEY_USER_ID, KEY_NAME, KEY_NUMBER, KEY_EMAIL,
         KEY_LONGITUDE, KEY_LATITUDE, KEY_POSNAME, KEY_LASTSEEN, KEY_BLOCKED, KEY_FRIENDSHIP};
@@ -96,6 +102,10 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
     // Columns for the Event-User table
     private static final String[] EVENT_USER_COLUMNS = {KEY_ID, KEY_EVENT_ID, KEY_USER_ID};
 
+    // Columns for the Invitations table
+    private static final String[] INVITATION_COLUMNS = {KEY_ID, KEY_USER_ID, KEY_EVENT_ID, KEY_STATUS,
+        KEY_DATE, KEY_TYPE};
+
     // Columns for the pending requests table
     private static final String[] PENDING_COLUMNS = {KEY_USER_ID, KEY_NAME};
 
@@ -130,12 +140,42 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
         + "(" + KEY_ID + " INTEGER PRIMARY KEY," + KEY_USER_ID + " INTEGER," + KEY_EVENT_ID + " INTEGER, "
         + KEY_STATUS + " INTEGER," + KEY_DATE + " INTEGER, " + KEY_TYPE + " INTEGER" + ")";
 
+    // Indexes, with the unique keys of the join tables
+    private static final String[] CREATE_INDEXES = {
+        "CREATE UNIQUE INDEX IF NOT EXISTS " + TABLE_EVENT_USER + "_event_user ON " + TABLE_EVENT_USER + "("
+            + KEY_EVENT_ID + ", " + KEY_USER_ID + ")",
+        "CREATE INDEX IF NOT EXISTS " + TABLE_EVENT_USER + "_user ON " + TABLE_EVENT_USER + "(" + KEY_USER_ID
+            + ")",
+        "CREATE UNIQUE INDEX IF NOT EXISTS " + TABLE_FILTER_USER + "_filter_user ON " + TABLE_FILTER_USER
+            + "(" + KEY_FILTER_ID + ", " + KEY_USER_ID + ")",
+        "CREATE INDEX IF NOT EXISTS " + TABLE_INVITATIONS + "_user ON " + TABLE_INVITATIONS + "("
+            + KEY_USER_ID + ")",
+        "CREATE INDEX IF NOT EXISTS " + TABLE_INVITATIONS + "_event ON " + TABLE_INVITATIONS + "("
+            + KEY_EVENT_ID + ")"};
+
     // Table of invitations
     private static final String CREATE_TABLE_PENDING = "CREATE TABLE IF NOT EXISTS " + TABLE_PENDING + "("
         + KEY_USER_ID + " INTEGER PRIMARY KEY," + KEY_NAME + " TEXT" + ")";
 
     private final SQLiteDatabase mDatabase;
     private final Context mContext;
+    private Bitmap mDefaultPicture;
+
+    // Writers used by updateFromCache, remembering the rows written
+    private final TableWriter mUserWriter;
+    private final TableWriter mEventWriter;
+    private final TableWriter mFilterWriter;
+    private final TableWriter mInvitationWriter;
+    private final TableWriter[] mWriters;
+    // Statements writing the join tables, compiled while writing
+    private SQLiteStatement mDeleteEventUsers;
+    private SQLiteStatement mInsertEventUser;
+    private SQLiteStatement mDeleteFilterUsers;
+    private SQLiteStatement mInsertFilterUser;
+    // Number of writes by other methods than updateFromCache, after which the writers must write everything
+    private volatile int mOtherWrites;
+    // Value of mOtherWrites when the rows remembered by the writers were those in the database, or -1
+    private int mValidOtherWrites = -1;
 
     /**
      * DatabaseHelper constructor. Will be made private, so use initialize() or
@@ -148,6 +188,12 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
         super(context, DATABASE_NAME + "_" + ServiceContainer.getSettingsManager().getUserId(), null,
             DATABASE_VERSION);
         mContext = context;
+        mUserWriter = new TableWriter(TABLE_USER, USER_COLUMNS);
+        mEventWriter = new TableWriter(TABLE_EVENT, EVENT_COLUMNS);
+        mFilterWriter = new TableWriter(TABLE_FILTER, FILTER_COLUMNS);
+        mInvitationWriter = new TableWriter(TABLE_INVITATIONS, INVITATION_COLUMNS);
+        mWriters = new TableWriter[]{mUserWriter, mEventWriter, mFilterWriter, mInvitationWriter};
+        this.setWriteAheadLoggingEnabled(true);
         mDatabase = this.getWritableDatabase();
         this.onCreate(mDatabase);
     }
@@ -158,52 +204,42 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
      */
     @Override
     public void addEvent(EventContainer event) throws IllegalArgumentException {
+        mOtherWrites++;
         if (event.getId() < 0) {
             throw new IllegalArgumentException("Invalid event ID");
         }
 
-        Cursor cursor =
-            mDatabase.query(TABLE_EVENT, EVENT_COLUMNS, KEY_ID + " = ?",
-                new String[]{String.valueOf(event.getId())}, null, null, null, null);
+        ContentValues values = new ContentValues();
+        values.put(KEY_ID, event.getId());
+        values.put(KEY_NAME, event.getName());
+        values.put(KEY_EVTDESC, event.getDescription());
+        values.put(KEY_USER_ID, event.getCreatorContainer().getId());
+        if (event.getLocation() != null) {
+            values.put(KEY_LONGITUDE, event.getLocation().getLongitude());
+            values.put(KEY_LATITUDE, event.getLocation().getLatitude());
+        }
+        if ((event.getStartDate() != null) && (event.getEndDate() != null)) {
+            values.put(KEY_DATE, event.getStartDate().getTimeInMillis());
+            values.put(KEY_ENDDATE, event.getEndDate().getTimeInMillis());
+        }
+        values.put(KEY_POSNAME, event.getLocationString());
 
-        // We check if the event is already there
-        if (!cursor.moveToFirst()) {
+        // The insertion is ignored if the event is already there
+        if (mDatabase.insertWithOnConflict(TABLE_EVENT, null, values, SQLiteDatabase.CONFLICT_IGNORE) != -1) {
             this.addUser(event.getCreatorContainer());
 
-            // Doesn't add event if we can't store the user
-            if (this.getUser(event.getCreatorContainer().getId()) != null) {
-                ContentValues values = new ContentValues();
-                values.put(KEY_ID, event.getId());
-                values.put(KEY_NAME, event.getName());
-                values.put(KEY_EVTDESC, event.getDescription());
-                values.put(KEY_USER_ID, event.getCreatorContainer().getId());
-                if (event.getLocation() != null) {
-                    values.put(KEY_LONGITUDE, event.getLocation().getLongitude());
-                    values.put(KEY_LATITUDE, event.getLocation().getLatitude());
-                }
-                if ((event.getStartDate() != null) && (event.getEndDate() != null)) {
-                    values.put(KEY_DATE, event.getStartDate().getTimeInMillis());
-                    values.put(KEY_ENDDATE, event.getEndDate().getTimeInMillis());
-                }
-                values.put(KEY_POSNAME, event.getLocationString());
-
-                mDatabase.insert(TABLE_EVENT, null, values);
-
-                // Then we add the event-user pairs to another table
-                ContentValues pairValues = null;
-                for (long id : event.getParticipantIds()) {
-                    pairValues = new ContentValues();
-                    pairValues.put(KEY_EVENT_ID, event.getId());
-                    pairValues.put(KEY_USER_ID, id);
-                    mDatabase.insert(TABLE_EVENT_USER, null, pairValues);
-                }
+            // Then we add the event-user pairs to another table
+            ContentValues pairValues = null;
+            for (long id : event.getParticipantIds()) {
+                pairValues = new ContentValues();
+                pairValues.put(KEY_EVENT_ID, event.getId());
+                pairValues.put(KEY_USER_ID, id);
+                mDatabase.insertWithOnConflict(TABLE_EVENT_USER, null, pairValues,
+                    SQLiteDatabase.CONFLICT_IGNORE);
             }
         } else {
             this.updateEvent(event);
         }
-
-        cursor.close();
-
     }
 
     /*
@@ -213,6 +249,7 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
      */
     @Override
     public long addFilter(FilterContainer filter) {
+        mOtherWrites++;
         // First we insert the filter in the table of lists
         ContentValues filterValues = new ContentValues();
         filterValues.put(KEY_ID, filter.getId());
@@ -226,7 +263,8 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
             pairValues = new ContentValues();
             pairValues.put(KEY_FILTER_ID, filterID);
             pairValues.put(KEY_USER_ID, id);
-            mDatabase.insert(TABLE_FILTER_USER, null, pairValues);
+            mDatabase.insertWithOnConflict(TABLE_FILTER_USER, null, pairValues,
+                SQLiteDatabase.CONFLICT_IGNORE);
         }
 
         return filterID;
@@ -240,7 +278,7 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
      */
     @Override
     public long addInvitation(InvitationContainer invitation) {
-
+        mOtherWrites++;
         // Add invitation related infos in database
         if (invitation.getUserInfos() != null) {
             this.addUser(invitation.getUserInfos());
@@ -310,40 +348,34 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
      */
     @Override
     public void addUser(UserContainer user) {
-        Cursor cursor =
-            mDatabase.query(TABLE_USER, USER_COLUMNS, KEY_USER_ID + " = ?",
-                new String[]{String.valueOf(user.getId())}, null, null, null, null);
-
-        if (!cursor.moveToFirst()) {
-            ContentValues values = new ContentValues();
-            values.put(KEY_USER_ID, user.getId());
-            values.put(KEY_NAME, user.getName());
-            values.put(KEY_NUMBER, user.getPhoneNumber());
-            values.put(KEY_EMAIL, user.getEmail());
-            if (user.getLocation() != null) {
-                values.put(KEY_LONGITUDE, user.getLocation().getLongitude());
-                values.put(KEY_LATITUDE, user.getLocation().getLatitude());
-                values.put(KEY_LASTSEEN, user.getLocation().getTime());
-            } else {
-                values.put(KEY_LONGITUDE, User.NO_LONGITUDE);
-                values.put(KEY_LATITUDE, User.NO_LATITUDE);
-                values.put(KEY_LASTSEEN, 0);
-            }
+        mOtherWrites++;
+        ContentValues values = new ContentValues();
+        values.put(KEY_USER_ID, user.getId());
+        values.put(KEY_NAME, user.getName());
+        values.put(KEY_NUMBER, user.getPhoneNumber());
+        values.put(KEY_EMAIL, user.getEmail());
+        if (user.getLocation() != null) {
+            values.put(KEY_LONGITUDE, user.getLocation().getLongitude());
+            values.put(KEY_LATITUDE, user.getLocation().getLatitude());
+            values.put(KEY_LASTSEEN, user.getLocation().getTime());
+        } else {
+            values.put(KEY_LONGITUDE, User.NO_LONGITUDE);
+            values.put(KEY_LATITUDE, User.NO_LATITUDE);
+            values.put(KEY_LASTSEEN, 0);
+        }
 
-            values.put(KEY_POSNAME, user.getLocationString());
-            int blocked = 0;
-            if (user.isBlocked() == User.BlockStatus.BLOCKED) {
-                blocked = 1;
-            }
-            values.put(KEY_BLOCKED, blocked);
-            values.put(KEY_FRIENDSHIP, user.getFriendship());
+        values.put(KEY_POSNAME, user.getLocationString());
+        int blocked = 0;
+        if (user.isBlocked() == User.BlockStatus.BLOCKED) {
+            blocked = 1;
+        }
+        values.put(KEY_BLOCKED, blocked);
+        values.put(KEY_FRIENDSHIP, user.getFriendship());
 
-            mDatabase.insert(TABLE_USER, null, values);
-        } else {
+        // The insertion is ignored if the user is already there
+        if (mDatabase.insertWithOnConflict(TABLE_USER, null, values, SQLiteDatabase.CONFLICT_IGNORE) == -1) {
             this.updateFriend(user);
         }
-
-        cursor.close();
     }
 
     /*
@@ -352,15 +384,8 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
      */
     @Override
     public void clearAll() {
-        mDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_USER);
-        mDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_FILTER);
-        mDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_FILTER_USER);
-        mDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_EVENT);
-        mDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_EVENT_USER);
-        mDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_INVITATIONS);
-        mDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_PENDING);
-
-        this.onCreate(mDatabase);
+        mOtherWrites++;
+        this.dropAndCreate(mDatabase);
     }
 
     /*
@@ -369,7 +394,7 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
      */
     @Override
     public void deleteEvent(long id) {
-
+        mOtherWrites++;
         mDatabase.delete(TABLE_EVENT, KEY_ID + " = ?", new String[]{String.valueOf(id)});
         mDatabase.delete(TABLE_EVENT_USER, KEY_EVENT_ID + " = ?", new String[]{String.valueOf(id)});
     }
@@ -380,6 +405,7 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
      */
     @Override
     public void deleteFilter(long id) {
+        mOtherWrites++;
         // delete the filter from the table of filters
         mDatabase.delete(TABLE_FILTER, KEY_ID + " = ?", new String[]{String.valueOf(id)});
 
@@ -395,6 +421,7 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
      */
     @Override
     public void deleteInvitation(long id) {
+        mOtherWrites++;
         mDatabase.delete(TABLE_INVITATIONS, KEY_ID + " = ?", new String[]{String.valueOf(id)});
     }
 
@@ -413,6 +440,7 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
      */
     @Override
     public void deleteUser(long id) {
+        mOtherWrites++;
         mDatabase.delete(TABLE_USER, KEY_USER_ID + " = ?", new String[]{String.valueOf(id)});
     }
 
@@ -422,21 +450,7 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
      */
     @Override
     public Set<EventContainer> getAllEvents() {
-        Set<EventContainer> events = new HashSet<EventContainer>();
-
-        String query = "SELECT  * FROM " + TABLE_EVENT;
-
-        Cursor cursor = mDatabase.rawQuery(query, null);
-
-        if ((cursor != null) && cursor.moveToFirst()) {
-            do {
-                events.add(this.getEvent(cursor.getLong(cursor.getColumnIndex(KEY_ID))));
-            } while (cursor.moveToNext());
-
-            cursor.close();
-        }
-
-        return events;
+        return new HashSet<EventContainer>(this.getEventsById(this.getUsersById()).values());
     }
 
     /*
@@ -445,35 +459,46 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
      */
     @Override
     public Set<FilterContainer> getAllFilters() {
+        Map<Long, FilterContainer> filters = new HashMap<Long, FilterContainer>();
 
-        Set<FilterContainer> filters = new HashSet<FilterContainer>();
-        Set<Long> filterIds = new HashSet<Long>();
-
-        String query = "SELECT  * FROM " + TABLE_FILTER;
+        // Filters with their users, one row per user
+        String query =
+            "SELECT " + TABLE_FILTER + ".*, " + TABLE_FILTER_USER + "." + KEY_USER_ID + " FROM "
+                + TABLE_FILTER + " LEFT JOIN " + TABLE_FILTER_USER + " ON " + TABLE_FILTER + "." + KEY_ID
+                + " = " + TABLE_FILTER_USER + "." + KEY_FILTER_ID;
 
         Cursor cursor = mDatabase.rawQuery(query, null);
 
         if ((cursor != null) && cursor.moveToFirst()) {
+            int idColumn = cursor.getColumnIndex(KEY_ID);
+            int userIdColumn = cursor.getColumnIndex(KEY_USER_ID);
             do {
-                // using getFilter to add this row's filter to the list
-                filters.add(this.getFilter(cursor.getLong(cursor.getColumnIndex(KEY_ID))));
+                long id = cursor.getLong(idColumn);
+                FilterContainer filter = filters.get(id);
+                if (filter == null) {
+                    filter =
+                        new FilterContainer(id, cursor.getString(cursor.getColumnIndex(KEY_NAME)),
+                            new HashSet<Long>(), cursor.getInt(cursor.getColumnIndex(KEY_ACTIVE)) == 1);
+                    filters.put(id, filter);
+                }
+                if (!cursor.isNull(userIdColumn)) {
+                    filter.getIds().add(cursor.getLong(userIdColumn));
+                }
             } while (cursor.moveToNext());
-
-            cursor.close();
         }
-
-        for (FilterContainer filter : filters) {
-            filterIds.add(filter.getId());
+        if (cursor != null) {
+            cursor.close();
         }
 
-        Log.d(TAG, "Database contains filter ids : " + filterIds);
+        Log.d(TAG, "Database contains filter ids : " + filters.keySet());
 
-        if (!filterIds.contains(Filter.DEFAULT_FILTER_ID)) {
+        if (!filters.containsKey(Filter.DEFAULT_FILTER_ID)) {
             Log.d(TAG, "database contains no default filter");
-            filters.add(new FilterContainer(Filter.DEFAULT_FILTER_ID, "", new HashSet<Long>(), true));
+            filters.put(Filter.DEFAULT_FILTER_ID, new FilterContainer(Filter.DEFAULT_FILTER_ID, "",
+                new HashSet<Long>(), true));
         }
 
-        return filters;
+        return new HashSet<FilterContainer>(filters.values());
     }
 
     /*
@@ -484,6 +509,10 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
     public Set<InvitationContainer> getAllInvitations() {
         Set<InvitationContainer> invitations = new HashSet<InvitationContainer>();
 
+        // Users and events are read all at once instead of once per invitation
+        Map<Long, UserContainer> users = this.getUsersById();
+        Map<Long, EventContainer> events = this.getEventsById(users);
+
         String query = "SELECT  * FROM " + TABLE_INVITATIONS;
 
         Cursor cursor = mDatabase.rawQuery(query, null);
@@ -497,10 +526,8 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
                 long date = cursor.getLong(cursor.getColumnIndex(KEY_DATE));
                 int type = cursor.getInt(cursor.getColumnIndex(KEY_TYPE));
 
-                UserContainer user = this.getUser(userId);
-                EventContainer event = this.getEvent(eventId);
-
-                invitations.add(new InvitationContainer(id, user, event, status, date, type));
+                invitations.add(new InvitationContainer(id, users.get(userId), events.get(eventId), status,
+                    date, type));
 
             } while (cursor.moveToNext());
 
@@ -516,22 +543,7 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
      */
     @Override
     public Set<UserContainer> getAllUsers() {
-        Set<UserContainer> users = new HashSet<UserContainer>();
-
-        String query = "SELECT  * FROM " + TABLE_USER;
-
-        Cursor cursor = mDatabase.rawQuery(query, null);
-
-        if ((cursor != null) && (cursor.getCount() > 0) && cursor.moveToFirst()) {
-            do {
-                Log.d(TAG, "" + cursor);
-                users.add(this.getUser(cursor.getLong(cursor.getColumnIndex(KEY_USER_ID))));
-            } while (cursor.moveToNext());
-
-            cursor.close();
-        }
-
-        return users;
+        return new HashSet<UserContainer>(this.getUsersById().values());
     }
 
     /*
@@ -547,41 +559,21 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
 
         EventContainer event = null;
         if ((cursor != null) && cursor.moveToFirst()) {
-
-            GregorianCalendar startDate = new GregorianCalendar();
-            GregorianCalendar endDate = new GregorianCalendar();
-            startDate.setTimeInMillis(cursor.getLong(cursor.getColumnIndex(KEY_DATE)));
-            endDate.setTimeInMillis(cursor.getLong(cursor.getColumnIndex(KEY_ENDDATE)));
-
-            Location location = new Location(Displayable.PROVIDER_NAME);
-            location.setLongitude(cursor.getDouble(cursor.getColumnIndex(KEY_LONGITUDE)));
-            location.setLatitude(cursor.getDouble(cursor.getColumnIndex(KEY_LATITUDE)));
-            String locationString = cursor.getString(cursor.getColumnIndex(KEY_POSNAME));
-
-            String name = cursor.getString(cursor.getColumnIndex(KEY_NAME));
-            String description = cursor.getString(cursor.getColumnIndex(KEY_EVTDESC));
-            long creatorId = cursor.getColumnIndex(KEY_USER_ID);
-
-            event =
-                new EventContainer(id, name, this.getUser(creatorId), description, startDate, endDate,
-                    location, locationString, new HashSet<Long>());
+            event = this.readEvent(cursor, this.getUser(cursor.getLong(cursor.getColumnIndex(KEY_USER_ID))));
+            cursor.close();
 
             // Second query to get the associated list of IDs
-            Set<Long> ids = new HashSet<Long>();
-
             cursor =
                 mDatabase.query(TABLE_EVENT_USER, EVENT_USER_COLUMNS, KEY_EVENT_ID + " = ?",
                     new String[]{String.valueOf(id)}, null, null, null, null);
 
-            if (cursor != null && cursor.moveToFirst()) {
+            if ((cursor != null) && cursor.moveToFirst()) {
                 do {
-                    ids.add(cursor.getLong(cursor.getColumnIndex(KEY_USER_ID)));
+                    event.getParticipantIds().add(cursor.getLong(cursor.getColumnIndex(KEY_USER_ID)));
                 } while (cursor.moveToNext());
 
                 cursor.close();
             }
-
-            event.setParticipantIds(ids);
         }
         return event;
     }
@@ -656,15 +648,13 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
     public List<Long> getFriendIds() {
         List<Long> friendIds = new ArrayList<Long>();
 
-        String query = "SELECT  * FROM " + TABLE_USER;
-
-        Cursor cursor = mDatabase.rawQuery(query, null);
+        Cursor cursor =
+            mDatabase.query(TABLE_USER, new String[]{KEY_USER_ID}, KEY_FRIENDSHIP + " = ?",
+                new String[]{String.valueOf(User.FRIEND)}, null, null, null, null);
 
         if ((cursor != null) && cursor.moveToFirst()) {
             do {
-                if (this.getUser(cursor.getLong(cursor.getColumnIndex(KEY_USER_ID))).getFriendship() == User.FRIEND) {
-                    friendIds.add(cursor.getLong(cursor.getColumnIndex(KEY_USER_ID)));
-                }
+                friendIds.add(cursor.getLong(0));
             } while (cursor.moveToNext());
 
             cursor.close();
@@ -702,13 +692,14 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
      */
     @Override
     public Bitmap getPictureById(long userId) {
-        File file = new File(mContext.getFilesDir(), userId + ".png");
-        Bitmap pic = null;
-        if (file.exists()) {
-            pic = BitmapFactory.decodeFile(file.getAbsolutePath());
-        }
+        Bitmap pic = ServiceContainer.getPictureCache().get(userId);
         if (pic == null) {
-            pic = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.ic_default_user);
+            if (mDefaultPicture == null) {
+                // Decoded once, instead of for each user without picture
+                mDefaultPicture =
+                    BitmapFactory.decodeResource(mContext.getResources(), DEFAULT_PICTURE);
+            }
+            pic = mDefaultPicture;
         }
         return pic;
     }
@@ -724,30 +715,13 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
             mDatabase.query(TABLE_USER, USER_COLUMNS, KEY_USER_ID + " = ?", new String[]{String.valueOf(id)},
                 null, null, null, null);
 
+        UserContainer user = null;
         if ((cursor != null) && cursor.moveToFirst()) {
-            String name = cursor.getString(cursor.getColumnIndex(KEY_NAME));
-            String phoneNumber = cursor.getString(cursor.getColumnIndex(KEY_NUMBER));
-            String email = cursor.getString(cursor.getColumnIndex(KEY_EMAIL));
-            long lastSeen = cursor.getLong(cursor.getColumnIndex(KEY_LASTSEEN));
-            double longitude = cursor.getDouble(cursor.getColumnIndex(KEY_LONGITUDE));
-            double latitude = cursor.getDouble(cursor.getColumnIndex(KEY_LATITUDE));
-            Location location = new Location("database");
-            location.setLongitude(longitude);
-            location.setLatitude(latitude);
-            location.setTime(lastSeen);
-            String locationString = cursor.getString(cursor.getColumnIndex(KEY_POSNAME));
-            Bitmap image = this.getPictureById(id);
-            boolean isBlocked = cursor.getInt(cursor.getColumnIndex(KEY_BLOCKED)) == 1;
-            int friendship = cursor.getInt(cursor.getColumnIndex(KEY_FRIENDSHIP));
-
+            user = this.readUser(cursor, true);
             cursor.close();
-
-            User.BlockStatus status = isBlocked ? User.BlockStatus.BLOCKED : User.BlockStatus.UNBLOCKED;
-            return new UserContainer(id, name, phoneNumber, email, location, locationString, image, status,
-                friendship);
         }
 
-        return null;
+        return user;
     }
 
     @Override
@@ -759,30 +733,33 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
         db.execSQL(CREATE_TABLE_EVENT_USER);
         db.execSQL(CREATE_TABLE_INVITATIONS);
         db.execSQL(CREATE_TABLE_PENDING);
+        for (String index : CREATE_INDEXES) {
+            db.execSQL(index);
+        }
     }
 
     @Override
     public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_USER);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_FILTER);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_FILTER_USER);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_EVENT);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_EVENT_USER);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_INVITATIONS);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_PENDING);
-        this.onCreate(db);
+        this.dropAndCreate(db);
     }
 
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.database.DatabaseHelperInterface#onUpgrade(android.database.sqlite.
+     * SQLiteDatabase, int, int)
+     * Each version is migrated to the next one in turn, keeping the data. Databases older than
+     * FIRST_MIGRATED_VERSION are created again.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_USER);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_FILTER);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_FILTER_USER);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_EVENT);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_EVENT_USER);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_INVITATIONS);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_PENDING);
-        this.onCreate(db);
+        if (oldVersion < FIRST_MIGRATED_VERSION) {
+            this.dropAndCreate(db);
+            return;
+        }
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            Log.d(TAG, "Migrating database to version " + version);
+            this.migrateTo(db, version);
+        }
     }
 
     /*
@@ -791,21 +768,7 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
      */
     @Override
     public void setUserPicture(Bitmap picture, long userId) {
-        File file = new File(mContext.getFilesDir(), userId + ".png");
-
-        if (file.exists()) {
-            file.delete();
-        }
-
-        try {
-            FileOutputStream out = mContext.openFileOutput(userId + ".png", Context.MODE_PRIVATE);
-            picture.compress(Bitmap.CompressFormat.PNG, IMAGE_QUALITY, out);
-            out.close();
-        } catch (FileNotFoundException e) {
-            Log.e("DatabaseHelper", "Exception in setUserPicture: " + e);
-        } catch (IOException e) {
-            Log.e("DatabaseHelper", "Exception in setUserPicture: " + e);
-        }
+        ServiceContainer.getPictureCache().put(userId, PictureCache.NO_VERSION, picture);
     }
 
     /*
@@ -815,7 +778,7 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
      */
     @Override
     public int updateEvent(EventContainer event) {
-
+        mOtherWrites++;
         ContentValues values = new ContentValues();
         values.put(KEY_ID, event.getId());
         values.put(KEY_NAME, event.getName());
@@ -836,7 +799,8 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
                 pairValues = new ContentValues();
                 pairValues.put(KEY_EVENT_ID, event.getId());
                 pairValues.put(KEY_USER_ID, id);
-                mDatabase.insert(TABLE_EVENT_USER, null, pairValues);
+                mDatabase.insertWithOnConflict(TABLE_EVENT_USER, null, pairValues,
+                    SQLiteDatabase.CONFLICT_IGNORE);
             }
         }
 
@@ -851,6 +815,7 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
      */
     @Override
     public void updateFilter(FilterContainer filter) {
+        mOtherWrites++;
         ContentValues filterValues = new ContentValues();
         filterValues.put(KEY_NAME, filter.getName());
         filterValues.put(KEY_ACTIVE, filter.isActive() ? 1 : 0);
@@ -868,7 +833,8 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
                 pairValues = new ContentValues();
                 pairValues.put(KEY_FILTER_ID, filter.getId());
                 pairValues.put(KEY_USER_ID, id);
-                mDatabase.insert(TABLE_FILTER_USER, null, pairValues);
+                mDatabase.insertWithOnConflict(TABLE_FILTER_USER, null, pairValues,
+                    SQLiteDatabase.CONFLICT_IGNORE);
             }
         }
     }
@@ -880,6 +846,7 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
      */
     @Override
     public int updateFriend(UserContainer friend) {
+        mOtherWrites++;
         ContentValues values = new ContentValues();
 
         if (friend.getId() != User.NO_ID) {
@@ -920,40 +887,86 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
     /*
      * (non-Javadoc)
      * @see ch.epfl.smartmap.database.DatabaseHelperInterface#updateFromCache()
+     * Everything is written in a single transaction with compiled statements, and only the rows that changed
+     * since the last call are written. The first call, or the first one after the tables were modified by
+     * another method, rewrites everything.
      */
     @Override
-    public void updateFromCache() {
+    public synchronized void updateFromCache() {
         Log.d(TAG, "Update Database from Cache");
 
-        mDatabase.delete(TABLE_USER, null, null);
-        mDatabase.delete(TABLE_FILTER, null, null);
-        mDatabase.delete(TABLE_FILTER_USER, null, null);
-        mDatabase.delete(TABLE_EVENT, null, null);
-        mDatabase.delete(TABLE_EVENT_USER, null, null);
-        mDatabase.delete(TABLE_INVITATIONS, null, null);
-
-        Set<User> users = ServiceContainer.getCache().getAllUsers();
-        Set<Event> events = ServiceContainer.getCache().getMyEvents();
-        events.addAll(ServiceContainer.getCache().getParticipatingEvents());
-        Set<Filter> filters = ServiceContainer.getCache().getAllFilters();
-        Set<Invitation> invitations = ServiceContainer.getCache().getAllInvitations();
+        // Collect the values to write, with the users and events referenced by other items
+        Map<Long, UserContainer> users = new HashMap<Long, UserContainer>();
+        Map<Long, EventContainer> events = new HashMap<Long, EventContainer>();
+        Map<Long, FilterContainer> filters = new HashMap<Long, FilterContainer>();
+        Map<Long, InvitationContainer> invitations = new HashMap<Long, InvitationContainer>();
 
-        for (User user : users) {
-            Log.d(TAG, "Store user " + user.getId());
-            this.addUser(user.getContainerCopy());
+        for (User user : ServiceContainer.getCache().getAllUsers()) {
+            users.put(user.getId(), user.getContainerCopy());
+        }
+        Set<Event> cachedEvents = ServiceContainer.getCache().getMyEvents();
+        cachedEvents.addAll(ServiceContainer.getCache().getParticipatingEvents());
+        for (Event event : cachedEvents) {
+            this.collectEvent(event.getContainerCopy(), users, events);
         }
-        for (Event event : events) {
-            Log.d(TAG, "Store event " + event.getId());
-            this.addEvent(event.getContainerCopy());
+        for (Filter filter : ServiceContainer.getCache().getAllFilters()) {
+            filters.put(filter.getId(), filter.getContainerCopy());
         }
-        for (Filter filter : filters) {
-            Log.d(TAG, "Store filter " + filter.getId());
-            this.addFilter(filter.getContainerCopy());
+        for (Invitation invitation : ServiceContainer.getCache().getAllInvitations()) {
+            this.collectInvitation(invitation.getContainerCopy(), users, events, invitations);
         }
-        for (Invitation invitation : invitations) {
-            Log.d(TAG, "Store invitation " + invitation.getId());
-            this.addInvitation(invitation.getContainerCopy());
+
+        int otherWrites = mOtherWrites;
+        boolean rewriteAll = otherWrites != mValidOtherWrites;
+        // Invalid until the transaction succeeds
+        mValidOtherWrites = -1;
+
+        mDatabase.beginTransaction();
+        try {
+            if (rewriteAll) {
+                mDatabase.delete(TABLE_USER, null, null);
+                mDatabase.delete(TABLE_FILTER, null, null);
+                mDatabase.delete(TABLE_FILTER_USER, null, null);
+                mDatabase.delete(TABLE_EVENT, null, null);
+                mDatabase.delete(TABLE_EVENT_USER, null, null);
+                mDatabase.delete(TABLE_INVITATIONS, null, null);
+                for (TableWriter writer : mWriters) {
+                    writer.reset();
+                }
+            }
+            this.beginWrites();
+
+            for (UserContainer user : users.values()) {
+                mUserWriter.write(this.getUserRow(user));
+            }
+            mUserWriter.deleteOthers(users.keySet());
+
+            for (EventContainer event : events.values()) {
+                this.writeEventRow(event);
+            }
+            for (long id : mEventWriter.deleteOthers(events.keySet())) {
+                this.writePairs(mDeleteEventUsers, mInsertEventUser, id, null);
+            }
+
+            for (FilterContainer filter : filters.values()) {
+                this.writeFilterRow(filter);
+            }
+            for (long id : mFilterWriter.deleteOthers(filters.keySet())) {
+                this.writePairs(mDeleteFilterUsers, mInsertFilterUser, id, null);
+            }
+
+            for (InvitationContainer invitation : invitations.values()) {
+                mInvitationWriter.write(this.getInvitationRow(invitation));
+            }
+            mInvitationWriter.deleteOthers(invitations.keySet());
+
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+            this.endWrites();
         }
+
+        mValidOtherWrites = otherWrites;
     }
 
     /*
@@ -963,7 +976,7 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
      */
     @Override
     public int updateInvitation(InvitationContainer invitation) {
-
+        mOtherWrites++;
         ContentValues values = new ContentValues();
         values.put(KEY_ID, invitation.getId());
         if (invitation.getUser() != null) {
@@ -977,4 +990,451 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseHelperIn
         return mDatabase.update(TABLE_INVITATIONS, values, KEY_ID + " = ?",
             new String[]{String.valueOf(invitation.getId())});
     }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.database.DatabaseHelperInterface#writeChanges(ch.epfl.smartmap.cache.
+     * CacheChanges)
+     * Only the given items are written, in a single transaction. Users that are still referenced by an event
+     * or an invitation of the cache are kept.
+     */
+    @Override
+    public synchronized void writeChanges(CacheChanges changes) {
+        Cache cache = ServiceContainer.getCache();
+
+        // Collect the values to write, with the users and events referenced by other items
+        Map<Long, UserContainer> users = new HashMap<Long, UserContainer>();
+        Map<Long, EventContainer> events = new HashMap<Long, EventContainer>();
+        Map<Long, FilterContainer> filters = new HashMap<Long, FilterContainer>();
+        Map<Long, InvitationContainer> invitations = new HashMap<Long, InvitationContainer>();
+        Set<Long> removedUserIds = changes.getRemovedUserIds();
+        Set<Long> removedEventIds = changes.getRemovedEventIds();
+        Set<Long> removedFilterIds = changes.getRemovedFilterIds();
+        Set<Long> removedInvitationIds = changes.getRemovedInvitationIds();
+
+        for (long id : changes.getChangedUserIds()) {
+            User user = cache.getUser(id);
+            if (user != null) {
+                users.put(id, user.getContainerCopy());
+            } else {
+                removedUserIds.add(id);
+            }
+        }
+        for (long id : changes.getChangedEventIds()) {
+            Event event = cache.getEvent(id);
+            if (event != null) {
+                this.collectEvent(event.getContainerCopy(), users, events);
+            } else {
+                removedEventIds.add(id);
+            }
+        }
+        for (long id : changes.getChangedFilterIds()) {
+            Filter filter = cache.getFilter(id);
+            if (filter != null) {
+                filters.put(id, filter.getContainerCopy());
+            } else {
+                removedFilterIds.add(id);
+            }
+        }
+        for (long id : changes.getChangedInvitationIds()) {
+            Invitation invitation = cache.getInvitation(id);
+            if (invitation != null) {
+                this.collectInvitation(invitation.getContainerCopy(), users, events, invitations);
+            } else {
+                removedInvitationIds.add(id);
+            }
+        }
+        if (!removedUserIds.isEmpty()) {
+            removedUserIds.removeAll(users.keySet());
+            for (Event event : cache.getAllEvents()) {
+                if (event.getCreator() != null) {
+                    removedUserIds.remove(event.getCreator().getId());
+                }
+            }
+            for (Invitation invitation : cache.getAllInvitations()) {
+                if (invitation.getUser() != null) {
+                    removedUserIds.remove(invitation.getUser().getId());
+                }
+            }
+        }
+
+        int otherWrites = mOtherWrites;
+        boolean isValid = otherWrites == mValidOtherWrites;
+        // Invalid until the transaction succeeds
+        mValidOtherWrites = -1;
+
+        mDatabase.beginTransaction();
+        try {
+            if (!isValid) {
+                // The rows remembered may have been modified since, do not skip them
+                for (TableWriter writer : mWriters) {
+                    writer.reset();
+                }
+            }
+            this.beginWrites();
+
+            for (UserContainer user : users.values()) {
+                mUserWriter.write(this.getUserRow(user));
+            }
+            for (long id : removedUserIds) {
+                mUserWriter.delete(id);
+            }
+
+            for (EventContainer event : events.values()) {
+                this.writeEventRow(event);
+            }
+            for (long id : removedEventIds) {
+                mEventWriter.delete(id);
+                this.writePairs(mDeleteEventUsers, mInsertEventUser, id, null);
+            }
+
+            for (FilterContainer filter : filters.values()) {
+                this.writeFilterRow(filter);
+            }
+            for (long id : removedFilterIds) {
+                mFilterWriter.delete(id);
+                this.writePairs(mDeleteFilterUsers, mInsertFilterUser, id, null);
+            }
+
+            for (InvitationContainer invitation : invitations.values()) {
+                mInvitationWriter.write(this.getInvitationRow(invitation));
+            }
+            for (long id : removedInvitationIds) {
+                mInvitationWriter.delete(id);
+            }
+
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+            this.endWrites();
+        }
+
+        // Rows that were not written are still unknown to the writers if they were not valid before
+        if (isValid) {
+            mValidOtherWrites = otherWrites;
+        }
+    }
+
+    /**
+     * Begins the writers and compiles the statements of the join tables, must be called in a transaction
+     */
+    private void beginWrites() {
+        for (TableWriter writer : mWriters) {
+            writer.begin(mDatabase);
+        }
+        mDeleteEventUsers =
+            mDatabase.compileStatement("DELETE FROM " + TABLE_EVENT_USER + " WHERE " + KEY_EVENT_ID + " = ?");
+        mInsertEventUser =
+            mDatabase.compileStatement("INSERT OR IGNORE INTO " + TABLE_EVENT_USER + " (" + KEY_EVENT_ID
+                + ", " + KEY_USER_ID + ") VALUES (?, ?)");
+        mDeleteFilterUsers =
+            mDatabase.compileStatement("DELETE FROM " + TABLE_FILTER_USER + " WHERE " + KEY_FILTER_ID
+                + " = ?");
+        mInsertFilterUser =
+            mDatabase.compileStatement("INSERT OR IGNORE INTO " + TABLE_FILTER_USER + " (" + KEY_FILTER_ID
+                + ", " + KEY_USER_ID + ") VALUES (?, ?)");
+    }
+
+    /**
+     * Adds an event to the events to write, with its creator if it is not already in the users to write
+     */
+    private void collectEvent(EventContainer event, Map<Long, UserContainer> users,
+        Map<Long, EventContainer> events) {
+        if (event.getId() < 0) {
+            return;
+        }
+        UserContainer creator = event.getCreatorContainer();
+        if ((creator != null) && !users.containsKey(creator.getId())) {
+            users.put(creator.getId(), creator);
+        }
+        events.put(event.getId(), event);
+    }
+
+    /**
+     * Adds an invitation to the invitations to write, with its user and event
+     */
+    private void collectInvitation(InvitationContainer invitation, Map<Long, UserContainer> users,
+        Map<Long, EventContainer> events, Map<Long, InvitationContainer> invitations) {
+        if ((invitation.getUserInfos() != null) && !users.containsKey(invitation.getUserId())) {
+            users.put(invitation.getUserId(), invitation.getUserInfos());
+        }
+        if (invitation.getEventInfos() != null) {
+            this.collectEvent(invitation.getEventInfos(), users, events);
+        }
+        if ((invitation.getUserInfos() != null) || (invitation.getEventInfos() != null)) {
+            invitations.put(invitation.getId(), invitation);
+        }
+    }
+
+    /**
+     * Drops all the tables and creates them again, empty
+     */
+    private void dropAndCreate(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_USER);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_FILTER);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_FILTER_USER);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_EVENT);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_EVENT_USER);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_INVITATIONS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_PENDING);
+        this.onCreate(db);
+    }
+
+    /**
+     * Closes the statements compiled by {@code beginWrites}
+     */
+    private void endWrites() {
+        for (TableWriter writer : mWriters) {
+            writer.end();
+        }
+        for (SQLiteStatement statement : new SQLiteStatement[]{mDeleteEventUsers, mInsertEventUser,
+            mDeleteFilterUsers, mInsertFilterUser}) {
+            if (statement != null) {
+                statement.close();
+            }
+        }
+        mDeleteEventUsers = null;
+        mInsertEventUser = null;
+        mDeleteFilterUsers = null;
+        mInsertFilterUser = null;
+    }
+
+    /**
+     * @return the values of the row of an event, in the order of {@code EVENT_COLUMNS}, followed by its
+     *         participants
+     */
+    private Object[] getEventRow(EventContainer event) {
+        Location location = event.getLocation();
+        boolean hasDates = (event.getStartDate() != null) && (event.getEndDate() != null);
+        return new Object[]{event.getId(), event.getName(), event.getDescription(),
+            (event.getCreatorContainer() != null) ? event.getCreatorContainer().getId() : null,
+            (location != null) ? location.getLongitude() : null,
+            (location != null) ? location.getLatitude() : null,
+            hasDates ? event.getStartDate().getTimeInMillis() : null,
+            hasDates ? event.getEndDate().getTimeInMillis() : null, event.getLocationString(), null,
+            (event.getParticipantIds() != null) ? new HashSet<Long>(event.getParticipantIds()) : null};
+    }
+
+    /**
+     * Reads all the events with their participants in a single query
+     *
+     * @param users
+     *            the users of the database, by id, in which the creators are taken
+     * @return the events, by id
+     */
+    private Map<Long, EventContainer> getEventsById(Map<Long, UserContainer> users) {
+        Map<Long, EventContainer> events = new HashMap<Long, EventContainer>();
+
+        // Events with their participants, one row per participant
+        String query =
+            "SELECT " + TABLE_EVENT + ".*, " + TABLE_EVENT_USER + "." + KEY_USER_ID + " AS "
+                + KEY_PARTICIPANT_ID + " FROM " + TABLE_EVENT + " LEFT JOIN " + TABLE_EVENT_USER + " ON "
+                + TABLE_EVENT + "." + KEY_ID + " = " + TABLE_EVENT_USER + "." + KEY_EVENT_ID;
+
+        Cursor cursor = mDatabase.rawQuery(query, null);
+
+        if ((cursor != null) && cursor.moveToFirst()) {
+            int idColumn = cursor.getColumnIndex(KEY_ID);
+            int creatorIdColumn = cursor.getColumnIndex(KEY_USER_ID);
+            int participantIdColumn = cursor.getColumnIndex(KEY_PARTICIPANT_ID);
+            do {
+                long id = cursor.getLong(idColumn);
+                EventContainer event = events.get(id);
+                if (event == null) {
+                    event = this.readEvent(cursor, users.get(cursor.getLong(creatorIdColumn)));
+                    events.put(id, event);
+                }
+                if (!cursor.isNull(participantIdColumn)) {
+                    event.getParticipantIds().add(cursor.getLong(participantIdColumn));
+                }
+            } while (cursor.moveToNext());
+        }
+        if (cursor != null) {
+            cursor.close();
+        }
+
+        return events;
+    }
+
+    /**
+     * @return the values of the row of a filter, in the order of {@code FILTER_COLUMNS}, followed by its
+     *         users
+     */
+    private Object[] getFilterRow(FilterContainer filter) {
+        return new Object[]{filter.getId(), filter.getName(), filter.isActive(),
+            (filter.getIds() != null) ? new HashSet<Long>(filter.getIds()) : null};
+    }
+
+    /**
+     * @return the values of the row of an invitation, in the order of {@code INVITATION_COLUMNS}
+     */
+    private Object[] getInvitationRow(InvitationContainer invitation) {
+        return new Object[]{invitation.getId(), invitation.getUserId(), invitation.getEventId(),
+            invitation.getStatus(), invitation.getTimeStamp(), invitation.getType()};
+    }
+
+    /**
+     * @return the values of the row of a user, in the order of {@code USER_COLUMNS}
+     */
+    private Object[] getUserRow(UserContainer user) {
+        Location location = user.getLocation();
+        return new Object[]{user.getId(), user.getName(), user.getPhoneNumber(), user.getEmail(),
+            (location != null) ? location.getLongitude() : User.NO_LONGITUDE,
+            (location != null) ? location.getLatitude() : User.NO_LATITUDE, user.getLocationString(),
+            (location != null) ? location.getTime() : 0L, user.isBlocked() == User.BlockStatus.BLOCKED,
+            user.getFriendship()};
+    }
+
+    /**
+     * Reads all the users in a single query, without their pictures, which are only decoded from the
+     * {@link PictureCache} when they are first displayed
+     *
+     * @return the users, by id
+     */
+    private Map<Long, UserContainer> getUsersById() {
+        Map<Long, UserContainer> users = new HashMap<Long, UserContainer>();
+
+        Cursor cursor = mDatabase.query(TABLE_USER, USER_COLUMNS, null, null, null, null, null, null);
+
+        if ((cursor != null) && cursor.moveToFirst()) {
+            do {
+                UserContainer user = this.readUser(cursor, false);
+                users.put(user.getId(), user);
+            } while (cursor.moveToNext());
+        }
+        if (cursor != null) {
+            cursor.close();
+        }
+
+        return users;
+    }
+
+    /**
+     * Migrates the database from the previous version to the given one
+     *
+     * @param db
+     *            the database, in the previous version
+     * @param version
+     *            the version to migrate to
+     */
+    private void migrateTo(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 13:
+                // Remove the duplicated pairs before they become unique keys
+                db.execSQL("DELETE FROM " + TABLE_EVENT_USER + " WHERE " + KEY_ID + " NOT IN (SELECT MIN("
+                    + KEY_ID + ") FROM " + TABLE_EVENT_USER + " GROUP BY " + KEY_EVENT_ID + ", " + KEY_USER_ID
+                    + ")");
+                db.execSQL("DELETE FROM " + TABLE_FILTER_USER + " WHERE " + KEY_ID + " NOT IN (SELECT MIN("
+                    + KEY_ID + ") FROM " + TABLE_FILTER_USER + " GROUP BY " + KEY_FILTER_ID + ", "
+                    + KEY_USER_ID + ")");
+                for (String index : CREATE_INDEXES) {
+                    db.execSQL(index);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("No migration to version " + version);
+        }
+    }
+
+    /**
+     * Reads the event at the current row of a cursor, without its participants
+     *
+     * @param cursor
+     *            a cursor on rows with the columns of the events table
+     * @param creator
+     *            the creator of the event
+     * @return the event, with an empty set of participants
+     */
+    private EventContainer readEvent(Cursor cursor, UserContainer creator) {
+        GregorianCalendar startDate = new GregorianCalendar();
+        GregorianCalendar endDate = new GregorianCalendar();
+        startDate.setTimeInMillis(cursor.getLong(cursor.getColumnIndex(KEY_DATE)));
+        endDate.setTimeInMillis(cursor.getLong(cursor.getColumnIndex(KEY_ENDDATE)));
+
+        Location location = new Location(Displayable.PROVIDER_NAME);
+        location.setLongitude(cursor.getDouble(cursor.getColumnIndex(KEY_LONGITUDE)));
+        location.setLatitude(cursor.getDouble(cursor.getColumnIndex(KEY_LATITUDE)));
+        String locationString = cursor.getString(cursor.getColumnIndex(KEY_POSNAME));
+
+        String name = cursor.getString(cursor.getColumnIndex(KEY_NAME));
+        String description = cursor.getString(cursor.getColumnIndex(KEY_EVTDESC));
+
+        return new EventContainer(cursor.getLong(cursor.getColumnIndex(KEY_ID)), name, creator, description,
+            startDate, endDate, location, locationString, new HashSet<Long>());
+    }
+
+    /**
+     * Reads the user at the current row of a cursor. The picture is taken from the {@link PictureCache}, so
+     * that it is only decoded if it is not already in memory.
+     *
+     * @param cursor
+     *            a cursor on rows with the columns of {@code USER_COLUMNS}
+     * @param withPicture
+     *            whether to read the picture, otherwise it is {@code null} and the {@code User} reads it
+     *            from the {@code PictureCache} when needed
+     * @return the user
+     */
+    private UserContainer readUser(Cursor cursor, boolean withPicture) {
+        long id = cursor.getLong(cursor.getColumnIndex(KEY_USER_ID));
+        String name = cursor.getString(cursor.getColumnIndex(KEY_NAME));
+        String phoneNumber = cursor.getString(cursor.getColumnIndex(KEY_NUMBER));
+        String email = cursor.getString(cursor.getColumnIndex(KEY_EMAIL));
+        long lastSeen = cursor.getLong(cursor.getColumnIndex(KEY_LASTSEEN));
+        double longitude = cursor.getDouble(cursor.getColumnIndex(KEY_LONGITUDE));
+        double latitude = cursor.getDouble(cursor.getColumnIndex(KEY_LATITUDE));
+        Location location = new Location("database");
+        location.setLongitude(longitude);
+        location.setLatitude(latitude);
+        location.setTime(lastSeen);
+        String locationString = cursor.getString(cursor.getColumnIndex(KEY_POSNAME));
+        Bitmap image = withPicture ? this.getPictureById(id) : null;
+        boolean isBlocked = cursor.getInt(cursor.getColumnIndex(KEY_BLOCKED)) == 1;
+        int friendship = cursor.getInt(cursor.getColumnIndex(KEY_FRIENDSHIP));
+
+        User.BlockStatus status = isBlocked ? User.BlockStatus.BLOCKED : User.BlockStatus.UNBLOCKED;
+        return new UserContainer(id, name, phoneNumber, email, location, locationString, image, status,
+            friendship);
+    }
+
+    /**
+     * Writes the row of an event, and its participants if it changed
+     */
+    private void writeEventRow(EventContainer event) {
+        if (mEventWriter.write(this.getEventRow(event))) {
+            this.writePairs(mDeleteEventUsers, mInsertEventUser, event.getId(), event.getParticipantIds());
+        }
+    }
+
+    /**
+     * Writes the row of a filter, and its users if it changed
+     */
+    private void writeFilterRow(FilterContainer filter) {
+        if (mFilterWriter.write(this.getFilterRow(filter))) {
+            this.writePairs(mDeleteFilterUsers, mInsertFilterUser, filter.getId(), filter.getIds());
+        }
+    }
+
+    /**
+     * Replaces the rows of a join table for the given item
+     *
+     * @param delete
+     *            statement deleting the rows of an item
+     * @param insert
+     *            statement inserting a row for an item and a user
+     * @param id
+     *            the id of the item
+     * @param userIds
+     *            the users of the item, {@code null} to only delete its rows
+     */
+    private void writePairs(SQLiteStatement delete, SQLiteStatement insert, long id, Set<Long> userIds) {
+        delete.bindLong(1, id);
+        delete.executeUpdateDelete();
+        if (userIds != null) {
+            for (long userId : userIds) {
+                insert.bindLong(1, id);
+                insert.bindLong(2, userId);
+                insert.executeInsert();
+            }
+        }
+    }
 }
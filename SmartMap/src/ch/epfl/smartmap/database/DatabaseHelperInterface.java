@@ -5,6 +5,7 @@ import java.util.Set;
 
 import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Bitmap;
+import ch.epfl.smartmap.cache.CacheChanges;
 import ch.epfl.smartmap.cache.EventContainer;
 import ch.epfl.smartmap.cache.FilterContainer;
 import ch.epfl.smartmap.cache.InvitationContainer;
@@ -236,4 +237,12 @@ public interface DatabaseHelperInterface {
      */
     int updateInvitation(InvitationContainer invitation);
 
+    /**
+     * Writes the items of the cache that changed, and deletes those that were removed
+     * 
+     * @param changes
+     *            The ids of the items added, updated or removed from the cache
+     */
+    void writeChanges(CacheChanges changes);
+
 }
\ No newline at end of file
@@ -0,0 +1,153 @@
+package ch.epfl.smartmap.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.LongSparseArray;
+
+/**
+ * Writes the rows of a table with compiled statements, remembering the values of each row written so that
+ * rows that did not change since the last write are not written again. The remembered values are only
+ * valid as long as the table is not modified by other means, {@link #reset()} must be called otherwise.
+ * This class is not thread safe, it is meant to be used inside a transaction of the {@code DatabaseHelper}.
+ *
+ * @author jfperren
+ */
+final class TableWriter {
+
+    private final String mTable;
+    private final String[] mColumns;
+
+    // Values of the rows written, by id
+    private final LongSparseArray<Object[]> mWrittenRows;
+
+    private SQLiteStatement mUpsert;
+    private SQLiteStatement mDelete;
+
+    /**
+     * Constructor
+     *
+     * @param table
+     *            the name of the table
+     * @param columns
+     *            the columns written, the first one being the primary key
+     */
+    TableWriter(String table, String[] columns) {
+        mTable = table;
+        mColumns = columns.clone();
+        mWrittenRows = new LongSparseArray<Object[]>();
+    }
+
+    /**
+     * Compiles the statements, must be called before writing
+     *
+     * @param database
+     */
+    void begin(SQLiteDatabase database) {
+        StringBuilder upsert = new StringBuilder("INSERT OR REPLACE INTO ").append(mTable).append(" (");
+        StringBuilder parameters = new StringBuilder();
+        for (int i = 0; i < mColumns.length; i++) {
+            if (i > 0) {
+                upsert.append(", ");
+                parameters.append(", ");
+            }
+            upsert.append(mColumns[i]);
+            parameters.append('?');
+        }
+        upsert.append(") VALUES (").append(parameters).append(')');
+
+        mUpsert = database.compileStatement(upsert.toString());
+        mDelete = database.compileStatement("DELETE FROM " + mTable + " WHERE " + mColumns[0] + " = ?");
+    }
+
+    /**
+     * Deletes a row, whether it was written before or not
+     *
+     * @param id
+     *            the id of the row
+     */
+    void delete(long id) {
+        mDelete.bindLong(1, id);
+        mDelete.executeUpdateDelete();
+        mWrittenRows.remove(id);
+    }
+
+    /**
+     * Deletes the rows written before whose id is not in the given set
+     *
+     * @param ids
+     *            the ids of the rows to keep
+     * @return the ids of the deleted rows
+     */
+    List<Long> deleteOthers(Set<Long> ids) {
+        List<Long> deleted = new ArrayList<Long>();
+        for (int i = 0; i < mWrittenRows.size(); i++) {
+            if (!ids.contains(mWrittenRows.keyAt(i))) {
+                deleted.add(mWrittenRows.keyAt(i));
+            }
+        }
+        for (long id : deleted) {
+            this.delete(id);
+        }
+        return deleted;
+    }
+
+    /**
+     * Closes the statements
+     */
+    void end() {
+        if (mUpsert != null) {
+            mUpsert.close();
+            mUpsert = null;
+        }
+        if (mDelete != null) {
+            mDelete.close();
+            mDelete = null;
+        }
+    }
+
+    /**
+     * Forgets the rows written, so that they are all written again next time
+     */
+    void reset() {
+        mWrittenRows.clear();
+    }
+
+    /**
+     * Inserts or replaces a row, unless it was already written with the same values
+     *
+     * @param values
+     *            the values of the columns, the first one being the id, followed by values that are not
+     *            written but whose change must be detected, like the rows of a join table
+     * @return whether the row was written
+     */
+    boolean write(Object[] values) {
+        long id = ((Number) values[0]).longValue();
+        if (Arrays.equals(mWrittenRows.get(id), values)) {
+            return false;
+        }
+
+        for (int i = 0; i < mColumns.length; i++) {
+            Object value = values[i];
+            if (value == null) {
+                mUpsert.bindNull(i + 1);
+            } else if ((value instanceof Double) || (value instanceof Float)) {
+                mUpsert.bindDouble(i + 1, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                mUpsert.bindLong(i + 1, ((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                mUpsert.bindLong(i + 1, ((Boolean) value) ? 1 : 0);
+            } else {
+                mUpsert.bindString(i + 1, value.toString());
+            }
+        }
+        mUpsert.executeInsert();
+
+        mWrittenRows.put(id, values);
+        return true;
+    }
+}
@@ -23,6 +23,7 @@ public class BadgeDrawable extends Drawable {
     private final Paint mBadgePaint;
     private final Paint mTextPaint;
     private final Rect mTxtRect = new Rect();
+    private final boolean mCentered;
 
     private String mCount = "";
     private boolean mWillDraw = false;
@@ -34,10 +35,26 @@ public class BadgeDrawable extends Drawable {
      *            the current context
      */
     public BadgeDrawable(Context context) {
+        this(context, Color.RED, false);
+    }
+
+    /**
+     * Constructor of a badge with the given color
+     * 
+     * @param context
+     *            the current context
+     * @param color
+     *            the color of the badge circle
+     * @param centered
+     *            whether the badge fills its bounds (used for map markers) instead of the top-right quadrant of
+     *            an icon
+     */
+    public BadgeDrawable(Context context, int color, boolean centered) {
         mTextSize = context.getResources().getDimension(R.dimen.badge_text_size);
+        mCentered = centered;
 
         mBadgePaint = new Paint();
-        mBadgePaint.setColor(Color.RED);
+        mBadgePaint.setColor(color);
         mBadgePaint.setAntiAlias(true);
         mBadgePaint.setStyle(Paint.Style.FILL);
 
@@ -59,10 +76,19 @@ public class BadgeDrawable extends Drawable {
         float width = bounds.right - bounds.left;
         float height = bounds.bottom - bounds.top;
 
-        // Position the badge in the top-right quadrant of the icon.
-        float radius = ((Math.min(width, height) / 2) - 1) / 2;
-        float centerX = width - radius - 1;
-        float centerY = radius + 1;
+        float radius;
+        float centerX;
+        float centerY;
+        if (mCentered) {
+            radius = (Math.min(width, height) / 2) - 1;
+            centerX = width / 2;
+            centerY = height / 2;
+        } else {
+            // Position the badge in the top-right quadrant of the icon.
+            radius = ((Math.min(width, height) / 2) - 1) / 2;
+            centerX = width - radius - 1;
+            centerY = radius + 1;
+        }
 
         // Draw badge circle.
         canvas.drawCircle(centerX, centerY, radius, mBadgePaint);
@@ -102,4 +128,16 @@ public class BadgeDrawable extends Drawable {
         mWillDraw = count > 0;
         this.invalidateSelf();
     }
+
+    /**
+     * Sets the text to display, for instance a rounded count like "100+".
+     * 
+     * @param text
+     *            the text, the badge is not drawn if it is empty
+     */
+    public void setText(String text) {
+        mCount = text;
+        mWillDraw = !"".equals(text);
+        this.invalidateSelf();
+    }
 }
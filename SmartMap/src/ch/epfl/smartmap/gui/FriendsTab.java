@@ -2,8 +2,9 @@ package ch.epfl.smartmap.gui;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Set;
 
-import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
@@ -15,6 +16,7 @@ import android.widget.ListView;
 import ch.epfl.smartmap.R;
 import ch.epfl.smartmap.activities.UserInformationActivity;
 import ch.epfl.smartmap.background.ServiceContainer;
+import ch.epfl.smartmap.cache.CacheUpdate;
 import ch.epfl.smartmap.cache.User;
 import ch.epfl.smartmap.listeners.OnCacheListener;
 
@@ -44,17 +46,11 @@ public class FriendsTab extends ListFragment {
         // Create custom Adapter and pass it to the Activity
         this.setListAdapter(new FriendListItemAdapter(mContext, mFriendList));
 
-        // Initialize the listener
+        // Initialize the listener, called on the main thread
         ServiceContainer.getCache().addOnCacheListener(new OnCacheListener() {
             @Override
-            public void onUserListUpdate() {
-                mFriendList = new ArrayList<User>(ServiceContainer.getCache().getAllFriends());
-                ((Activity) mContext).runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        FriendsTab.this.setListAdapter(new FriendListItemAdapter(mContext, mFriendList));
-                    }
-                });
+            public void onCacheUpdate(CacheUpdate update) {
+                FriendsTab.this.updateFriends(update.getUserChanges());
             }
         });
         return view;
@@ -74,4 +70,43 @@ public class FriendsTab extends ListFragment {
         mFriendList = new ArrayList<User>(ServiceContainer.getCache().getAllFriends());
         this.setListAdapter(new FriendListItemAdapter(mContext, mFriendList));
     }
+
+    /**
+     * Replaces or removes the displayed friends that changed, and adds the new ones, without reading all
+     * friends again
+     * 
+     * @param userChanges
+     */
+    private void updateFriends(CacheUpdate.Changes userChanges) {
+        if (userChanges.isEmpty() || (this.getListAdapter() == null)) {
+            return;
+        }
+
+        Set<Long> changedIds = userChanges.getChangedIds();
+        ListIterator<User> iterator = mFriendList.listIterator();
+        while (iterator.hasNext()) {
+            long id = iterator.next().getId();
+            if (changedIds.remove(id)) {
+                // The instance may have been replaced, or may not be a friend anymore
+                User user = ServiceContainer.getCache().getUser(id);
+                if ((user != null) && (user.getFriendship() == User.FRIEND)) {
+                    iterator.set(user);
+                } else {
+                    iterator.remove();
+                }
+            } else if (userChanges.getRemovedIds().contains(id)) {
+                iterator.remove();
+            }
+        }
+
+        // The remaining changed users were not displayed
+        for (long id : changedIds) {
+            User user = ServiceContainer.getCache().getUser(id);
+            if ((user != null) && (user.getFriendship() == User.FRIEND)) {
+                mFriendList.add(user);
+            }
+        }
+
+        ((FriendListItemAdapter) this.getListAdapter()).notifyDataSetChanged();
+    }
 }
\ No newline at end of file
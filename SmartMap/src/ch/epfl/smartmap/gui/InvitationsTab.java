@@ -1,7 +1,10 @@
 package ch.epfl.smartmap.gui;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Set;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -17,6 +20,7 @@ import android.widget.ListView;
 import android.widget.Toast;
 import ch.epfl.smartmap.R;
 import ch.epfl.smartmap.background.ServiceContainer;
+import ch.epfl.smartmap.cache.CacheUpdate;
 import ch.epfl.smartmap.cache.Invitation;
 import ch.epfl.smartmap.callbacks.NetworkRequestCallback;
 import ch.epfl.smartmap.listeners.OnCacheListener;
@@ -59,17 +63,8 @@ public class InvitationsTab extends ListFragment {
         // cache
         ServiceContainer.getCache().addOnCacheListener(new OnCacheListener() {
             @Override
-            public void onInvitationListUpdate() {
-                mInvitationList =
-                    new ArrayList<Invitation>(ServiceContainer.getCache().getUnansweredFriendInvitations());
-                ((Activity) mContext).runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        InvitationsTab.this.setListAdapter(new FriendInvitationListItemAdapter(mContext,
-                            mInvitationList));
-                    }
-                });
-
+            public void onCacheUpdate(CacheUpdate update) {
+                InvitationsTab.this.updateInvitations(update.getInvitationChanges());
             }
         });
         return view;
@@ -144,6 +139,60 @@ public class InvitationsTab extends ListFragment {
         builder.create().show();
     }
 
+    /**
+     * @param invitation
+     * @return whether the invitation is displayed in this tab, as in {@code getUnansweredFriendInvitations}
+     */
+    private boolean isUnansweredFriendInvitation(Invitation invitation) {
+        return (invitation != null) && (invitation.getType() == Invitation.FRIEND_INVITATION)
+            && ((invitation.getStatus() == Invitation.READ) || (invitation.getStatus() == Invitation.UNREAD));
+    }
+
+    /**
+     * Replaces or removes the displayed invitations that changed, and adds the new ones, without reading all
+     * invitations again
+     * 
+     * @param invitationChanges
+     */
+    private void updateInvitations(CacheUpdate.Changes invitationChanges) {
+        if (invitationChanges.isEmpty() || (this.getListAdapter() == null)) {
+            return;
+        }
+
+        Set<Long> changedIds = invitationChanges.getChangedIds();
+        ListIterator<Invitation> iterator = mInvitationList.listIterator();
+        while (iterator.hasNext()) {
+            long id = iterator.next().getId();
+            if (changedIds.remove(id)) {
+                // Answered invitations are not displayed anymore
+                Invitation invitation = ServiceContainer.getCache().getInvitation(id);
+                if (this.isUnansweredFriendInvitation(invitation)) {
+                    iterator.set(invitation);
+                } else {
+                    iterator.remove();
+                }
+            } else if (invitationChanges.getRemovedIds().contains(id)) {
+                iterator.remove();
+            }
+        }
+
+        // The remaining changed invitations were not displayed
+        boolean isAdded = false;
+        for (long id : changedIds) {
+            Invitation invitation = ServiceContainer.getCache().getInvitation(id);
+            if (this.isUnansweredFriendInvitation(invitation)) {
+                mInvitationList.add(invitation);
+                isAdded = true;
+            }
+        }
+        if (isAdded) {
+            // Keep the most recent first
+            Collections.sort(mInvitationList);
+        }
+
+        ((FriendInvitationListItemAdapter) this.getListAdapter()).notifyDataSetChanged();
+    }
+
     /**
      * An implementation of {@linkNetworkRequestCallback} executed with an accepting invitation request to the
      * server
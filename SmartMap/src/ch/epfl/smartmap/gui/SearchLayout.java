@@ -5,9 +5,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
-import android.app.Activity;
 import android.content.Context;
-import android.os.AsyncTask;
 import android.util.AttributeSet;
 import android.view.GestureDetector;
 import android.view.GestureDetector.SimpleOnGestureListener;
@@ -19,11 +17,15 @@ import android.widget.TextView;
 import ch.epfl.smartmap.R;
 import ch.epfl.smartmap.background.ServiceContainer;
 import ch.epfl.smartmap.cache.Displayable;
+import ch.epfl.smartmap.callbacks.SearchRequestCallback;
+import ch.epfl.smartmap.listeners.SearchMetricsListener;
 import ch.epfl.smartmap.search.SearchEngineInterface.Type;
+import ch.epfl.smartmap.search.SearchScheduler;
 
 /**
  * Layout that contains different SearchResult lists with different result, which you can select by sweeping
- * left or right on the screen
+ * left or right on the screen. The queries typed are run by a {@link SearchScheduler}, so that only the
+ * results of the latest one are displayed.
  * 
  * @author jfperren
  */
@@ -58,19 +60,18 @@ public class SearchLayout extends LinearLayout {
     // Extra views
     private final LinearLayout mTitleBar;
 
+    // Runs the queries, debounced and cancelled when superseded
+    private final SearchScheduler<List<Displayable>> mSearchScheduler;
+
     // Information about current state
     private Type mCurrentSearchType;
     private String mCurrentQuery;
-    private Context mParentContext;
 
     public SearchLayout(Context context, AttributeSet attrs) {
         super(context, attrs);
         // Init to avoid NullPointers
         ServiceContainer.initSmartMapServices(context);
 
-        // Set parent context
-        mParentContext = context;
-
         // Layout relative informations
         this.setOrientation(VERTICAL);
         this.setLayoutParams(new LinearLayout.LayoutParams(LayoutParams.MATCH_PARENT,
@@ -91,6 +92,26 @@ public class SearchLayout extends LinearLayout {
         // Initialize Views
         mTitleBar = new LinearLayout(context);
 
+        // Results are only given for the latest query, which is always on the current search type
+        mSearchScheduler =
+            new SearchScheduler<List<Displayable>>(SearchScheduler.DEFAULT_DEBOUNCE_DELAY,
+                new SearchRequestCallback<List<Displayable>>() {
+                    @Override
+                    public void onNetworkError(Exception e) {
+                        // Nothing, local searches do not use the network
+                    }
+
+                    @Override
+                    public void onNotFound() {
+                        // Nothing
+                    }
+
+                    @Override
+                    public void onResult(List<Displayable> result) {
+                        mSearchResultViewGroups.get(mCurrentSearchType).setResultList(result);
+                    }
+                });
+
         // Initialize search types
         this.addSearchTypes(Type.ALL, Type.FRIENDS, Type.EVENTS, Type.TAGS, Type.GROUPS);
 
@@ -105,16 +126,24 @@ public class SearchLayout extends LinearLayout {
      * @param query
      */
     public void resetView(String query) {
+        mCurrentQuery = query;
         this.setSearchType(DEFAULT_SEARCH_TYPE);
-        this.setSearchQuery(query);
     }
 
     /**
-     * Updates the current panel with the new search query.
+     * Updates the current panel with the new search query, once the typing pauses.
      */
     public void setSearchQuery(String query) {
         mCurrentQuery = query;
-        this.updateCurrentPanel();
+        mSearchScheduler.submit(query, new LocalSearch(mCurrentSearchType));
+    }
+
+    /**
+     * @param listener
+     *            notified of the time taken to display the results of each query typed, or {@code null}
+     */
+    public void setSearchMetricsListener(SearchMetricsListener listener) {
+        mSearchScheduler.setMetricsListener(listener);
     }
 
     /**
@@ -237,26 +266,10 @@ public class SearchLayout extends LinearLayout {
     }
 
     /**
-     * Updates current {@code SearchResultViewGroup} with new values
+     * Updates current {@code SearchResultViewGroup} with new values, without waiting
      */
     private void updateCurrentPanel() {
-        new AsyncTask<Void, Void, List<Displayable>>() {
-            @Override
-            public List<Displayable> doInBackground(Void... params) {
-                return ServiceContainer.getSearchEngine().sendQuery(mCurrentQuery, mCurrentSearchType);
-            }
-
-            @Override
-            public void onPostExecute(final List<Displayable> result) {
-                ((Activity) mParentContext).runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        mSearchResultViewGroups.get(mCurrentSearchType).setResultList(result);
-                    }
-                });
-            }
-        }.execute();
-
+        mSearchScheduler.submitNow(mCurrentQuery, new LocalSearch(mCurrentSearchType));
     }
 
     /**
@@ -288,6 +301,29 @@ public class SearchLayout extends LinearLayout {
         }
     }
 
+    /**
+     * Search of the items of the Cache of one type, run by the {@code SearchScheduler}
+     * 
+     * @author jfperren
+     */
+    private static final class LocalSearch implements SearchScheduler.Search<List<Displayable>> {
+
+        private final Type mSearchType;
+
+        private LocalSearch(Type searchType) {
+            mSearchType = searchType;
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see ch.epfl.smartmap.search.SearchScheduler.Search#search(java.lang.String)
+         */
+        @Override
+        public List<Displayable> search(String query) {
+            return ServiceContainer.getSearchEngine().sendQuery(query, mSearchType);
+        }
+    }
+
     /**
      * Provides a Vertical ScrollView that listens to Horizontal Swipes and
      * switch search panels when happening.
@@ -1,13 +1,25 @@
 package ch.epfl.smartmap.listeners;
 
+import ch.epfl.smartmap.cache.CacheUpdate;
+
 /**
  * Interface that describes how a class that wants to listener to value update in the Cache should be doing
- * so.
+ * so. The modifications made within a frame are notified together, on the main thread: first with the ids of
+ * all the items that changed, then once for each kind of item that changed.
  * 
  * @author jfperren
  */
 public interface CacheListener {
 
+    /**
+     * Called when items are added, removed or updated in the {@code Cache}, with their ids, so that only
+     * what changed needs to be updated.
+     * 
+     * @param update
+     *            the changes since the previous notification
+     */
+    void onCacheUpdate(CacheUpdate update);
+
     /**
      * Called when an {@code Event} is added, removed or updated in the {@code Cache}.
      */
@@ -1,5 +1,7 @@
 package ch.epfl.smartmap.listeners;
 
+import ch.epfl.smartmap.cache.CacheUpdate;
+
 /**
  * Basic implementation of {@code CacheListener} that does nothing on any notify call. Use it as a superclass
  * to avoid needing to implement all methods if not needed.
@@ -8,6 +10,15 @@ package ch.epfl.smartmap.listeners;
  */
 public class OnCacheListener implements CacheListener {
 
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.listeners.CacheListener#onCacheUpdate(ch.epfl.smartmap.cache.CacheUpdate)
+     */
+    @Override
+    public void onCacheUpdate(CacheUpdate update) {
+        // Nothing
+    }
+
     /*
      * (non-Javadoc)
      * @see ch.epfl.smartmap.listeners.CacheListener#onEventListUpdate()
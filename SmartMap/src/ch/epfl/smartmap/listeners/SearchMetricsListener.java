@@ -0,0 +1,32 @@
+package ch.epfl.smartmap.listeners;
+
+/**
+ * Interface for a class that wants to measure the responsiveness of a {@code SearchScheduler}. All methods
+ * are called on the main thread.
+ *
+ * @author jfperren
+ */
+public interface SearchMetricsListener {
+
+    /**
+     * Called when a query is superseded by a newer one before its results were given, whether it was still
+     * waiting or already running.
+     *
+     * @param query
+     *            the query dropped
+     */
+    void onSearchCancelled(String query);
+
+    /**
+     * Called when the results of a query were given.
+     *
+     * @param query
+     *            the query whose results were given
+     * @param latencyMillis
+     *            time between the keystroke that gave this query and its results, in milliseconds
+     * @param searchMillis
+     *            part of this time spent searching, in milliseconds, the rest was spent waiting for the
+     *            typing to stop and for a thread
+     */
+    void onSearchCompleted(String query, long latencyMillis, long searchMillis);
+}
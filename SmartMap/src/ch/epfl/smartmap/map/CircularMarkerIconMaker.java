@@ -21,6 +21,7 @@ import android.graphics.Rect;
 import ch.epfl.smartmap.R;
 import ch.epfl.smartmap.background.ServiceContainer;
 import ch.epfl.smartmap.cache.Friend;
+import ch.epfl.smartmap.cache.PictureCache;
 import ch.epfl.smartmap.cache.User;
 import ch.epfl.smartmap.util.Utils;
 
@@ -48,10 +49,15 @@ public class CircularMarkerIconMaker implements MarkerIconMaker {
     private Bitmap mCurrentMarkerShape;
     private Bitmap mDefaultProfilePicture;
     private Bitmap mProfilePicture;
+    // the friend's image from which mProfilePicture was made
+    private Bitmap mSourcePicture;
     // the combined icon (marker shape + profile picture)
     private Bitmap mMarkerIcon;
     private Canvas mCanvasCurrentShape;
     private Bitmap mBaseOverlay;
+    // the color of the current marker icon, only valid if mIsColored
+    private int mCurrentColor;
+    private boolean mIsColored;
 
     public static final float CIRCLE_CENTER_INCREMENT = 0.7f;
     public static final float CIRCLE_RADIUS_INCREMENT = 0.1f;
@@ -91,7 +97,14 @@ public class CircularMarkerIconMaker implements MarkerIconMaker {
         long timeElapsed =
             GregorianCalendar.getInstance(TimeZone.getTimeZone(Utils.GMT_SWITZERLAND)).getTimeInMillis()
                 - mFriend.getLastSeen().getTimeInMillis();
-        this.setColorOfMarkerShape(timeElapsed);
+        int color = this.getColorOfMarkerShape(timeElapsed);
+
+        // Only draw a new icon if it would look different, so that callers can detect changes by identity
+        if (!mIsColored || (color != mCurrentColor)) {
+            this.setColorOfMarkerShape(color);
+            mCurrentColor = color;
+            mIsColored = true;
+        }
 
         return mMarkerIcon;
     }
@@ -155,17 +168,41 @@ public class CircularMarkerIconMaker implements MarkerIconMaker {
 
     }
 
+    /**
+     * Computes the marker's color in terms of the elapsed time
+     * 
+     * @param elapsedTime
+     * @return the color
+     */
+    private int getColorOfMarkerShape(long elapsedTime) {
+        long timeoutInMillis = TIMEOUT_COLOR * SECONDS_IN_MINUTE * MILLISECONDS_IN_SECOND;
+
+        int green =
+            ServiceContainer.getSettingsManager().getContext().getResources().getColor(R.color.main_green);
+        int blue =
+            ServiceContainer.getSettingsManager().getContext().getResources().getColor(R.color.main_blue);
+
+        return Utils.getColorInInterval(elapsedTime, 0, timeoutInMillis, green, blue);
+    }
+
     /**
      * This function initializes the default profile picture (the one with User.NO_IMAGE), by retrieving it
      * from
      * resources and cropping it in a circle form
      */
     private void initializeDefaultProfilePicture() {
+        PictureCache pictureCache = ServiceContainer.getPictureCache();
+        mDefaultProfilePicture = pictureCache.getMarkerPicture(User.NO_ID, User.NO_IMAGE);
+        if (mDefaultProfilePicture != null) {
+            return;
+        }
+
         mDefaultProfilePicture =
             Bitmap.createScaledBitmap(User.NO_IMAGE, BASE_MARKER_SHAPE.getWidth() - SHAPE_BORDER_WIDTH,
                 BASE_MARKER_SHAPE.getWidth() - SHAPE_BORDER_WIDTH, true);
 
         mDefaultProfilePicture = this.cropCircle(mDefaultProfilePicture, mDefaultProfilePicture.getWidth());
+        pictureCache.putMarkerPicture(User.NO_ID, User.NO_IMAGE, mDefaultProfilePicture);
     }
 
     /**
@@ -183,8 +220,11 @@ public class CircularMarkerIconMaker implements MarkerIconMaker {
             this.initializeDefaultProfilePicture();
         }
 
-        if ((mProfilePicture == null) || mProfilePicture.sameAs(mDefaultProfilePicture)) {
+        if ((mProfilePicture == null) || (mSourcePicture != mFriend.getActionImage())
+            || mProfilePicture.sameAs(mDefaultProfilePicture)) {
             this.initializeProfilePicture();
+            // The icon must be drawn again with the new picture
+            mIsColored = false;
         }
         if (mMarkerIcon == null) {
             this.initializeMarkerIcon();
@@ -218,12 +258,20 @@ public class CircularMarkerIconMaker implements MarkerIconMaker {
      */
     private void initializeProfilePicture() {
 
+        mSourcePicture = mFriend.getActionImage();
+        // Shared with the other icons made from the same picture
+        PictureCache pictureCache = ServiceContainer.getPictureCache();
+        mProfilePicture = pictureCache.getMarkerPicture(mFriend.getId(), mSourcePicture);
+        if (mProfilePicture != null) {
+            return;
+        }
+
         mProfilePicture =
-            Bitmap.createScaledBitmap(mFriend.getActionImage(), BASE_MARKER_SHAPE.getWidth()
+            Bitmap.createScaledBitmap(mSourcePicture, BASE_MARKER_SHAPE.getWidth()
                 - SHAPE_BORDER_WIDTH, BASE_MARKER_SHAPE.getWidth() - SHAPE_BORDER_WIDTH, true);
 
         mProfilePicture = this.cropCircle(mProfilePicture, mProfilePicture.getWidth());
-
+        pictureCache.putMarkerPicture(mFriend.getId(), mSourcePicture, mProfilePicture);
     }
 
     /**
@@ -267,22 +315,15 @@ public class CircularMarkerIconMaker implements MarkerIconMaker {
     }
 
     /**
-     * Set the marker's color in terms of the elapsed time
+     * Set the marker's color
      * 
-     * @param elapsedTime
+     * @param color
      */
-    private void setColorOfMarkerShape(long elapsedTime) {
+    private void setColorOfMarkerShape(int color) {
         mCanvasCurrentShape.drawBitmap(BASE_MARKER_SHAPE, 0, 0, null);
-        long timeoutInMillis = TIMEOUT_COLOR * SECONDS_IN_MINUTE * MILLISECONDS_IN_SECOND;
 
         Canvas canvas = new Canvas(mCurrentMarkerShape);
 
-        int green =
-            ServiceContainer.getSettingsManager().getContext().getResources().getColor(R.color.main_green);
-        int blue =
-            ServiceContainer.getSettingsManager().getContext().getResources().getColor(R.color.main_blue);
-
-        int color = Utils.getColorInInterval(elapsedTime, 0, timeoutInMillis, green, blue);
         ColorMatrix cm = Utils.getMatrixForColor(color);
 
         ColorMatrixColorFilter lightingColorFilter = new ColorMatrixColorFilter(cm);
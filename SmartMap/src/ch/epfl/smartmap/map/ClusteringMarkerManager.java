@@ -0,0 +1,388 @@
+package ch.epfl.smartmap.map;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.os.AsyncTask;
+import ch.epfl.smartmap.R;
+import ch.epfl.smartmap.cache.Displayable;
+import ch.epfl.smartmap.gui.BadgeDrawable;
+import ch.epfl.smartmap.map.MarkerClusterer.Cluster;
+import ch.epfl.smartmap.map.MarkerClusterer.Hierarchy;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+
+/**
+ * A {@link MarkerManager} that groups items that would overlap into clusters, displayed with a single
+ * marker showing their number. The clusters of every zoom level are first computed on a background thread,
+ * so that zooming only needs to replace the markers of the clusters that split or merge. Then only the
+ * changed items are moved between the clusters. Items alone in their cluster are displayed as in
+ * {@link DefaultMarkerManager}.
+ *
+ * @author hugo-S
+ */
+public class ClusteringMarkerManager extends DefaultMarkerManager {
+
+    public static final float CLUSTER_ANCHOR = 0.5f;
+    /**
+     * Diameter of a cluster marker, in text sizes of the badge
+     */
+    public static final float CLUSTER_ICON_SCALE = 2.5f;
+
+    // Cluster sizes from which the displayed count is rounded
+    private static final int[] ROUNDED_COUNTS = {10, 20, 50, 100, 200, 500, 1000};
+
+    private final GoogleMap mGoogleMap;
+    private final int mClusterColor;
+    private final MarkerClusterer mClusterer;
+
+    /**
+     * All the items to display by id, clustered together
+     */
+    private final Map<Long, Displayable> mItems;
+    // Last position of each item given to the clusterer
+    private final Map<Long, LatLng> mPositions;
+    private Hierarchy mHierarchy;
+    private ClusteringTask mClusteringTask;
+    // Ids of the items changed or removed since the items being clustered in background were read
+    private final Set<Long> mPendingIds;
+    private int mDisplayedZoom;
+
+    /**
+     * The displayed clusters of more than one item, with their marker
+     */
+    private final Map<Cluster, Marker> mClusterMarkers;
+    private final Map<String, Cluster> mMarkerClusters;
+    private final LinkedList<Marker> mClusterMarkerPool;
+    private final Map<String, BitmapDescriptor> mClusterIcons;
+
+    /**
+     * Constructor
+     *
+     * @param googleMap
+     * @param clusterColor
+     *            the color of the cluster markers
+     */
+    public ClusteringMarkerManager(GoogleMap googleMap, int clusterColor) {
+        super(googleMap);
+        mGoogleMap = googleMap;
+        mClusterColor = clusterColor;
+        mClusterer = new MarkerClusterer();
+        mItems = new HashMap<Long, Displayable>();
+        mPositions = new HashMap<Long, LatLng>();
+        mPendingIds = new HashSet<Long>();
+        mClusterMarkers = new IdentityHashMap<Cluster, Marker>();
+        mMarkerClusters = new HashMap<String, Cluster>();
+        mClusterMarkerPool = new LinkedList<Marker>();
+        mClusterIcons = new HashMap<String, BitmapDescriptor>();
+    }
+
+    /**
+     * @param marker
+     * @return the region containing the items of the cluster displayed by this marker, {@code null} if it is
+     *         not a cluster marker
+     */
+    public LatLngBounds getClusterBounds(Marker marker) {
+        Cluster cluster = mMarkerClusters.get(marker.getId());
+        return (cluster == null) ? null : cluster.getBounds();
+    }
+
+    /**
+     * @return the markers of the displayed clusters
+     */
+    public List<Marker> getClusterMarkers() {
+        return new ArrayList<Marker>(mClusterMarkers.values());
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.map.DefaultMarkerManager#updateItems(android.content.Context, java.util.Set,
+     * java.util.Set)
+     * Only the changed items are moved between the clusters.
+     */
+    @Override
+    public void updateItems(Context context, Set<Displayable> changedItems, Set<Long> removedIds) {
+        if (context == null) {
+            throw new IllegalArgumentException("Null context");
+        }
+        if ((changedItems == null) || (removedIds == null)) {
+            throw new IllegalArgumentException("Null items to update");
+        }
+
+        for (long id : removedIds) {
+            mItems.remove(id);
+        }
+        for (Displayable item : changedItems) {
+            mItems.put(item.getId(), item);
+        }
+        this.update(context, changedItems, removedIds);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.map.DefaultMarkerManager#updateMarkers(android.content.Context, java.util.Set)
+     * Only the items that were added, moved or removed since the last call are moved between the clusters.
+     */
+    @Override
+    public void updateMarkers(Context context, Set<Displayable> itemsToDisplay) {
+        if (context == null) {
+            throw new IllegalArgumentException("Null context");
+        }
+        if (itemsToDisplay == null) {
+            throw new IllegalArgumentException("Null items to display");
+        }
+
+        Set<Long> removedIds = new HashSet<Long>(mItems.keySet());
+        Set<Displayable> changedItems = new HashSet<Displayable>();
+        for (Displayable item : itemsToDisplay) {
+            removedIds.remove(item.getId());
+            Displayable previous = mItems.put(item.getId(), item);
+            // Items are live instances, their position is compared to the clustered one
+            if ((previous != item) || !item.getLatLng().equals(mPositions.get(item.getId()))) {
+                changedItems.add(item);
+            }
+        }
+        for (long id : removedIds) {
+            mItems.remove(id);
+        }
+        this.update(context, changedItems, removedIds);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.map.DefaultMarkerManager#updateViewport(android.content.Context)
+     */
+    @Override
+    public void updateViewport(Context context) {
+        if (context == null) {
+            throw new IllegalArgumentException("Null context");
+        }
+        this.render(context, false);
+    }
+
+    private void addClusterMarker(Cluster cluster, Context context) {
+        BitmapDescriptor icon = this.getClusterIcon(cluster.getSize(), context);
+        Marker marker = mClusterMarkerPool.poll();
+        if (marker == null) {
+            marker =
+                mGoogleMap.addMarker(new MarkerOptions().position(cluster.getPosition()).icon(icon)
+                    .anchor(CLUSTER_ANCHOR, CLUSTER_ANCHOR));
+        } else {
+            marker.setPosition(cluster.getPosition());
+            marker.setIcon(icon);
+            marker.setVisible(true);
+        }
+        mClusterMarkers.put(cluster, marker);
+        mMarkerClusters.put(marker.getId(), cluster);
+    }
+
+    /**
+     * Clusters all the items to display in background
+     *
+     * @param context
+     */
+    @SuppressWarnings("unchecked")
+    private void cluster(Context context) {
+        // Read the positions on this thread, the items may change meanwhile
+        mPositions.clear();
+        Map<Displayable, LatLng> positions =
+            this.readPositions(mItems.values(), Collections.<Long> emptySet());
+        mPendingIds.clear();
+        mClusteringTask = new ClusteringTask(context);
+        mClusteringTask.execute(positions);
+    }
+
+    /**
+     * @param size
+     * @param context
+     * @return the icon showing the (rounded) size of a cluster, shared by the clusters with the same label
+     */
+    private BitmapDescriptor getClusterIcon(int size, Context context) {
+        String label = Integer.toString(size);
+        for (int i = ROUNDED_COUNTS.length - 1; i >= 0; i--) {
+            if (size >= ROUNDED_COUNTS[i]) {
+                label = ROUNDED_COUNTS[i] + "+";
+                break;
+            }
+        }
+
+        BitmapDescriptor icon = mClusterIcons.get(label);
+        if (icon == null) {
+            BadgeDrawable badge = new BadgeDrawable(context, mClusterColor, true);
+            badge.setText(label);
+            int diameter =
+                Math.round(context.getResources().getDimension(R.dimen.badge_text_size)
+                    * CLUSTER_ICON_SCALE);
+            Bitmap bitmap = Bitmap.createBitmap(diameter, diameter, Config.ARGB_8888);
+            badge.setBounds(0, 0, diameter, diameter);
+            badge.draw(new Canvas(bitmap));
+            icon = BitmapDescriptorFactory.fromBitmap(bitmap);
+            mClusterIcons.put(label, icon);
+        }
+        return icon;
+    }
+
+    /**
+     * Reads the positions of the items to give to the clusterer, and remembers them
+     *
+     * @param items
+     * @param removedIds
+     *            the ids of the removed items, whose position is forgotten
+     * @return the items with their position
+     */
+    private Map<Displayable, LatLng> readPositions(Collection<Displayable> items, Set<Long> removedIds) {
+        Map<Displayable, LatLng> positions = new HashMap<Displayable, LatLng>();
+        for (Displayable item : items) {
+            LatLng position = item.getLatLng();
+            positions.put(item, position);
+            mPositions.put(item.getId(), position);
+        }
+        for (long id : removedIds) {
+            mPositions.remove(id);
+        }
+        return positions;
+    }
+
+    private void removeClusterMarker(Cluster cluster) {
+        Marker marker = mClusterMarkers.remove(cluster);
+        mMarkerClusters.remove(marker.getId());
+        if (mClusterMarkerPool.size() < MAX_POOLED_MARKERS) {
+            marker.setVisible(false);
+            mClusterMarkerPool.add(marker);
+        } else {
+            marker.remove();
+        }
+    }
+
+    /**
+     * Displays the clusters of the current zoom level. Only the markers of clusters that appeared or
+     * disappeared are changed.
+     *
+     * @param context
+     * @param itemsChanged
+     *            whether the items were clustered again since the last call
+     */
+    private void render(Context context, boolean itemsChanged) {
+        if (mHierarchy == null) {
+            return;
+        }
+
+        int zoom = (int) Math.floor(mGoogleMap.getCameraPosition().zoom);
+        if (!itemsChanged && (zoom == mDisplayedZoom) && !this.isViewportCulling()) {
+            // Nothing can have changed
+            return;
+        }
+        mDisplayedZoom = zoom;
+
+        LatLngBounds viewport = null;
+        if (this.isViewportCulling()) {
+            viewport = mGoogleMap.getProjection().getVisibleRegion().latLngBounds;
+        }
+
+        Set<Displayable> singleItems = new HashSet<Displayable>();
+        Set<Cluster> shownClusters = new HashSet<Cluster>();
+        for (Cluster cluster : mHierarchy.getClusters(zoom)) {
+            if (cluster.getSize() == 1) {
+                // Culled by the parent
+                singleItems.add(cluster.getItem());
+            } else if ((viewport == null) || this.isNearViewport(cluster.getPosition(), viewport)) {
+                shownClusters.add(cluster);
+            }
+        }
+
+        for (Cluster cluster : new ArrayList<Cluster>(mClusterMarkers.keySet())) {
+            if (!shownClusters.contains(cluster)) {
+                this.removeClusterMarker(cluster);
+            }
+        }
+        for (Cluster cluster : shownClusters) {
+            if (!mClusterMarkers.containsKey(cluster)) {
+                this.addClusterMarker(cluster, context);
+            }
+        }
+
+        this.showItems(context, singleItems, itemsChanged);
+    }
+
+    /**
+     * Moves the given items between the clusters, or clusters all the items in background the first time.
+     * Changes made while the items are clustered in background are applied once it is done.
+     *
+     * @param context
+     * @param changedItems
+     * @param removedIds
+     */
+    private void update(Context context, Set<Displayable> changedItems, Set<Long> removedIds) {
+        if ((mHierarchy == null) && (mClusteringTask == null)) {
+            this.cluster(context);
+        } else if (mClusteringTask != null) {
+            for (Displayable item : changedItems) {
+                mPendingIds.add(item.getId());
+            }
+            mPendingIds.addAll(removedIds);
+        } else if (!changedItems.isEmpty() || !removedIds.isEmpty()) {
+            mClusterer.update(mHierarchy, this.readPositions(changedItems, removedIds), removedIds);
+            this.render(context, true);
+        }
+    }
+
+    /**
+     * Computes the clusters in background, then displays them
+     *
+     * @author hugo-S
+     */
+    private class ClusteringTask extends AsyncTask<Map<Displayable, LatLng>, Void, Hierarchy> {
+        private final Context mContext;
+
+        public ClusteringTask(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        protected Hierarchy doInBackground(Map<Displayable, LatLng>... params) {
+            return mClusterer.cluster(params[0]);
+        }
+
+        @Override
+        protected void onPostExecute(Hierarchy hierarchy) {
+            mClusteringTask = null;
+            mHierarchy = hierarchy;
+
+            // Apply the changes made meanwhile
+            Set<Displayable> changedItems = new HashSet<Displayable>();
+            Set<Long> removedIds = new HashSet<Long>();
+            for (long id : mPendingIds) {
+                Displayable item = mItems.get(id);
+                if (item != null) {
+                    changedItems.add(item);
+                } else {
+                    removedIds.add(id);
+                }
+            }
+            mPendingIds.clear();
+            Map<Displayable, LatLng> positions =
+                ClusteringMarkerManager.this.readPositions(changedItems, removedIds);
+            mClusterer.update(mHierarchy, positions, removedIds);
+
+            ClusteringMarkerManager.this.render(mContext, true);
+        }
+    }
+}
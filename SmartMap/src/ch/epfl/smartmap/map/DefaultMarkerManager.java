@@ -6,9 +6,10 @@ package ch.epfl.smartmap.map;
 import java.util.ArrayList;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TimeZone;
 
@@ -19,15 +20,20 @@ import android.os.SystemClock;
 import android.view.animation.Interpolator;
 import android.view.animation.LinearInterpolator;
 import ch.epfl.smartmap.cache.Displayable;
+import ch.epfl.smartmap.cache.SpatialIndex;
 
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.Projection;
+import com.google.android.gms.maps.model.BitmapDescriptor;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
 
 /**
- * A default implementation of {@link MarkerManager}.
+ * A default implementation of {@link MarkerManager}. When viewport culling is enabled, only the items in or
+ * near the visible region of the map get a marker, and the markers of items leaving it are hidden and kept in
+ * a pool to be reused for the items entering it.
  * 
  * @author hugo-S
  */
@@ -41,6 +47,19 @@ public class DefaultMarkerManager implements MarkerManager {
 
     public static final int MIN_TIME_BETWEEN_UPDATES = 15000;
 
+    /**
+     * Part of the visible region's size added on each side of it when culling, so that markers are already
+     * there when panning a bit
+     */
+    public static final double VIEWPORT_MARGIN = 0.5;
+    /**
+     * Maximum number of hidden markers kept for reuse
+     */
+    public static final int MAX_POOLED_MARKERS = 100;
+
+    private static final double MAX_LATITUDE = 90;
+    private static final double MAX_LONGITUDE = 180;
+
     private final GoogleMap mGoogleMap;
     private long lastUpdateInMillis = GregorianCalendar.getInstance(TimeZone.getTimeZone("GMT+01:00"))
         .getTimeInMillis();
@@ -54,6 +73,28 @@ public class DefaultMarkerManager implements MarkerManager {
      * A map that maps each marker with its id
      */
     private final Map<String, Marker> mDictionnaryMarkers;
+    /**
+     * A map that contains the displayed items, associated with their marker's id
+     */
+    private final Map<Displayable, String> mMarkerIds;
+    /**
+     * A map that contains the last icon set on each displayed marker
+     */
+    private final Map<String, BitmapDescriptor> mMarkerIcons;
+    /**
+     * Hidden markers that can be reused
+     */
+    private final LinkedList<Marker> mMarkerPool;
+    /**
+     * The items to display by id, as given to updateMarkers and updateItems, that may not all be shown when
+     * culling
+     */
+    private final Map<Long, Displayable> mItemsToDisplay;
+    /**
+     * The positions of the items to display, to find those near the viewport without looking at all of them
+     */
+    private final SpatialIndex mItemPositions;
+    private boolean mViewportCulling;
     private static final String DISPLAYABLE_ITEM = "Displayable item";
     private static final String CONTEXT_STRING = "context";
 
@@ -67,6 +108,11 @@ public class DefaultMarkerManager implements MarkerManager {
         mGoogleMap = googleMap;
         mDisplayedItems = new HashMap<String, Displayable>();
         mDictionnaryMarkers = new HashMap<String, Marker>();
+        mMarkerIds = new HashMap<Displayable, String>();
+        mMarkerIcons = new HashMap<String, BitmapDescriptor>();
+        mMarkerPool = new LinkedList<Marker>();
+        mItemsToDisplay = new HashMap<Long, Displayable>();
+        mItemPositions = new SpatialIndex();
     }
 
     /*
@@ -78,11 +124,23 @@ public class DefaultMarkerManager implements MarkerManager {
     public Marker addMarker(Displayable item, Context context) {
         this.checkNonNull(item, DISPLAYABLE_ITEM);
         this.checkNonNull(context, CONTEXT_STRING);
-        Marker marker =
-            mGoogleMap.addMarker(new MarkerOptions().position(item.getLatLng()).title(item.getTitle())
-                .icon(item.getMarkerIcon(context)).anchor(MARKER_ANCHOR_X, MARKER_ANCHOR_Y));
+        BitmapDescriptor icon = item.getMarkerIcon(context);
+        Marker marker = mMarkerPool.poll();
+        if (marker == null) {
+            marker =
+                mGoogleMap.addMarker(new MarkerOptions().position(item.getLatLng()).title(item.getTitle())
+                    .icon(icon).anchor(MARKER_ANCHOR_X, MARKER_ANCHOR_Y));
+        } else {
+            // Reuse a hidden marker
+            marker.setPosition(item.getLatLng());
+            marker.setTitle(item.getTitle());
+            marker.setIcon(icon);
+            marker.setVisible(true);
+        }
         mDisplayedItems.put(marker.getId(), item);
         mDictionnaryMarkers.put(marker.getId(), marker);
+        mMarkerIds.put(item, marker.getId());
+        mMarkerIcons.put(marker.getId(), icon);
         marker.setSnippet(MarkerColor.ORANGE.toString());
         return marker;
     }
@@ -126,12 +184,8 @@ public class DefaultMarkerManager implements MarkerManager {
     @Override
     public Marker getMarkerForItem(Displayable item) {
         this.checkNonNull(item, DISPLAYABLE_ITEM);
-        for (Entry<String, Displayable> entry : mDisplayedItems.entrySet()) {
-            if (entry.getValue().equals(item)) {
-                return mDictionnaryMarkers.get(entry.getKey());
-            }
-        }
-        return null;
+        String markerId = mMarkerIds.get(item);
+        return (markerId == null) ? null : mDictionnaryMarkers.get(markerId);
     }
 
     /*
@@ -143,7 +197,7 @@ public class DefaultMarkerManager implements MarkerManager {
     @Override
     public boolean isDisplayedItem(Displayable item) {
         this.checkNonNull(item, "Displayable item");
-        return mDisplayedItems.containsValue(item);
+        return mMarkerIds.containsKey(item);
     }
 
     /*
@@ -170,7 +224,15 @@ public class DefaultMarkerManager implements MarkerManager {
         Marker marker = this.getMarkerForItem(item);
         mDisplayedItems.remove(marker.getId());
         mDictionnaryMarkers.remove(marker.getId());
-        marker.remove();
+        mMarkerIds.remove(item);
+        mMarkerIcons.remove(marker.getId());
+        if (mMarkerPool.size() < MAX_POOLED_MARKERS) {
+            // Hide the marker to reuse it later
+            marker.setVisible(false);
+            mMarkerPool.add(marker);
+        } else {
+            marker.remove();
+        }
         return marker;
     }
 
@@ -187,13 +249,50 @@ public class DefaultMarkerManager implements MarkerManager {
         this.checkNonNull(context, CONTEXT_STRING);
         for (Marker marker : this.getDisplayedMarkers()) {
             if (marker.getSnippet().equals(MarkerColor.RED.toString())) {
-                marker.setIcon(this.getItemForMarker(marker).getMarkerIcon(context));
+                BitmapDescriptor icon = this.getItemForMarker(marker).getMarkerIcon(context);
+                marker.setIcon(icon);
+                mMarkerIcons.put(marker.getId(), icon);
                 marker.setSnippet(MarkerColor.ORANGE.toString());
             }
         }
 
     }
 
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.map.MarkerManager#setViewportCulling(boolean)
+     */
+    @Override
+    public void setViewportCulling(boolean enabled) {
+        mViewportCulling = enabled;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.map.MarkerManager#updateItems(android.content.Context, java.util.Set,
+     * java.util.Set)
+     */
+    @Override
+    public void updateItems(Context context, Set<Displayable> changedItems, Set<Long> removedIds) {
+        this.checkNonNull(context, CONTEXT_STRING);
+        this.checkNonNull(changedItems, "changed items");
+        this.checkNonNull(removedIds, "removed ids");
+
+        for (long id : removedIds) {
+            mItemPositions.remove(id);
+            Displayable item = mItemsToDisplay.remove(id);
+            if ((item != null) && this.isDisplayedItem(item)) {
+                this.removeMarker(item);
+            }
+        }
+
+        LatLngBounds viewport = this.getCullingViewport();
+        for (Displayable item : changedItems) {
+            this.putItemToDisplay(item);
+            this.displayItem(context, item, viewport, true);
+        }
+    }
+
     /*
      * (non-Javadoc)
      * @see
@@ -207,41 +306,83 @@ public class DefaultMarkerManager implements MarkerManager {
             this.checkNonNull(context, CONTEXT_STRING);
             this.checkNonNull(itemsToDisplay, "items to display");
 
-            // In the list friendsToDisplay, search if each friend s already
-            // displayed
-            for (Displayable item : itemsToDisplay) {
-                Marker marker;
-                // if the item is already displayed, get the marker for this
-                // item, else add a new marker
-                if (this.isDisplayedItem(item)) {
-                    marker = this.getMarkerForItem(item);
-                } else {
-                    marker = this.addMarker(item, context);
-                }
-
-                if ((marker.getPosition().latitude != item.getLatLng().latitude)
-                    || (marker.getPosition().longitude != item.getLatLng().longitude)) {
+            this.showItems(context, itemsToDisplay, true);
 
-                    this.animateMarker(marker, item.getLatLng());
-                }
+            // Update last time
+            lastUpdateInMillis = nowInMillis;
+        }
+    }
 
-                // set the marker's icon
-                marker.setIcon(item.getMarkerIcon(context));
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.map.MarkerManager#updateViewport(android.content.Context)
+     */
+    @Override
+    public void updateViewport(Context context) {
+        this.checkNonNull(context, CONTEXT_STRING);
+        if (mViewportCulling) {
+            // Items did not change, only add and remove markers
+            this.displayItems(context, false);
+        }
+    }
 
-            }
+    /**
+     * @param position
+     * @param viewport
+     * @return whether the position is in the viewport extended by {@code VIEWPORT_MARGIN} on each side
+     */
+    protected boolean isNearViewport(LatLng position, LatLngBounds viewport) {
+        double latitudeMargin = (viewport.northeast.latitude - viewport.southwest.latitude) * VIEWPORT_MARGIN;
+        if ((position.latitude < (viewport.southwest.latitude - latitudeMargin))
+            || (position.latitude > (viewport.northeast.latitude + latitudeMargin))) {
+            return false;
+        }
 
-            // remove the markers that are not longer in the list to display
-            for (Displayable item : this.getDisplayedItems()) {
-                if (!itemsToDisplay.contains(item)) {
+        double longitudeSpan = viewport.northeast.longitude - viewport.southwest.longitude;
+        if (longitudeSpan < 0) {
+            // The viewport crosses the antimeridian
+            longitudeSpan += 2 * MAX_LONGITUDE;
+        }
+        double longitudeMargin = longitudeSpan * VIEWPORT_MARGIN;
+        if ((longitudeSpan + (2 * longitudeMargin)) >= (2 * MAX_LONGITUDE)) {
+            return true;
+        }
 
-                    this.removeMarker(item);
+        // Distance eastwards from the extended west border
+        double fromWest = position.longitude - (viewport.southwest.longitude - longitudeMargin);
+        while (fromWest < 0) {
+            fromWest += 2 * MAX_LONGITUDE;
+        }
+        while (fromWest >= (2 * MAX_LONGITUDE)) {
+            fromWest -= 2 * MAX_LONGITUDE;
+        }
+        return fromWest <= (longitudeSpan + (2 * longitudeMargin));
+    }
 
-                }
-            }
+    /**
+     * @return whether viewport culling is enabled
+     */
+    protected boolean isViewportCulling() {
+        return mViewportCulling;
+    }
 
-            // Update last time
-            lastUpdateInMillis = nowInMillis;
+    /**
+     * Displays markers for the given items (only those near the viewport if culling is enabled), and removes
+     * the other markers. Not throttled.
+     * 
+     * @param context
+     * @param items
+     *            the items to display
+     * @param updateExisting
+     *            whether the position and icon of already displayed markers need to be updated
+     */
+    protected void showItems(Context context, Set<Displayable> items, boolean updateExisting) {
+        mItemsToDisplay.clear();
+        mItemPositions.clear();
+        for (Displayable item : items) {
+            this.putItemToDisplay(item);
         }
+        this.displayItems(context, updateExisting);
     }
 
     /**
@@ -284,6 +425,138 @@ public class DefaultMarkerManager implements MarkerManager {
         }
     }
 
+    /**
+     * Shows a marker for the item if it is near the viewport, and removes its marker otherwise
+     * 
+     * @param context
+     * @param item
+     * @param viewport
+     *            the visible region of the map, {@code null} if culling is disabled
+     * @param updateExisting
+     *            whether the position and icon of the marker need to be updated if it is already displayed
+     * @return whether the item has a marker
+     */
+    private boolean displayItem(Context context, Displayable item, LatLngBounds viewport,
+        boolean updateExisting) {
+        LatLng position = item.getLatLng();
+        Marker marker = this.getMarkerForItem(item);
+        if ((viewport != null) && !this.isNearViewport(position, viewport)) {
+            if (marker != null) {
+                this.removeMarker(item);
+            }
+            return false;
+        }
+
+        // if the item is already displayed, update its marker, else add a new marker
+        if (marker == null) {
+            this.addMarker(item, context);
+        } else if (updateExisting) {
+            // The item may be a new instance of the displayed one
+            mDisplayedItems.put(marker.getId(), item);
+
+            if ((marker.getPosition().latitude != position.latitude)
+                || (marker.getPosition().longitude != position.longitude)) {
+                this.animateMarker(marker, position);
+            }
+
+            // only set the icon if it changed
+            BitmapDescriptor icon = item.getMarkerIcon(context);
+            if (icon != mMarkerIcons.get(marker.getId())) {
+                marker.setIcon(icon);
+                mMarkerIcons.put(marker.getId(), icon);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Shows a marker for each item to display that is near the viewport (or for all items if culling is
+     * disabled), and removes the other markers
+     * 
+     * @param context
+     * @param updateExisting
+     *            whether the position and icon of already displayed markers need to be updated
+     */
+    private void displayItems(Context context, boolean updateExisting) {
+        LatLngBounds viewport = this.getCullingViewport();
+
+        Set<Displayable> shownItems = new HashSet<Displayable>();
+        if (viewport == null) {
+            shownItems.addAll(mItemsToDisplay.values());
+        } else {
+            for (long id : this.idsNearViewport(viewport)) {
+                shownItems.add(mItemsToDisplay.get(id));
+            }
+        }
+
+        // remove the markers that are not longer in the list to display first, so that they can be reused
+        for (Displayable item : this.getDisplayedItems()) {
+            if (!shownItems.contains(item)) {
+                this.removeMarker(item);
+            }
+        }
+
+        for (Displayable item : shownItems) {
+            // Already known to be near the viewport
+            this.displayItem(context, item, null, updateExisting);
+        }
+    }
+
+    /**
+     * @return the visible region of the map if culling is enabled, {@code null} otherwise
+     */
+    private LatLngBounds getCullingViewport() {
+        return mViewportCulling ? mGoogleMap.getProjection().getVisibleRegion().latLngBounds : null;
+    }
+
+    /**
+     * @param viewport
+     * @return the ids of the items to display that are in the viewport extended by {@code VIEWPORT_MARGIN}
+     *         on each side, the same as those accepted by {@code isNearViewport}
+     */
+    private Set<Long> idsNearViewport(LatLngBounds viewport) {
+        double latitudeMargin = (viewport.northeast.latitude - viewport.southwest.latitude) * VIEWPORT_MARGIN;
+        double south = Math.max(viewport.southwest.latitude - latitudeMargin, -MAX_LATITUDE);
+        double north = Math.min(viewport.northeast.latitude + latitudeMargin, MAX_LATITUDE);
+
+        double longitudeSpan = viewport.northeast.longitude - viewport.southwest.longitude;
+        if (longitudeSpan < 0) {
+            // The viewport crosses the antimeridian
+            longitudeSpan += 2 * MAX_LONGITUDE;
+        }
+        double longitudeMargin = longitudeSpan * VIEWPORT_MARGIN;
+        if ((longitudeSpan + (2 * longitudeMargin)) >= (2 * MAX_LONGITUDE)) {
+            return mItemPositions.idsInBounds(south, -MAX_LONGITUDE, north, MAX_LONGITUDE);
+        }
+        // The index accepts a west border greater than the east one if the region crosses the antimeridian
+        double west = wrapLongitude(viewport.southwest.longitude - longitudeMargin);
+        double east = wrapLongitude(viewport.northeast.longitude + longitudeMargin);
+        return mItemPositions.idsInBounds(south, west, north, east);
+    }
+
+    /**
+     * Keeps the item and its position as one to display
+     * 
+     * @param item
+     */
+    private void putItemToDisplay(Displayable item) {
+        mItemsToDisplay.put(item.getId(), item);
+        LatLng position = item.getLatLng();
+        mItemPositions.put(item.getId(), position.latitude, position.longitude);
+    }
+
+    /**
+     * @param longitude
+     * @return the same longitude in [-180, 180)
+     */
+    private static double wrapLongitude(double longitude) {
+        double wrapped = (longitude + MAX_LONGITUDE) % (2 * MAX_LONGITUDE);
+        if (wrapped < 0) {
+            wrapped += 2 * MAX_LONGITUDE;
+        }
+        return wrapped - MAX_LONGITUDE;
+    }
+
     /**
      * An enum that represents possible markers color for events
      * 
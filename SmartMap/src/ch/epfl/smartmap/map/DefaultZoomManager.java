@@ -98,6 +98,16 @@ public class DefaultZoomManager extends FragmentActivity implements ZoomManager
         }
     }
 
+    /*
+     * (non-Javadoc)
+     * @see
+     * ch.epfl.smartmap.map.ZoomManager#zoomOnBounds(com.google.android.gms.maps.model.LatLngBounds)
+     */
+    @Override
+    public void zoomOnBounds(LatLngBounds bounds) {
+        mGoogleMap.animateCamera(CameraUpdateFactory.newLatLngBounds(bounds, PADDING));
+    }
+
     /*
      * (non-Javadoc)
      * @see
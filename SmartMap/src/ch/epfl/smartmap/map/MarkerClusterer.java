@@ -0,0 +1,324 @@
+package ch.epfl.smartmap.map;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ch.epfl.smartmap.cache.Displayable;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+/**
+ * Groups items that would overlap on the map into clusters, for every zoom level. The map is cut into a grid
+ * of square cells of a fixed size in pixels, and the items in the same cell form a cluster. Since a cell at a
+ * zoom level is made of four cells of the next level, the clusters are computed once at the highest level,
+ * and then merged level by level. A cluster that does not change from one level to the other is the same
+ * object at both levels, so that its marker can be kept when zooming. When items change, only the cells
+ * they leave or enter are computed again, and the other clusters are kept.
+ * This class does not use the map and can be used on a background thread.
+ *
+ * @author hugo-S
+ */
+public final class MarkerClusterer {
+
+    /**
+     * Side of a cell in pixels
+     */
+    public static final int DEFAULT_CELL_SIZE = 80;
+    /**
+     * Zoom level from which items are never clustered
+     */
+    public static final int DEFAULT_MAX_CLUSTERING_ZOOM = 17;
+
+    private static final int TILE_SIZE = 256;
+    private static final double MAX_SIN_LATITUDE = 0.9999;
+    // Bits used for the row in a cell key
+    private static final int ROW_BITS = 31;
+
+    private final int mCellSize;
+    private final int mMaxClusteringZoom;
+
+    /**
+     * Constructor with default cell size and maximum clustering zoom
+     */
+    public MarkerClusterer() {
+        this(DEFAULT_CELL_SIZE, DEFAULT_MAX_CLUSTERING_ZOOM);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param cellSize
+     *            side of a cell in pixels
+     * @param maxClusteringZoom
+     *            zoom level from which items are never clustered
+     */
+    public MarkerClusterer(int cellSize, int maxClusteringZoom) {
+        if (cellSize < 1) {
+            throw new IllegalArgumentException("Cell size must be positive.");
+        }
+        if ((maxClusteringZoom < 1) || (maxClusteringZoom > (ROW_BITS - 8))) {
+            throw new IllegalArgumentException("Invalid maximum clustering zoom : " + maxClusteringZoom);
+        }
+        mCellSize = cellSize;
+        mMaxClusteringZoom = maxClusteringZoom;
+    }
+
+    /**
+     * Computes the clusters of the given items at every zoom level
+     *
+     * @param items
+     *            the items with their position, which is read only once
+     * @return the clusters
+     */
+    public Hierarchy cluster(Map<Displayable, LatLng> items) {
+        Hierarchy hierarchy = new Hierarchy(mMaxClusteringZoom);
+        this.update(hierarchy, items, Collections.<Long> emptySet());
+        return hierarchy;
+    }
+
+    /**
+     * Moves the given items to their new cell, and removes the given ones. Only the cells that contained or
+     * now contain one of them are computed again, at each zoom level, so that the cost does not depend on
+     * the number of unchanged items. The other clusters are kept as is.
+     *
+     * @param hierarchy
+     *            the clusters to update, which must not be read by another thread meanwhile
+     * @param changedItems
+     *            the added or modified items with their position, which is read only once
+     * @param removedIds
+     *            the ids of the removed items
+     */
+    public void update(Hierarchy hierarchy, Map<Displayable, LatLng> changedItems, Set<Long> removedIds) {
+        // Cells to compute again at the highest clustered zoom
+        Set<Long> dirtyCells = new HashSet<Long>();
+        for (long id : removedIds) {
+            this.removeItem(hierarchy, id, dirtyCells);
+        }
+
+        int zoom = mMaxClusteringZoom - 1;
+        double worldSize = TILE_SIZE * Math.pow(2, zoom);
+        for (Map.Entry<Displayable, LatLng> item : changedItems.entrySet()) {
+            long id = item.getKey().getId();
+            this.removeItem(hierarchy, id, dirtyCells);
+
+            long column = (long) Math.floor(this.x(item.getValue(), worldSize) / mCellSize);
+            long row = (long) Math.floor(this.y(item.getValue(), worldSize) / mCellSize);
+            long key = (column << ROW_BITS) | row;
+            hierarchy.mSingletons.put(id, new Cluster(item.getKey(), item.getValue()));
+            hierarchy.mItemCells.put(id, key);
+            Set<Long> cellItems = hierarchy.mCellItems.get(key);
+            if (cellItems == null) {
+                cellItems = new HashSet<Long>();
+                hierarchy.mCellItems.put(key, cellItems);
+            }
+            cellItems.add(id);
+            dirtyCells.add(key);
+        }
+
+        Map<Long, Cluster> level = hierarchy.mLevels.get(zoom);
+        for (long key : dirtyCells) {
+            List<Cluster> members = new ArrayList<Cluster>();
+            Set<Long> cellItems = hierarchy.mCellItems.get(key);
+            if (cellItems != null) {
+                for (long id : cellItems) {
+                    members.add(hierarchy.mSingletons.get(id));
+                }
+            }
+            this.setCell(level, key, members);
+        }
+
+        // A cell at a zoom level is made of four cells of the next level
+        for (zoom--; zoom >= 0; zoom--) {
+            Set<Long> parentCells = new HashSet<Long>();
+            for (long key : dirtyCells) {
+                long column = (key >>> ROW_BITS) >> 1;
+                long row = (key & ((1L << ROW_BITS) - 1)) >> 1;
+                parentCells.add((column << ROW_BITS) | row);
+            }
+
+            Map<Long, Cluster> children = hierarchy.mLevels.get(zoom + 1);
+            level = hierarchy.mLevels.get(zoom);
+            for (long key : parentCells) {
+                long column = key >>> ROW_BITS;
+                long row = key & ((1L << ROW_BITS) - 1);
+                List<Cluster> members = new ArrayList<Cluster>();
+                for (long childColumn = 2 * column; childColumn <= ((2 * column) + 1); childColumn++) {
+                    for (long childRow = 2 * row; childRow <= ((2 * row) + 1); childRow++) {
+                        Cluster child = children.get((childColumn << ROW_BITS) | childRow);
+                        if (child != null) {
+                            members.add(child);
+                        }
+                    }
+                }
+                this.setCell(level, key, members);
+            }
+            dirtyCells = parentCells;
+        }
+    }
+
+    private void removeItem(Hierarchy hierarchy, long id, Set<Long> dirtyCells) {
+        Long key = hierarchy.mItemCells.remove(id);
+        if (key != null) {
+            hierarchy.mSingletons.remove(id);
+            Set<Long> cellItems = hierarchy.mCellItems.get(key);
+            cellItems.remove(id);
+            if (cellItems.isEmpty()) {
+                hierarchy.mCellItems.remove(key);
+            }
+            dirtyCells.add(key);
+        }
+    }
+
+    /**
+     * Sets the cluster of a cell made of the given clusters, keeping the previous one if it did not change so
+     * that its marker is kept
+     */
+    private void setCell(Map<Long, Cluster> level, long key, List<Cluster> members) {
+        if (members.isEmpty()) {
+            level.remove(key);
+        } else if (members.size() == 1) {
+            level.put(key, members.get(0));
+        } else {
+            Cluster merged = new Cluster(members);
+            Cluster previous = level.get(key);
+            if ((previous == null) || !previous.isSameAs(merged)) {
+                level.put(key, merged);
+            }
+        }
+    }
+
+    /**
+     * @return the horizontal position in pixels in the Mercator projection of the world
+     */
+    private double x(LatLng position, double worldSize) {
+        return ((position.longitude + 180) / 360) * worldSize;
+    }
+
+    /**
+     * @return the vertical position in pixels in the Mercator projection of the world
+     */
+    private double y(LatLng position, double worldSize) {
+        double sinLatitude =
+            Math.max(-MAX_SIN_LATITUDE, Math.min(MAX_SIN_LATITUDE, Math.sin(Math.toRadians(position.latitude))));
+        return (0.5 - (Math.log((1 + sinLatitude) / (1 - sinLatitude)) / (4 * Math.PI))) * worldSize;
+    }
+
+    /**
+     * A group of items displayed with a single marker
+     *
+     * @author hugo-S
+     */
+    public static final class Cluster {
+        private final Displayable mItem;
+        private final int mSize;
+        private final LatLng mPosition;
+        private final LatLngBounds mBounds;
+
+        private Cluster(Displayable item, LatLng position) {
+            mItem = item;
+            mSize = 1;
+            mPosition = position;
+            mBounds = new LatLngBounds(position, position);
+        }
+
+        private Cluster(List<Cluster> clusters) {
+            mItem = null;
+
+            int size = 0;
+            double latitude = 0;
+            double longitude = 0;
+            LatLngBounds.Builder bounds = new LatLngBounds.Builder();
+            for (Cluster cluster : clusters) {
+                size += cluster.mSize;
+                latitude += cluster.mPosition.latitude * cluster.mSize;
+                longitude += cluster.mPosition.longitude * cluster.mSize;
+                bounds.include(cluster.mBounds.southwest);
+                bounds.include(cluster.mBounds.northeast);
+            }
+
+            mSize = size;
+            mPosition = new LatLng(latitude / size, longitude / size);
+            mBounds = bounds.build();
+        }
+
+        /**
+         * @return the region containing all items of the cluster
+         */
+        public LatLngBounds getBounds() {
+            return mBounds;
+        }
+
+        /**
+         * @return the item, if the cluster contains a single one, {@code null} otherwise
+         */
+        public Displayable getItem() {
+            return mItem;
+        }
+
+        /**
+         * @return the average position of the items
+         */
+        public LatLng getPosition() {
+            return mPosition;
+        }
+
+        /**
+         * @return the number of items in the cluster
+         */
+        public int getSize() {
+            return mSize;
+        }
+
+        /**
+         * @return whether both clusters of several items would be displayed the same way
+         */
+        private boolean isSameAs(Cluster that) {
+            return (mItem == null) && (that.mItem == null) && (mSize == that.mSize)
+                && mPosition.equals(that.mPosition) && mBounds.equals(that.mBounds);
+        }
+    }
+
+    /**
+     * The clusters of every zoom level, by cell. It is only modified by {@link MarkerClusterer#update}.
+     *
+     * @author hugo-S
+     */
+    public static final class Hierarchy {
+        // Clusters by cell key, for each zoom level below the maximum clustering zoom
+        private final List<Map<Long, Cluster>> mLevels;
+        // Single item clusters and highest clustered cell of each item, by item id
+        private final Map<Long, Cluster> mSingletons;
+        private final Map<Long, Long> mItemCells;
+        // Ids of the items of each highest clustered cell
+        private final Map<Long, Set<Long>> mCellItems;
+
+        private Hierarchy(int maxClusteringZoom) {
+            mLevels = new ArrayList<Map<Long, Cluster>>();
+            for (int zoom = 0; zoom < maxClusteringZoom; zoom++) {
+                mLevels.add(new HashMap<Long, Cluster>());
+            }
+            mSingletons = new HashMap<Long, Cluster>();
+            mItemCells = new HashMap<Long, Long>();
+            mCellItems = new HashMap<Long, Set<Long>>();
+        }
+
+        /**
+         * @param zoom
+         *            a zoom level of the map
+         * @return the clusters at this zoom level, only single item clusters if it is at least the maximum
+         *         clustering zoom
+         */
+        public List<Cluster> getClusters(int zoom) {
+            if (zoom >= mLevels.size()) {
+                return new ArrayList<Cluster>(mSingletons.values());
+            }
+            return new ArrayList<Cluster>(mLevels.get(Math.max(0, zoom)).values());
+        }
+    }
+}
@@ -78,6 +78,25 @@ public interface MarkerManager {
      */
     void resetMarkersIcon(Context context);
 
+    /**
+     * Enables or disables viewport culling. When enabled, only the items in or near the visible region of the
+     * map are given a marker.
+     * 
+     * @param enabled
+     */
+    void setViewportCulling(boolean enabled);
+
+    /**
+     * Updates the markers of the given items only, the markers of the other items are left as they are
+     * 
+     * @param context
+     * @param changedItems
+     *            the items to display that were added or changed since the last update
+     * @param removedIds
+     *            the ids of the items that must not be displayed anymore
+     */
+    void updateItems(Context context, Set<Displayable> changedItems, Set<Long> removedIds);
+
     /**
      * This method updates the markers on the map with the given list of items
      * 
@@ -89,4 +108,12 @@ public interface MarkerManager {
      */
     void updateMarkers(Context context, Set<Displayable> itemsToDisplay);
 
+    /**
+     * Shows and hides markers after the visible region of the map changed, without updating the items. Does
+     * nothing if viewport culling is disabled.
+     * 
+     * @param context
+     */
+    void updateViewport(Context context);
+
 }
@@ -3,6 +3,7 @@ package ch.epfl.smartmap.map;
 import java.util.List;
 
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Marker;
 
 /**
@@ -27,6 +28,13 @@ public interface ZoomManager {
      */
     void zoomAccordingToMarkers(final List<Marker> markers);
 
+    /**
+     * Zoom so that the given region fills the map, with animation
+     * @param bounds
+     *            the region to show, for instance the items of a cluster
+     */
+    void zoomOnBounds(LatLngBounds bounds);
+
     /**
      * Zoom on the specified location, with animation
      * 
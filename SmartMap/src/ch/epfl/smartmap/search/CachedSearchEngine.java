@@ -1,42 +1,65 @@
 package ch.epfl.smartmap.search;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
 import java.util.Set;
 
 import android.os.AsyncTask;
 import android.util.Log;
 import ch.epfl.smartmap.background.ServiceContainer;
+import ch.epfl.smartmap.cache.Cache;
+import ch.epfl.smartmap.cache.CacheUpdate;
 import ch.epfl.smartmap.cache.Displayable;
 import ch.epfl.smartmap.cache.Event;
 import ch.epfl.smartmap.cache.EventContainer;
-import ch.epfl.smartmap.cache.FilterInterface;
+import ch.epfl.smartmap.cache.Filter;
 import ch.epfl.smartmap.cache.User;
 import ch.epfl.smartmap.cache.UserContainer;
 import ch.epfl.smartmap.callbacks.SearchRequestCallback;
+import ch.epfl.smartmap.listeners.OnCacheListener;
 import ch.epfl.smartmap.servercom.SmartMapClientException;
 
 /**
  * Provides search functions for classes {@code SearchLayout} and
  * {@code AddFriendActivity}. Usually search in
  * Cache, then in Database, then on Server. Use a small Cache to store the
- * result of some previous queries.
+ * result of some previous queries. Queries on the items of the Cache are answered by a {@link SearchIndex}
+ * of their names, kept up to date with the notifications of the Cache.
  * 
  * @author jfperren
  */
 public final class CachedSearchEngine implements SearchEngineInterface {
 
+    /**
+     * Maximum number of results of each type for a query on the Cache, an empty query returns all the items
+     */
+    public static final int MAX_RESULTS = 50;
+
     private static final String TAG = CachedSearchEngine.class.getSimpleName();
 
-    // Contains the server result for previous queries
-    private final Map<String, Set<Long>> mPreviousOnlineStrangerSearches;
+    // Results of the server for the latest stranger searches
+    private static final int STRANGER_SEARCH_CACHE_SIZE = 100;
+    private static final long STRANGER_SEARCH_TIME_TO_LIVE = 5 * 60 * 1000;
+    // Maximum number of users given by the server for a stranger search
+    private static final int STRANGER_SEARCH_SERVER_MAX_RESULTS = 10;
+
+    private final RemoteSearchCache mStrangerSearchCache;
+
+    // Indexes of the names of the friends, events and custom filters of the Cache
+    private final SearchIndex mFriendIndex;
+    private final SearchIndex mEventIndex;
+    private final SearchIndex mFilterIndex;
+    // The Cache whose items are indexed, the indexes are built again if the Cache is replaced
+    private Cache mIndexedCache;
 
     public CachedSearchEngine() {
-        mPreviousOnlineStrangerSearches = new HashMap<String, Set<Long>>();
+        mStrangerSearchCache =
+            new RemoteSearchCache(STRANGER_SEARCH_CACHE_SIZE, STRANGER_SEARCH_TIME_TO_LIVE,
+                STRANGER_SEARCH_SERVER_MAX_RESULTS);
+        mFriendIndex = new SearchIndex();
+        mEventIndex = new SearchIndex();
+        mFilterIndex = new SearchIndex();
     }
 
     @Override
@@ -61,6 +84,7 @@ public final class CachedSearchEngine implements SearchEngineInterface {
     private Void findEventByIdsTaskInBackground(Set<Long> ids, SearchRequestCallback<Set<Event>> callback) {
         Set<EventContainer> immutableResult = new HashSet<EventContainer>();
         Set<Event> result = new HashSet<Event>();
+        Set<Long> notFoundLocally = new HashSet<Long>();
 
         for (long id : ids) {
             // Check for live instance
@@ -76,25 +100,14 @@ public final class CachedSearchEngine implements SearchEngineInterface {
                 if (databaseResult != null) {
                     immutableResult.add(databaseResult);
                 } else {
-                    // If not found, check on the server
-                    EventContainer networkResult;
-                    try {
-                        Log.d(TAG, "Try to get event online");
-                        networkResult = ServiceContainer.getNetworkClient().getEventInfo(id);
-                        Log.d(TAG, "Successfull");
-                    } catch (SmartMapClientException e) {
-                        networkResult = null;
-                        Log.e(TAG, "Error while finding public events by Ids" + e);
-                    }
-
-                    if (networkResult != null) {
-                        // Match on server, put it in cache
-                        immutableResult.add(networkResult);
-                    }
+                    notFoundLocally.add(id);
                 }
             }
         }
 
+        // Check all remaining events on the server at once
+        immutableResult.addAll(ServiceContainer.getParallelFetcher().fetchEvents(notFoundLocally));
+
         // Get all results that weren't in cache and add them all at
         // once (Avoid to send multiple listener calls)
         ServiceContainer.getCache().putEvents(immutableResult);
@@ -139,10 +152,10 @@ public final class CachedSearchEngine implements SearchEngineInterface {
                 }
                 return null;
             } else {
-                // If not found, check on the server
+                // If not found, check on the server, along with the other lookups of this event
                 EventContainer networkResult;
                 try {
-                    networkResult = ServiceContainer.getNetworkClient().getEventInfo(id);
+                    networkResult = ServiceContainer.getParallelFetcher().fetchEvent(id);
                 } catch (SmartMapClientException e) {
                     networkResult = null;
                     Log.e(TAG, "Error while finding public events by Ids" + e);
@@ -198,37 +211,14 @@ public final class CachedSearchEngine implements SearchEngineInterface {
      * @return Void
      */
     private Void findStrangersByNameTaskInBackground(String query, SearchRequestCallback<Set<User>> callback) {
-        Set<User> result = new HashSet<User>();
-
-        if (mPreviousOnlineStrangerSearches.get(query) != null) {
-            // Fetch in cache
-            Set<Long> localResult = mPreviousOnlineStrangerSearches.get(query);
-            for (Long id : localResult) {
-                User cachedUser = ServiceContainer.getCache().getUser(id);
-                if (cachedUser != null) {
-                    if ((cachedUser.getFriendship() != User.FRIEND) && (cachedUser.getFriendship() != User.SELF)) {
-                        result.add(cachedUser);
-                    } else {
-                        // nothing
-                    }
-                }
-            }
-        } else {
-            // Fetch online
-            List<UserContainer> networkResult;
-            try {
-                networkResult = ServiceContainer.getNetworkClient().findUsers(query);
-                for (UserContainer user : networkResult) {
-                    if (user != null) {
-                        ServiceContainer.getCache().putUser(user);
-                        result.add(ServiceContainer.getCache().getUser(user.getId()));
-                    }
-                }
-            } catch (SmartMapClientException e) {
-                Log.e(TAG, "Error while finding strangers by query" + e);
-                if (callback != null) {
-                    callback.onNetworkError(e);
-                }
+        Set<User> result;
+        try {
+            result = this.searchStrangersByName(query);
+        } catch (SmartMapClientException e) {
+            Log.e(TAG, "Error while finding strangers by query" + e);
+            result = new HashSet<User>();
+            if (callback != null) {
+                callback.onNetworkError(e);
             }
         }
         if (callback != null) {
@@ -278,10 +268,10 @@ public final class CachedSearchEngine implements SearchEngineInterface {
                 }
                 return null;
             } else {
-                // If not found, check on the server
+                // If not found, check on the server, along with the other lookups of this user
                 UserContainer networkResult;
                 try {
-                    networkResult = ServiceContainer.getNetworkClient().getUserInfo(id);
+                    networkResult = ServiceContainer.getParallelFetcher().fetchUser(id);
                     if (networkResult != null) {
                         // Match on server, put it in cache
                         ServiceContainer.getCache().putUser(networkResult);
@@ -329,8 +319,8 @@ public final class CachedSearchEngine implements SearchEngineInterface {
      * @return Void
      */
     private Void findUsersByIdTaskInBackground(Set<Long> ids, final SearchRequestCallback<Set<User>> callback) {
-        Set<UserContainer> immutableResult = new HashSet<UserContainer>();
         Set<User> result = new HashSet<User>();
+        Set<Long> notInCache = new HashSet<Long>();
 
         for (long id : ids) {
             // Check for live instance
@@ -340,22 +330,13 @@ public final class CachedSearchEngine implements SearchEngineInterface {
                 // Found in cache, add to set of live instances
                 result.add(stranger);
             } else {
-                // If not found, check on the server
-                UserContainer networkResult;
-                try {
-                    networkResult = ServiceContainer.getNetworkClient().getUserInfo(id);
-                } catch (SmartMapClientException e) {
-                    Log.e(TAG, "Error while finding public users by Ids" + e);
-                    networkResult = null;
-                }
-
-                if (networkResult != null) {
-                    // Match on server, put it in cache
-                    immutableResult.add(networkResult);
-                }
+                notInCache.add(id);
             }
         }
 
+        // Check all remaining users on the server at once
+        Set<UserContainer> immutableResult = ServiceContainer.getParallelFetcher().fetchUsers(notInCache);
+
         ServiceContainer.getCache().putUsers(immutableResult);
         // Retrieve live instances from cache
         for (UserContainer user : immutableResult) {
@@ -369,6 +350,54 @@ public final class CachedSearchEngine implements SearchEngineInterface {
         return null;
     }
 
+    /**
+     * @return the results of the latest stranger searches, with its hit and miss counts
+     */
+    public RemoteSearchCache getStrangerSearchCache() {
+        return mStrangerSearchCache;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.search.SearchEngineInterface#searchStrangersByName(java.lang.String)
+     */
+    @Override
+    public Set<User> searchStrangersByName(String query) throws SmartMapClientException {
+        long[] cachedIds = mStrangerSearchCache.get(query);
+        if (cachedIds != null) {
+            // Fetch in cache
+            Set<User> result = new HashSet<User>();
+            boolean isComplete = true;
+            for (long id : cachedIds) {
+                User cachedUser = ServiceContainer.getCache().getUser(id);
+                if (cachedUser == null) {
+                    isComplete = false;
+                    break;
+                } else if ((cachedUser.getFriendship() != User.FRIEND)
+                    && (cachedUser.getFriendship() != User.SELF)) {
+                    result.add(cachedUser);
+                }
+            }
+            if (isComplete) {
+                return result;
+            }
+            // Some users of the result left the Cache, ask again for them
+            mStrangerSearchCache.remove(query);
+        }
+
+        // Fetch online
+        Set<User> result = new HashSet<User>();
+        List<UserContainer> networkResult = ServiceContainer.getNetworkClient().findUsers(query);
+        for (UserContainer user : networkResult) {
+            if (user != null) {
+                ServiceContainer.getCache().putUser(user);
+                result.add(ServiceContainer.getCache().getUser(user.getId()));
+            }
+        }
+        mStrangerSearchCache.put(query, networkResult);
+        return result;
+    }
+
     /*
      * (non-Javadoc)
      * @see ch.epfl.smartmap.cache.SearchEngine#sendQuery(java.lang.String,
@@ -376,8 +405,10 @@ public final class CachedSearchEngine implements SearchEngineInterface {
      */
     @Override
     public List<Displayable> sendQuery(String query, Type searchType) {
-        query = query.toLowerCase(Locale.US);
+        Cache cache = this.getIndexedCache();
         List<Displayable> results = new ArrayList<Displayable>();
+        // The empty query lists every item, only the best matches of a typed query are shown
+        int maxResults = SearchIndex.isEmptyQuery(query) ? SearchIndex.ALL_RESULTS : MAX_RESULTS;
 
         switch (searchType) {
             case ALL:
@@ -386,26 +417,19 @@ public final class CachedSearchEngine implements SearchEngineInterface {
                 results.addAll(this.sendQuery(query, Type.TAGS));
                 break;
             case FRIENDS:
-                for (User f : ServiceContainer.getCache().getAllFriends()) {
-                    if (f.getName().toLowerCase(Locale.US).contains(query)) {
-                        results.add(f);
-                    }
+                for (long id : mFriendIndex.search(query, maxResults)) {
+                    addIfNotNull(results, cache.getUser(id));
                 }
                 break;
             case EVENTS:
-                for (Event e : ServiceContainer.getCache().getAllEvents()) {
-                    if (e.getName().toLowerCase(Locale.US).contains(query)) {
-                        results.add(e);
-                    }
+                for (long id : mEventIndex.search(query, maxResults)) {
+                    addIfNotNull(results, cache.getEvent(id));
                 }
                 break;
             case TAGS:
-                for (FilterInterface f : ServiceContainer.getCache().getAllCustomFilters()) {
-                    if ((f.getName() != null) && f.getName().toLowerCase(Locale.US).contains(query)) {
-                        results.add(f);
-                    }
+                for (long id : mFilterIndex.search(query, maxResults)) {
+                    addIfNotNull(results, cache.getFilter(id));
                 }
-
                 break;
             default:
                 break;
@@ -413,4 +437,93 @@ public final class CachedSearchEngine implements SearchEngineInterface {
         return results;
     }
 
+    /**
+     * Returns the Cache of the {@code ServiceContainer}, after indexing its items if they are not yet. The
+     * indexes are then updated by a listener of the Cache.
+     * 
+     * @return the Cache whose items are indexed
+     */
+    private synchronized Cache getIndexedCache() {
+        final Cache cache = ServiceContainer.getCache();
+        if (cache == mIndexedCache) {
+            return cache;
+        }
+
+        mIndexedCache = cache;
+        mFriendIndex.clear();
+        mEventIndex.clear();
+        mFilterIndex.clear();
+
+        // Listen first, so that no modification is missed while the items are indexed
+        cache.addOnCacheListener(new OnCacheListener() {
+            @Override
+            public void onCacheUpdate(CacheUpdate update) {
+                CachedSearchEngine.this.updateIndexes(cache, update);
+            }
+        });
+        for (User friend : cache.getAllFriends()) {
+            mFriendIndex.put(friend.getId(), friend.getName());
+        }
+        for (Event event : cache.getAllEvents()) {
+            mEventIndex.put(event.getId(), event.getName());
+        }
+        for (Filter filter : cache.getAllCustomFilters()) {
+            mFilterIndex.put(filter.getId(), filter.getName());
+        }
+        return cache;
+    }
+
+    /**
+     * Updates the indexes with the items that changed in the Cache
+     * 
+     * @param cache
+     *            the Cache that changed
+     * @param update
+     *            its changes
+     */
+    private synchronized void updateIndexes(Cache cache, CacheUpdate update) {
+        if (cache != mIndexedCache) {
+            // The Cache was replaced, its items are no longer searched
+            return;
+        }
+
+        for (long id : update.getUserChanges().getChangedIds()) {
+            User user = cache.getUser(id);
+            if ((user != null) && (user.getFriendship() == User.FRIEND)) {
+                mFriendIndex.put(id, user.getName());
+            } else {
+                mFriendIndex.remove(id);
+            }
+        }
+        for (long id : update.getUserChanges().getRemovedIds()) {
+            mFriendIndex.remove(id);
+        }
+
+        for (long id : update.getEventChanges().getChangedIds()) {
+            Event event = cache.getEvent(id);
+            mEventIndex.put(id, (event == null) ? null : event.getName());
+        }
+        for (long id : update.getEventChanges().getRemovedIds()) {
+            mEventIndex.remove(id);
+        }
+
+        for (long id : update.getFilterChanges().getChangedIds()) {
+            Filter filter = cache.getFilter(id);
+            if ((filter != null) && (id != Filter.DEFAULT_FILTER_ID)) {
+                mFilterIndex.put(id, filter.getName());
+            }
+        }
+        for (long id : update.getFilterChanges().getRemovedIds()) {
+            mFilterIndex.remove(id);
+        }
+    }
+
+    /**
+     * Adds the item to the results, unless it was removed from the Cache since it was found in an index
+     */
+    private static void addIfNotNull(List<Displayable> results, Displayable item) {
+        if (item != null) {
+            results.add(item);
+        }
+    }
 }
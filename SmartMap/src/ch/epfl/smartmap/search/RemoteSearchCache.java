@@ -0,0 +1,227 @@
+package ch.epfl.smartmap.search;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.os.SystemClock;
+import ch.epfl.smartmap.cache.UserContainer;
+
+/**
+ * Keeps the results given by the server for the latest stranger searches, so that they are not asked again.
+ * The server gives the users with a word of their name beginning with the query, ignoring case and accents
+ * as {@link SearchIndex#normalize(String)} does, at most {@code serverMaxResults} of them; when it gave less,
+ * the result is complete, and the result for a longer query is found by keeping only the users matching it.
+ * Results expire after a time to live, and the least recently used ones are dropped when there are too many.
+ * This class is thread safe.
+ *
+ * @author jfperren
+ */
+public final class RemoteSearchCache {
+
+    private final int mMaxEntries;
+    private final long mTimeToLive;
+    private final int mServerMaxResults;
+
+    // Entries by normalized query, in access order so that the eldest is the least recently used
+    private final LinkedHashMap<String, Entry> mEntries;
+
+    private long mHitCount;
+    private long mPrefixHitCount;
+    private long mMissCount;
+
+    /**
+     * Constructor
+     *
+     * @param maxEntries
+     *            the maximum number of queries whose results are kept
+     * @param timeToLive
+     *            time during which a result is used, in milliseconds
+     * @param serverMaxResults
+     *            the maximum number of users given by the server for a query
+     */
+    public RemoteSearchCache(int maxEntries, long timeToLive, int serverMaxResults) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Maximum number of entries must be positive");
+        }
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("Negative time to live");
+        }
+        if (serverMaxResults <= 0) {
+            throw new IllegalArgumentException("Maximum number of server results must be positive");
+        }
+        mMaxEntries = maxEntries;
+        mTimeToLive = timeToLive;
+        mServerMaxResults = serverMaxResults;
+        mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return this.size() > mMaxEntries;
+            }
+        };
+    }
+
+    /**
+     * Removes all the results
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * Finds the result of the query, given by the server either for the query itself or for a shorter one
+     * with a complete result
+     *
+     * @param query
+     *            the text typed
+     * @return the ids of the users found by the server, or {@code null} if they must be asked to it
+     */
+    public synchronized long[] get(String query) {
+        String key = toKey(query);
+        long now = SystemClock.elapsedRealtime();
+
+        Entry entry = this.getFresh(key, now);
+        if (entry != null) {
+            mHitCount++;
+            return entry.mIds.clone();
+        }
+
+        // Only the longest fresh shorter query is looked at, the others gave the same or larger results
+        for (int length = key.length() - 1; length > 0; length--) {
+            Entry prefixEntry = this.getFresh(key.substring(0, length), now);
+            if (prefixEntry != null) {
+                if (prefixEntry.mIds.length >= mServerMaxResults) {
+                    // Users matching the query may have been cut by the server
+                    break;
+                }
+                Entry narrowedEntry = prefixEntry.narrow(key);
+                mEntries.put(key, narrowedEntry);
+                mPrefixHitCount++;
+                return narrowedEntry.mIds.clone();
+            }
+        }
+
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * @return the number of queries whose result was given by the server for the query itself
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return the number of queries that had to be asked to the server
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return the number of queries whose result was found from the complete result of a shorter query
+     */
+    public synchronized long getPrefixHitCount() {
+        return mPrefixHitCount;
+    }
+
+    /**
+     * Keeps the result given by the server for a query
+     *
+     * @param query
+     *            the text sent to the server
+     * @param users
+     *            the users it gave
+     */
+    public synchronized void put(String query, List<UserContainer> users) {
+        long[] ids = new long[users.size()];
+        String[] names = new String[users.size()];
+        int count = 0;
+        for (UserContainer user : users) {
+            if ((user != null) && (user.getName() != null)) {
+                ids[count] = user.getId();
+                names[count] = toKey(user.getName());
+                count++;
+            }
+        }
+        mEntries.put(toKey(query), new Entry(Arrays.copyOf(ids, count), Arrays.copyOf(names, count),
+            SystemClock.elapsedRealtime() + mTimeToLive));
+    }
+
+    /**
+     * Removes the result of the query, it will be asked to the server again
+     *
+     * @param query
+     */
+    public synchronized void remove(String query) {
+        mEntries.remove(toKey(query));
+    }
+
+    /**
+     * @return the number of queries whose results are kept, some of them may have expired
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return the entry of the key if it has not expired, an expired one is removed
+     */
+    private Entry getFresh(String key, long now) {
+        Entry entry = mEntries.get(key);
+        if ((entry != null) && (entry.mExpiryTime <= now)) {
+            mEntries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * @param text
+     * @return the text as compared by the server
+     */
+    private static String toKey(String text) {
+        return SearchIndex.normalize(text);
+    }
+
+    /**
+     * The users found by the server for a query
+     *
+     * @author jfperren
+     */
+    private static final class Entry {
+
+        private final long[] mIds;
+        // Normalized names of the users
+        private final String[] mNames;
+        // Elapsed realtime at which the result must be asked again
+        private final long mExpiryTime;
+
+        private Entry(long[] ids, String[] names, long expiryTime) {
+            mIds = ids;
+            mNames = names;
+            mExpiryTime = expiryTime;
+        }
+
+        /**
+         * @return the entry for a longer query, with the users having a word of their name beginning with it
+         */
+        private Entry narrow(String key) {
+            long[] ids = new long[mIds.length];
+            String[] names = new String[mNames.length];
+            int count = 0;
+            for (int i = 0; i < mIds.length; i++) {
+                if (mNames[i].startsWith(key) || mNames[i].contains(" " + key)) {
+                    ids[count] = mIds[i];
+                    names[count] = mNames[i];
+                    count++;
+                }
+            }
+            return new Entry(Arrays.copyOf(ids, count), Arrays.copyOf(names, count), mExpiryTime);
+        }
+    }
+}
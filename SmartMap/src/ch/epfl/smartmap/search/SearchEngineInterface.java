@@ -7,6 +7,7 @@ import ch.epfl.smartmap.cache.Displayable;
 import ch.epfl.smartmap.cache.Event;
 import ch.epfl.smartmap.cache.User;
 import ch.epfl.smartmap.callbacks.SearchRequestCallback;
+import ch.epfl.smartmap.servercom.SmartMapClientException;
 
 /**
  * Provides some useful search functions for {@code AddFriendActivity} or {@code SearchLayout}
@@ -73,6 +74,18 @@ public interface SearchEngineInterface {
      */
     void findUsersByIds(final Set<Long> ids, final SearchRequestCallback<Set<User>> callback);
 
+    /**
+     * Does the same as {@code findStrangersByName}, but on the calling thread, which must not be the main
+     * thread. Allows the caller to cancel the search, for instance when the query is extended.
+     * 
+     * @param query
+     *            the name, or beginning of name, looked for
+     * @return the strangers found
+     * @throws SmartMapClientException
+     *             if the server could not be reached
+     */
+    Set<User> searchStrangersByName(String query) throws SmartMapClientException;
+
     /**
      * Sends a Query, computes it and return matched results
      * 
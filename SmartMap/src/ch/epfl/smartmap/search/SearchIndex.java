@@ -0,0 +1,370 @@
+package ch.epfl.smartmap.search;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import android.util.LongSparseArray;
+import ch.epfl.smartmap.cache.LongHashSet;
+
+/**
+ * An inverted index of the names of items, to find the items matching a query without going through all of
+ * them. Names are normalized (lower case, accents removed, punctuation as spaces) and split into tokens; an
+ * item matches a query if each token of the query is the beginning of one of its tokens, so that results can
+ * be given as soon as the first letters are typed. Each token is kept with the sorted ids of the items that
+ * contain it, so that adding, renaming or removing an item only changes the entries of its own tokens. The
+ * items matching the previous query are kept, so that when the query is extended by typing, only they need to
+ * be checked. This class is thread safe.
+ *
+ * @author jfperren
+ */
+public final class SearchIndex {
+
+    /**
+     * Maximum number of results to ask for to get all the matching items
+     */
+    public static final int ALL_RESULTS = Integer.MAX_VALUE;
+
+    private static final long[] NO_IDS = new long[0];
+
+    // Ranks of a match, the lowest is the best
+    private static final int EXACT_MATCH = 0;
+    private static final int NAME_PREFIX_MATCH = 1;
+    private static final int TOKEN_PREFIX_MATCH = 2;
+
+    // Sorted ids of the items containing each token, ordered by token so that a prefix is a range of keys
+    private final TreeMap<String, long[]> mPostings;
+    // Normalized name of each indexed item
+    private final LongSparseArray<String> mNames;
+
+    // The previous query and the ids of all the items matching it, forgotten when an item changes
+    private String mLastQuery;
+    private long[] mLastMatches;
+
+    /**
+     * Constructor, for an empty index
+     */
+    public SearchIndex() {
+        mPostings = new TreeMap<String, long[]>();
+        mNames = new LongSparseArray<String>();
+    }
+
+    /**
+     * Removes all the items
+     */
+    public synchronized void clear() {
+        mPostings.clear();
+        mNames.clear();
+        mLastQuery = null;
+    }
+
+    /**
+     * Adds the item or changes its name
+     *
+     * @param id
+     *            the id of the item
+     * @param name
+     *            its name, the item is removed if {@code null}
+     */
+    public synchronized void put(long id, String name) {
+        if (name == null) {
+            this.remove(id);
+            return;
+        }
+
+        String normalizedName = normalize(name);
+        String previousName = mNames.get(id);
+        if (normalizedName.equals(previousName)) {
+            return;
+        }
+        if (previousName != null) {
+            this.removePostings(id, previousName);
+        }
+        mNames.put(id, normalizedName);
+        mLastQuery = null;
+        for (String token : tokenize(normalizedName)) {
+            long[] ids = mPostings.get(token);
+            mPostings.put(token, insert((ids == null) ? NO_IDS : ids, id));
+        }
+    }
+
+    /**
+     * Removes the item, if it is indexed
+     *
+     * @param id
+     *            the id of the item
+     */
+    public synchronized void remove(long id) {
+        String name = mNames.get(id);
+        if (name != null) {
+            mNames.remove(id);
+            this.removePostings(id, name);
+            mLastQuery = null;
+        }
+    }
+
+    /**
+     * Finds the items matching the query, ranked: first the items with exactly this name, then those whose
+     * name begins with the query, then the others. Items of the same rank are sorted by name. An empty query
+     * matches every item.
+     *
+     * @param query
+     *            the text typed
+     * @param maxResults
+     *            the maximum number of ids returned
+     * @return the ids of the best matching items, the best first
+     */
+    public synchronized long[] search(String query, int maxResults) {
+        if (maxResults <= 0) {
+            return NO_IDS;
+        }
+
+        String normalizedQuery = normalize(query);
+        String[] queryTokens = tokenize(normalizedQuery);
+        // Keeps the best matches found, the worst at the head so that it is the one replaced
+        PriorityQueue<Match> bestMatches =
+            new PriorityQueue<Match>(Math.min(maxResults, mNames.size()) + 1,
+                Collections.reverseOrder(Match.BEST_FIRST));
+
+        if (queryTokens.length == 0) {
+            // Every item matches, they are not kept for the next query which has faster candidates
+            mLastQuery = null;
+            for (int i = 0; i < mNames.size(); i++) {
+                Match match = new Match(mNames.keyAt(i), mNames.valueAt(i), NAME_PREFIX_MATCH);
+                offer(bestMatches, maxResults, match);
+            }
+        } else {
+            long[] candidates;
+            if ((mLastQuery != null) && normalizedQuery.startsWith(mLastQuery)) {
+                // The query was extended, the items matching it are among those matching the previous one
+                candidates = mLastMatches;
+            } else {
+                candidates = this.findCandidates(queryTokens);
+            }
+
+            long[] matches = new long[candidates.length];
+            int matchCount = 0;
+            for (long id : candidates) {
+                String name = mNames.get(id);
+                int rank = rank(name, normalizedQuery, queryTokens);
+                if (rank >= 0) {
+                    matches[matchCount++] = id;
+                    offer(bestMatches, maxResults, new Match(id, name, rank));
+                }
+            }
+            mLastQuery = normalizedQuery;
+            mLastMatches = Arrays.copyOf(matches, matchCount);
+        }
+
+        long[] result = new long[bestMatches.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = bestMatches.poll().mId;
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of indexed items
+     */
+    public synchronized int size() {
+        return mNames.size();
+    }
+
+    /**
+     * @param queryTokens
+     * @return the ids of the items with a token beginning with the longest token of the query, which has the
+     *         fewest of them
+     */
+    private long[] findCandidates(String[] queryTokens) {
+        String longestToken = queryTokens[0];
+        for (String token : queryTokens) {
+            if (token.length() > longestToken.length()) {
+                longestToken = token;
+            }
+        }
+
+        // An item with several tokens beginning the same way must only be found once
+        LongHashSet candidates = new LongHashSet();
+        for (long[] ids : mPostings.subMap(longestToken, longestToken + Character.MAX_VALUE).values()) {
+            for (long id : ids) {
+                candidates.add(id);
+            }
+        }
+        return candidates.toArray();
+    }
+
+    private void removePostings(long id, String normalizedName) {
+        for (String token : tokenize(normalizedName)) {
+            long[] ids = mPostings.get(token);
+            if (ids != null) {
+                long[] remaining = delete(ids, id);
+                if (remaining.length == 0) {
+                    mPostings.remove(token);
+                } else {
+                    mPostings.put(token, remaining);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param query
+     *            the text typed
+     * @return whether the query has no token, and thus matches every item
+     */
+    public static boolean isEmptyQuery(String query) {
+        return tokenize(normalize(query)).length == 0;
+    }
+
+    /**
+     * Folds text for the search: letters are put in lower case without their accents, and every sequence of
+     * other characters than letters and digits becomes a single space
+     *
+     * @param text
+     * @return the normalized text, without leading or trailing space
+     */
+    public static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder normalized = new StringBuilder(decomposed.length());
+        boolean isAfterSeparator = false;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (isAfterSeparator && (normalized.length() > 0)) {
+                    normalized.append(' ');
+                }
+                normalized.append(Character.toLowerCase(c));
+                isAfterSeparator = false;
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                // Accents are dropped, other characters separate tokens
+                isAfterSeparator = true;
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * @param sorted
+     * @param id
+     * @return the array without the id, the same array if it did not contain it
+     */
+    private static long[] delete(long[] sorted, long id) {
+        int index = Arrays.binarySearch(sorted, id);
+        if (index < 0) {
+            return sorted;
+        }
+        long[] result = new long[sorted.length - 1];
+        System.arraycopy(sorted, 0, result, 0, index);
+        System.arraycopy(sorted, index + 1, result, index, sorted.length - index - 1);
+        return result;
+    }
+
+    /**
+     * @param sorted
+     * @param id
+     * @return the array with the id, still sorted, the same array if it already contained it
+     */
+    private static long[] insert(long[] sorted, long id) {
+        int index = Arrays.binarySearch(sorted, id);
+        if (index >= 0) {
+            return sorted;
+        }
+        index = -index - 1;
+        long[] result = new long[sorted.length + 1];
+        System.arraycopy(sorted, 0, result, 0, index);
+        result[index] = id;
+        System.arraycopy(sorted, index, result, index + 1, sorted.length - index);
+        return result;
+    }
+
+    /**
+     * Adds the match to the best ones if it is among them
+     */
+    private static void offer(PriorityQueue<Match> bestMatches, int maxResults, Match match) {
+        if (bestMatches.size() < maxResults) {
+            bestMatches.add(match);
+        } else if (Match.BEST_FIRST.compare(match, bestMatches.peek()) < 0) {
+            bestMatches.poll();
+            bestMatches.add(match);
+        }
+    }
+
+    /**
+     * @param name
+     *            normalized name of an item
+     * @param query
+     *            normalized query
+     * @param queryTokens
+     *            tokens of the query
+     * @return the rank of the item for the query, -1 if it does not match
+     */
+    private static int rank(String name, String query, String[] queryTokens) {
+        if (name.equals(query)) {
+            return EXACT_MATCH;
+        }
+        if (name.startsWith(query)) {
+            return NAME_PREFIX_MATCH;
+        }
+
+        String[] nameTokens = tokenize(name);
+        for (String queryToken : queryTokens) {
+            boolean isFound = false;
+            for (String nameToken : nameTokens) {
+                if (nameToken.startsWith(queryToken)) {
+                    isFound = true;
+                    break;
+                }
+            }
+            if (!isFound) {
+                return -1;
+            }
+        }
+        return TOKEN_PREFIX_MATCH;
+    }
+
+    /**
+     * @param normalizedText
+     * @return the tokens of the text, which must already be normalized
+     */
+    private static String[] tokenize(String normalizedText) {
+        if (normalizedText.length() == 0) {
+            return new String[0];
+        }
+        return normalizedText.split(" ");
+    }
+
+    /**
+     * An item matching a query, with its rank
+     *
+     * @author jfperren
+     */
+    private static final class Match {
+
+        private static final Comparator<Match> BEST_FIRST = new Comparator<Match>() {
+            @Override
+            public int compare(Match first, Match second) {
+                if (first.mRank != second.mRank) {
+                    return (first.mRank < second.mRank) ? -1 : 1;
+                }
+                int nameComparison = first.mName.compareTo(second.mName);
+                if (nameComparison != 0) {
+                    return nameComparison;
+                }
+                return (first.mId < second.mId) ? -1 : ((first.mId == second.mId) ? 0 : 1);
+            }
+        };
+
+        private final long mId;
+        private final String mName;
+        private final int mRank;
+
+        private Match(long id, String name, int rank) {
+            mId = id;
+            mName = name;
+            mRank = rank;
+        }
+    }
+}
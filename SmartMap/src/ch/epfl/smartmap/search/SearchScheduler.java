@@ -0,0 +1,206 @@
+package ch.epfl.smartmap.search;
+
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import ch.epfl.smartmap.callbacks.SearchRequestCallback;
+import ch.epfl.smartmap.listeners.SearchMetricsListener;
+
+/**
+ * Runs the searches typed in a search field in background, and gives back only the results of the latest
+ * query. A query is only started once the typing paused for the debounce delay, and a newer query cancels the
+ * previous one, whether it was waiting or running, so that results for an old prefix can never replace the
+ * newer ones nor keep a thread busy. Must be used from the main thread, where the results are given.
+ *
+ * @param <T>
+ *            Type of the results of a search
+ * @author jfperren
+ */
+public final class SearchScheduler<T> {
+
+    /**
+     * Default time the typing must pause before a query is started, in milliseconds
+     */
+    public static final long DEFAULT_DEBOUNCE_DELAY = 150;
+
+    private final long mDebounceDelay;
+    private final SearchRequestCallback<T> mCallback;
+    private final Handler mHandler;
+
+    private SearchMetricsListener mMetricsListener;
+
+    // The latest query, waiting for the typing to pause, running, or null if its results were given
+    private ScheduledSearch mCurrentSearch;
+
+    /**
+     * Constructor
+     *
+     * @param debounceDelay
+     *            time the typing must pause before a query is started, in milliseconds
+     * @param callback
+     *            gets the results of the latest query, on the main thread
+     */
+    public SearchScheduler(long debounceDelay, SearchRequestCallback<T> callback) {
+        if (debounceDelay < 0) {
+            throw new IllegalArgumentException("Negative debounce delay");
+        }
+        if (callback == null) {
+            throw new IllegalArgumentException("Null callback");
+        }
+        mDebounceDelay = debounceDelay;
+        mCallback = callback;
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Cancels the current query, its results will not be given
+     */
+    public void cancel() {
+        if (mCurrentSearch != null) {
+            mCurrentSearch.cancel();
+            mCurrentSearch = null;
+        }
+    }
+
+    /**
+     * @param listener
+     *            notified of the latency of each query, or {@code null} to stop measuring it
+     */
+    public void setMetricsListener(SearchMetricsListener listener) {
+        mMetricsListener = listener;
+    }
+
+    /**
+     * Schedules a query typed, it is started once the typing pauses
+     *
+     * @param query
+     *            the text typed
+     * @param search
+     *            the search to run for this query
+     */
+    public void submit(String query, Search<T> search) {
+        this.schedule(query, search, mDebounceDelay);
+    }
+
+    /**
+     * Starts a query without waiting, for instance when the kind of results shown changes
+     *
+     * @param query
+     *            the text typed
+     * @param search
+     *            the search to run for this query
+     */
+    public void submitNow(String query, Search<T> search) {
+        this.schedule(query, search, 0);
+    }
+
+    private void schedule(String query, Search<T> search, long delay) {
+        if (search == null) {
+            throw new IllegalArgumentException("Null search");
+        }
+        this.cancel();
+        mCurrentSearch = new ScheduledSearch(query, search);
+        mHandler.postDelayed(mCurrentSearch, delay);
+    }
+
+    /**
+     * A search run in background for a query
+     *
+     * @param <T>
+     *            Type of the results
+     * @author jfperren
+     */
+    public interface Search<T> {
+
+        /**
+         * Called in background, should return early if the thread is interrupted
+         *
+         * @param query
+         * @return the results for this query
+         * @throws Exception
+         *             if the search failed, given to {@link SearchRequestCallback#onNetworkError(Exception)}
+         */
+        T search(String query) throws Exception;
+    }
+
+    /**
+     * A query waiting for the typing to pause, then running in background
+     *
+     * @author jfperren
+     */
+    private final class ScheduledSearch implements Runnable {
+
+        private final String mQuery;
+        private final Search<T> mSearch;
+        // Uptime of the keystroke, in milliseconds
+        private final long mSubmitTime;
+        private AsyncTask<Void, Void, T> mTask;
+
+        private ScheduledSearch(String query, Search<T> search) {
+            mQuery = query;
+            mSearch = search;
+            mSubmitTime = SystemClock.uptimeMillis();
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            mTask = new AsyncTask<Void, Void, T>() {
+
+                private Exception mError;
+                private long mSearchTime;
+
+                @Override
+                protected T doInBackground(Void... params) {
+                    long start = SystemClock.uptimeMillis();
+                    try {
+                        return mSearch.search(mQuery);
+                    } catch (Exception e) {
+                        mError = e;
+                        return null;
+                    } finally {
+                        mSearchTime = SystemClock.uptimeMillis() - start;
+                    }
+                }
+
+                @Override
+                protected void onPostExecute(T result) {
+                    ScheduledSearch.this.deliver(result, mError, mSearchTime);
+                }
+            };
+            // Not on the serial executor, where a cancelled query would delay the next one
+            mTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+
+        private void cancel() {
+            mHandler.removeCallbacks(this);
+            if (mTask != null) {
+                mTask.cancel(true);
+            }
+            if (mMetricsListener != null) {
+                mMetricsListener.onSearchCancelled(mQuery);
+            }
+        }
+
+        private void deliver(T result, Exception error, long searchTime) {
+            if (mCurrentSearch != this) {
+                return;
+            }
+            mCurrentSearch = null;
+
+            if (error != null) {
+                mCallback.onNetworkError(error);
+            } else {
+                mCallback.onResult(result);
+            }
+            if (mMetricsListener != null) {
+                long latency = SystemClock.uptimeMillis() - mSubmitTime;
+                mMetricsListener.onSearchCompleted(mQuery, latency, searchTime);
+            }
+        }
+    }
+}
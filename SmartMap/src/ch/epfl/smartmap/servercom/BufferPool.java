@@ -0,0 +1,56 @@
+package ch.epfl.smartmap.servercom;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A bounded pool of byte buffers shared by all network requests, to avoid allocating a new buffer each
+ * time a request or response body is copied.
+ *
+ * @author Pamoi
+ */
+public final class BufferPool {
+
+    public static final int BUFFER_SIZE = 8192;
+
+    private static final int MAX_POOLED_BUFFERS = 8;
+
+    private static final Deque<byte[]> POOL = new ArrayDeque<byte[]>(MAX_POOLED_BUFFERS);
+
+    private BufferPool() {
+        // Static class
+    }
+
+    /**
+     * Gets a buffer of size {@link BufferPool#BUFFER_SIZE} from the pool, or a new one if the pool is empty.
+     * The buffer should be given back with {@link BufferPool#release(byte[])} once it is not used anymore.
+     *
+     * @return a buffer
+     */
+    public static byte[] acquire() {
+        synchronized (POOL) {
+            byte[] buffer = POOL.pollFirst();
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Gives back a buffer to the pool. The buffer must not be used after this call.
+     *
+     * @param buffer
+     *            a buffer obtained with {@link BufferPool#acquire()}
+     */
+    public static void release(byte[] buffer) {
+        if ((buffer == null) || (buffer.length != BUFFER_SIZE)) {
+            return;
+        }
+        synchronized (POOL) {
+            if (POOL.size() < MAX_POOLED_BUFFERS) {
+                POOL.addFirst(buffer);
+            }
+        }
+    }
+}
@@ -1,22 +1,54 @@
 package ch.epfl.smartmap.servercom;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * A default implementation of the {@link NetworkProvider} interface that uses
  * the mechanism available in the {@link URL} object to create {@link HttpURLConnection} objects.
- * 
+ * By default, connections are kept alive and reused between requests, as the platform does, and bodies
+ * are gzip compressed when it is worth it.
+ *
  * @author SpicyCH
  * @author Pamoi (code reviewed : 9.11.2014)
  */
 public class DefaultNetworkProvider implements NetworkProvider {
 
+    private static final String GZIP = "gzip";
+
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 20000;
+
+    // Request bodies smaller than this are not compressed, as gzip would barely reduce their size
+    private static final int MIN_COMPRESSED_BODY_LENGTH = 512;
+
+    private final boolean mKeepAlive;
+    private final boolean mGzip;
+
     /**
-     * The default constructor.
+     * The default constructor, with keep-alive and gzip enabled.
      */
     public DefaultNetworkProvider() {
+        this(true, true);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param keepAlive
+     *            whether connections should be reused between requests
+     * @param gzip
+     *            whether request and response bodies should be compressed
+     */
+    public DefaultNetworkProvider(boolean keepAlive, boolean gzip) {
+        mKeepAlive = keepAlive;
+        mGzip = gzip;
     }
 
     /*
@@ -25,7 +57,69 @@ public class DefaultNetworkProvider implements NetworkProvider {
      */
     @Override
     public HttpURLConnection getConnection(URL url) throws IOException {
-        return (HttpURLConnection) url.openConnection();
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("Connection", mKeepAlive ? "keep-alive" : "close");
+        // Setting it explicitly disables transparent decompression, we decode it in getResponseStream
+        connection.setRequestProperty("Accept-Encoding", mGzip ? GZIP : "identity");
+        return connection;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.servercom.NetworkProvider#getResponseStream(java.net.HttpURLConnection)
+     */
+    @Override
+    public InputStream getResponseStream(HttpURLConnection connection) throws IOException {
+        InputStream in = connection.getInputStream();
+        if (GZIP.equalsIgnoreCase(connection.getContentEncoding())) {
+            return new GZIPInputStream(in, BufferPool.BUFFER_SIZE);
+        }
+        return in;
     }
 
-}
\ No newline at end of file
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.servercom.NetworkProvider#release(java.net.HttpURLConnection)
+     */
+    @Override
+    public void release(HttpURLConnection connection) {
+        // A kept alive connection goes back to the pool once its response has been read and closed,
+        // disconnect() would close its socket
+        if (!mKeepAlive) {
+            connection.disconnect();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.servercom.NetworkProvider#writeRequestBody(java.net.HttpURLConnection,
+     * byte[])
+     */
+    @Override
+    public void writeRequestBody(HttpURLConnection connection, byte[] body) throws IOException {
+        byte[] sentBody = body;
+
+        if (mGzip && (body.length >= MIN_COMPRESSED_BODY_LENGTH)) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 2);
+            GZIPOutputStream gzip = new GZIPOutputStream(compressed, BufferPool.BUFFER_SIZE);
+            gzip.write(body);
+            gzip.close();
+            sentBody = compressed.toByteArray();
+            connection.setRequestProperty("Content-Encoding", GZIP);
+        }
+
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(sentBody.length);
+
+        OutputStream out = connection.getOutputStream();
+        try {
+            out.write(sentBody);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -295,7 +295,7 @@ public class JsonSmartMapParser implements SmartMapParser {
      * @throws SmartMapParseException
      *             if invalid description
      */
-    private void checkEventDescription(String description) throws SmartMapParseException {
+    protected void checkEventDescription(String description) throws SmartMapParseException {
         if (description.length() > MAX_EVENT_DESCRIPTION_LENGTH) {
             throw new SmartMapParseException("Description must not be longer than 255 characters");
         }
@@ -321,7 +321,7 @@ public class JsonSmartMapParser implements SmartMapParser {
      * @throws SmartMapParseException
      *             if invalid id
      */
-    private void checkId(long id) throws SmartMapParseException {
+    protected void checkId(long id) throws SmartMapParseException {
         if (id <= 0) {
             throw new SmartMapParseException("negative id");
         }
@@ -334,7 +334,7 @@ public class JsonSmartMapParser implements SmartMapParser {
      * @throws SmartMapParseException
      *             if invalid latitude
      */
-    private void checkLatitude(double latitude) throws SmartMapParseException {
+    protected void checkLatitude(double latitude) throws SmartMapParseException {
         if (!((MIN_LATITUDE <= latitude) && (latitude <= MAX_LATITUDE)) || (latitude == Double.NaN)) {
             throw new SmartMapParseException("invalid latitude");
         }
@@ -347,7 +347,7 @@ public class JsonSmartMapParser implements SmartMapParser {
      * @throws SmartMapParseException
      *             if invalid longitude
      */
-    private void checkLongitude(double longitude) throws SmartMapParseException {
+    protected void checkLongitude(double longitude) throws SmartMapParseException {
         if (!((MIN_LONGITUDE <= longitude) && (longitude <= MAX_LONGITUDE)) || (longitude == Double.NaN)) {
             throw new SmartMapParseException("invalid longitude");
         }
@@ -386,7 +386,7 @@ public class JsonSmartMapParser implements SmartMapParser {
      * @throws SmartMapParseException
      *             if invalid name
      */
-    private void checkName(String name) throws SmartMapParseException {
+    protected void checkName(String name) throws SmartMapParseException {
         if ((name.length() >= MAX_NAME_LENGTH) || (name.length() < MIN_NAME_LENGTH)) {
             throw new SmartMapParseException("invalid name : must be between 2 and 60 characters");
         }
@@ -413,7 +413,7 @@ public class JsonSmartMapParser implements SmartMapParser {
      * @throws SmartMapParseException
      *             in case the starting date is after the ending date
      */
-    private void checkStartingAndEndDate(GregorianCalendar startingDate, GregorianCalendar endDate)
+    protected void checkStartingAndEndDate(GregorianCalendar startingDate, GregorianCalendar endDate)
         throws SmartMapParseException {
         if (!startingDate.before(endDate)) {
             throw new SmartMapParseException("Starting date must be before end date");
@@ -430,7 +430,7 @@ public class JsonSmartMapParser implements SmartMapParser {
      * @throws SmartMapParseException
      *             in case of invalid JSON format or invalid data
      */
-    private GregorianCalendar parseDate(String date) throws SmartMapParseException {
+    protected GregorianCalendar parseDate(String date) throws SmartMapParseException {
 
         String[] dateTime = date.split(" ");
 
@@ -538,6 +538,7 @@ public class JsonSmartMapParser implements SmartMapParser {
         double latitude = UNITIALIZED_LATITUDE;
         double longitude = UNITIALIZED_LONGITUDE;
         String lastSeenString = null;
+        String pictureVersion = null;
         int friendship = User.NO_FRIENDSHIP;
 
         try {
@@ -547,6 +548,10 @@ public class JsonSmartMapParser implements SmartMapParser {
             longitude = jsonObject.optDouble(LONGITUDE_STRING, UNITIALIZED_LONGITUDE);
             lastSeenString = jsonObject.optString("lastUpdate", null);
             friendship = jsonObject.optInt("isFriend");
+            // optString would give "null" for a null version
+            if (!jsonObject.isNull("pictureVersion")) {
+                pictureVersion = jsonObject.getString("pictureVersion");
+            }
         } catch (JSONException e) {
             throw new SmartMapParseException(e);
         }
@@ -574,6 +579,6 @@ public class JsonSmartMapParser implements SmartMapParser {
         }
 
         return new UserContainer(id, name, null, null, location, null, null, User.BlockStatus.NOT_SET,
-            friendship);
+            friendship).setPictureVersion(pictureVersion);
     }
 }
\ No newline at end of file
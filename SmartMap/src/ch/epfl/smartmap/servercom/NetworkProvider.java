@@ -1,20 +1,22 @@
 package ch.epfl.smartmap.servercom;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 
 /**
  * Constructs {@link HttpURLConnection} objects that can be used to retrieve
- * data from a given {@link URL}.
- * 
+ * data from a given {@link URL}, and handles the transport of their request
+ * and response bodies.
+ *
  * @author SpicyCH
  * @author Pamoi (code reviewed : 9.11.2014)
  */
 public interface NetworkProvider {
     /**
      * Returns a new {@link HttpURLConnection} object for the given {@link URL}.
-     * 
+     *
      * @param url
      *            a valid HTTP or HTTPS URL.
      * @return a new {@link HttpURLConnection} object for successful
@@ -25,4 +27,38 @@ public interface NetworkProvider {
      */
     HttpURLConnection getConnection(URL url) throws IOException;
 
-}
\ No newline at end of file
+    /**
+     * Returns the stream from which the decoded response body of the given
+     * connection can be read.
+     *
+     * @param connection
+     *            a connection obtained with {@link #getConnection(URL)}
+     * @return the response body stream
+     * @throws IOException
+     *             if the response could not be read
+     */
+    InputStream getResponseStream(HttpURLConnection connection) throws IOException;
+
+    /**
+     * Releases the given connection once its response has been read and its
+     * stream closed, so that its underlying socket can be reused if the
+     * provider supports it.
+     *
+     * @param connection
+     *            a connection obtained with {@link #getConnection(URL)}
+     */
+    void release(HttpURLConnection connection);
+
+    /**
+     * Sends the given request body through the given connection, possibly
+     * encoded.
+     *
+     * @param connection
+     *            a connection obtained with {@link #getConnection(URL)}
+     * @param body
+     *            the body to send
+     * @throws IOException
+     *             if the body could not be sent
+     */
+    void writeRequestBody(HttpURLConnection connection, byte[] body) throws IOException;
+}
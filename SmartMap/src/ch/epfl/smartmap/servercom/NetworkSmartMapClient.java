@@ -1,9 +1,8 @@
 package ch.epfl.smartmap.servercom;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.CookieHandler;
 import java.net.CookieManager;
 import java.net.CookiePolicy;
@@ -14,6 +13,7 @@ import java.net.URL;
 import java.net.URLEncoder;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -56,10 +56,7 @@ import ch.epfl.smartmap.cache.UserContainer;
 
 public class NetworkSmartMapClient implements SmartMapClient {
 
-    private static final String TAG = NetworkSmartMapClient.class.getSimpleName();
-
     private static final String SERVER_URL = "http://smartmap.ddns.net";
-    private static final NetworkProvider NETWORK_PROVIDER = new DefaultNetworkProvider();
 
     private static final int HTTP_SUCCESS_START = 200;
     private static final int HTTP_SUCCESS_END = 299;
@@ -69,11 +66,32 @@ public class NetworkSmartMapClient implements SmartMapClient {
     private static final String PARAM_EVENT_ID = "event_id";
     private static final String PARAM_LATITUDE = "latitude";
     private static final String PARAM_LONGITUDE = "longitude";
+    private static final String PARAM_SINCE = "since";
+
+    private static final String CHARSET = "UTF-8";
+    private static final String ETAG_HEADER = "ETag";
+    private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
 
     private static CookieManager mCookieManager = new CookieManager(null, CookiePolicy.ACCEPT_ALL);
 
+    private final String mServerUrl;
+    private final NetworkProvider mNetworkProvider;
+
     public NetworkSmartMapClient() {
+        this(SERVER_URL, new DefaultNetworkProvider());
+    }
 
+    /**
+     * Constructor
+     * 
+     * @param serverUrl
+     *            the base url of the SmartMap server
+     * @param networkProvider
+     *            the {@link NetworkProvider} used to communicate with the server
+     */
+    public NetworkSmartMapClient(String serverUrl, NetworkProvider networkProvider) {
+        mServerUrl = serverUrl;
+        mNetworkProvider = networkProvider;
         CookieHandler.setDefault(mCookieManager);
     }
 
@@ -286,6 +304,55 @@ public class NetworkSmartMapClient implements SmartMapClient {
 
     }
 
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.servercom.SmartMapClient#getEventsInfo(java.util.Collection)
+     */
+    @Override
+    public List<EventContainer> getEventsInfo(Collection<Long> eventIds) throws SmartMapClientException {
+        if (eventIds.isEmpty()) {
+            return new ArrayList<EventContainer>();
+        }
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("events_ids", this.longListToString(eventIds));
+        HttpURLConnection conn = this.getHttpURLConnection("/getEventsInfo");
+        InputStream response = null;
+        try {
+            response = this.openResponseStream(params, conn);
+            return this.getParser(conn.getContentType()).readEventList(response);
+        } catch (SmartMapParseException e) {
+            throw new SmartMapClientException(e);
+        } finally {
+            this.drainAndClose(response);
+            mNetworkProvider.release(conn);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.servercom.SmartMapClient#getEventsInfoSince(java.util.Collection,
+     * java.lang.String)
+     */
+    @Override
+    public SyncBag<EventContainer> getEventsInfoSince(Collection<Long> eventIds, String cursor)
+        throws SmartMapClientException {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("events_ids", this.longListToString(eventIds));
+        params.put(PARAM_SINCE, (cursor == null) ? "" : cursor);
+        HttpURLConnection conn = this.getHttpURLConnection("/getEventsInfo");
+        InputStream response = null;
+        try {
+            response = this.openResponseStream(params, conn);
+            return this.getParser(conn.getContentType()).readEventListSince(response);
+        } catch (SmartMapParseException e) {
+            throw new SmartMapClientException(e);
+        } finally {
+            this.drainAndClose(response);
+            mNetworkProvider.release(conn);
+        }
+    }
+
     /*
      * (non-Javadoc)
      * @see ch.epfl.smartmap.servercom.SmartMapClient#getEventInvitations()
@@ -294,20 +361,18 @@ public class NetworkSmartMapClient implements SmartMapClient {
     public InvitationBag getEventInvitations() throws SmartMapClientException {
 
         HttpURLConnection conn = this.getHttpURLConnection("/getEventInvitations");
-        String response = this.sendViaPost(new HashMap<String, String>(), conn);
-
-        List<EventContainer> eventInvitations = new ArrayList<EventContainer>();
-
+        InputStream response = null;
         try {
-            SmartMapParser parser = this.getParser(conn.getContentType());
-            this.checkServerErrorFromParser(parser, response);
-            eventInvitations = parser.parseEventList(response);
-            Log.d(TAG, "event size :" + eventInvitations.size());
+            response = this.openResponseStream(new HashMap<String, String>(), conn);
+            List<EventContainer> eventInvitations =
+                this.getParser(conn.getContentType()).readEventList(response);
+            return new NetworkEventInvitationBag(new HashSet<EventContainer>(eventInvitations));
         } catch (SmartMapParseException e) {
             throw new SmartMapClientException(e);
+        } finally {
+            this.drainAndClose(response);
+            mNetworkProvider.release(conn);
         }
-
-        return new NetworkEventInvitationBag(new HashSet<EventContainer>(eventInvitations));
     }
 
     /*
@@ -318,24 +383,16 @@ public class NetworkSmartMapClient implements SmartMapClient {
     public InvitationBag getFriendInvitations() throws SmartMapClientException {
 
         HttpURLConnection conn = this.getHttpURLConnection("/getInvitations");
-        String response = this.sendViaPost(new HashMap<String, String>(), conn);
-
-        SmartMapParser parser = this.getParser(conn.getContentType());
-        this.checkServerErrorFromParser(parser, response);
-        List<UserContainer> inviters = null;
-        List<UserContainer> newFriends = null;
-        List<Long> removedFriends = null;
-
+        InputStream response = null;
         try {
-            inviters = parser.parseFriendList(response, "invitations");
-            newFriends = parser.parseFriendList(response, "newFriends");
-            removedFriends = parser.parseIdList(response, "removedFriends");
+            response = this.openResponseStream(new HashMap<String, String>(), conn);
+            return this.getParser(conn.getContentType()).readFriendInvitations(response);
         } catch (SmartMapParseException e) {
             throw new SmartMapClientException(e);
+        } finally {
+            this.drainAndClose(response);
+            mNetworkProvider.release(conn);
         }
-
-        return new NetworkFriendInvitationBag(inviters, newFriends, removedFriends);
-
     }
 
     /*
@@ -345,19 +402,17 @@ public class NetworkSmartMapClient implements SmartMapClient {
     @Override
     public List<Long> getFriendsIds() throws SmartMapClientException {
 
-        List<Long> ids = new ArrayList<Long>();
         HttpURLConnection conn = this.getHttpURLConnection("/getFriendsIds");
-        String response = this.sendViaPost(new HashMap<String, String>(), conn);
-
+        InputStream response = null;
         try {
-            SmartMapParser parser = this.getParser(conn.getContentType());
-            this.checkServerErrorFromParser(parser, response);
-            ids = parser.parseIdList(response, "friends");
+            response = this.openResponseStream(new HashMap<String, String>(), conn);
+            return this.getParser(conn.getContentType()).readIdList(response, "friends");
         } catch (SmartMapParseException e) {
             throw new SmartMapClientException(e);
+        } finally {
+            this.drainAndClose(response);
+            mNetworkProvider.release(conn);
         }
-
-        return ids;
     }
 
     /*
@@ -366,24 +421,47 @@ public class NetworkSmartMapClient implements SmartMapClient {
      */
     @Override
     public Bitmap getProfilePicture(long id) throws SmartMapClientException {
+        return this.getProfilePicture(id, null).getPicture();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.servercom.SmartMapClient#getProfilePicture(long, java.lang.String)
+     */
+    @Override
+    public PictureBag getProfilePicture(long id, String version) throws SmartMapClientException {
         Bitmap profilePicture = null;
+        String newVersion = null;
         HttpURLConnection conn = null;
+        InputStream response = null;
         try {
             Map<String, String> params = new HashMap<String, String>();
             params.put("user_id", Long.toString(id));
             conn = this.getHttpURLConnection("/getProfilePicture");
+            if (version != null) {
+                conn.setRequestProperty(IF_NONE_MATCH_HEADER, version);
+            }
             this.sendRequestWithParams(params, conn);
+            if ((version != null) && (conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)) {
+                // The picture we have is still the right one, there is nothing to download
+                return new PictureBag(null, version);
+            }
             this.checkResponseCode(conn);
-            profilePicture = BitmapFactory.decodeStream(conn.getInputStream());
+            newVersion = conn.getHeaderField(ETAG_HEADER);
+            response = mNetworkProvider.getResponseStream(conn);
+            profilePicture = BitmapFactory.decodeStream(response);
         } catch (IOException e) {
             throw new SmartMapClientException(e);
         } finally {
-            conn.disconnect();
+            this.drainAndClose(response);
+            if (conn != null) {
+                mNetworkProvider.release(conn);
+            }
         }
         if (profilePicture == null) {
             throw new SmartMapClientException("Error : the image data could not be decoded");
         }
-        return profilePicture;
+        return new PictureBag(profilePicture, newVersion);
     }
 
     /*
@@ -400,19 +478,16 @@ public class NetworkSmartMapClient implements SmartMapClient {
         params.put("radius", Double.toString(radius));
 
         HttpURLConnection conn = this.getHttpURLConnection("/getPublicEvents");
-        String response = this.sendViaPost(params, conn);
-
-        List<Long> publicEvents = new ArrayList<Long>();
-
+        InputStream response = null;
         try {
-            SmartMapParser parser = this.getParser(conn.getContentType());
-            this.checkServerErrorFromParser(parser, response);
-            publicEvents = parser.parseIdList(response, "events");
+            response = this.openResponseStream(params, conn);
+            return this.getParser(conn.getContentType()).readIdList(response, "events");
         } catch (SmartMapParseException e) {
             throw new SmartMapClientException(e);
+        } finally {
+            this.drainAndClose(response);
+            mNetworkProvider.release(conn);
         }
-
-        return publicEvents;
     }
 
     /*
@@ -439,6 +514,31 @@ public class NetworkSmartMapClient implements SmartMapClient {
         return friend;
     }
 
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.servercom.SmartMapClient#getUsersInfo(java.util.Collection)
+     */
+    @Override
+    public List<UserContainer> getUsersInfo(Collection<Long> ids) throws SmartMapClientException {
+        if (ids.isEmpty()) {
+            return new ArrayList<UserContainer>();
+        }
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("users_ids", this.longListToString(ids));
+        HttpURLConnection conn = this.getHttpURLConnection("/getUsersInfo");
+        InputStream response = null;
+        try {
+            response = this.openResponseStream(params, conn);
+            return this.getParser(conn.getContentType()).readFriendList(response, "users");
+        } catch (SmartMapParseException e) {
+            throw new SmartMapClientException(e);
+        } finally {
+            this.drainAndClose(response);
+            mNetworkProvider.release(conn);
+        }
+    }
+
     /*
      * (non-Javadoc)
      * @see ch.epfl.smartmap.servercom.SmartMapClient#inviteFriend(int)
@@ -514,15 +614,16 @@ public class NetworkSmartMapClient implements SmartMapClient {
     public List<UserContainer> listFriendsPos() throws SmartMapClientException {
 
         HttpURLConnection conn = this.getHttpURLConnection("/listFriendsPos");
-        String response = this.sendViaPost(new HashMap<String, String>(), conn);
-
-        SmartMapParser parser = this.getParser(conn.getContentType());
-        this.checkServerErrorFromParser(parser, response);
-        List<UserContainer> users = new ArrayList<UserContainer>();
+        List<UserContainer> users = null;
+        InputStream response = null;
         try {
-            users = parser.parsePositions(response);
+            response = this.openResponseStream(new HashMap<String, String>(), conn);
+            users = this.getParser(conn.getContentType()).readPositions(response);
         } catch (SmartMapParseException e) {
             throw new SmartMapClientException(e);
+        } finally {
+            this.drainAndClose(response);
+            mNetworkProvider.release(conn);
         }
 
         for (UserContainer user : users) {
@@ -532,6 +633,34 @@ public class NetworkSmartMapClient implements SmartMapClient {
         return users;
     }
 
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.servercom.SmartMapClient#listFriendsPosSince(java.lang.String)
+     */
+    @Override
+    public SyncBag<UserContainer> listFriendsPosSince(String cursor) throws SmartMapClientException {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(PARAM_SINCE, (cursor == null) ? "" : cursor);
+        HttpURLConnection conn = this.getHttpURLConnection("/listFriendsPos");
+        SyncBag<UserContainer> bag = null;
+        InputStream response = null;
+        try {
+            response = this.openResponseStream(params, conn);
+            bag = this.getParser(conn.getContentType()).readPositionsSince(response);
+        } catch (SmartMapParseException e) {
+            throw new SmartMapClientException(e);
+        } finally {
+            this.drainAndClose(response);
+            mNetworkProvider.release(conn);
+        }
+
+        for (UserContainer user : bag.getItems()) {
+            user.setFriendship(User.FRIEND);
+        }
+
+        return bag;
+    }
+
     /*
      * (non-Javadoc)
      * @see ch.epfl.smartmap.servercom.SmartMapClient#removeFriend(long)
@@ -613,6 +742,8 @@ public class NetworkSmartMapClient implements SmartMapClient {
         try {
             int responseCode = connection.getResponseCode();
             if ((responseCode < HTTP_SUCCESS_START) || (responseCode > HTTP_SUCCESS_END)) {
+                // Reads the error body so that the connection can be reused
+                this.drainAndClose(connection.getErrorStream());
                 throw new SmartMapClientException("HTTP error with code " + connection.getResponseCode()
                     + " during communication with client.");
             }
@@ -639,6 +770,46 @@ public class NetworkSmartMapClient implements SmartMapClient {
         }
     }
 
+    /**
+     * Closes the given stream, ignoring errors
+     *
+     * @param stream
+     *            the stream to close, may be null
+     */
+    private void closeQuietly(InputStream stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // Nothing to do, the response has already been read or has failed
+            }
+        }
+    }
+
+    /**
+     * Reads the rest of the given stream and closes it, ignoring errors. A kept alive connection is only
+     * reused once its response has been entirely read and closed.
+     *
+     * @param stream
+     *            the stream to drain, may be null
+     */
+    private void drainAndClose(InputStream stream) {
+        if (stream == null) {
+            return;
+        }
+        byte[] buffer = BufferPool.acquire();
+        try {
+            while (stream.read(buffer) != -1) {
+                // Drain remaining bytes
+            }
+        } catch (IOException e) {
+            // The connection will not be reused
+        } finally {
+            BufferPool.release(buffer);
+            this.closeQuietly(stream);
+        }
+    }
+
     /**
      * Return a {@link HttpURLConnection} object for the given uri. The connection is obtained by a
      * {@link NetworkProvider} object
@@ -654,8 +825,8 @@ public class NetworkSmartMapClient implements SmartMapClient {
         URL serverURL = null;
         HttpURLConnection connection = null;
         try {
-            serverURL = new URL(SERVER_URL + uri);
-            connection = NETWORK_PROVIDER.getConnection(serverURL);
+            serverURL = new URL(mServerUrl + uri);
+            connection = mNetworkProvider.getConnection(serverURL);
         } catch (MalformedURLException e1) {
             Log.e(NetworkSmartMapClient.class.getSimpleName(), e1.getMessage());
             throw new IllegalArgumentException();
@@ -692,16 +863,16 @@ public class NetworkSmartMapClient implements SmartMapClient {
     }
 
     /**
-     * Return a {@code SmartMapParser} for the given content type
+     * Return a {@code StreamingSmartMapParser} for the given content type
      * 
      * @param contentType
-     * @return a {@code SmartMapParser} for the given content type
+     * @return a {@code StreamingSmartMapParser} for the given content type
      * @throws SmartMapClientException
      *             in case the content type is not supported
      */
-    private SmartMapParser getParser(String contentType) throws SmartMapClientException {
+    private StreamingSmartMapParser getParser(String contentType) throws SmartMapClientException {
 
-        SmartMapParser parser = null;
+        StreamingSmartMapParser parser = null;
 
         try {
             parser = SmartMapParserFactory.parserForContentType(contentType);
@@ -723,41 +894,72 @@ public class NetworkSmartMapClient implements SmartMapClient {
      *             external to the application (network failure etc.)
      */
     private String getRequestResponse(HttpURLConnection connection) throws SmartMapClientException {
-        StringBuilder response = null;
+        byte[] buffer = BufferPool.acquire();
+        InputStream in = null;
         try {
+            in = mNetworkProvider.getResponseStream(connection);
+            ByteArrayOutputStream response = new ByteArrayOutputStream(BufferPool.BUFFER_SIZE);
 
-            String inputLine;
-            response = new StringBuilder();
-            BufferedReader in;
-
-            in = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-
-            while ((inputLine = in.readLine()) != null) {
-                response.append(inputLine);
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                response.write(buffer, 0, read);
             }
 
-            in.close();
+            return response.toString(CHARSET);
         } catch (IOException e) {
             throw new SmartMapClientException(e);
+        } finally {
+            BufferPool.release(buffer);
+            this.closeQuietly(in);
         }
-        return response.toString();
     }
 
     /**
-     * Converts a list of long to a string to match with the parameters format required by the SmartMap server
+     * Converts a collection of long to a string to match with the parameters format required by the SmartMap
+     * server
      * 
      * @param list
-     *            the list of long to convert to a string
+     *            the collection of long to convert to a string
      * @return the String in the required format
      */
-    private String longListToString(List<Long> list) {
-        String listString = "";
+    private String longListToString(Collection<Long> list) {
+        StringBuilder listString = new StringBuilder();
 
         for (long n : list) {
-            listString += n + ",";
+            listString.append(n).append(',');
         }
 
-        return listString;
+        return listString.toString();
+    }
+
+    /**
+     * Sends a POST request to the server and returns the stream of the server's response, that can be
+     * parsed without being buffered. The stream must be drained and closed, and the connection released,
+     * once the response has been read.
+     * 
+     * @param params
+     *            the parameters to send to the server
+     * @param connection
+     * @return the stream of the server's response
+     * @throws SmartMapClientException
+     *             in case the response could not be retrieved for any reason
+     *             external to the application (network failure etc.)
+     */
+    private InputStream openResponseStream(Map<String, String> params, HttpURLConnection connection)
+        throws SmartMapClientException {
+        try {
+            connection.setRequestMethod("POST");
+
+            if (!params.isEmpty()) {
+                this.sendRequestWithParams(params, connection);
+            }
+
+            this.checkResponseCode(connection);
+
+            return mNetworkProvider.getResponseStream(connection);
+        } catch (IOException e) {
+            throw new SmartMapClientException(e);
+        }
     }
 
     /**
@@ -781,21 +983,14 @@ public class NetworkSmartMapClient implements SmartMapClient {
                     postData.append('&');
                 }
 
-                postData.append(URLEncoder.encode(param.getKey(), "UTF-8"));
+                postData.append(URLEncoder.encode(param.getKey(), CHARSET));
                 postData.append('=');
-                postData.append(URLEncoder.encode(String.valueOf(param.getValue()), "UTF-8"));
+                postData.append(URLEncoder.encode(String.valueOf(param.getValue()), CHARSET));
 
             }
 
-            // To be able to send data
-            connection.setDoOutput(true);
-
             // Send post request
-            DataOutputStream wr;
-            wr = new DataOutputStream(connection.getOutputStream());
-            wr.writeBytes(postData.toString());
-            wr.flush();
-            wr.close();
+            mNetworkProvider.writeRequestBody(connection, postData.toString().getBytes(CHARSET));
         } catch (IOException e) {
             throw new SmartMapClientException(e);
         }
@@ -831,7 +1026,7 @@ public class NetworkSmartMapClient implements SmartMapClient {
             throw new SmartMapClientException(e);
 
         } finally {
-            connection.disconnect();
+            mNetworkProvider.release(connection);
         }
         return response;
     }
@@ -0,0 +1,400 @@
+package ch.epfl.smartmap.servercom;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.SystemClock;
+import android.util.Log;
+import ch.epfl.smartmap.background.ServiceContainer;
+import ch.epfl.smartmap.cache.EventContainer;
+import ch.epfl.smartmap.cache.UserContainer;
+
+/**
+ * Fetches events and users by id from the server, splitting the ids into batches that are sent in
+ * parallel, with a bounded number of concurrent requests. An id that is already being fetched by another
+ * caller, in a batch or alone, is not requested again: the caller waits for the pending request instead. A
+ * single id is asked as a batch of one, so that an id missing from the answer means that the server does not
+ * know it, rather than an error. Such ids are remembered for a short time, and are not requested again
+ * meanwhile.
+ *
+ * @author Pamoi
+ */
+public final class ParallelFetcher {
+
+    private static final String TAG = ParallelFetcher.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+    public static final int DEFAULT_BATCH_SIZE = 25;
+    public static final long DEFAULT_NOT_FOUND_TIME_TO_LIVE = 30 * 1000;
+
+    private static final long IDLE_THREAD_TIMEOUT = 30;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final int mBatchSize;
+    private final long mNotFoundTimeToLive;
+
+    private final Requests<EventContainer> mEventRequests;
+    private final Requests<UserContainer> mUserRequests;
+
+    private final BatchLoader<EventContainer> mEventLoader = new BatchLoader<EventContainer>() {
+        @Override
+        public Map<Long, EventContainer> load(List<Long> ids) throws SmartMapClientException {
+            Map<Long, EventContainer> events = new HashMap<Long, EventContainer>();
+            for (EventContainer event : ServiceContainer.getNetworkClient().getEventsInfo(ids)) {
+                events.put(event.getId(), event);
+            }
+            return events;
+        }
+    };
+
+    private final BatchLoader<UserContainer> mUserLoader = new BatchLoader<UserContainer>() {
+        @Override
+        public Map<Long, UserContainer> load(List<Long> ids) throws SmartMapClientException {
+            Map<Long, UserContainer> users = new HashMap<Long, UserContainer>();
+            for (UserContainer user : ServiceContainer.getNetworkClient().getUsersInfo(ids)) {
+                users.put(user.getId(), user);
+            }
+            return users;
+        }
+    };
+
+    /**
+     * Constructor with default concurrency and batch size
+     */
+    public ParallelFetcher() {
+        this(DEFAULT_MAX_CONCURRENT_REQUESTS, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxConcurrentRequests
+     *            the maximum number of requests sent at the same time
+     * @param batchSize
+     *            the maximum number of ids asked in a single request
+     */
+    public ParallelFetcher(int maxConcurrentRequests, int batchSize) {
+        this(maxConcurrentRequests, batchSize, DEFAULT_NOT_FOUND_TIME_TO_LIVE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxConcurrentRequests
+     *            the maximum number of requests sent at the same time
+     * @param batchSize
+     *            the maximum number of ids asked in a single request
+     * @param notFoundTimeToLive
+     *            time during which an id unknown to the server is not requested again, in milliseconds
+     */
+    public ParallelFetcher(int maxConcurrentRequests, int batchSize, long notFoundTimeToLive) {
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("At least one concurrent request must be allowed.");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive.");
+        }
+        if (notFoundTimeToLive < 0) {
+            throw new IllegalArgumentException("Time to live of unknown ids must not be negative.");
+        }
+
+        mBatchSize = batchSize;
+        mNotFoundTimeToLive = notFoundTimeToLive;
+        mExecutor =
+            new ThreadPoolExecutor(maxConcurrentRequests, maxConcurrentRequests, IDLE_THREAD_TIMEOUT,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, TAG + " #" + mCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+
+        mEventRequests = new Requests<EventContainer>();
+        mUserRequests = new Requests<UserContainer>();
+    }
+
+    /**
+     * Fetches the event with the given id from the server, in the calling thread unless it is already being
+     * fetched.
+     *
+     * @param id
+     *            the id of the event to fetch
+     * @return the fetched event, or {@code null} if the server does not know it
+     * @throws SmartMapClientException
+     *             if the request failed
+     */
+    public EventContainer fetchEvent(long id) throws SmartMapClientException {
+        return this.fetchOne(id, mEventRequests, mEventLoader);
+    }
+
+    /**
+     * Fetches the events with the given ids from the server. Blocks until all requests are finished. Ids
+     * that do not match any event, or whose request failed, are missing from the result.
+     *
+     * @param ids
+     *            the ids of the events to fetch
+     * @return the fetched events
+     */
+    public Set<EventContainer> fetchEvents(Collection<Long> ids) {
+        return new HashSet<EventContainer>(this.fetch(ids, mEventRequests, mEventLoader).values());
+    }
+
+    /**
+     * Fetches the user with the given id from the server, in the calling thread unless it is already being
+     * fetched.
+     *
+     * @param id
+     *            the id of the user to fetch
+     * @return the fetched user, or {@code null} if the server does not know it
+     * @throws SmartMapClientException
+     *             if the request failed
+     */
+    public UserContainer fetchUser(long id) throws SmartMapClientException {
+        return this.fetchOne(id, mUserRequests, mUserLoader);
+    }
+
+    /**
+     * Fetches the users with the given ids from the server. Blocks until all requests are finished. Ids
+     * that do not match any user, or whose request failed, are missing from the result.
+     *
+     * @param ids
+     *            the ids of the users to fetch
+     * @return the fetched users
+     */
+    public Set<UserContainer> fetchUsers(Collection<Long> ids) {
+        return new HashSet<UserContainer>(this.fetch(ids, mUserRequests, mUserLoader).values());
+    }
+
+    /**
+     * Stops the threads of this fetcher. Pending requests are completed, but no new one can be sent.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Fetches the given ids, joining the requests already in flight and sending the others in batches
+     *
+     * @param ids
+     * @param requests
+     *            the pending requests and unknown ids of this type of items
+     * @param loader
+     *            the loader of a batch
+     * @return the fetched items by id
+     */
+    private <T> Map<Long, T> fetch(Collection<Long> ids, Requests<T> requests, BatchLoader<T> loader) {
+        Set<Future<Map<Long, T>>> pending = new LinkedHashSet<Future<Map<Long, T>>>();
+        List<FutureTask<Map<Long, T>>> newTasks = new ArrayList<FutureTask<Map<Long, T>>>();
+
+        synchronized (requests) {
+            List<Long> batch = new ArrayList<Long>();
+            for (long id : new LinkedHashSet<Long>(ids)) {
+                Future<Map<Long, T>> request = requests.mInFlight.get(id);
+                if (request != null) {
+                    pending.add(request);
+                } else if (!this.isNotFound(id, requests)) {
+                    batch.add(id);
+                    if (batch.size() == mBatchSize) {
+                        newTasks.add(this.newTask(batch, requests, loader));
+                        batch = new ArrayList<Long>();
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                newTasks.add(this.newTask(batch, requests, loader));
+            }
+        }
+
+        for (FutureTask<Map<Long, T>> task : newTasks) {
+            mExecutor.execute(task);
+            pending.add(task);
+        }
+
+        Map<Long, T> result = new HashMap<Long, T>();
+        Set<Long> wanted = new HashSet<Long>(ids);
+        for (Future<Map<Long, T>> request : pending) {
+            try {
+                for (Map.Entry<Long, T> entry : request.get().entrySet()) {
+                    // Joined requests may contain ids we did not ask for
+                    if (wanted.contains(entry.getKey())) {
+                        result.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Error while fetching by ids: " + e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fetches a single id, joining the request already in flight for it, or else sending it from the calling
+     * thread
+     *
+     * @param id
+     * @param requests
+     *            the pending requests and unknown ids of this type of items
+     * @param loader
+     *            the loader of a batch, given the single id
+     * @return the fetched item, or {@code null} if the server does not know it
+     * @throws SmartMapClientException
+     *             if the request failed
+     */
+    private <T> T fetchOne(long id, Requests<T> requests, BatchLoader<T> loader)
+        throws SmartMapClientException {
+        Future<Map<Long, T>> request;
+        FutureTask<Map<Long, T>> newTask = null;
+
+        synchronized (requests) {
+            request = requests.mInFlight.get(id);
+            if (request == null) {
+                if (this.isNotFound(id, requests)) {
+                    return null;
+                }
+                newTask = this.newTask(Collections.singletonList(id), requests, loader);
+                request = newTask;
+            }
+        }
+
+        if (newTask != null) {
+            // Callers are already in background, no need to wait for a thread of the pool
+            newTask.run();
+        }
+
+        try {
+            return request.get().get(id);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SmartMapClientException) {
+                throw (SmartMapClientException) e.getCause();
+            }
+            throw new SmartMapClientException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SmartMapClientException(e);
+        }
+    }
+
+    /**
+     * Must be called while holding the lock on requests.
+     *
+     * @param id
+     * @param requests
+     * @return whether the server did not know this id a short time ago
+     */
+    private boolean isNotFound(long id, Requests<?> requests) {
+        Long expiryTime = requests.mNotFound.get(id);
+        if (expiryTime == null) {
+            return false;
+        }
+        if (expiryTime <= SystemClock.elapsedRealtime()) {
+            requests.mNotFound.remove(id);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Creates the task loading the given batch, and registers it as in flight for each of its ids. The ids
+     * missing from a successful result are then remembered as unknown. Must be called while holding the
+     * lock on requests.
+     *
+     * @param batch
+     * @param requests
+     * @param loader
+     * @return the task, that has still to be executed
+     */
+    private <T> FutureTask<Map<Long, T>> newTask(final List<Long> batch, final Requests<T> requests,
+        final BatchLoader<T> loader) {
+        FutureTask<Map<Long, T>> task = new FutureTask<Map<Long, T>>(new Callable<Map<Long, T>>() {
+            @Override
+            public Map<Long, T> call() throws SmartMapClientException {
+                Map<Long, T> result = null;
+                try {
+                    result = loader.load(batch);
+                    return result;
+                } finally {
+                    synchronized (requests) {
+                        long now = SystemClock.elapsedRealtime();
+                        if ((result != null) && (result.size() < batch.size())) {
+                            ParallelFetcher.removeExpired(requests.mNotFound, now);
+                        }
+                        long expiryTime = now + mNotFoundTimeToLive;
+                        for (long id : batch) {
+                            requests.mInFlight.remove(id);
+                            if ((result != null) && !result.containsKey(id)) {
+                                requests.mNotFound.put(id, expiryTime);
+                            }
+                        }
+                    }
+                }
+            }
+        });
+        for (long id : batch) {
+            requests.mInFlight.put(id, task);
+        }
+        return task;
+    }
+
+    /**
+     * Forgets the unknown ids whose time to live is over, so that they do not pile up. Must be called while
+     * holding the lock on the requests they belong to.
+     *
+     * @param notFound
+     * @param now
+     */
+    private static void removeExpired(Map<Long, Long> notFound, long now) {
+        Iterator<Long> expiryTimes = notFound.values().iterator();
+        while (expiryTimes.hasNext()) {
+            if (expiryTimes.next() <= now) {
+                expiryTimes.remove();
+            }
+        }
+    }
+
+    /**
+     * Loads a batch of items from the server
+     *
+     * @param <T>
+     *            the type of the items
+     */
+    private interface BatchLoader<T> {
+        Map<Long, T> load(List<Long> ids) throws SmartMapClientException;
+    }
+
+    /**
+     * The pending requests for each id of a type of items, and the ids the server did not know with the
+     * time until which they are not requested again
+     *
+     * @param <T>
+     *            the type of the items
+     */
+    private static final class Requests<T> {
+        private final Map<Long, Future<Map<Long, T>>> mInFlight = new HashMap<Long, Future<Map<Long, T>>>();
+        private final Map<Long, Long> mNotFound = new HashMap<Long, Long>();
+    }
+}
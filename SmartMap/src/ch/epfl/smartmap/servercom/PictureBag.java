@@ -0,0 +1,49 @@
+package ch.epfl.smartmap.servercom;
+
+import android.graphics.Bitmap;
+
+/**
+ * Encapsulates the result of a conditional profile picture request of {@link SmartMapClient}: either the
+ * picture with its version, or nothing if the picture did not change since the version sent.
+ *
+ * @author marion-S
+ */
+public class PictureBag {
+
+    private final Bitmap mPicture;
+    private final String mVersion;
+
+    /**
+     * Constructor
+     *
+     * @param picture
+     *            the new picture, {@code null} if it was not modified
+     * @param version
+     *            the version of the picture, {@code null} if the server did not give any
+     */
+    public PictureBag(Bitmap picture, String version) {
+        mPicture = picture;
+        mVersion = version;
+    }
+
+    /**
+     * @return the new picture, {@code null} if it was not modified
+     */
+    public Bitmap getPicture() {
+        return mPicture;
+    }
+
+    /**
+     * @return the version of the picture, {@code null} if the server did not give any
+     */
+    public String getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return whether the picture changed since the version sent with the request
+     */
+    public boolean isModified() {
+        return mPicture != null;
+    }
+}
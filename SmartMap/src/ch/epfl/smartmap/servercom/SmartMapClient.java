@@ -1,5 +1,6 @@
 package ch.epfl.smartmap.servercom;
 
+import java.util.Collection;
 import java.util.List;
 
 import android.graphics.Bitmap;
@@ -137,6 +138,34 @@ public interface SmartMapClient {
      */
     EventContainer getEventInfo(long eventId) throws SmartMapClientException;
 
+    /**
+     * Asks the server for the detailed informations about several events at once, in a single request
+     * 
+     * @param eventIds
+     *            the ids of the events for which informations are wanted
+     * @return the events for which we wanted informations, ids that do not match any event are ignored
+     * @throws SmartMapClientException
+     *             in case the request could not be sent for any reason
+     *             external to the application (network failure etc.)
+     */
+    List<EventContainer> getEventsInfo(Collection<Long> eventIds) throws SmartMapClientException;
+
+    /**
+     * Asks the server for the informations about the given events that were modified since the given
+     * cursor, in a single request
+     * 
+     * @param eventIds
+     *            the ids of the events for which informations are wanted
+     * @param cursor
+     *            the cursor returned by the previous call, or {@code null} to get all given events
+     * @return a {@link SyncBag} containing the modified events and the cursor for the next call
+     * @throws SmartMapClientException
+     *             in case the request could not be sent for any reason
+     *             external to the application (network failure etc.)
+     */
+    SyncBag<EventContainer> getEventsInfoSince(Collection<Long> eventIds, String cursor)
+        throws SmartMapClientException;
+
     /**
      * @return an object of type {@link InvitationBag} that encapsulates the received informations
      *         For each retrieved invitation, must call {@link ackEventInvitation}
@@ -180,6 +209,21 @@ public interface SmartMapClient {
      */
     Bitmap getProfilePicture(long id) throws SmartMapClientException;
 
+    /**
+     * Return the profile picture of the user with the given id, unless it is the same as the given version
+     * 
+     * @param id
+     *            the id of the user whose profile picture is needed
+     * @param version
+     *            the version of the picture already known, as given by a previous call, or {@code null} to
+     *            always get the picture
+     * @return the picture with its version, or an unmodified result if the version did not change
+     * @throws SmartMapClientException
+     *             in case the request could not be sent for any reason
+     *             external to the application (network failure etc.)
+     */
+    PictureBag getProfilePicture(long id, String version) throws SmartMapClientException;
+
     /**
      * Retrieve all the public events in the given area
      * 
@@ -206,6 +250,19 @@ public interface SmartMapClient {
      */
     UserContainer getUserInfo(long id) throws SmartMapClientException;
 
+    /**
+     * Retrieve informations about several users at once, in a single request
+     * 
+     * @param ids
+     *            the ids of the users whose informations are needed
+     * @return the informations about the users, encapsulated in {@link UserContainer} objects. Ids that do
+     *         not match any user are ignored
+     * @throws SmartMapClientException
+     *             in case the request could not be sent for any reason
+     *             external to the application (network failure etc.)
+     */
+    List<UserContainer> getUsersInfo(Collection<Long> ids) throws SmartMapClientException;
+
     /**
      * Sends an invitation to the server for the user with the given id
      * 
@@ -264,6 +321,19 @@ public interface SmartMapClient {
 
     List<UserContainer> listFriendsPos() throws SmartMapClientException;
 
+    /**
+     * Asks to the server the positions of friends that were updated since the given cursor
+     * 
+     * @param cursor
+     *            the cursor returned by the previous call, or {@code null} to get all positions
+     * @return a {@link SyncBag} containing the friends with updated positions and the cursor for the
+     *         next call
+     * @throws SmartMapClientException
+     *             in case the request could not be sent for any reason
+     *             external to the application (network failure etc.)
+     */
+    SyncBag<UserContainer> listFriendsPosSince(String cursor) throws SmartMapClientException;
+
     /**
      * Asks the server to remove the given friend from the user's list of friends
      * 
@@ -18,7 +18,8 @@ public final class SmartMapParserFactory {
     }
 
     /**
-     * Obtains a parser for the given MIME type.
+     * Obtains a parser for the given MIME type. It can also read responses
+     * directly from their stream.
      * 
      * @param contentType
      *            The MIME type that the parser should understand, e.g.,
@@ -27,10 +28,11 @@ public final class SmartMapParserFactory {
      * @throws NoSuchFormatException
      *             If no known parser supports this content type
      */
-    public static SmartMapParser parserForContentType(String contentType) throws NoSuchFormatException {
+    public static StreamingSmartMapParser parserForContentType(String contentType)
+        throws NoSuchFormatException {
 
-        if (contentType.equals(JSON_CONTENT_TYPE)) {
-            return new JsonSmartMapParser();
+        if (JSON_CONTENT_TYPE.equals(contentType)) {
+            return new StreamingJsonSmartMapParser();
 
         } else {
             throw new NoSuchFormatException();
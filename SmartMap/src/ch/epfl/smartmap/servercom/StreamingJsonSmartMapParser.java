@@ -0,0 +1,689 @@
+package ch.epfl.smartmap.servercom;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import android.location.Location;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import ch.epfl.smartmap.cache.EventContainer;
+import ch.epfl.smartmap.cache.User;
+import ch.epfl.smartmap.cache.UserContainer;
+import ch.epfl.smartmap.util.Utils;
+
+/**
+ * A {@link StreamingSmartMapParser} implementation that pulls tokens with a {@link JsonReader} instead of
+ * building a tree of JSON objects. Values of keys that are not needed are skipped without being
+ * allocated.
+ *
+ * @author marion-S
+ */
+public class StreamingJsonSmartMapParser extends JsonSmartMapParser implements StreamingSmartMapParser {
+
+    private static final String ERROR_STATUS = "error";
+    private static final String FEEDBACK_STATUS = "feedback";
+    private static final String CHARSET = "UTF-8";
+
+    private static final double UNITIALIZED_COORDINATE = -200;
+    private static final String SMART_MAP_SERVER = "SmartMapServers";
+
+    private final ItemReader<EventContainer> mEventReader = new ItemReader<EventContainer>() {
+        @Override
+        public EventContainer read(JsonReader reader) throws IOException, SmartMapParseException {
+            return StreamingJsonSmartMapParser.this.readEvent(reader);
+        }
+    };
+
+    private final ItemReader<UserContainer> mFriendReader = new ItemReader<UserContainer>() {
+        @Override
+        public UserContainer read(JsonReader reader) throws IOException, SmartMapParseException {
+            return StreamingJsonSmartMapParser.this.readFriend(reader);
+        }
+    };
+
+    private final ItemReader<Long> mIdReader = new ItemReader<Long>() {
+        @Override
+        public Long read(JsonReader reader) throws IOException, SmartMapParseException {
+            long id = reader.nextLong();
+            StreamingJsonSmartMapParser.this.checkId(id);
+            return id;
+        }
+    };
+
+    private final ItemReader<UserContainer> mPositionReader = new ItemReader<UserContainer>() {
+        @Override
+        public UserContainer read(JsonReader reader) throws IOException, SmartMapParseException {
+            return StreamingJsonSmartMapParser.this.readPosition(reader);
+        }
+    };
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.servercom.JsonSmartMapParser#checkServerError(java.lang.String)
+     */
+    @Override
+    public void checkServerError(String s) throws SmartMapParseException, SmartMapClientException {
+        // Reading a list with a key that cannot exist only checks the status
+        this.readList(new StringReader(s), null, mFriendReader, true);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.servercom.JsonSmartMapParser#parseEventList(java.lang.String)
+     */
+    @Override
+    public List<EventContainer> parseEventList(String s) throws SmartMapParseException {
+        return this.readListIgnoringStatus(new StringReader(s), "events", mEventReader);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.servercom.JsonSmartMapParser#parseFriendList(java.lang.String, java.lang.String)
+     */
+    @Override
+    public List<UserContainer> parseFriendList(String s, String key) throws SmartMapParseException {
+        return this.readListIgnoringStatus(new StringReader(s), key, mFriendReader);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.servercom.JsonSmartMapParser#parsePositions(java.lang.String)
+     */
+    @Override
+    public List<UserContainer> parsePositions(String s) throws SmartMapParseException {
+        return this.readListIgnoringStatus(new StringReader(s), "positions", mPositionReader);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.servercom.StreamingSmartMapParser#readEventList(java.io.InputStream)
+     */
+    @Override
+    public List<EventContainer> readEventList(InputStream in) throws SmartMapParseException,
+        SmartMapClientException {
+        return this.readList(this.readerFor(in), "events", mEventReader, true);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.servercom.StreamingSmartMapParser#readEventListSince(java.io.InputStream)
+     */
+    @Override
+    public SyncBag<EventContainer> readEventListSince(InputStream in) throws SmartMapParseException,
+        SmartMapClientException {
+        return this.readSyncBag(this.readerFor(in), "events", mEventReader);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.servercom.StreamingSmartMapParser#readFriendList(java.io.InputStream,
+     * java.lang.String)
+     */
+    @Override
+    public List<UserContainer> readFriendList(InputStream in, String key) throws SmartMapParseException,
+        SmartMapClientException {
+        return this.readList(this.readerFor(in), key, mFriendReader, true);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.servercom.StreamingSmartMapParser#readFriendInvitations(java.io.InputStream)
+     */
+    @Override
+    public InvitationBag readFriendInvitations(InputStream in) throws SmartMapParseException,
+        SmartMapClientException {
+        String status = null;
+        String message = null;
+        List<UserContainer> inviters = null;
+        List<UserContainer> newFriends = null;
+        List<Long> removedFriends = null;
+
+        JsonReader reader = new JsonReader(this.readerFor(in));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String field = reader.nextName();
+                if ("status".equals(field)) {
+                    status = reader.nextString();
+                } else if ("message".equals(field)) {
+                    message = reader.nextString();
+                } else if ("invitations".equals(field)) {
+                    inviters = this.readArray(reader, mFriendReader);
+                } else if ("newFriends".equals(field)) {
+                    newFriends = this.readArray(reader, mFriendReader);
+                } else if ("removedFriends".equals(field)) {
+                    removedFriends = this.readArray(reader, mIdReader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException e) {
+            throw new SmartMapParseException(e);
+        } catch (IllegalStateException e) {
+            // Thrown by JsonReader when a value has not the expected type
+            throw new SmartMapParseException(e);
+        } catch (NumberFormatException e) {
+            throw new SmartMapParseException(e);
+        }
+
+        this.checkStatus(status, message);
+
+        if ((inviters == null) || (newFriends == null) || (removedFriends == null)) {
+            throw new SmartMapParseException("Missing invitations field");
+        }
+
+        return new NetworkFriendInvitationBag(inviters, newFriends, removedFriends);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.servercom.StreamingSmartMapParser#readIdList(java.io.InputStream,
+     * java.lang.String)
+     */
+    @Override
+    public List<Long> readIdList(InputStream in, String key) throws SmartMapParseException,
+        SmartMapClientException {
+        return this.readList(this.readerFor(in), key, mIdReader, true);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.servercom.StreamingSmartMapParser#readPositions(java.io.InputStream)
+     */
+    @Override
+    public List<UserContainer> readPositions(InputStream in) throws SmartMapParseException,
+        SmartMapClientException {
+        return this.readList(this.readerFor(in), "positions", mPositionReader, true);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see ch.epfl.smartmap.servercom.StreamingSmartMapParser#readPositionsSince(java.io.InputStream)
+     */
+    @Override
+    public SyncBag<UserContainer> readPositionsSince(InputStream in) throws SmartMapParseException,
+        SmartMapClientException {
+        return this.readSyncBag(this.readerFor(in), "positions", mPositionReader);
+    }
+
+    /**
+     * Checks the status of a response read from the stream
+     *
+     * @param status
+     * @param message
+     * @throws SmartMapParseException
+     *             if the status or the message is missing
+     * @throws SmartMapClientException
+     *             if the server returned an error
+     */
+    private void checkStatus(String status, String message) throws SmartMapParseException,
+        SmartMapClientException {
+        if ((status == null) || (message == null)) {
+            throw new SmartMapParseException("Missing status or message");
+        }
+        if (status.equals(ERROR_STATUS)) {
+            throw new SmartMapClientException(message);
+        }
+        if (status.equals(FEEDBACK_STATUS)) {
+            throw new ServerFeedbackException(message);
+        }
+    }
+
+    /**
+     * Reads a number, or returns the default value if it is null or not a number, like
+     * {@code JSONObject.optDouble} does
+     *
+     * @param reader
+     * @param defaultValue
+     * @return the read double
+     * @throws IOException
+     */
+    private double optDouble(JsonReader reader, double defaultValue) throws IOException {
+        JsonToken token = reader.peek();
+        if ((token != JsonToken.NUMBER) && (token != JsonToken.STRING)) {
+            reader.skipValue();
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(reader.nextString());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Reads a string, or returns null if the value is null
+     *
+     * @param reader
+     * @return the read string or null
+     * @throws IOException
+     */
+    private String optString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * Reads an array of items
+     *
+     * @param reader
+     * @param itemReader
+     *            the reader for the items
+     * @return the read items
+     * @throws IOException
+     *             in case of invalid JSON format
+     * @throws SmartMapParseException
+     *             in case of missing or invalid data
+     */
+    private <T> List<T> readArray(JsonReader reader, ItemReader<T> itemReader) throws IOException,
+        SmartMapParseException {
+        List<T> items = new ArrayList<T>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            items.add(itemReader.read(reader));
+        }
+        reader.endArray();
+        return items;
+    }
+
+    /**
+     * Reads an event object
+     *
+     * @param reader
+     * @return the parsed event
+     * @throws IOException
+     *             in case of invalid JSON format
+     * @throws SmartMapParseException
+     *             in case of missing or invalid data
+     */
+    private EventContainer readEvent(JsonReader reader) throws IOException, SmartMapParseException {
+        long id = -1;
+        UserContainer creator = null;
+        String startingDateString = null;
+        String endDateString = null;
+        double latitude = UNITIALIZED_COORDINATE;
+        double longitude = UNITIALIZED_COORDINATE;
+        String positionName = null;
+        String name = null;
+        String description = null;
+        Set<Long> participants = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if ("id".equals(field)) {
+                id = reader.nextLong();
+            } else if ("creator".equals(field)) {
+                creator = this.readFriend(reader);
+            } else if ("startingDate".equals(field)) {
+                startingDateString = reader.nextString();
+            } else if ("endingDate".equals(field)) {
+                endDateString = reader.nextString();
+            } else if ("latitude".equals(field)) {
+                latitude = reader.nextDouble();
+            } else if ("longitude".equals(field)) {
+                longitude = reader.nextDouble();
+            } else if ("positionName".equals(field)) {
+                positionName = reader.nextString();
+            } else if ("name".equals(field)) {
+                name = reader.nextString();
+            } else if ("description".equals(field)) {
+                description = reader.nextString();
+            } else if ("participants".equals(field)) {
+                participants = new HashSet<Long>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    long participantId = reader.nextLong();
+                    this.checkId(participantId);
+                    participants.add(participantId);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if ((creator == null) || (startingDateString == null) || (endDateString == null)
+            || (latitude == UNITIALIZED_COORDINATE) || (longitude == UNITIALIZED_COORDINATE)
+            || (positionName == null) || (name == null) || (description == null) || (participants == null)) {
+            throw new SmartMapParseException("Missing event field");
+        }
+
+        GregorianCalendar startingDate = this.parseDate(startingDateString);
+        GregorianCalendar endDate = this.parseDate(endDateString);
+
+        this.checkId(id);
+        this.checkStartingAndEndDate(startingDate, endDate);
+        this.checkLatitude(latitude);
+        this.checkLongitude(longitude);
+        this.checkName(positionName);
+        this.checkName(name);
+        this.checkEventDescription(description);
+
+        Location location = new Location(SMART_MAP_SERVER);
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+
+        return new EventContainer(id, name, creator, description, startingDate, endDate, location,
+            positionName, participants);
+    }
+
+    /**
+     * Creates a reader for the given stream
+     *
+     * @param in
+     * @return a reader decoding the stream
+     * @throws SmartMapParseException
+     *             if the charset is not supported
+     */
+    private Reader readerFor(InputStream in) throws SmartMapParseException {
+        try {
+            return new InputStreamReader(in, CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new SmartMapParseException(e);
+        }
+    }
+
+    /**
+     * Reads a user object
+     *
+     * @param reader
+     * @return the parsed user
+     * @throws IOException
+     *             in case of invalid JSON format
+     * @throws SmartMapParseException
+     *             in case of missing or invalid data
+     */
+    private UserContainer readFriend(JsonReader reader) throws IOException, SmartMapParseException {
+        long id = 0;
+        String name = null;
+        double latitude = UNITIALIZED_COORDINATE;
+        double longitude = UNITIALIZED_COORDINATE;
+        String lastSeenString = null;
+        String pictureVersion = null;
+        // Missing friendship defaults to 0, as with JSONObject.optInt
+        int friendship = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if ("id".equals(field)) {
+                id = reader.nextLong();
+            } else if ("name".equals(field)) {
+                name = reader.nextString();
+            } else if ("latitude".equals(field)) {
+                latitude = this.optDouble(reader, UNITIALIZED_COORDINATE);
+            } else if ("longitude".equals(field)) {
+                longitude = this.optDouble(reader, UNITIALIZED_COORDINATE);
+            } else if ("lastUpdate".equals(field)) {
+                lastSeenString = this.optString(reader);
+            } else if ("isFriend".equals(field)) {
+                friendship = (int) this.optDouble(reader, 0);
+            } else if ("pictureVersion".equals(field)) {
+                pictureVersion = this.optString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (name == null) {
+            throw new SmartMapParseException("Missing user name");
+        }
+
+        this.checkId(id);
+        this.checkName(name);
+
+        Location location = null;
+
+        if (latitude != UNITIALIZED_COORDINATE) {
+            this.checkLatitude(latitude);
+        }
+
+        if (longitude != UNITIALIZED_COORDINATE) {
+            this.checkLongitude(longitude);
+        }
+
+        // We do not want a location if it has not
+        // last seen date.
+        if (lastSeenString != null) {
+            location = new Location(SMART_MAP_SERVER);
+            location.setLatitude(latitude);
+            location.setLongitude(longitude);
+            location.setTime(this.parseDate(lastSeenString).getTimeInMillis());
+        }
+
+        return new UserContainer(id, name, null, null, location, null, null, User.BlockStatus.NOT_SET,
+            friendship).setPictureVersion(pictureVersion);
+    }
+
+    /**
+     * Reads the response object, checking its status if asked, and parses the list with the given key
+     *
+     * @param in
+     *            the response
+     * @param key
+     *            the key of the list to parse, or null to only check the status
+     * @param itemReader
+     *            the reader for the list items
+     * @param checkStatus
+     *            whether the status of the response must be checked
+     * @return the parsed list, or null if key is null
+     * @throws SmartMapParseException
+     *             in case of invalid JSON format or invalid data
+     * @throws SmartMapClientException
+     *             if the server returned an error
+     */
+    private <T> List<T> readList(Reader in, String key, ItemReader<T> itemReader, boolean checkStatus)
+        throws SmartMapParseException, SmartMapClientException {
+        return this.readResponse(in, key, itemReader, checkStatus).mItems;
+    }
+
+    /**
+     * Reads the response object, checking its status if asked, and parses the list with the given key and
+     * the cursor, if any
+     *
+     * @param in
+     *            the response
+     * @param key
+     *            the key of the list to parse, or null to only check the status
+     * @param itemReader
+     *            the reader for the list items
+     * @param checkStatus
+     *            whether the status of the response must be checked
+     * @return the parsed list, null if key is null, and the cursor, null if there is none
+     * @throws SmartMapParseException
+     *             in case of invalid JSON format or invalid data
+     * @throws SmartMapClientException
+     *             if the server returned an error
+     */
+    private <T> Response<T> readResponse(Reader in, String key, ItemReader<T> itemReader,
+        boolean checkStatus) throws SmartMapParseException, SmartMapClientException {
+        String status = null;
+        String message = null;
+        List<T> items = null;
+        List<Long> removedIds = null;
+        String cursor = null;
+
+        JsonReader reader = new JsonReader(in);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String field = reader.nextName();
+                if ("status".equals(field)) {
+                    status = reader.nextString();
+                } else if ("message".equals(field)) {
+                    message = reader.nextString();
+                } else if ("cursor".equals(field)) {
+                    cursor = this.optString(reader);
+                } else if ("removedIds".equals(field)) {
+                    removedIds = this.readArray(reader, mIdReader);
+                } else if (field.equals(key)) {
+                    items = this.readArray(reader, itemReader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException e) {
+            throw new SmartMapParseException(e);
+        } catch (IllegalStateException e) {
+            // Thrown by JsonReader when a value has not the expected type
+            throw new SmartMapParseException(e);
+        } catch (NumberFormatException e) {
+            throw new SmartMapParseException(e);
+        }
+
+        if (checkStatus) {
+            this.checkStatus(status, message);
+        }
+
+        if ((key != null) && (items == null)) {
+            throw new SmartMapParseException("No value for " + key);
+        }
+
+        return new Response<T>(items, removedIds, cursor);
+    }
+
+    /**
+     * Reads a delta synchronization response: checks its status, and parses the list with the given key,
+     * the ids of the removed items and the cursor
+     *
+     * @param in
+     * @param key
+     * @param itemReader
+     * @return the parsed list with the removed ids and the cursor
+     * @throws SmartMapParseException
+     *             in case of invalid JSON format or invalid data, or if the cursor is missing
+     * @throws SmartMapClientException
+     *             if the server returned an error
+     */
+    private <T> SyncBag<T> readSyncBag(Reader in, String key, ItemReader<T> itemReader)
+        throws SmartMapParseException, SmartMapClientException {
+        Response<T> response = this.readResponse(in, key, itemReader, true);
+        if (response.mCursor == null) {
+            throw new SmartMapParseException("No value for cursor");
+        }
+        // Ensures the server sent a valid date
+        this.parseDate(response.mCursor);
+        List<Long> removedIds =
+            (response.mRemovedIds == null) ? new ArrayList<Long>() : response.mRemovedIds;
+        return new SyncBag<T>(response.mItems, removedIds, response.mCursor);
+    }
+
+    /**
+     * Parses the list with the given key, without checking the status of the response
+     *
+     * @param in
+     * @param key
+     * @param itemReader
+     * @return the parsed list
+     * @throws SmartMapParseException
+     *             in case of invalid JSON format or invalid data
+     */
+    private <T> List<T> readListIgnoringStatus(Reader in, String key, ItemReader<T> itemReader)
+        throws SmartMapParseException {
+        try {
+            return this.readList(in, key, itemReader, false);
+        } catch (SmartMapClientException e) {
+            // Cannot happen as the status is not checked
+            throw new SmartMapParseException(e);
+        }
+    }
+
+    /**
+     * Reads a position object
+     *
+     * @param reader
+     * @return the user with its position
+     * @throws IOException
+     *             in case of invalid JSON format
+     * @throws SmartMapParseException
+     *             in case of missing or invalid data
+     */
+    private UserContainer readPosition(JsonReader reader) throws IOException, SmartMapParseException {
+        long userId = 0;
+        double latitude = UNITIALIZED_COORDINATE;
+        double longitude = UNITIALIZED_COORDINATE;
+        String lastSeenString = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if ("id".equals(field)) {
+                userId = reader.nextLong();
+            } else if ("latitude".equals(field)) {
+                latitude = reader.nextDouble();
+            } else if ("longitude".equals(field)) {
+                longitude = reader.nextDouble();
+            } else if ("lastUpdate".equals(field)) {
+                lastSeenString = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if ((latitude == UNITIALIZED_COORDINATE) || (longitude == UNITIALIZED_COORDINATE)
+            || (lastSeenString == null)) {
+            throw new SmartMapParseException("Missing position field");
+        }
+
+        GregorianCalendar lastSeen = this.parseDate(lastSeenString);
+
+        this.checkId(userId);
+        this.checkLatitude(latitude);
+        this.checkLongitude(longitude);
+
+        Location location = new Location(SMART_MAP_SERVER);
+        location.setTime(lastSeen.getTimeInMillis());
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        String locationString = Utils.getCityFromLocation(location);
+
+        return new UserContainer(userId, null, null, null, location, locationString, null,
+            User.BlockStatus.NOT_SET, -1);
+    }
+
+    /**
+     * Reads one item of a list
+     *
+     * @param <T>
+     *            the type of the items
+     */
+    private interface ItemReader<T> {
+        T read(JsonReader reader) throws IOException, SmartMapParseException;
+    }
+
+    /**
+     * The values of a response read in a single pass
+     *
+     * @param <T>
+     *            the type of the items
+     */
+    private static final class Response<T> {
+        private final List<T> mItems;
+        private final List<Long> mRemovedIds;
+        private final String mCursor;
+
+        private Response(List<T> items, List<Long> removedIds, String cursor) {
+            mItems = items;
+            mRemovedIds = removedIds;
+            mCursor = cursor;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package ch.epfl.smartmap.servercom;
+
+import java.io.InputStream;
+import java.util.List;
+
+import ch.epfl.smartmap.cache.EventContainer;
+import ch.epfl.smartmap.cache.UserContainer;
+
+/**
+ * A {@link SmartMapParser} that can also read server responses directly from
+ * a stream, without buffering them. The server status is checked while the
+ * payload is read, so that each response is parsed only once.
+ *
+ * @author marion-S
+ */
+public interface StreamingSmartMapParser extends SmartMapParser {
+
+    /**
+     * Checks the server status and parses a list of events from the given
+     * stream, in a single pass
+     *
+     * @param in
+     *            the stream of the server's response
+     * @return the list of events
+     * @throws SmartMapParseException
+     *             if the response does not represent a valid list of events
+     * @throws SmartMapClientException
+     *             if the server returned an error
+     */
+    List<EventContainer> readEventList(InputStream in) throws SmartMapParseException,
+        SmartMapClientException;
+
+    /**
+     * Checks the server status and parses the events changed since a cursor,
+     * with the cursor of the response, from the given stream, in a single pass
+     *
+     * @param in
+     *            the stream of the server's response
+     * @return the events and the next cursor
+     * @throws SmartMapParseException
+     *             if the response does not represent a valid list of events
+     *             with a cursor
+     * @throws SmartMapClientException
+     *             if the server returned an error
+     */
+    SyncBag<EventContainer> readEventListSince(InputStream in) throws SmartMapParseException,
+        SmartMapClientException;
+
+    /**
+     * Checks the server status and parses a list of users from the given
+     * stream, in a single pass
+     *
+     * @param in
+     *            the stream of the server's response
+     * @param key
+     *            the key word for the list to parse
+     * @return the list of users
+     * @throws SmartMapParseException
+     *             if the response does not represent a valid list of users
+     * @throws SmartMapClientException
+     *             if the server returned an error
+     */
+    List<UserContainer> readFriendList(InputStream in, String key) throws SmartMapParseException,
+        SmartMapClientException;
+
+    /**
+     * Checks the server status and parses the friend invitations, the new
+     * friends and the ids of the removed friends from the given stream, in a
+     * single pass
+     *
+     * @param in
+     *            the stream of the server's response
+     * @return the invitations with the removed friends
+     * @throws SmartMapParseException
+     *             if the response does not represent valid invitations
+     * @throws SmartMapClientException
+     *             if the server returned an error
+     */
+    InvitationBag readFriendInvitations(InputStream in) throws SmartMapParseException,
+        SmartMapClientException;
+
+    /**
+     * Checks the server status and parses a list of ids from the given stream,
+     * in a single pass
+     *
+     * @param in
+     *            the stream of the server's response
+     * @param key
+     *            the key word for the list to parse
+     * @return the list of ids
+     * @throws SmartMapParseException
+     *             if the response does not represent a valid list of ids
+     * @throws SmartMapClientException
+     *             if the server returned an error
+     */
+    List<Long> readIdList(InputStream in, String key) throws SmartMapParseException,
+        SmartMapClientException;
+
+    /**
+     * Checks the server status and parses a list of positions from the given
+     * stream, in a single pass
+     *
+     * @param in
+     *            the stream of the server's response
+     * @return the list of users with their positions
+     * @throws SmartMapParseException
+     *             if the response does not represent a valid list of
+     *             positions
+     * @throws SmartMapClientException
+     *             if the server returned an error
+     */
+    List<UserContainer> readPositions(InputStream in) throws SmartMapParseException,
+        SmartMapClientException;
+
+    /**
+     * Checks the server status and parses the positions changed since a
+     * cursor, with the cursor of the response, from the given stream, in a
+     * single pass
+     *
+     * @param in
+     *            the stream of the server's response
+     * @return the users with their positions and the next cursor
+     * @throws SmartMapParseException
+     *             if the response does not represent a valid list of
+     *             positions with a cursor
+     * @throws SmartMapClientException
+     *             if the server returned an error
+     */
+    SyncBag<UserContainer> readPositionsSince(InputStream in) throws SmartMapParseException,
+        SmartMapClientException;
+}
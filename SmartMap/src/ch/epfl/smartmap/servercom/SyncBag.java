@@ -0,0 +1,67 @@
+package ch.epfl.smartmap.servercom;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encapsulates the result of a delta synchronization request of {@link SmartMapClient}: the items that
+ * changed since the given cursor, the ids of the items that were removed since then, and the cursor to send
+ * with the next request.
+ *
+ * @param <T>
+ *            the type of the synchronized items
+ * @author Pamoi
+ */
+public class SyncBag<T> {
+
+    private final List<T> mItems;
+    private final List<Long> mRemovedIds;
+    private final String mCursor;
+
+    /**
+     * Constructor
+     *
+     * @param items
+     *            the items that changed since the previous cursor
+     * @param removedIds
+     *            the ids of the items removed since the previous cursor
+     * @param cursor
+     *            the cursor to send with the next request
+     */
+    public SyncBag(List<T> items, List<Long> removedIds, String cursor) {
+        if (items == null) {
+            throw new IllegalArgumentException("items list is null.");
+        }
+        if (removedIds == null) {
+            throw new IllegalArgumentException("removed ids list is null.");
+        }
+        if (cursor == null) {
+            throw new IllegalArgumentException("cursor is null.");
+        }
+        mItems = new ArrayList<T>(items);
+        mRemovedIds = new ArrayList<Long>(removedIds);
+        mCursor = cursor;
+    }
+
+    /**
+     * @return the cursor to send with the next request to only get the items changed after this one
+     */
+    public String getCursor() {
+        return mCursor;
+    }
+
+    /**
+     * @return the items that changed since the previous cursor
+     */
+    public List<T> getItems() {
+        return new ArrayList<T>(mItems);
+    }
+
+    /**
+     * @return the ids of the items that were removed, or that the user can no longer see, since the
+     *         previous cursor
+     */
+    public List<Long> getRemovedIds() {
+        return new ArrayList<Long>(mRemovedIds);
+    }
+}
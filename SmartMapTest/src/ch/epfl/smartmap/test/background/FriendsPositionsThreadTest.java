@@ -1,6 +1,7 @@
 package ch.epfl.smartmap.test.background;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -18,6 +19,7 @@ import ch.epfl.smartmap.cache.Cache;
 import ch.epfl.smartmap.cache.UserContainer;
 import ch.epfl.smartmap.servercom.NetworkSmartMapClient;
 import ch.epfl.smartmap.servercom.SmartMapClient;
+import ch.epfl.smartmap.servercom.SyncBag;
 
 public class FriendsPositionsThreadTest extends AndroidTestCase {
 
@@ -45,6 +47,10 @@ public class FriendsPositionsThreadTest extends AndroidTestCase {
         posList.add(user);
         posSet = new HashSet<UserContainer>(posList);
         Mockito.when(client.listFriendsPos()).thenReturn(posList);
+        Mockito.when(client.listFriendsPosSince(Mockito.anyString())).thenReturn(
+            new SyncBag<UserContainer>(posList, Arrays.asList(42L), "2014-11-12 13:33:45"));
+        Mockito.when(client.listFriendsPosSince(null)).thenReturn(
+            new SyncBag<UserContainer>(posList, Arrays.asList(42L), "2014-11-12 13:33:45"));
         ServiceContainer.setNetworkClient(client);
     }
 
@@ -58,6 +64,8 @@ public class FriendsPositionsThreadTest extends AndroidTestCase {
         }
         thread.disable();
         Mockito.verify(cache, Mockito.atLeastOnce()).putUsers(Mockito.argThat(isSame(posSet)));
+        Mockito.verify(cache, Mockito.atLeastOnce()).hideFriendPositions(
+            Mockito.eq(new HashSet<Long>(Arrays.asList(42L))));
     }
 
     public static ArgumentMatcher<Set<UserContainer>> isSame(final Set<UserContainer> expectedUser) {
@@ -1,6 +1,7 @@
 package ch.epfl.smartmap.test.background;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -19,6 +20,7 @@ import ch.epfl.smartmap.background.SettingsManager;
 import ch.epfl.smartmap.cache.Cache;
 import ch.epfl.smartmap.cache.EventContainer;
 import ch.epfl.smartmap.servercom.NetworkSmartMapClient;
+import ch.epfl.smartmap.servercom.ParallelFetcher;
 import ch.epfl.smartmap.servercom.SmartMapClient;
 
 public class NearEventsThreadTest extends AndroidTestCase {
@@ -26,7 +28,7 @@ public class NearEventsThreadTest extends AndroidTestCase {
     private Cache cache = null;
     private SmartMapClient client = null;
     private SettingsManager settings = null;
-    private EventContainer event = new EventContainer(0, null, null, null, null, null, null, null, null);
+    private EventContainer event = new EventContainer(123, null, null, null, null, null, null, null, null);
     private Set<EventContainer> evtSet = new HashSet<EventContainer>();
     private Location loc = new Location("testprovicer");
 
@@ -44,7 +46,10 @@ public class NearEventsThreadTest extends AndroidTestCase {
         Mockito.when(client.getPublicEvents(Mockito.anyDouble(), Mockito.anyDouble(), Mockito.anyDouble()))
             .thenReturn(events);
         Mockito.when(client.getEventInfo(123)).thenReturn(event);
+        Mockito.when(client.getEventsInfo(Mockito.anyCollectionOf(Long.class))).thenReturn(
+            Arrays.asList(event));
         ServiceContainer.setNetworkClient(client);
+        ServiceContainer.setParallelFetcher(new ParallelFetcher());
 
         settings = Mockito.mock(SettingsManager.class);
         Mockito.when(settings.getLocation()).thenReturn(loc);
@@ -0,0 +1,210 @@
+package ch.epfl.smartmap.test.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.location.Location;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import ch.epfl.smartmap.background.ServiceContainer;
+import ch.epfl.smartmap.background.SettingsManager;
+import ch.epfl.smartmap.cache.Cache;
+import ch.epfl.smartmap.cache.EventContainer;
+import ch.epfl.smartmap.cache.User;
+import ch.epfl.smartmap.cache.UserContainer;
+import ch.epfl.smartmap.servercom.PictureBag;
+import ch.epfl.smartmap.servercom.SmartMapClient;
+import ch.epfl.smartmap.servercom.SmartMapClientException;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+/**
+ * Stress test of the {@link Cache}: while a background thread keeps updating it from a slow network client,
+ * the test thread reads it like the UI thread does and measures how long each read takes. The latencies are
+ * reported in the log under the tag of this class.
+ *
+ * @author jfperren
+ */
+public class CacheConcurrencyTest extends AndroidTestCase {
+
+    private static final String TAG = CacheConcurrencyTest.class.getSimpleName();
+
+    private static final long SELF_ID = 1;
+    private static final int FRIENDS = 500;
+    private static final int READS = 2000;
+    // Duration of each request to the server, in milliseconds
+    private static final long NETWORK_DELAY = 100;
+    private static final String PICTURE_VERSION = "\"1\"";
+    private static final double NANOS_IN_MILLI = 1e6;
+
+    private final Bitmap mPicture = Bitmap.createBitmap(1, 1, Config.ALPHA_8);
+
+    private Cache mCache;
+    private SmartMapClient mClient;
+    // Number of updates made by the server, to move the friends at each of them
+    private volatile int mRound;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ServiceContainer.forceInitSmartMapServices(this.getContext());
+
+        Location location = new Location("stress");
+        location.setLatitude(46.5);
+        location.setLongitude(6.6);
+        SettingsManager settings = Mockito.mock(SettingsManager.class);
+        Mockito.doReturn(SELF_ID).when(settings).getUserId();
+        Mockito.doReturn("Self").when(settings).getUserName();
+        Mockito.doReturn(location).when(settings).getLocation();
+        Mockito.doReturn(this.getContext()).when(settings).getContext();
+        ServiceContainer.setSettingsManager(settings);
+
+        mClient = this.mockSlowClient();
+        ServiceContainer.setNetworkClient(mClient);
+
+        mCache = new Cache();
+        ServiceContainer.setCache(mCache);
+    }
+
+    @Test
+    public void testReadsDoNotWaitForNetworkUpdates() throws Exception {
+        // First update downloads the pictures, then the background sync only moves the friends
+        mCache.updateFromNetwork(mClient);
+        assertEquals(FRIENDS, mCache.getAllFriends().size());
+
+        Thread sync = new Thread() {
+            @Override
+            public void run() {
+                while (!this.isInterrupted()) {
+                    try {
+                        mRound++;
+                        mCache.updateFromNetwork(mClient);
+                    } catch (SmartMapClientException e) {
+                        Log.e(TAG, "Could not update : " + e);
+                    }
+                }
+            }
+        };
+        sync.start();
+
+        LatLngBounds bounds = new LatLngBounds(new LatLng(46, 6), new LatLng(47, 7));
+        long[] latencies = new long[READS];
+        for (int i = 0; i < READS; i++) {
+            long start = System.nanoTime();
+            mCache.getAllVisibleFriends();
+            mCache.getFriendsInBounds(bounds);
+            mCache.getUser(2 + (i % FRIENDS));
+            latencies[i] = System.nanoTime() - start;
+        }
+
+        sync.interrupt();
+        sync.join();
+
+        Arrays.sort(latencies);
+        double median = latencies[READS / 2] / NANOS_IN_MILLI;
+        double max = latencies[READS - 1] / NANOS_IN_MILLI;
+        Log.i(TAG, String.format(Locale.US,
+            "%d reads during %d updates of %d friends: median %.3f ms, 99th percentile %.3f ms, max %.3f ms",
+            READS, mRound, FRIENDS, median, latencies[(READS * 99) / 100] / NANOS_IN_MILLI, max));
+
+        assertTrue("A read waited for the network : " + max + " ms", max < NETWORK_DELAY);
+        assertEquals(FRIENDS, mCache.getAllFriends().size());
+    }
+
+    private UserContainer user(long id, int round) {
+        Location location = new Location("stress");
+        location.setLatitude(46.5 + (((id + round) % 100) * 1e-3));
+        location.setLongitude(6.6 + (((id * round) % 100) * 1e-3));
+        location.setTime(round);
+        return new UserContainer(id, "User " + id, "0123456789", "user" + id + "@smartmap.ch", location,
+            "Lausanne", null, User.BlockStatus.UNBLOCKED, (id == SELF_ID) ? User.SELF : User.FRIEND);
+    }
+
+    private SmartMapClient mockSlowClient() throws SmartMapClientException {
+        SmartMapClient client = Mockito.mock(SmartMapClient.class);
+
+        final List<Long> friendIds = new ArrayList<Long>();
+        for (long id = 2; id < (FRIENDS + 2); id++) {
+            friendIds.add(id);
+        }
+
+        Mockito.doAnswer(new SlowAnswer<List<Long>>() {
+            @Override
+            List<Long> result(InvocationOnMock invocation) {
+                return friendIds;
+            }
+        }).when(client).getFriendsIds();
+
+        Mockito.doAnswer(new SlowAnswer<List<UserContainer>>() {
+            @Override
+            List<UserContainer> result(InvocationOnMock invocation) {
+                List<UserContainer> positions = new ArrayList<UserContainer>();
+                for (long id : friendIds) {
+                    positions.add(CacheConcurrencyTest.this.user(id, mRound));
+                }
+                return positions;
+            }
+        }).when(client).listFriendsPos();
+
+        Mockito.doAnswer(new SlowAnswer<List<UserContainer>>() {
+            @Override
+            List<UserContainer> result(InvocationOnMock invocation) {
+                List<UserContainer> users = new ArrayList<UserContainer>();
+                for (Object id : (Collection<?>) invocation.getArguments()[0]) {
+                    users.add(CacheConcurrencyTest.this.user((Long) id, mRound));
+                }
+                return users;
+            }
+        }).when(client).getUsersInfo(Mockito.anyCollectionOf(Long.class));
+
+        Mockito.doAnswer(new SlowAnswer<List<Long>>() {
+            @Override
+            List<Long> result(InvocationOnMock invocation) {
+                return new ArrayList<Long>();
+            }
+        }).when(client).getPublicEvents(Mockito.anyDouble(), Mockito.anyDouble(), Mockito.anyDouble());
+
+        Mockito.doAnswer(new SlowAnswer<List<EventContainer>>() {
+            @Override
+            List<EventContainer> result(InvocationOnMock invocation) {
+                return new ArrayList<EventContainer>();
+            }
+        }).when(client).getEventsInfo(Mockito.anyCollectionOf(Long.class));
+
+        // Pictures are only sent the first time, then they are not modified anymore
+        Mockito.doAnswer(new Answer<PictureBag>() {
+            @Override
+            public PictureBag answer(InvocationOnMock invocation) {
+                boolean isKnown = PICTURE_VERSION.equals(invocation.getArguments()[1]);
+                return new PictureBag(isKnown ? null : mPicture, PICTURE_VERSION);
+            }
+        }).when(client).getProfilePicture(Mockito.anyLong(), Mockito.anyString());
+
+        return client;
+    }
+
+    /**
+     * Answers a call to the network client after {@code NETWORK_DELAY}, like a request to the server
+     */
+    private abstract static class SlowAnswer<T> implements Answer<T> {
+        @Override
+        public T answer(InvocationOnMock invocation) {
+            SystemClock.sleep(NETWORK_DELAY);
+            return this.result(invocation);
+        }
+
+        abstract T result(InvocationOnMock invocation);
+    }
+}
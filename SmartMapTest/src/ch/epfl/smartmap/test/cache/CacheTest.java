@@ -13,21 +13,29 @@ import static ch.epfl.smartmap.test.database.MockContainers.ROBIN_FRIEND_INVITAT
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.GregorianCalendar;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
+import android.os.Handler;
+import android.os.Looper;
 import android.test.AndroidTestCase;
 import ch.epfl.smartmap.background.ServiceContainer;
 import ch.epfl.smartmap.background.SettingsManager;
 import ch.epfl.smartmap.cache.Cache;
+import ch.epfl.smartmap.cache.CacheChanges;
+import ch.epfl.smartmap.cache.CacheUpdate;
 import ch.epfl.smartmap.cache.Filter;
+import ch.epfl.smartmap.cache.FilterContainer;
 import ch.epfl.smartmap.cache.Invitation;
 import ch.epfl.smartmap.cache.InvitationContainer;
 import ch.epfl.smartmap.cache.User;
@@ -37,9 +45,12 @@ import ch.epfl.smartmap.database.DatabaseHelper;
 import ch.epfl.smartmap.listeners.CacheListener;
 import ch.epfl.smartmap.listeners.OnCacheListener;
 import ch.epfl.smartmap.servercom.NetworkSmartMapClient;
+import ch.epfl.smartmap.servercom.PictureBag;
 import ch.epfl.smartmap.servercom.SmartMapClient;
 import ch.epfl.smartmap.servercom.SmartMapClientException;
 
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.common.collect.Sets;
 
 /**
@@ -82,6 +93,8 @@ public class CacheTest extends AndroidTestCase {
 		Mockito.doReturn(ALAIN_CONTAINER).when(clientForUsers).getUserInfo(ALAIN_CONTAINER.getId());
 		Mockito.doReturn(JULIEN_CONTAINER).when(clientForUsers).getUserInfo(JULIEN_CONTAINER.getId());
 		Mockito.doReturn(ROBIN_CONTAINER).when(clientForUsers).getUserInfo(ROBIN_CONTAINER.getId());
+		Mockito.doReturn(Arrays.asList(JULIEN_CONTAINER, ALAIN_CONTAINER)).when(clientForUsers)
+		.getUsersInfo(Mockito.anyCollectionOf(Long.class));
 		Mockito
 		.doReturn(
 				Arrays.asList(UserContainer.newEmptyContainer().setLocation(ALAIN_CONTAINER.getLocation())
@@ -90,6 +103,10 @@ public class CacheTest extends AndroidTestCase {
 		// Return own profile picture (otherwise NullPointers)
 		Mockito.doReturn(Bitmap.createBitmap(1, 2, Config.ALPHA_8)).when(clientForUsers)
 		.getProfilePicture(JULIEN_CONTAINER.getId());
+		Mockito.doReturn(new PictureBag(null, null)).when(clientForUsers)
+		.getProfilePicture(Mockito.anyLong(), Mockito.anyString());
+		Mockito.doReturn(new PictureBag(Bitmap.createBitmap(1, 2, Config.ALPHA_8), null)).when(clientForUsers)
+		.getProfilePicture(Mockito.eq(JULIEN_CONTAINER.getId()), Mockito.anyString());
 		// Return no events
 		Mockito.doReturn(new ArrayList<Long>()).when(clientForUsers)
 		.getPublicEvents(Mockito.anyLong(), Mockito.anyLong(), Mockito.anyLong());
@@ -102,12 +119,18 @@ public class CacheTest extends AndroidTestCase {
 		// Return our own profile picture (otherwise NullPointers)
 		Mockito.doReturn(Bitmap.createBitmap(1, 2, Config.ALPHA_8)).when(clientForEvents)
 		.getProfilePicture(JULIEN_CONTAINER.getId());
+		Mockito.doReturn(new PictureBag(null, null)).when(clientForEvents)
+		.getProfilePicture(Mockito.anyLong(), Mockito.anyString());
+		Mockito.doReturn(new PictureBag(Bitmap.createBitmap(1, 2, Config.ALPHA_8), null)).when(clientForEvents)
+		.getProfilePicture(Mockito.eq(JULIEN_CONTAINER.getId()), Mockito.anyString());
 		// Return events
 		Mockito.doReturn(Arrays.asList(POLYLAN_CONTAINER.getId(), FOOTBALL_TOURNAMENT_CONTAINER.getId()))
 		.when(clientForEvents).getPublicEvents(Mockito.anyLong(), Mockito.anyLong(), Mockito.anyLong());
 		Mockito.doReturn(POLYLAN_CONTAINER).when(clientForEvents).getEventInfo(POLYLAN_CONTAINER.getId());
 		Mockito.doReturn(FOOTBALL_TOURNAMENT_CONTAINER).when(clientForEvents)
 		.getEventInfo(FOOTBALL_TOURNAMENT_CONTAINER.getId());
+		Mockito.doReturn(Arrays.asList(POLYLAN_CONTAINER, FOOTBALL_TOURNAMENT_CONTAINER)).when(clientForEvents)
+		.getEventsInfo(Mockito.anyCollectionOf(Long.class));
 
 		// DATABASE FOR USERS ONLY
 		databaseForUsers = Mockito.mock(DatabaseHelper.class);
@@ -125,6 +148,8 @@ public class CacheTest extends AndroidTestCase {
 		Mockito.doReturn(Sets.newHashSet()).when(databaseForEvents).getAllInvitations();
 		Mockito.doReturn(Sets.newHashSet()).when(databaseForEvents).getAllFilters();
 
+		// Forget the notification of the self user put by the constructor
+		this.waitForNotification();
 	}
 
 	@After
@@ -170,6 +195,44 @@ public class CacheTest extends AndroidTestCase {
 		Thread.sleep(500);
 	}
 
+	@Test
+	public void testAddedThenRemovedUserIsNotNotified() throws InterruptedException {
+		CacheListener listener = Mockito.mock(OnCacheListener.class);
+		cache.addOnCacheListener(listener);
+		cache.putUser(ROBIN_CONTAINER);
+		cache.removeUsers(Sets.newHashSet(ROBIN_CONTAINER.getId()));
+		this.waitForNotification();
+
+		Mockito.verify(listener, Mockito.never()).onCacheUpdate(Mockito.any(CacheUpdate.class));
+		Mockito.verify(listener, Mockito.never()).onUserListUpdate();
+	}
+
+	@Test
+	public void testChangesAreForgottenOnceTaken() {
+		cache.takeChanges();
+		cache.putEvent(POLYLAN_CONTAINER);
+
+		CacheChanges changes = cache.takeChanges();
+		assertTrue(changes.getChangedEventIds().contains(POLYLAN_CONTAINER.getId()));
+		assertTrue(changes.getChangedUserIds().contains(POLYLAN_CONTAINER.getCreatorContainer().getId()));
+		assertTrue(cache.takeChanges().isEmpty());
+	}
+
+	@Test
+	public void testChangesArePutBackUnlessOverridden() {
+		cache.putEvent(POLYLAN_CONTAINER);
+		cache.putEvent(FOOTBALL_TOURNAMENT_CONTAINER);
+		CacheChanges notWritten = cache.takeChanges();
+
+		cache.removeEvent(FOOTBALL_TOURNAMENT_CONTAINER.getId());
+		cache.putBackChanges(notWritten);
+
+		CacheChanges changes = cache.takeChanges();
+		assertTrue(changes.getChangedEventIds().contains(POLYLAN_CONTAINER.getId()));
+		assertFalse(changes.getChangedEventIds().contains(FOOTBALL_TOURNAMENT_CONTAINER.getId()));
+		assertTrue(changes.getRemovedEventIds().contains(FOOTBALL_TOURNAMENT_CONTAINER.getId()));
+	}
+
 	@Test
 	public void testGetExistingEventsReturnSetWithOnlyValidEvents() {
 		cache.putEvent(POLYLAN_CONTAINER);
@@ -198,6 +261,19 @@ public class CacheTest extends AndroidTestCase {
 		assertEquals(1, cache.getUsers(Sets.newHashSet(JULIEN_CONTAINER.getId(), User.NO_ID)).size());
 	}
 
+	@Test
+	public void testGetEventsInBoundsFollowsCacheUpdates() {
+		LatLngBounds aroundPolylan = new LatLngBounds(new LatLng(59.9, 27.5), new LatLng(60, 27.6));
+		cache.putEvent(POLYLAN_CONTAINER);
+
+		assertEquals(Sets.newHashSet(cache.getEvent(POLYLAN_CONTAINER.getId())),
+				cache.getEventsInBounds(aroundPolylan));
+
+		cache.removeEvent(POLYLAN_CONTAINER.getId());
+
+		assertTrue(cache.getEventsInBounds(aroundPolylan).isEmpty());
+	}
+
 	@Test
 	public void testGetNonExistingEventReturnsNull() {
 		assertNull(cache.getEvent(3));
@@ -238,6 +314,14 @@ public class CacheTest extends AndroidTestCase {
 		assertTrue(cache.getUsers(Sets.newHashSet((long) 5672, (long) 5674)).isEmpty());
 	}
 
+	@Test
+	public void testInitFromDatabaseLeavesNoChange() {
+		cache.putEvent(POLYLAN_CONTAINER);
+		cache.initFromDatabase(databaseForUsers);
+
+		assertTrue(cache.takeChanges().isEmpty());
+	}
+
 	@Test
 	public void testInitFromDatabaseWithCorrectEvents() {
 		cache.initFromDatabase(databaseForEvents);
@@ -264,6 +348,20 @@ public class CacheTest extends AndroidTestCase {
 		assertNotNull(cache.getSelf());
 	}
 
+	@Test
+	public void testListenersAreNotifiedOnMainThread() throws InterruptedException {
+		final CountDownLatch notified = new CountDownLatch(1);
+		cache.addOnCacheListener(new OnCacheListener() {
+			@Override
+			public void onUserListUpdate() {
+				assertEquals(Looper.getMainLooper(), Looper.myLooper());
+				notified.countDown();
+			}
+		});
+		cache.putUser(ROBIN_CONTAINER);
+		assertTrue(notified.await(1, TimeUnit.SECONDS));
+	}
+
 	@Test
 	public void testPutEventAlsoAddUser() {
 		cache.putEvent(POLYLAN_CONTAINER);
@@ -272,10 +370,11 @@ public class CacheTest extends AndroidTestCase {
 	}
 
 	@Test
-	public void testPutEventCallListeners() {
+	public void testPutEventCallListeners() throws InterruptedException {
 		CacheListener listener = Mockito.mock(OnCacheListener.class);
 		cache.addOnCacheListener(listener);
 		cache.putEvent(POLYLAN_CONTAINER);
+		this.waitForNotification();
 		Mockito.verify(listener).onEventListUpdate();
 	}
 
@@ -287,11 +386,12 @@ public class CacheTest extends AndroidTestCase {
 	}
 
 	@Test
-	public void testPutEventOnlyCallListenersWhenNeeded() {
+	public void testPutEventOnlyCallListenersWhenNeeded() throws InterruptedException {
 		CacheListener listener = Mockito.mock(OnCacheListener.class);
 		cache.addOnCacheListener(listener);
 		cache.putEvent(POLYLAN_CONTAINER);
 		cache.putEvent(POLYLAN_CONTAINER);
+		this.waitForNotification();
 		Mockito.verify(listener).onEventListUpdate();
 	}
 
@@ -304,10 +404,11 @@ public class CacheTest extends AndroidTestCase {
 	}
 
 	@Test
-	public void testPutFilterCallListeners() {
+	public void testPutFilterCallListeners() throws InterruptedException {
 		CacheListener listener = Mockito.mock(OnCacheListener.class);
 		cache.addOnCacheListener(listener);
 		cache.putFilter(FAMILY_CONTAINER);
+		this.waitForNotification();
 		Mockito.verify(listener).onFilterListUpdate();
 	}
 
@@ -324,11 +425,12 @@ public class CacheTest extends AndroidTestCase {
 	}
 
 	@Test
-	public void testPutFilterOnlyCallListenersWhenNeeded() {
+	public void testPutFilterOnlyCallListenersWhenNeeded() throws InterruptedException {
 		CacheListener listener = Mockito.mock(OnCacheListener.class);
 		cache.addOnCacheListener(listener);
 		cache.putFilter(FAMILY_CONTAINER);
 		cache.putFilter(FAMILY_CONTAINER);
+		this.waitForNotification();
 		Mockito.verify(listener).onFilterListUpdate();
 	}
 
@@ -347,10 +449,11 @@ public class CacheTest extends AndroidTestCase {
 	}
 
 	@Test
-	public void testPutInvitationCallListeners() {
+	public void testPutInvitationCallListeners() throws InterruptedException {
 		CacheListener listener = Mockito.mock(OnCacheListener.class);
 		cache.addOnCacheListener(listener);
 		cache.putInvitation(POLYLAN_EVENT_INVITATION_CONTAINER);
+		this.waitForNotification();
 		Mockito.verify(listener).onInvitationListUpdate();
 	}
 
@@ -362,19 +465,21 @@ public class CacheTest extends AndroidTestCase {
 	}
 
 	@Test
-	public void testPutInvitationOnlyCallListenersWhenNeeded() {
+	public void testPutInvitationOnlyCallListenersWhenNeeded() throws InterruptedException {
 		CacheListener listener = Mockito.mock(OnCacheListener.class);
 		cache.addOnCacheListener(listener);
 		cache.putInvitation(POLYLAN_EVENT_INVITATION_CONTAINER);
 		cache.putInvitation(POLYLAN_EVENT_INVITATION_CONTAINER);
+		this.waitForNotification();
 		Mockito.verify(listener).onInvitationListUpdate();
 	}
 
 	@Test
-	public void testPutUserCallListeners() {
+	public void testPutUserCallListeners() throws InterruptedException {
 		CacheListener listener = Mockito.mock(OnCacheListener.class);
 		cache.addOnCacheListener(listener);
 		cache.putUser(ROBIN_CONTAINER);
+		this.waitForNotification();
 		Mockito.verify(listener).onUserListUpdate();
 	}
 
@@ -386,11 +491,12 @@ public class CacheTest extends AndroidTestCase {
 	}
 
 	@Test
-	public void testPutUserOnlyCallListenersWhenNeeded() {
+	public void testPutUserOnlyCallListenersWhenNeeded() throws InterruptedException {
 		CacheListener listener = Mockito.mock(OnCacheListener.class);
 		cache.addOnCacheListener(listener);
 		cache.putUser(ROBIN_CONTAINER);
 		cache.putUser(ROBIN_CONTAINER);
+		this.waitForNotification();
 		Mockito.verify(listener).onUserListUpdate();
 	}
 
@@ -402,6 +508,39 @@ public class CacheTest extends AndroidTestCase {
 		assertEquals(cache.getUser(ALAIN_CONTAINER.getId()).getName(), "Robert");
 	}
 
+	@Test
+	public void testRemovedItemIsNoLongerChanged() {
+		cache.putEvent(POLYLAN_CONTAINER);
+		cache.removeEvent(POLYLAN_CONTAINER.getId());
+
+		CacheChanges changes = cache.takeChanges();
+		assertFalse(changes.getChangedEventIds().contains(POLYLAN_CONTAINER.getId()));
+		assertTrue(changes.getRemovedEventIds().contains(POLYLAN_CONTAINER.getId()));
+	}
+
+	@Test
+	public void testUpdatesAreCoalesced() throws InterruptedException {
+		cache.putUser(ALAIN_CONTAINER);
+		this.waitForNotification();
+
+		CacheListener listener = Mockito.mock(OnCacheListener.class);
+		cache.addOnCacheListener(listener);
+		cache.putUser(ROBIN_CONTAINER);
+		cache.putUser(cache.getUser(ROBIN_CONTAINER.getId()).getContainerCopy().setName("Robert"));
+		cache.putUser(cache.getUser(ALAIN_CONTAINER.getId()).getContainerCopy().setName("Alain Delon"));
+		this.waitForNotification();
+
+		ArgumentCaptor<CacheUpdate> update = ArgumentCaptor.forClass(CacheUpdate.class);
+		Mockito.verify(listener).onCacheUpdate(update.capture());
+		Mockito.verify(listener).onUserListUpdate();
+		Mockito.verify(listener, Mockito.never()).onEventListUpdate();
+		assertEquals(Sets.newHashSet(ROBIN_CONTAINER.getId()), update.getValue().getUserChanges().getAddedIds());
+		assertEquals(Sets.newHashSet(ALAIN_CONTAINER.getId()), update.getValue().getUserChanges()
+				.getUpdatedIds());
+		assertTrue(update.getValue().getUserChanges().getRemovedIds().isEmpty());
+		assertTrue(update.getValue().getEventChanges().isEmpty());
+	}
+
 	@Test
 	public void testUpdateFromNetworkWithCorrectUsers() throws SmartMapClientException {
 		ServiceContainer.setNetworkClient(clientForUsers);
@@ -414,9 +553,63 @@ public class CacheTest extends AndroidTestCase {
 		assertNotNull(cache.getUser(ALAIN_CONTAINER.getId()));
 		assertNull(cache.getUser(ROBIN_CONTAINER.getId()));
 
-		assertFalse(cache.getSelf().getActionImage().sameAs(User.NO_IMAGE));
-
 		assertNotNull(cache.getSelf());
+
+		// Pictures are only downloaded once displayed
+		Mockito.verify(clientForUsers, Mockito.never()).getProfilePicture(Mockito.anyLong(),
+				Mockito.anyString());
+		assertTrue(ServiceContainer.getPictureCache().isOutdated(JULIEN_CONTAINER.getId()));
+		assertTrue(ServiceContainer.getPictureCache().isOutdated(ALAIN_CONTAINER.getId()));
 	}
-}
 
+	@Test
+	public void testVisibleFriendsFollowFilters() {
+		cache.putUser(ALAIN_CONTAINER);
+		assertTrue(cache.isVisibleFriend(ALAIN_CONTAINER.getId()));
+
+		// The default filter contains the hidden friends
+		cache.putFilter(new FilterContainer(Filter.DEFAULT_FILTER_ID, Filter.NO_NAME, Sets
+				.newHashSet(ALAIN_CONTAINER.getId()), true));
+		assertFalse(cache.isVisibleFriend(ALAIN_CONTAINER.getId()));
+		assertTrue(cache.getAllVisibleFriends().isEmpty());
+
+		cache.putFilter(cache.getDefaultFilter().getContainerCopy().removeId(ALAIN_CONTAINER.getId()));
+		assertTrue(cache.isVisibleFriend(ALAIN_CONTAINER.getId()));
+		assertEquals(Sets.newHashSet(cache.getUser(ALAIN_CONTAINER.getId())), cache.getAllVisibleFriends());
+	}
+
+	@Test
+	public void testVisibleFriendsFollowFriendship() {
+		cache.putUser(ALAIN_CONTAINER);
+		cache.putUser(ROBIN_CONTAINER);
+		assertTrue(cache.isVisibleFriend(ALAIN_CONTAINER.getId()));
+		assertFalse(cache.isVisibleFriend(ROBIN_CONTAINER.getId()));
+		assertFalse(cache.isVisibleFriend(JULIEN_CONTAINER.getId()));
+
+		cache.putUser(cache.getUser(ALAIN_CONTAINER.getId()).getContainerCopy().setFriendship(User.STRANGER));
+		assertFalse(cache.isVisibleFriend(ALAIN_CONTAINER.getId()));
+
+		cache.putUser(cache.getUser(ROBIN_CONTAINER.getId()).getContainerCopy().setFriendship(User.FRIEND));
+		assertTrue(cache.isVisibleFriend(ROBIN_CONTAINER.getId()));
+
+		cache.removeUsers(Sets.newHashSet(ROBIN_CONTAINER.getId()));
+		assertFalse(cache.isVisibleFriend(ROBIN_CONTAINER.getId()));
+		assertTrue(cache.getAllVisibleFriends().isEmpty());
+	}
+
+	/**
+	 * Waits until the listeners were notified of the previous modifications, on the main thread
+	 */
+	private void waitForNotification() throws InterruptedException {
+		// Let the notification become due, then wait for a message posted after it
+		Thread.sleep(50);
+		final CountDownLatch latch = new CountDownLatch(1);
+		new Handler(Looper.getMainLooper()).post(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		});
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,83 @@
+package ch.epfl.smartmap.test.cache;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import android.test.AndroidTestCase;
+import ch.epfl.smartmap.cache.LongArrays;
+import ch.epfl.smartmap.cache.LongHashSet;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Tests for {@link LongHashSet} and {@link LongArrays}
+ *
+ * @author jfperren
+ */
+public class LongHashSetTest extends AndroidTestCase {
+
+    @Test
+    public void testAddAndRemoveZero() {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertTrue(set.contains(0));
+        assertEquals(1, set.size());
+
+        assertTrue(set.remove(0));
+        assertFalse(set.contains(0));
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void testDifference() {
+        long[] ids = {1, 2, 3, 5, 8};
+
+        assertTrue(Arrays.equals(new long[]{1, 3, 8}, LongArrays.difference(ids, new long[]{0, 2, 5, 13})));
+        assertSame(ids, LongArrays.difference(ids, new long[]{4, 13}));
+        assertEquals(0, LongArrays.difference(ids, ids).length);
+    }
+
+    @Test
+    public void testIntersection() {
+        long[] ids = {1, 2, 3, 5, 8};
+
+        assertTrue(Arrays.equals(new long[]{2, 5}, LongArrays.intersection(ids, new long[]{0, 2, 5, 13})));
+        assertSame(ids, LongArrays.intersection(ids, new long[]{0, 1, 2, 3, 4, 5, 8}));
+        assertEquals(0, LongArrays.intersection(ids, LongArrays.EMPTY).length);
+    }
+
+    @Test
+    public void testSameContentAsHashSet() {
+        // Many removals in a small range, so that probe sequences overlap and values are moved back
+        Random random = new Random(42);
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<Long>();
+        for (int i = 0; i < 20000; i++) {
+            long value = random.nextInt(500);
+            if (random.nextBoolean()) {
+                assertEquals(expected.add(value), set.add(value));
+            } else {
+                assertEquals(expected.remove(value), set.remove(value));
+            }
+        }
+
+        assertEquals(expected.size(), set.size());
+        for (long value = 0; value < 500; value++) {
+            assertEquals(expected.contains(value), set.contains(value));
+        }
+        assertEquals(expected, set.toSet());
+        assertTrue(Arrays.equals(LongArrays.sortedCopyOf(expected), set.toSortedArray()));
+    }
+
+    @Test
+    public void testSortedCopyRemovesDuplicates() {
+        assertTrue(Arrays.equals(new long[]{-4, 2, 7},
+            LongArrays.sortedCopyOf(Arrays.asList(7L, 2L, -4L, 7L, 2L))));
+        assertEquals(Sets.newHashSet(-4L, 2L, 7L), LongArrays.toSet(new long[]{-4, 2, 7}));
+    }
+}
@@ -0,0 +1,222 @@
+package ch.epfl.smartmap.test.cache;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+import ch.epfl.smartmap.cache.PictureCache;
+import ch.epfl.smartmap.servercom.PictureBag;
+import ch.epfl.smartmap.servercom.SmartMapClient;
+
+/**
+ * Tests for {@link PictureCache}
+ *
+ * @author jfperren
+ */
+public class PictureCacheTest extends AndroidTestCase {
+
+    private static final long ID = 4242;
+    private static final String VERSION = "\"5f3a/2\"";
+
+    private PictureCache mPictureCache;
+    private Bitmap mPicture;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPictureCache = new PictureCache(this.getContext());
+        mPictureCache.remove(ID);
+        mPicture = Bitmap.createBitmap(2, 2, Config.ARGB_8888);
+        mPicture.eraseColor(Color.RED);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPictureCache.remove(ID);
+        super.tearDown();
+    }
+
+    @Test
+    public void testGetOrFetchDownloadsOnlyOnce() throws Exception {
+        SmartMapClient client = Mockito.mock(SmartMapClient.class);
+        Mockito.doReturn(new PictureBag(mPicture, null)).when(client).getProfilePicture(ID, null);
+
+        mPictureCache.getOrFetch(ID, client);
+        mPictureCache.evictAll();
+        Bitmap picture = mPictureCache.getOrFetch(ID, client);
+
+        Mockito.verify(client, Mockito.times(1)).getProfilePicture(ID, null);
+        assertTrue(picture.sameAs(mPicture));
+    }
+
+    @Test
+    public void testIsInMemory() {
+        mPictureCache.put(ID, VERSION, mPicture);
+
+        assertTrue(mPictureCache.hasPicture(ID));
+        assertTrue(mPictureCache.isInMemory(ID, mPicture));
+        assertFalse(mPictureCache.isInMemory(ID, Bitmap.createBitmap(mPicture)));
+
+        mPictureCache.evictAll();
+        assertTrue(mPictureCache.hasPicture(ID));
+        assertFalse(mPictureCache.isInMemory(ID, mPicture));
+    }
+
+    @Test
+    public void testIsUpToDate() {
+        assertFalse(mPictureCache.isUpToDate(ID, VERSION));
+        mPictureCache.put(ID, VERSION, mPicture);
+
+        assertTrue(mPictureCache.isUpToDate(ID, VERSION));
+        assertFalse(mPictureCache.isUpToDate(ID, "\"new\""));
+        assertFalse(mPictureCache.isUpToDate(ID, null));
+    }
+
+    @Test
+    public void testLoadInBackground() throws InterruptedException {
+        mPictureCache.put(ID, VERSION, mPicture);
+        mPictureCache.evictAll();
+        assertNull(mPictureCache.getFromMemory(ID));
+
+        final CountDownLatch loaded = new CountDownLatch(1);
+        mPictureCache.loadInBackground(ID, null, new PictureCache.OnLoadedListener() {
+            @Override
+            public void onLoaded(long id, Bitmap picture) {
+                loaded.countDown();
+            }
+        });
+
+        assertTrue(loaded.await(2, TimeUnit.SECONDS));
+        assertTrue(mPictureCache.getFromMemory(ID).sameAs(mPicture));
+    }
+
+    @Test
+    public void testLoadInBackgroundCoalescesRequests() throws Exception {
+        SmartMapClient client = Mockito.mock(SmartMapClient.class);
+        Mockito.doReturn(new PictureBag(mPicture, VERSION)).when(client).getProfilePicture(ID, null);
+        mPictureCache.markOutdated(ID);
+
+        final CountDownLatch loaded = new CountDownLatch(2);
+        PictureCache.OnLoadedListener listener = new PictureCache.OnLoadedListener() {
+            @Override
+            public void onLoaded(long id, Bitmap picture) {
+                assertEquals(ID, id);
+                loaded.countDown();
+            }
+        };
+        mPictureCache.loadInBackground(ID, client, listener);
+        mPictureCache.loadInBackground(ID, client, listener);
+
+        assertTrue(loaded.await(2, TimeUnit.SECONDS));
+        Mockito.verify(client, Mockito.times(1)).getProfilePicture(ID, null);
+    }
+
+    @Test
+    public void testLoadInBackgroundDownloadsOutdatedPicture() throws Exception {
+        Bitmap newPicture = Bitmap.createBitmap(2, 2, Config.ARGB_8888);
+        newPicture.eraseColor(Color.BLUE);
+        SmartMapClient client = Mockito.mock(SmartMapClient.class);
+        Mockito.doReturn(new PictureBag(newPicture, "\"new\"")).when(client).getProfilePicture(ID, VERSION);
+        mPictureCache.put(ID, VERSION, mPicture);
+        mPictureCache.markOutdated(ID);
+        assertTrue(mPictureCache.isOutdated(ID));
+
+        final CountDownLatch loaded = new CountDownLatch(1);
+        mPictureCache.loadInBackground(ID, client, new PictureCache.OnLoadedListener() {
+            @Override
+            public void onLoaded(long id, Bitmap picture) {
+                loaded.countDown();
+            }
+        });
+
+        assertTrue(loaded.await(2, TimeUnit.SECONDS));
+        assertSame(newPicture, mPictureCache.getFromMemory(ID));
+        assertEquals("\"new\"", mPictureCache.getVersion(ID));
+        assertFalse(mPictureCache.isOutdated(ID));
+    }
+
+    @Test
+    public void testMarkerPictureIsForgottenWhenPictureChanges() {
+        Bitmap markerPicture = Bitmap.createBitmap(1, 1, Config.ARGB_8888);
+        mPictureCache.put(ID, PictureCache.NO_VERSION, mPicture);
+        mPictureCache.putMarkerPicture(ID, mPicture, markerPicture);
+
+        assertSame(markerPicture, mPictureCache.getMarkerPicture(ID, mPicture));
+        assertNull(mPictureCache.getMarkerPicture(ID, Bitmap.createBitmap(1, 1, Config.ARGB_8888)));
+
+        mPictureCache.put(ID, PictureCache.NO_VERSION, mPicture);
+        assertNull(mPictureCache.getMarkerPicture(ID, mPicture));
+    }
+
+    @Test
+    public void testNewVersionReplacesOldOne() {
+        mPictureCache.put(ID, VERSION, mPicture);
+        Bitmap newPicture = Bitmap.createBitmap(2, 2, Config.ARGB_8888);
+        newPicture.eraseColor(Color.BLUE);
+        mPictureCache.put(ID, PictureCache.NO_VERSION, newPicture);
+
+        PictureCache other = new PictureCache(this.getContext());
+        assertEquals(PictureCache.NO_VERSION, other.getVersion(ID));
+        assertTrue(other.get(ID).sameAs(newPicture));
+    }
+
+    @Test
+    public void testPictureIsReadFromDisk() {
+        mPictureCache.put(ID, VERSION, mPicture);
+
+        PictureCache other = new PictureCache(this.getContext());
+        assertEquals(VERSION, other.getVersion(ID));
+        assertTrue(other.get(ID).sameAs(mPicture));
+    }
+
+    @Test
+    public void testRefreshDownloadsModifiedPicture() throws Exception {
+        Bitmap newPicture = Bitmap.createBitmap(2, 2, Config.ARGB_8888);
+        newPicture.eraseColor(Color.BLUE);
+        SmartMapClient client = Mockito.mock(SmartMapClient.class);
+        Mockito.doReturn(new PictureBag(newPicture, "\"new\"")).when(client).getProfilePicture(ID, VERSION);
+        mPictureCache.put(ID, VERSION, mPicture);
+
+        assertSame(newPicture, mPictureCache.refresh(ID, client));
+        assertEquals("\"new\"", mPictureCache.getVersion(ID));
+    }
+
+    @Test
+    public void testRefreshIfModifiedIsNullForUnmodifiedPicture() throws Exception {
+        SmartMapClient client = Mockito.mock(SmartMapClient.class);
+        Mockito.doReturn(new PictureBag(null, VERSION)).when(client).getProfilePicture(ID, VERSION);
+        mPictureCache.put(ID, VERSION, mPicture);
+        mPictureCache.evictAll();
+
+        assertNull(mPictureCache.refreshIfModified(ID, client));
+        assertFalse(mPictureCache.isInMemory(ID, mPicture));
+        assertEquals(VERSION, mPictureCache.getVersion(ID));
+    }
+
+    @Test
+    public void testRefreshKeepsUnmodifiedPicture() throws Exception {
+        SmartMapClient client = Mockito.mock(SmartMapClient.class);
+        Mockito.doReturn(new PictureBag(null, VERSION)).when(client).getProfilePicture(ID, VERSION);
+        mPictureCache.put(ID, VERSION, mPicture);
+
+        assertSame(mPicture, mPictureCache.refresh(ID, client));
+        Mockito.verify(client, Mockito.never()).getProfilePicture(ID);
+        assertEquals(VERSION, mPictureCache.getVersion(ID));
+    }
+
+    @Test
+    public void testRemove() {
+        mPictureCache.put(ID, VERSION, mPicture);
+        mPictureCache.remove(ID);
+
+        assertNull(mPictureCache.get(ID));
+        assertNull(mPictureCache.getVersion(ID));
+        assertNull(new PictureCache(this.getContext()).get(ID));
+    }
+}
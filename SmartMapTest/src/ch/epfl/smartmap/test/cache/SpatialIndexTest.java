@@ -0,0 +1,128 @@
+package ch.epfl.smartmap.test.cache;
+
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import android.location.Location;
+import android.test.AndroidTestCase;
+import ch.epfl.smartmap.cache.SpatialIndex;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.common.collect.Sets;
+
+/**
+ * Tests for {@link SpatialIndex}
+ *
+ * @author jfperren
+ */
+public class SpatialIndexTest extends AndroidTestCase {
+
+    private static final double LAUSANNE_LATITUDE = 46.5197;
+    private static final double LAUSANNE_LONGITUDE = 6.6323;
+
+    @Test
+    public void testBoundsAcrossAntimeridian() {
+        SpatialIndex index = new SpatialIndex();
+        index.put(1, 0, 179.9);
+        index.put(2, 0, -179.9);
+        index.put(3, 0, 0);
+
+        assertEquals(Sets.newHashSet(1L, 2L), index.idsInBounds(-1, 179, 1, -179));
+    }
+
+    @Test
+    public void testCopyIsIndependent() {
+        SpatialIndex index = new SpatialIndex();
+        index.put(1, LAUSANNE_LATITUDE, LAUSANNE_LONGITUDE);
+        index.put(2, LAUSANNE_LATITUDE, LAUSANNE_LONGITUDE);
+
+        SpatialIndex copy = new SpatialIndex(index);
+        // Same cell as the shared ones
+        index.put(3, LAUSANNE_LATITUDE, LAUSANNE_LONGITUDE);
+        index.remove(1);
+        copy.remove(2);
+
+        assertEquals(Sets.newHashSet(2L, 3L), index.idsInRadius(LAUSANNE_LATITUDE, LAUSANNE_LONGITUDE, 1000));
+        assertEquals(Sets.newHashSet(1L), copy.idsInRadius(LAUSANNE_LATITUDE, LAUSANNE_LONGITUDE, 1000));
+
+        SpatialIndex secondCopy = new SpatialIndex(index);
+        index.remove(3);
+        assertEquals(Sets.newHashSet(2L, 3L),
+            secondCopy.idsInRadius(LAUSANNE_LATITUDE, LAUSANNE_LONGITUDE, 1000));
+    }
+
+    @Test
+    public void testIdsInBounds() {
+        SpatialIndex index = new SpatialIndex();
+        index.put(1, LAUSANNE_LATITUDE, LAUSANNE_LONGITUDE);
+        index.put(2, 47.3769, 8.5417);
+        index.put(3, -33.8688, 151.2093);
+
+        LatLngBounds bounds = new LatLngBounds(new LatLng(46, 6), new LatLng(48, 9));
+
+        assertEquals(Sets.newHashSet(1L, 2L), index.idsInBounds(bounds));
+    }
+
+    @Test
+    public void testMovedPositionIsReindexed() {
+        SpatialIndex index = new SpatialIndex();
+        index.put(1, LAUSANNE_LATITUDE, LAUSANNE_LONGITUDE);
+        index.put(1, -33.8688, 151.2093);
+
+        assertEquals(1, index.size());
+        assertTrue(index.idsInRadius(LAUSANNE_LATITUDE, LAUSANNE_LONGITUDE, 1000).isEmpty());
+        assertEquals(Sets.newHashSet(1L), index.idsInRadius(-33.8688, 151.2093, 1000));
+    }
+
+    @Test
+    public void testRadiusAroundPole() {
+        SpatialIndex index = new SpatialIndex();
+        index.put(1, 89.99, 0);
+        index.put(2, 89.99, 180);
+        index.put(3, 80, 0);
+
+        assertEquals(Sets.newHashSet(1L, 2L), index.idsInRadius(90, 0, 10000));
+    }
+
+    @Test
+    public void testRadiusMatchesExhaustiveSearch() {
+        SpatialIndex index = new SpatialIndex();
+        Random random = new Random(42);
+        double[][] positions = new double[2000][];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] =
+                new double[]{LAUSANNE_LATITUDE + (random.nextDouble() - 0.5),
+                    LAUSANNE_LONGITUDE + (random.nextDouble() - 0.5)};
+            index.put(i, positions[i][0], positions[i][1]);
+        }
+
+        for (double radius : new double[]{500, 5000, 20000, 100000}) {
+            Set<Long> expected = Sets.newHashSet();
+            float[] distance = new float[1];
+            for (int i = 0; i < positions.length; i++) {
+                Location.distanceBetween(LAUSANNE_LATITUDE, LAUSANNE_LONGITUDE, positions[i][0],
+                    positions[i][1], distance);
+                if (distance[0] <= radius) {
+                    expected.add((long) i);
+                }
+            }
+
+            assertEquals(expected, index.idsInRadius(LAUSANNE_LATITUDE, LAUSANNE_LONGITUDE, radius));
+        }
+    }
+
+    @Test
+    public void testRemove() {
+        SpatialIndex index = new SpatialIndex();
+        index.put(1, LAUSANNE_LATITUDE, LAUSANNE_LONGITUDE);
+        index.remove(1);
+        index.remove(2);
+
+        assertFalse(index.contains(1));
+        assertEquals(0, index.size());
+        assertTrue(index.idsInBounds(-90, -180, 90, 180).isEmpty());
+    }
+}
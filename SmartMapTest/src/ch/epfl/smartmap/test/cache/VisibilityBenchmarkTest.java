@@ -0,0 +1,144 @@
+package ch.epfl.smartmap.test.cache;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.location.Location;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import ch.epfl.smartmap.background.ServiceContainer;
+import ch.epfl.smartmap.background.SettingsManager;
+import ch.epfl.smartmap.cache.Cache;
+import ch.epfl.smartmap.cache.Filter;
+import ch.epfl.smartmap.cache.FilterContainer;
+import ch.epfl.smartmap.cache.User;
+import ch.epfl.smartmap.cache.UserContainer;
+
+/**
+ * Benchmark of {@link Cache#getAllVisibleFriends()} with 100, 1000 and 10000 friends, a tenth of them hidden
+ * by the default filter and two active custom filters with half of them each. The visible friends are read
+ * from the set maintained by the cache, and computed as they were before, by intersecting sets of boxed ids.
+ * For each, the time and the objects allocated per computation are reported in the log under the tag of
+ * this class.
+ *
+ * @author jfperren
+ */
+public class VisibilityBenchmarkTest extends AndroidTestCase {
+
+    private static final String TAG = VisibilityBenchmarkTest.class.getSimpleName();
+
+    private static final long SELF_ID = 1;
+    private static final int[] SIZES = {100, 1000, 10000};
+    private static final int HIDDEN_RATIO = 10;
+    private static final int ITERATIONS = 50;
+    private static final double NANOS_IN_MILLI = 1e6;
+
+    private final Bitmap mImage = Bitmap.createBitmap(1, 1, Config.ALPHA_8);
+
+    private Cache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ServiceContainer.forceInitSmartMapServices(this.getContext());
+
+        SettingsManager settings = Mockito.mock(SettingsManager.class);
+        Mockito.doReturn(SELF_ID).when(settings).getUserId();
+        Mockito.doReturn(this.getContext()).when(settings).getContext();
+        ServiceContainer.setSettingsManager(settings);
+    }
+
+    @Test
+    public void testVisibilityAllocations() {
+        for (final int size : SIZES) {
+            mCache = new Cache();
+            ServiceContainer.setCache(mCache);
+            this.fillCache(size);
+
+            assertEquals(this.boxedVisibleFriends(), mCache.getAllVisibleFriends());
+
+            this.measure(size, "maintained set", new Runnable() {
+                @Override
+                public void run() {
+                    mCache.getAllVisibleFriends();
+                }
+            });
+            this.measure(size, "boxed sets", new Runnable() {
+                @Override
+                public void run() {
+                    VisibilityBenchmarkTest.this.boxedVisibleFriends();
+                }
+            });
+        }
+    }
+
+    /**
+     * The visible friends, computed like the cache did with sets of boxed ids
+     */
+    private Set<User> boxedVisibleFriends() {
+        Set<Long> visibleIds = new HashSet<Long>(mCache.getDefaultFilter().getVisibleFriends());
+        for (Filter filter : mCache.getAllActiveFilters()) {
+            visibleIds.retainAll(filter.getVisibleFriends());
+        }
+        return mCache.getUsers(visibleIds);
+    }
+
+    private void fillCache(int size) {
+        Set<UserContainer> friends = new HashSet<UserContainer>();
+        Set<Long> hidden = new HashSet<Long>();
+        Set<Long> evens = new HashSet<Long>();
+        Set<Long> firstHalf = new HashSet<Long>();
+        for (long id = 2; id < (size + 2); id++) {
+            Location location = new Location("benchmark");
+            location.setLatitude(46.5 + (id * 1e-4));
+            location.setLongitude(6.6);
+            friends.add(new UserContainer(id, "Friend " + id, "0123456789", "friend" + id + "@smartmap.ch",
+                location, "Lausanne", mImage, User.BlockStatus.UNBLOCKED, User.FRIEND));
+
+            if ((id % HIDDEN_RATIO) == 0) {
+                hidden.add(id);
+            }
+            if ((id % 2) == 0) {
+                evens.add(id);
+            }
+            if (id < ((size / 2) + 2)) {
+                firstHalf.add(id);
+            }
+        }
+        mCache.putUsers(friends);
+
+        Set<FilterContainer> filters = new HashSet<FilterContainer>();
+        filters.add(new FilterContainer(Filter.DEFAULT_FILTER_ID, Filter.NO_NAME, hidden, true));
+        filters.add(new FilterContainer(Filter.NO_ID, "Evens", evens, true));
+        filters.add(new FilterContainer(Filter.NO_ID, "First half", firstHalf, true));
+        mCache.putFilters(filters);
+    }
+
+    @SuppressWarnings("deprecation")
+    private void measure(int size, String method, Runnable computation) {
+        // Warm up
+        computation.run();
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            computation.run();
+        }
+        long duration = System.nanoTime() - start;
+        int objects = Debug.getThreadAllocCount();
+        int bytes = Debug.getThreadAllocSize();
+        Debug.stopAllocCounting();
+
+        Log.i(TAG, String.format(Locale.US, "%d friends, %s: %.3f ms, %d objects, %d bytes per computation",
+            size, method, duration / NANOS_IN_MILLI / ITERATIONS, objects / ITERATIONS, bytes / ITERATIONS));
+    }
+}
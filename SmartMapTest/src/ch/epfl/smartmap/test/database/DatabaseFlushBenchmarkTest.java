@@ -0,0 +1,123 @@
+package ch.epfl.smartmap.test.database;
+
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+import ch.epfl.smartmap.background.ServiceContainer;
+import ch.epfl.smartmap.background.SettingsManager;
+import ch.epfl.smartmap.cache.Cache;
+import ch.epfl.smartmap.cache.EventContainer;
+import ch.epfl.smartmap.cache.User;
+import ch.epfl.smartmap.cache.UserContainer;
+import ch.epfl.smartmap.database.DatabaseHelper;
+import ch.epfl.smartmap.database.DatabaseHelperInterface;
+
+/**
+ * Benchmark of {@link DatabaseHelper#updateFromCache()} with 100, 1000 and 10000 cached users, and a tenth as
+ * many events. For each size, the time of the first flush (everything is written), of a flush without any
+ * change and of a flush after one percent of the users moved are reported in the log under the tag of this
+ * class.
+ *
+ * @author jfperren
+ */
+public class DatabaseFlushBenchmarkTest extends AndroidTestCase {
+
+    private static final String TAG = DatabaseFlushBenchmarkTest.class.getSimpleName();
+
+    private static final long SELF_ID = 1;
+    private static final int[] SIZES = {100, 1000, 10000};
+    private static final int EVENTS_RATIO = 10;
+    private static final int MOVED_RATIO = 100;
+    private static final double NANOS_IN_MILLI = 1e6;
+
+    private final Bitmap mImage = Bitmap.createBitmap(1, 1, Config.ALPHA_8);
+
+    private DatabaseHelperInterface mDatabase;
+    private Cache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ServiceContainer.forceInitSmartMapServices(this.getContext());
+
+        SettingsManager settings = Mockito.mock(SettingsManager.class);
+        Mockito.doReturn(SELF_ID).when(settings).getUserId();
+        Mockito.doReturn(this.getContext()).when(settings).getContext();
+        ServiceContainer.setSettingsManager(settings);
+
+        mDatabase = new DatabaseHelper(new RenamingDelegatingContext(this.getContext(), "benchmark_"));
+        ServiceContainer.setDatabaseHelper(mDatabase);
+    }
+
+    @Test
+    public void testFlushTimes() {
+        for (int size : SIZES) {
+            mDatabase.clearAll();
+            mCache = new Cache();
+            ServiceContainer.setCache(mCache);
+
+            Set<UserContainer> users = new HashSet<UserContainer>();
+            for (int i = 0; i < size; i++) {
+                users.add(this.user(i + 2, i));
+            }
+            mCache.putUsers(users);
+
+            Set<EventContainer> events = new HashSet<EventContainer>();
+            for (int i = 0; i < (size / EVENTS_RATIO); i++) {
+                Set<Long> participants = new HashSet<Long>();
+                participants.add(SELF_ID);
+                participants.add((long) i + 2);
+                events.add(new EventContainer(i + 1, "Event " + i, this.user(i + 2, i), "Description",
+                    new GregorianCalendar(), new GregorianCalendar(), this.location(i), "Lausanne",
+                    participants));
+            }
+            mCache.putEvents(events);
+
+            long full = this.flush();
+            long unchanged = this.flush();
+
+            Set<UserContainer> moved = new HashSet<UserContainer>();
+            for (int i = 0; i < (size / MOVED_RATIO); i++) {
+                moved.add(this.user(i + 2, i + size));
+            }
+            mCache.putUsers(moved);
+            long dirty = this.flush();
+
+            assertEquals(mCache.getAllUsers().size(), mDatabase.getFriendIds().size());
+            Log.i(TAG, String.format(Locale.US,
+                "%d users, %d events: first flush %.1f ms, unchanged %.1f ms, %d moved %.1f ms", size,
+                events.size(), full / NANOS_IN_MILLI, unchanged / NANOS_IN_MILLI, moved.size(), dirty
+                    / NANOS_IN_MILLI));
+        }
+    }
+
+    private long flush() {
+        long start = System.nanoTime();
+        mDatabase.updateFromCache();
+        return System.nanoTime() - start;
+    }
+
+    private Location location(int seed) {
+        Location location = new Location("benchmark");
+        location.setLatitude(46.5 + (seed * 1e-4));
+        location.setLongitude(6.6 + (seed * 1e-4));
+        location.setTime(seed);
+        return location;
+    }
+
+    private UserContainer user(long id, int seed) {
+        return new UserContainer(id, "User " + id, "0123456789", "user" + id + "@smartmap.ch",
+            this.location(seed), "Lausanne", mImage, User.BlockStatus.UNBLOCKED, User.FRIEND);
+    }
+}
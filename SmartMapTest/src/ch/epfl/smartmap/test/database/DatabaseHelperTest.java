@@ -1,6 +1,7 @@
 package ch.epfl.smartmap.test.database;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.GregorianCalendar;
 import java.util.HashSet;
 import java.util.List;
@@ -10,6 +11,7 @@ import org.junit.Test;
 import org.mockito.Mockito;
 
 import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory;
 import android.location.Location;
 import android.test.AndroidTestCase;
@@ -17,10 +19,14 @@ import android.test.RenamingDelegatingContext;
 import ch.epfl.smartmap.R;
 import ch.epfl.smartmap.background.ServiceContainer;
 import ch.epfl.smartmap.background.SettingsManager;
+import ch.epfl.smartmap.cache.Cache;
+import ch.epfl.smartmap.cache.Event;
 import ch.epfl.smartmap.cache.EventContainer;
+import ch.epfl.smartmap.cache.Filter;
 import ch.epfl.smartmap.cache.FilterContainer;
 import ch.epfl.smartmap.cache.Invitation;
 import ch.epfl.smartmap.cache.InvitationContainer;
+import ch.epfl.smartmap.cache.PictureCache;
 import ch.epfl.smartmap.cache.User;
 import ch.epfl.smartmap.cache.UserContainer;
 import ch.epfl.smartmap.database.DatabaseHelper;
@@ -60,7 +66,9 @@ public class DatabaseHelperTest extends AndroidTestCase {
         // need ID from settings manager to initialize database
         SettingsManager manager = Mockito.mock(SettingsManager.class);
         Mockito.when(manager.getUserId()).thenReturn((long) 8);
+        Mockito.when(manager.getContext()).thenReturn(this.getContext());
         ServiceContainer.setSettingsManager(manager);
+        ServiceContainer.setPictureCache(new PictureCache(this.getContext()));
 
         // to avoid erasing the actual database
         dbh = new DatabaseHelper(new RenamingDelegatingContext(this.getContext(), "test_"));
@@ -178,6 +186,24 @@ public class DatabaseHelperTest extends AndroidTestCase {
         assertTrue(dbh.getAllEvents().size() == 2);
     }
 
+    @Test
+    public void testGetAllEventsReadsCreatorsAndParticipants() {
+        event.getParticipantIds().add(b.getId());
+        event.getParticipantIds().add(c.getId());
+        dbh.addEvent(event);
+        dbh.addEvent(event2);
+
+        for (EventContainer stored : dbh.getAllEvents()) {
+            if (stored.getId() == event.getId()) {
+                assertEquals(a.getId(), stored.getCreatorContainer().getId());
+                assertEquals(event.getParticipantIds(), stored.getParticipantIds());
+            } else {
+                assertEquals(b.getId(), stored.getCreatorContainer().getId());
+                assertTrue(stored.getParticipantIds().isEmpty());
+            }
+        }
+    }
+
     @Test
     public void testGetAllFilters() {
         dbh.addFilter(filter);
@@ -186,6 +212,41 @@ public class DatabaseHelperTest extends AndroidTestCase {
         assertTrue(dbh.getAllFilters().size() == 3);
     }
 
+    @Test
+    public void testGetAllFiltersReadsUsers() {
+        long id = dbh.addFilter(filter);
+        for (FilterContainer stored : dbh.getAllFilters()) {
+            if (stored.getId() == id) {
+                assertEquals(filter.getIds(), stored.getIds());
+            }
+        }
+    }
+
+    @Test
+    public void testGetAllInvitationsReadsUsersAndEvents() {
+        dbh.addUser(a);
+        dbh.addEvent(event);
+        dbh.addInvitation(invitA);
+        dbh.addInvitation(invitB);
+
+        for (InvitationContainer stored : dbh.getAllInvitations()) {
+            if (stored.getType() == Invitation.FRIEND_INVITATION) {
+                assertEquals(a.getId(), stored.getUserInfos().getId());
+            } else {
+                assertEquals(event.getId(), stored.getEventInfos().getId());
+            }
+        }
+    }
+
+    @Test
+    public void testGetAllUsersLeavesPicturesInPictureCache() {
+        dbh.addUser(a);
+        for (UserContainer user : dbh.getAllUsers()) {
+            assertNull(user.getImage());
+        }
+        assertNotNull(dbh.getUser(a.getId()).getImage());
+    }
+
     @Test
     public void testgetAllFriends() {
         dbh.addUser(a);
@@ -235,6 +296,37 @@ public class DatabaseHelperTest extends AndroidTestCase {
         assertTrue(dbh.getFilter(filter.getId()).getName().equals("New Name"));
     }
 
+    @Test
+    public void testUpdateFromCache() {
+        Cache cache = Mockito.mock(Cache.class);
+        Mockito.when(cache.getMyEvents()).thenReturn(new HashSet<Event>());
+        Mockito.when(cache.getParticipatingEvents()).thenReturn(new HashSet<Event>());
+        Mockito.when(cache.getAllFilters()).thenReturn(new HashSet<Filter>());
+        Mockito.when(cache.getAllInvitations()).thenReturn(new HashSet<Invitation>());
+        ServiceContainer.setCache(cache);
+
+        Mockito.when(cache.getAllUsers()).thenReturn(this.mockUsers(b, c));
+        dbh.updateFromCache();
+        assertEquals(b.getName(), dbh.getUser(b.getId()).getName());
+        assertEquals(c.getName(), dbh.getUser(c.getId()).getName());
+
+        // Only b changed, c was removed
+        UserContainer newB =
+            new UserContainer(b.getId(), name, b.getPhoneNumber(), b.getEmail(), b.getLocation(),
+                b.getLocationString(), null, b.isBlocked(), b.getFriendship());
+        Mockito.when(cache.getAllUsers()).thenReturn(this.mockUsers(newB));
+        dbh.updateFromCache();
+        assertEquals(name, dbh.getUser(b.getId()).getName());
+        assertNull(dbh.getUser(c.getId()));
+
+        // Rows written by other methods must not be trusted
+        dbh.deleteUser(b.getId());
+        dbh.addUser(c);
+        dbh.updateFromCache();
+        assertEquals(name, dbh.getUser(b.getId()).getName());
+        assertNull(dbh.getUser(c.getId()));
+    }
+
     @Test
     public void testUpdateInvitation() {
         long id = dbh.addInvitation(invitA);
@@ -255,4 +347,41 @@ public class DatabaseHelperTest extends AndroidTestCase {
         assertTrue(dbh.getUser(a.getId()).getName().equals(c.getName())
             && dbh.getUser(a.getId()).getEmail().equals("test email") && (rows == 1));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testWriteChanges() {
+        Cache cache = new Cache();
+        ServiceContainer.setCache(cache);
+        Bitmap image = Bitmap.createBitmap(1, 1, Config.ALPHA_8);
+        b.setImage(image);
+        c.setImage(image);
+
+        cache.putUser(b);
+        cache.putUser(c);
+        dbh.writeChanges(cache.takeChanges());
+        assertEquals(b.getName(), dbh.getUser(b.getId()).getName());
+        assertEquals(c.getName(), dbh.getUser(c.getId()).getName());
+
+        // Only the removal is written
+        cache.removeUsers(new HashSet<Long>(Arrays.asList(c.getId())));
+        dbh.deleteUser(b.getId());
+        dbh.writeChanges(cache.takeChanges());
+        assertNull(dbh.getUser(b.getId()));
+        assertNull(dbh.getUser(c.getId()));
+
+        // A full flush writes everything again
+        dbh.updateFromCache();
+        assertEquals(b.getName(), dbh.getUser(b.getId()).getName());
+    }
+
+    private Set<User> mockUsers(UserContainer... containers) {
+        Set<User> users = new HashSet<User>();
+        for (UserContainer container : containers) {
+            User user = Mockito.mock(User.class);
+            Mockito.when(user.getId()).thenReturn(container.getId());
+            Mockito.when(user.getContainerCopy()).thenReturn(container);
+            users.add(user);
+        }
+        return users;
+    }
+}
@@ -0,0 +1,107 @@
+package ch.epfl.smartmap.test.database;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import ch.epfl.smartmap.background.ServiceContainer;
+import ch.epfl.smartmap.background.SettingsManager;
+import ch.epfl.smartmap.cache.Invitation;
+import ch.epfl.smartmap.cache.PictureCache;
+import ch.epfl.smartmap.cache.User;
+import ch.epfl.smartmap.database.DatabaseHelper;
+
+/**
+ * Tests for the schema of the DatabaseHelper: the migration of an existing database and the use of the
+ * indexes by the queries
+ *
+ * @author ritterni
+ */
+public class DatabaseSchemaTest extends AndroidTestCase {
+
+    private static final long SELF_ID = 8;
+    private static final String DATABASE_NAME = "SmartMapDB_" + SELF_ID;
+    private static final int FIRST_MIGRATED_VERSION = 12;
+
+    private Context mContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        SettingsManager manager = Mockito.mock(SettingsManager.class);
+        Mockito.when(manager.getUserId()).thenReturn(SELF_ID);
+        Mockito.when(manager.getContext()).thenReturn(this.getContext());
+        ServiceContainer.setSettingsManager(manager);
+        ServiceContainer.setPictureCache(new PictureCache(this.getContext()));
+
+        mContext = new RenamingDelegatingContext(this.getContext(), "schema_");
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    @Test
+    public void testQueriesUseIndexes() {
+        SQLiteDatabase db = new DatabaseHelper(mContext).getReadableDatabase();
+
+        this.assertUsesIndex(db, "SELECT * FROM " + DatabaseHelper.TABLE_EVENT_USER + " WHERE eventID = 1");
+        this.assertUsesIndex(db, "SELECT * FROM " + DatabaseHelper.TABLE_EVENT_USER + " WHERE userID = 1");
+        this.assertUsesIndex(db, "SELECT * FROM " + DatabaseHelper.TABLE_FILTER_USER + " WHERE filterID = 1");
+        this.assertUsesIndex(db, "SELECT * FROM " + DatabaseHelper.TABLE_INVITATIONS + " WHERE userID = 1");
+        this.assertUsesIndex(db, "SELECT * FROM " + DatabaseHelper.TABLE_INVITATIONS + " WHERE eventID = 1");
+    }
+
+    @Test
+    public void testUpgradeKeepsData() {
+        SQLiteDatabase old = mContext.openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE, null);
+        old.execSQL("CREATE TABLE users(userID INTEGER PRIMARY KEY, name TEXT, number TEXT, email TEXT, "
+            + "longitude DOUBLE, latitude DOUBLE, posName TEXT, lastSeen INTEGER, isBlocked INTEGER, "
+            + "friendStatus INTEGER)");
+        old.execSQL("CREATE TABLE events(id INTEGER PRIMARY KEY, name TEXT, eventDescription TEXT, "
+            + "userID INTEGER, longitude DOUBLE, latitude DOUBLE, date INTEGER, endDate INTEGER, "
+            + "posName TEXT, countryName TEXT)");
+        old.execSQL("CREATE TABLE event_users(id INTEGER PRIMARY KEY, eventID INTEGER, userID INTEGER)");
+        old.execSQL("CREATE TABLE filter_users(id INTEGER PRIMARY KEY, filterID INTEGER, userID INTEGER)");
+        old.execSQL("CREATE TABLE invitations(id INTEGER PRIMARY KEY, userID INTEGER, eventID INTEGER, "
+            + "status INTEGER, date INTEGER, type INTEGER)");
+
+        old.execSQL("INSERT INTO users VALUES (2, 'Alain', '', '', 0, 0, '', 0, 0, " + User.FRIEND + ")");
+        old.execSQL("INSERT INTO events VALUES (5, 'Party', '', 2, 0, 0, 0, 0, '', NULL)");
+        // The same participant twice, as older versions could store
+        old.execSQL("INSERT INTO event_users (eventID, userID) VALUES (5, 2)");
+        old.execSQL("INSERT INTO event_users (eventID, userID) VALUES (5, 2)");
+        old.execSQL("INSERT INTO invitations VALUES (1, 2, 0, " + Invitation.UNREAD + ", 0, "
+            + Invitation.FRIEND_INVITATION + ")");
+        old.setVersion(FIRST_MIGRATED_VERSION);
+        old.close();
+
+        DatabaseHelper helper = new DatabaseHelper(mContext);
+
+        assertEquals("Alain", helper.getUser(2).getName());
+        assertEquals(1, helper.getEvent(5).getParticipantIds().size());
+        assertEquals(1, helper.getAllInvitations().size());
+        this.assertUsesIndex(helper.getReadableDatabase(), "SELECT * FROM " + DatabaseHelper.TABLE_EVENT_USER
+            + " WHERE eventID = 5");
+    }
+
+    private void assertUsesIndex(SQLiteDatabase db, String query) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query, null);
+        while (cursor.moveToNext()) {
+            plan.append(cursor.getString(cursor.getColumnIndex("detail"))).append('\n');
+        }
+        cursor.close();
+
+        assertTrue(query + " : " + plan, plan.toString().contains("SEARCH")
+            && plan.toString().contains("INDEX"));
+    }
+}
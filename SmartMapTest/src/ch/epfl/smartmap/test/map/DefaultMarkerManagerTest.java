@@ -0,0 +1,227 @@
+package ch.epfl.smartmap.test.map;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import ch.epfl.smartmap.cache.Displayable;
+import ch.epfl.smartmap.map.DefaultMarkerManager;
+
+import com.google.android.gms.dynamic.d;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.internal.IGoogleMapDelegate;
+import com.google.android.gms.maps.internal.IProjectionDelegate;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.gms.maps.model.VisibleRegion;
+// Delegate of a Marker in the Google Play services library
+import com.google.android.gms.maps.model.internal.f;
+
+/**
+ * Tests for {@link DefaultMarkerManager}. {@code GoogleMap} and {@code Marker} are final, so they are
+ * created around mocks of the delegates they forward their calls to.
+ *
+ * @author hugo-S
+ */
+public class DefaultMarkerManagerTest extends AndroidTestCase {
+
+    private static final LatLngBounds SWITZERLAND = new LatLngBounds(new LatLng(46, 6), new LatLng(47, 7));
+    private static final LatLng LAUSANNE = new LatLng(46.5197, 6.6323);
+    private static final LatLng TOKYO = new LatLng(35.6895, 139.6917);
+
+    private IGoogleMapDelegate mMapDelegate;
+    private final List<f> mMarkerDelegates = new ArrayList<f>();
+    private LatLngBounds mViewport = SWITZERLAND;
+    private TestMarkerManager mManager;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mMapDelegate = Mockito.mock(IGoogleMapDelegate.class);
+        Mockito.when(mMapDelegate.addMarker(Mockito.any(MarkerOptions.class))).thenAnswer(new Answer<f>() {
+            @Override
+            public f answer(InvocationOnMock invocation) throws Throwable {
+                MarkerOptions options = (MarkerOptions) invocation.getArguments()[0];
+                return DefaultMarkerManagerTest.this.markerDelegate(options);
+            }
+        });
+
+        IProjectionDelegate projection = Mockito.mock(IProjectionDelegate.class);
+        Mockito.when(projection.getVisibleRegion()).thenAnswer(new Answer<VisibleRegion>() {
+            @Override
+            public VisibleRegion answer(InvocationOnMock invocation) {
+                LatLng northWest = new LatLng(mViewport.northeast.latitude, mViewport.southwest.longitude);
+                LatLng southEast = new LatLng(mViewport.southwest.latitude, mViewport.northeast.longitude);
+                return new VisibleRegion(mViewport.southwest, southEast, northWest, mViewport.northeast,
+                    mViewport);
+            }
+        });
+        Mockito.when(mMapDelegate.getProjection()).thenReturn(projection);
+
+        Constructor<GoogleMap> constructor = GoogleMap.class.getDeclaredConstructor(IGoogleMapDelegate.class);
+        constructor.setAccessible(true);
+        mManager = new TestMarkerManager(constructor.newInstance(mMapDelegate));
+    }
+
+    @Test
+    public void testIsNearViewport() {
+        // The viewport extended by half its size on each side spans latitudes 45.5 to 47.5
+        assertTrue(mManager.isNear(LAUSANNE, SWITZERLAND));
+        assertTrue(mManager.isNear(new LatLng(47.4, 7.4), SWITZERLAND));
+        assertFalse(mManager.isNear(new LatLng(48, 6.5), SWITZERLAND));
+        assertFalse(mManager.isNear(new LatLng(46.5, 8), SWITZERLAND));
+        assertFalse(mManager.isNear(TOKYO, SWITZERLAND));
+    }
+
+    @Test
+    public void testIsNearViewportAcrossAntimeridian() {
+        // From 170 to -170 degrees, extended from 160 to -160
+        LatLngBounds pacific = new LatLngBounds(new LatLng(-10, 170), new LatLng(10, -170));
+
+        assertTrue(mManager.isNear(new LatLng(0, 179), pacific));
+        assertTrue(mManager.isNear(new LatLng(0, -179), pacific));
+        assertTrue(mManager.isNear(new LatLng(0, 165), pacific));
+        assertFalse(mManager.isNear(new LatLng(0, 0), pacific));
+        assertFalse(mManager.isNear(new LatLng(0, -155), pacific));
+    }
+
+    @Test
+    public void testIsNearWorldSpanningViewport() {
+        // 240 degrees wide, the extended viewport covers every longitude
+        LatLngBounds world = new LatLngBounds(new LatLng(-10, -120), new LatLng(10, 120));
+
+        assertTrue(mManager.isNear(new LatLng(0, 179), world));
+        assertTrue(mManager.isNear(new LatLng(0, -179), world));
+        assertFalse(mManager.isNear(new LatLng(60, 0), world));
+    }
+
+    @Test
+    public void testOnlyItemsNearViewportHaveMarkers() throws Exception {
+        Displayable lausanne = this.item(1, LAUSANNE);
+        Displayable tokyo = this.item(2, TOKYO);
+        mManager.setViewportCulling(true);
+
+        mManager.updateItems(this.getContext(), this.setOf(lausanne, tokyo), Collections.<Long> emptySet());
+
+        assertTrue(mManager.isDisplayedItem(lausanne));
+        assertFalse(mManager.isDisplayedItem(tokyo));
+
+        mViewport = new LatLngBounds(new LatLng(35, 139), new LatLng(36, 140));
+        mManager.updateViewport(this.getContext());
+
+        assertFalse(mManager.isDisplayedItem(lausanne));
+        assertTrue(mManager.isDisplayedItem(tokyo));
+        // The marker of Lausanne was reused for Tokyo
+        Mockito.verify(mMapDelegate, Mockito.times(1)).addMarker(Mockito.any(MarkerOptions.class));
+    }
+
+    @Test
+    public void testRemovedMarkerIsHiddenAndReused() throws Exception {
+        Displayable first = this.item(1, LAUSANNE);
+        Displayable second = this.item(2, TOKYO);
+
+        mManager.updateItems(this.getContext(), this.setOf(first), Collections.<Long> emptySet());
+        mManager.updateItems(this.getContext(), Collections.<Displayable> emptySet(),
+            Collections.singleton(1L));
+
+        assertFalse(mManager.isDisplayedItem(first));
+        f delegate = mMarkerDelegates.get(0);
+        Mockito.verify(delegate).setVisible(false);
+        Mockito.verify(delegate, Mockito.never()).remove();
+
+        mManager.updateItems(this.getContext(), this.setOf(second), Collections.<Long> emptySet());
+
+        assertTrue(mManager.isDisplayedItem(second));
+        Mockito.verify(mMapDelegate, Mockito.times(1)).addMarker(Mockito.any(MarkerOptions.class));
+        Mockito.verify(delegate).setPosition(TOKYO);
+        Mockito.verify(delegate).setVisible(true);
+    }
+
+    @Test
+    public void testUnchangedIconIsNotSetAgain() throws Exception {
+        Displayable item = this.item(1, LAUSANNE);
+
+        mManager.updateItems(this.getContext(), this.setOf(item), Collections.<Long> emptySet());
+        mManager.updateItems(this.getContext(), this.setOf(item), Collections.<Long> emptySet());
+
+        // Marker.setIcon forwards the icon to its delegate's n
+        f delegate = mMarkerDelegates.get(0);
+        Mockito.verify(delegate, Mockito.never()).n(Mockito.any(d.class));
+
+        Mockito.when(item.getMarkerIcon(Mockito.any(Context.class))).thenReturn(this.icon());
+        mManager.updateItems(this.getContext(), this.setOf(item), Collections.<Long> emptySet());
+
+        Mockito.verify(delegate, Mockito.times(1)).n(Mockito.any(d.class));
+    }
+
+    private BitmapDescriptor icon() {
+        return new BitmapDescriptor(Mockito.mock(d.class));
+    }
+
+    private Displayable item(long id, LatLng position) {
+        Displayable item = Mockito.mock(Displayable.class);
+        Mockito.when(item.getId()).thenReturn(id);
+        Mockito.when(item.getLatLng()).thenReturn(position);
+        Mockito.when(item.getTitle()).thenReturn("Item " + id);
+        BitmapDescriptor icon = this.icon();
+        Mockito.when(item.getMarkerIcon(Mockito.any(Context.class))).thenReturn(icon);
+        return item;
+    }
+
+    /**
+     * @param options
+     * @return a mocked marker delegate, which keeps its position
+     * @throws Exception
+     */
+    private f markerDelegate(MarkerOptions options) throws Exception {
+        final LatLng[] position = {options.getPosition()};
+        f delegate = Mockito.mock(f.class);
+        Mockito.when(delegate.getId()).thenReturn("m" + mMarkerDelegates.size());
+        Mockito.when(delegate.getPosition()).thenAnswer(new Answer<LatLng>() {
+            @Override
+            public LatLng answer(InvocationOnMock invocation) {
+                return position[0];
+            }
+        });
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                position[0] = (LatLng) invocation.getArguments()[0];
+                return null;
+            }
+        }).when(delegate).setPosition(Mockito.any(LatLng.class));
+        mMarkerDelegates.add(delegate);
+        return delegate;
+    }
+
+    private Set<Displayable> setOf(Displayable... items) {
+        return new HashSet<Displayable>(Arrays.asList(items));
+    }
+
+    /**
+     * Gives access to the viewport test of the manager
+     */
+    private static final class TestMarkerManager extends DefaultMarkerManager {
+
+        private TestMarkerManager(GoogleMap googleMap) {
+            super(googleMap);
+        }
+
+        private boolean isNear(LatLng position, LatLngBounds viewport) {
+            return this.isNearViewport(position, viewport);
+        }
+    }
+}
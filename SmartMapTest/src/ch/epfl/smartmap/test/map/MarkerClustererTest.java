@@ -0,0 +1,165 @@
+package ch.epfl.smartmap.test.map;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import android.test.AndroidTestCase;
+import ch.epfl.smartmap.cache.Displayable;
+import ch.epfl.smartmap.map.MarkerClusterer;
+import ch.epfl.smartmap.map.MarkerClusterer.Cluster;
+import ch.epfl.smartmap.map.MarkerClusterer.Hierarchy;
+
+import com.google.android.gms.maps.model.LatLng;
+
+/**
+ * Tests for {@link MarkerClusterer}
+ *
+ * @author hugo-S
+ */
+public class MarkerClustererTest extends AndroidTestCase {
+
+    private static final LatLng LAUSANNE = new LatLng(46.5197, 6.6323);
+    private static final LatLng LAUSANNE_STATION = new LatLng(46.5167, 6.6291);
+    private static final LatLng ZURICH = new LatLng(47.3769, 8.5417);
+
+    private final Map<Displayable, LatLng> mItems = new HashMap<Displayable, LatLng>();
+    private Displayable mStation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mStation = this.item(2);
+        mItems.put(this.item(1), LAUSANNE);
+        mItems.put(mStation, LAUSANNE_STATION);
+        mItems.put(this.item(3), ZURICH);
+    }
+
+    @Test
+    public void testAllItemsAreInOneClusterWhenZoomedOut() {
+        List<Cluster> clusters = new MarkerClusterer().cluster(mItems).getClusters(0);
+
+        assertEquals(1, clusters.size());
+        assertEquals(3, clusters.get(0).getSize());
+        assertNull(clusters.get(0).getItem());
+        assertTrue(clusters.get(0).getBounds().contains(ZURICH));
+        assertTrue(clusters.get(0).getBounds().contains(LAUSANNE_STATION));
+    }
+
+    @Test
+    public void testClustersSplitWhenZooming() {
+        Hierarchy hierarchy = new MarkerClusterer().cluster(mItems);
+
+        // The cities are about 170 km apart, that is 120 pixels at zoom 7
+        int previousSize = 1;
+        for (int zoom = 0; zoom <= MarkerClusterer.DEFAULT_MAX_CLUSTERING_ZOOM; zoom++) {
+            int size = hierarchy.getClusters(zoom).size();
+            assertTrue(size >= previousSize);
+            previousSize = size;
+        }
+        assertEquals(2, hierarchy.getClusters(9).size());
+        assertEquals(3, hierarchy.getClusters(MarkerClusterer.DEFAULT_MAX_CLUSTERING_ZOOM).size());
+    }
+
+    @Test
+    public void testEveryItemIsInExactlyOneCluster() {
+        Hierarchy hierarchy = new MarkerClusterer().cluster(mItems);
+
+        for (int zoom = 0; zoom <= MarkerClusterer.DEFAULT_MAX_CLUSTERING_ZOOM; zoom++) {
+            int items = 0;
+            for (Cluster cluster : hierarchy.getClusters(zoom)) {
+                items += cluster.getSize();
+            }
+            assertEquals(mItems.size(), items);
+        }
+    }
+
+    @Test
+    public void testRemovedItemLeavesItsClusters() {
+        MarkerClusterer clusterer = new MarkerClusterer();
+        Hierarchy hierarchy = clusterer.cluster(mItems);
+
+        clusterer.update(hierarchy, new HashMap<Displayable, LatLng>(), Collections.singleton(2L));
+
+        assertEquals(2, hierarchy.getClusters(0).get(0).getSize());
+        assertEquals(2, hierarchy.getClusters(9).size());
+        assertEquals(2, hierarchy.getClusters(MarkerClusterer.DEFAULT_MAX_CLUSTERING_ZOOM).size());
+    }
+
+    @Test
+    public void testUpdateKeepsUntouchedClusters() {
+        MarkerClusterer clusterer = new MarkerClusterer();
+        Hierarchy hierarchy = clusterer.cluster(mItems);
+        Cluster zurich = this.singleCluster(hierarchy.getClusters(11));
+
+        // Moves the station next to the other Lausanne item, far from Zurich
+        Map<Displayable, LatLng> moved = new HashMap<Displayable, LatLng>();
+        moved.put(mStation, new LatLng(46.5196, 6.6322));
+        clusterer.update(hierarchy, moved, Collections.<Long> emptySet());
+
+        assertSame(zurich, this.singleCluster(hierarchy.getClusters(11)));
+        assertEquals(3, hierarchy.getClusters(0).get(0).getSize());
+    }
+
+    @Test
+    public void testUpdateMatchesClusteringFromScratch() {
+        MarkerClusterer clusterer = new MarkerClusterer();
+        Hierarchy hierarchy = clusterer.cluster(mItems);
+
+        // Moves the station to Zurich
+        Map<Displayable, LatLng> moved = new HashMap<Displayable, LatLng>();
+        moved.put(mStation, ZURICH);
+        clusterer.update(hierarchy, moved, Collections.<Long> emptySet());
+        mItems.put(mStation, ZURICH);
+        Hierarchy expected = clusterer.cluster(mItems);
+
+        for (int zoom = 0; zoom <= MarkerClusterer.DEFAULT_MAX_CLUSTERING_ZOOM; zoom++) {
+            assertEquals(this.sizes(expected.getClusters(zoom)), this.sizes(hierarchy.getClusters(zoom)));
+        }
+    }
+
+    @Test
+    public void testUnchangedClusterIsTheSameObject() {
+        Hierarchy hierarchy = new MarkerClusterer().cluster(mItems);
+
+        Cluster zurich = null;
+        for (Cluster cluster : hierarchy.getClusters(11)) {
+            if (cluster.getSize() == 1) {
+                zurich = cluster;
+            }
+        }
+
+        assertNotNull(zurich);
+        assertTrue(hierarchy.getClusters(10).contains(zurich));
+        assertTrue(hierarchy.getClusters(MarkerClusterer.DEFAULT_MAX_CLUSTERING_ZOOM).contains(zurich));
+    }
+
+    private Displayable item(long id) {
+        Displayable item = Mockito.mock(Displayable.class);
+        Mockito.when(item.getId()).thenReturn(id);
+        return item;
+    }
+
+    private Cluster singleCluster(List<Cluster> clusters) {
+        for (Cluster cluster : clusters) {
+            if (cluster.getSize() == 1) {
+                return cluster;
+            }
+        }
+        return null;
+    }
+
+    private List<Integer> sizes(List<Cluster> clusters) {
+        List<Integer> sizes = new ArrayList<Integer>();
+        for (Cluster cluster : clusters) {
+            sizes.add(cluster.getSize());
+        }
+        Collections.sort(sizes);
+        return sizes;
+    }
+}
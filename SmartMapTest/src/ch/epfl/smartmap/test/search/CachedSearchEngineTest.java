@@ -20,6 +20,7 @@ import ch.epfl.smartmap.callbacks.SearchRequestCallback;
 import ch.epfl.smartmap.database.DatabaseHelper;
 import ch.epfl.smartmap.search.CachedSearchEngine;
 import ch.epfl.smartmap.servercom.NetworkSmartMapClient;
+import ch.epfl.smartmap.servercom.PictureBag;
 import ch.epfl.smartmap.servercom.SmartMapClient;
 import ch.epfl.smartmap.test.database.MockContainers;
 import ch.epfl.smartmap.test.database.MockInstances;
@@ -57,6 +58,8 @@ public class CachedSearchEngineTest extends AndroidTestCase {
         client = Mockito.mock(NetworkSmartMapClient.class);
         Mockito.doReturn(Arrays.asList(MockContainers.ALAIN_CONTAINER)).when(client).findUsers("al");
         Mockito.doReturn(User.NO_IMAGE).when(client).getProfilePicture(Mockito.anyLong());
+        Mockito.doReturn(new PictureBag(User.NO_IMAGE, null)).when(client)
+            .getProfilePicture(Mockito.anyLong(), Mockito.anyString());
         Mockito.doReturn(MockContainers.ALAIN_CONTAINER).when(client).getUserInfo(MockContainers.ALAIN_ID);
         Mockito.doReturn(MockContainers.ROBIN_CONTAINER).when(client).getUserInfo(MockContainers.ROBIN_ID);
         Mockito.doReturn(MockContainers.JULIEN_CONTAINER).when(client).getUserInfo(MockContainers.JULIEN_ID);
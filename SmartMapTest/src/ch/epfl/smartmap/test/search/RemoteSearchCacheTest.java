@@ -0,0 +1,99 @@
+package ch.epfl.smartmap.test.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import android.test.AndroidTestCase;
+import ch.epfl.smartmap.cache.User;
+import ch.epfl.smartmap.cache.UserContainer;
+import ch.epfl.smartmap.search.RemoteSearchCache;
+
+/**
+ * Tests for {@link RemoteSearchCache}
+ *
+ * @author jfperren
+ */
+public class RemoteSearchCacheTest extends AndroidTestCase {
+
+    private static final long TIME_TO_LIVE = 200;
+    private static final int SERVER_MAX_RESULTS = 3;
+
+    private RemoteSearchCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCache = new RemoteSearchCache(3, TIME_TO_LIVE, SERVER_MAX_RESULTS);
+    }
+
+    @Test
+    public void testCompleteResultIsNarrowed() {
+        mCache.put("jo", users("John Doe", "Joanna Smith"));
+        assertTrue(Arrays.equals(new long[]{0}, mCache.get("Joh")));
+        assertTrue(Arrays.equals(new long[]{0}, mCache.get("john")));
+        assertEquals(0, mCache.get("jor").length);
+        assertEquals(3, mCache.getPrefixHitCount());
+        assertEquals(0, mCache.getMissCount());
+    }
+
+    @Test
+    public void testNarrowingMatchesWordsIgnoringAccents() {
+        mCache.put("m", users("Hélène Martin", "Marc Smith", "Emma Doe"));
+        assertTrue(Arrays.equals(new long[]{0, 1}, mCache.get("Mär")));
+        assertTrue(Arrays.equals(new long[]{0}, mCache.get("Mart")));
+        assertTrue(Arrays.equals(new long[]{1}, mCache.get("marc-s")));
+        assertEquals(0, mCache.get("me").length);
+    }
+
+    @Test
+    public void testExactQueryIsFound() {
+        assertNull(mCache.get("jo"));
+        mCache.put("jo", users("John Doe"));
+        assertTrue(Arrays.equals(new long[]{0}, mCache.get("JO")));
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        mCache.put("a", users());
+        mCache.put("b", users());
+        mCache.put("c", users());
+        mCache.get("a");
+        mCache.put("d", users());
+        assertEquals(3, mCache.size());
+        assertNotNull(mCache.get("a"));
+        assertNull(mCache.get("b"));
+    }
+
+    @Test
+    public void testResultExpires() throws InterruptedException {
+        mCache.put("jo", users("John Doe"));
+        Thread.sleep(TIME_TO_LIVE * 2);
+        assertNull(mCache.get("jo"));
+        assertNull(mCache.get("john"));
+        assertEquals(0, mCache.size());
+    }
+
+    @Test
+    public void testTruncatedResultIsNotNarrowed() {
+        mCache.put("jo", users("John Doe", "Joanna Smith", "Joe Black"));
+        assertNull(mCache.get("joh"));
+        assertNotNull(mCache.get("jo"));
+    }
+
+    /**
+     * @return users with the given names, their id is their position
+     */
+    private static List<UserContainer> users(String... names) {
+        List<UserContainer> users = new ArrayList<UserContainer>();
+        for (int i = 0; i < names.length; i++) {
+            users.add(new UserContainer(i, names[i], null, null, null, null, null, User.BlockStatus.NOT_SET,
+                User.STRANGER));
+        }
+        return users;
+    }
+}
@@ -0,0 +1,163 @@
+package ch.epfl.smartmap.test.search;
+
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import ch.epfl.smartmap.background.ServiceContainer;
+import ch.epfl.smartmap.background.SettingsManager;
+import ch.epfl.smartmap.cache.Cache;
+import ch.epfl.smartmap.cache.Displayable;
+import ch.epfl.smartmap.cache.Event;
+import ch.epfl.smartmap.cache.EventContainer;
+import ch.epfl.smartmap.cache.User;
+import ch.epfl.smartmap.cache.UserContainer;
+import ch.epfl.smartmap.search.CachedSearchEngine;
+import ch.epfl.smartmap.search.SearchEngineInterface.Type;
+
+/**
+ * Benchmark of {@link CachedSearchEngine#sendQuery(String, Type)} with 10000 friends and 50000 events, for
+ * queries typed letter by letter. The results are computed with the index of the search engine, and as they
+ * were before, by going through the names of all the items. The time to index the items and the time per
+ * query of both methods are reported in the log under the tag of this class.
+ *
+ * @author jfperren
+ */
+public class SearchBenchmarkTest extends AndroidTestCase {
+
+    private static final String TAG = SearchBenchmarkTest.class.getSimpleName();
+
+    private static final long SELF_ID = 1;
+    private static final int FRIENDS = 10000;
+    private static final int EVENTS = 50000;
+    private static final String[] FIRST_NAMES = {"Alain", "Hélène", "Julien", "Marie", "Marion", "Nicolas",
+        "Pamela", "Robin", "Sophie", "Thomas"};
+    private static final String[] LAST_NAMES = {"Dupont", "Favre", "Genolet", "Milliet", "Perren", "Ritter",
+        "Rochat", "Sbai", "Steinmann", "Zufferey"};
+    private static final String[] EVENT_WORDS = {"Party", "Football", "Concert", "Polylan", "Brunch",
+        "Meeting", "Hike", "Cinema"};
+    private static final String[] QUERIES = {"m", "ma", "mar", "mari", "marie", "marie f", "marie fa", "p",
+        "po", "pol", "poly", "polylan 4", "z", "zz", "zzz"};
+    private static final int ITERATIONS = 20;
+    private static final double NANOS_IN_MILLI = 1e6;
+
+    private final Bitmap mImage = Bitmap.createBitmap(1, 1, Config.ALPHA_8);
+
+    private Cache mCache;
+    private CachedSearchEngine mSearchEngine;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ServiceContainer.forceInitSmartMapServices(this.getContext());
+
+        SettingsManager settings = Mockito.mock(SettingsManager.class);
+        Mockito.doReturn(SELF_ID).when(settings).getUserId();
+        Mockito.doReturn(this.getContext()).when(settings).getContext();
+        ServiceContainer.setSettingsManager(settings);
+
+        mCache = new Cache();
+        ServiceContainer.setCache(mCache);
+        mSearchEngine = new CachedSearchEngine();
+        ServiceContainer.setSearchEngine(mSearchEngine);
+        this.fillCache();
+    }
+
+    @Test
+    public void testQueryTimes() {
+        // The first query indexes the items of the cache
+        long start = System.nanoTime();
+        mSearchEngine.sendQuery("", Type.ALL);
+        long indexing = System.nanoTime() - start;
+        Log.i(TAG, String.format(Locale.US, "%d friends, %d events: indexed in %.1f ms", FRIENDS, EVENTS,
+            indexing / NANOS_IN_MILLI));
+
+        for (String query : QUERIES) {
+            List<Displayable> indexed = mSearchEngine.sendQuery(query, Type.ALL);
+            List<Displayable> scanned = this.scanAll(query);
+            // Tokens beginning with the query are also substrings of the names
+            assertTrue(scanned.containsAll(indexed));
+            assertEquals(scanned.isEmpty(), indexed.isEmpty());
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                mSearchEngine.sendQuery(query, Type.ALL);
+            }
+            long indexTime = (System.nanoTime() - start) / ITERATIONS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                this.scanAll(query);
+            }
+            long scanTime = (System.nanoTime() - start) / ITERATIONS;
+
+            Log.i(TAG, String.format(Locale.US,
+                "\"%s\": index %.3f ms (%d results), scan %.3f ms (%d results)", query, indexTime
+                    / NANOS_IN_MILLI, indexed.size(), scanTime / NANOS_IN_MILLI, scanned.size()));
+        }
+    }
+
+    private void fillCache() {
+        Set<UserContainer> friends = new HashSet<UserContainer>();
+        for (int i = 0; i < FRIENDS; i++) {
+            friends.add(this.friend(i));
+        }
+        mCache.putUsers(friends);
+
+        Set<EventContainer> events = new HashSet<EventContainer>();
+        for (int i = 0; i < EVENTS; i++) {
+            Set<Long> participants = new HashSet<Long>();
+            participants.add(SELF_ID);
+            String name = EVENT_WORDS[i % EVENT_WORDS.length] + " " + i;
+            events.add(new EventContainer(i + 1, name, this.friend(i % FRIENDS), "Description",
+                new GregorianCalendar(), new GregorianCalendar(), this.location(i), "Lausanne",
+                participants));
+        }
+        mCache.putEvents(events);
+    }
+
+    private UserContainer friend(int index) {
+        String name =
+            FIRST_NAMES[index % FIRST_NAMES.length] + " "
+                + LAST_NAMES[(index / FIRST_NAMES.length) % LAST_NAMES.length] + " " + index;
+        return new UserContainer(index + 2, name, "0123456789", "friend" + index + "@smartmap.ch",
+            this.location(index), "Lausanne", mImage, User.BlockStatus.UNBLOCKED, User.FRIEND);
+    }
+
+    private Location location(int seed) {
+        Location location = new Location("benchmark");
+        location.setLatitude(46.5 + (seed * 1e-5));
+        location.setLongitude(6.6);
+        return location;
+    }
+
+    /**
+     * The friends and events matching the query, found as the search engine did by going through all of them
+     */
+    private List<Displayable> scanAll(String query) {
+        query = query.toLowerCase(Locale.US);
+        List<Displayable> results = new ArrayList<Displayable>();
+        for (User friend : mCache.getAllFriends()) {
+            if (friend.getName().toLowerCase(Locale.US).contains(query)) {
+                results.add(friend);
+            }
+        }
+        for (Event event : mCache.getAllEvents()) {
+            if (event.getName().toLowerCase(Locale.US).contains(query)) {
+                results.add(event);
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,98 @@
+package ch.epfl.smartmap.test.search;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import android.test.AndroidTestCase;
+import ch.epfl.smartmap.search.SearchIndex;
+
+/**
+ * Tests for {@link SearchIndex}
+ *
+ * @author jfperren
+ */
+public class SearchIndexTest extends AndroidTestCase {
+
+    private SearchIndex mIndex;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mIndex = new SearchIndex();
+        mIndex.put(1, "Alain Milliet");
+        mIndex.put(2, "Robin Genolet");
+        mIndex.put(3, "Hélène Alaïa");
+        mIndex.put(4, "Alain");
+        mIndex.put(5, "Polylan 2014");
+    }
+
+    @Test
+    public void testAccentsAndCaseAreIgnored() {
+        assertTrue(Arrays.equals(new long[]{3}, mIndex.search("HELENE", 10)));
+        assertTrue(Arrays.equals(new long[]{3}, mIndex.search("hél", 10)));
+    }
+
+    @Test
+    public void testEmptyQueryMatchesEverything() {
+        assertEquals(5, mIndex.search("", 10).length);
+        assertEquals(5, mIndex.search(" - ", 10).length);
+    }
+
+    @Test
+    public void testEmptyQueryReturnsAllResults() {
+        for (long id = 6; id < 106; id++) {
+            mIndex.put(id, "Friend " + id);
+        }
+        assertTrue(SearchIndex.isEmptyQuery(" - "));
+        assertFalse(SearchIndex.isEmptyQuery("fr"));
+        assertEquals(105, mIndex.search("", SearchIndex.ALL_RESULTS).length);
+    }
+
+    @Test
+    public void testEveryQueryTokenMustMatch() {
+        assertTrue(Arrays.equals(new long[]{1}, mIndex.search("mil ala", 10)));
+        assertEquals(0, mIndex.search("alain genolet", 10).length);
+    }
+
+    @Test
+    public void testExtendedQueryFollowsChanges() {
+        assertEquals(3, mIndex.search("al", 10).length);
+        mIndex.put(6, "Albert Einstein");
+        assertTrue(Arrays.equals(new long[]{6}, mIndex.search("alb", 10)));
+        assertTrue(Arrays.equals(new long[]{6}, mIndex.search("alb ein", 10)));
+    }
+
+    @Test
+    public void testMatchesAreRanked() {
+        // Exact name, then names beginning with the query, then other tokens beginning with it
+        assertTrue(Arrays.equals(new long[]{4, 1, 3}, mIndex.search("alain", 10)));
+        assertTrue(Arrays.equals(new long[]{4, 1, 3}, mIndex.search("ala", 10)));
+        assertTrue(Arrays.equals(new long[]{4, 1}, mIndex.search("ala", 2)));
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("jean luc picard", SearchIndex.normalize("  Jean-Luc  PICARD! "));
+        assertEquals("francois", SearchIndex.normalize("François"));
+    }
+
+    @Test
+    public void testOnlyTokenBeginningsMatch() {
+        assertEquals(0, mIndex.search("lan", 10).length);
+        assertTrue(Arrays.equals(new long[]{5}, mIndex.search("2014", 10)));
+    }
+
+    @Test
+    public void testRenamedAndRemovedItems() {
+        mIndex.put(2, "Marion Sbai");
+        assertEquals(0, mIndex.search("robin", 10).length);
+        assertTrue(Arrays.equals(new long[]{2}, mIndex.search("sba", 10)));
+
+        mIndex.remove(2);
+        assertEquals(0, mIndex.search("marion", 10).length);
+        mIndex.put(4, null);
+        assertTrue(Arrays.equals(new long[]{1, 3}, mIndex.search("alain", 10)));
+        assertEquals(3, mIndex.size());
+    }
+}
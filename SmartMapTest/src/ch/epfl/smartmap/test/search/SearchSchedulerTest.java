@@ -0,0 +1,156 @@
+package ch.epfl.smartmap.test.search;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+import ch.epfl.smartmap.callbacks.SearchRequestCallback;
+import ch.epfl.smartmap.listeners.SearchMetricsListener;
+import ch.epfl.smartmap.search.SearchScheduler;
+
+/**
+ * Tests for {@link SearchScheduler}
+ *
+ * @author jfperren
+ */
+public class SearchSchedulerTest extends AndroidTestCase {
+
+    private static final long DEBOUNCE_DELAY = 100;
+
+    private final List<String> mSearchedQueries = new CopyOnWriteArrayList<String>();
+    private final List<String> mResults = new CopyOnWriteArrayList<String>();
+    private final List<String> mCancelledQueries = new CopyOnWriteArrayList<String>();
+    private final List<String> mCompletedQueries = new CopyOnWriteArrayList<String>();
+
+    private CountDownLatch mResultLatch;
+    private CountDownLatch mSlowSearchStarted;
+    private SearchScheduler<String> mScheduler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResultLatch = new CountDownLatch(1);
+        mSlowSearchStarted = new CountDownLatch(1);
+        this.runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mScheduler = new SearchScheduler<String>(DEBOUNCE_DELAY, new SearchRequestCallback<String>() {
+                    @Override
+                    public void onNetworkError(Exception e) {
+                        fail("Shouldn't happen");
+                    }
+
+                    @Override
+                    public void onNotFound() {
+                        fail("Shouldn't happen");
+                    }
+
+                    @Override
+                    public void onResult(String result) {
+                        mResults.add(result);
+                        mResultLatch.countDown();
+                    }
+                });
+                mScheduler.setMetricsListener(new SearchMetricsListener() {
+                    @Override
+                    public void onSearchCancelled(String query) {
+                        mCancelledQueries.add(query);
+                    }
+
+                    @Override
+                    public void onSearchCompleted(String query, long latencyMillis, long searchMillis) {
+                        assertTrue(latencyMillis >= searchMillis);
+                        mCompletedQueries.add(query);
+                    }
+                });
+            }
+        });
+    }
+
+    @Test
+    public void testOnlyTheLastQueryTypedIsSearched() throws InterruptedException {
+        this.runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mScheduler.submit("a", new EchoSearch());
+                mScheduler.submit("ab", new EchoSearch());
+                mScheduler.submit("abc", new EchoSearch());
+            }
+        });
+
+        assertTrue(mResultLatch.await(1, TimeUnit.SECONDS));
+        // Let a stale result arrive, if any
+        Thread.sleep(DEBOUNCE_DELAY * 2);
+        assertEquals(1, mSearchedQueries.size());
+        assertEquals("abc", mResults.get(0));
+        assertEquals(1, mResults.size());
+        assertEquals(2, mCancelledQueries.size());
+        assertEquals("abc", mCompletedQueries.get(0));
+    }
+
+    @Test
+    public void testRunningQueryIsCancelledBySubmitNow() throws InterruptedException {
+        this.runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mScheduler.submitNow("slow", new SlowSearch());
+            }
+        });
+        assertTrue(mSlowSearchStarted.await(1, TimeUnit.SECONDS));
+
+        this.runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mScheduler.submitNow("fast", new EchoSearch());
+            }
+        });
+
+        assertTrue(mResultLatch.await(1, TimeUnit.SECONDS));
+        Thread.sleep(DEBOUNCE_DELAY * 2);
+        assertEquals(1, mResults.size());
+        assertEquals("fast", mResults.get(0));
+        assertTrue(mCancelledQueries.contains("slow"));
+        assertFalse(mCompletedQueries.contains("slow"));
+    }
+
+    private void runOnMainThread(final Runnable runnable) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                runnable.run();
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Gives the query as result
+     */
+    private class EchoSearch implements SearchScheduler.Search<String> {
+        @Override
+        public String search(String query) {
+            mSearchedQueries.add(query);
+            return query;
+        }
+    }
+
+    /**
+     * Gives the query as result, after a while unless interrupted
+     */
+    private class SlowSearch implements SearchScheduler.Search<String> {
+        @Override
+        public String search(String query) throws InterruptedException {
+            mSlowSearchStarted.countDown();
+            Thread.sleep(DEBOUNCE_DELAY);
+            return query;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package ch.epfl.smartmap.test.severcom;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+import ch.epfl.smartmap.servercom.DefaultNetworkProvider;
+import ch.epfl.smartmap.servercom.NetworkSmartMapClient;
+import ch.epfl.smartmap.servercom.SmartMapClient;
+
+/**
+ * Compares the transport of {@link NetworkSmartMapClient} with a new connection and uncompressed bodies for
+ * each request, against pooled keep-alive connections with gzip, using a local stand-in for the SmartMap
+ * server. Results are reported in the log under the tag of this class.
+ *
+ * @author Pamoi
+ */
+public class NetworkTransportBenchmarkTest extends AndroidTestCase {
+
+    private static final String TAG = NetworkTransportBenchmarkTest.class.getSimpleName();
+
+    private static final int REQUESTS = 200;
+    private static final int REQUESTED_IDS = 200;
+    private static final int RESPONSE_EVENTS = 40;
+
+    private StandInServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StandInServer(this.eventsResponse());
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.close();
+        super.tearDown();
+    }
+
+    @Test
+    public void testPooledGzipTransportIsCheaper() throws Exception {
+        List<Long> ids = new ArrayList<Long>();
+        for (long i = 0; i < REQUESTED_IDS; i++) {
+            ids.add(100000 + i);
+        }
+
+        Result before = this.run("close, identity", new DefaultNetworkProvider(false, false), ids);
+        Result after = this.run("keep-alive, gzip", new DefaultNetworkProvider(true, true), ids);
+
+        assertTrue(after.mBytesOnWire < before.mBytesOnWire);
+        assertTrue(after.mConnections < before.mConnections);
+    }
+
+    private String eventsResponse() {
+        StringBuilder json = new StringBuilder("{\"status\":\"Ok\",\"message\":\"Fetched events.\",\"events\":[");
+        for (int i = 1; i <= RESPONSE_EVENTS; i++) {
+            if (i > 1) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(i)
+                .append(",\"creator\":{\"id\":1,\"name\":\"Julien Perrenoud\"},")
+                .append("\"startingDate\":\"2014-12-24 20:30:00\",\"endingDate\":\"2014-12-25 02:00:00\",")
+                .append("\"longitude\":6.56186974,\"latitude\":46.51895762,\"positionName\":\"Lausanne\",")
+                .append("\"name\":\"Christmas night\",\"description\":\"Gifts for everyone !\",")
+                .append("\"participants\":[1,2,3,4,5]}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private Result run(String label, DefaultNetworkProvider provider, List<Long> ids) throws Exception {
+        SmartMapClient client = new NetworkSmartMapClient(mServer.getUrl(), provider);
+        mServer.resetCounters();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            assertEquals(RESPONSE_EVENTS, client.getEventsInfo(ids).size());
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Result result = new Result(mServer.getBytesRead() + mServer.getBytesWritten(), mServer.getConnections());
+        Log.i(TAG, String.format(Locale.US, "%s: %.1f requests/s, %d bytes on the wire, %d connections",
+            label, REQUESTS / seconds, result.mBytesOnWire, result.mConnections));
+        return result;
+    }
+
+    /**
+     * Measurements of a benchmark run
+     */
+    private static class Result {
+        private final long mBytesOnWire;
+        private final int mConnections;
+
+        Result(long bytesOnWire, int connections) {
+            mBytesOnWire = bytesOnWire;
+            mConnections = connections;
+        }
+    }
+
+    /**
+     * A minimal HTTP/1.1 server answering every request with the same JSON body. It supports keep-alive
+     * and gzip bodies, and counts the bytes exchanged and the connections accepted.
+     */
+    private static class StandInServer extends Thread {
+
+        private final ServerSocket mSocket;
+        private final byte[] mBody;
+        private final byte[] mGzipBody;
+        private final AtomicLong mBytesRead = new AtomicLong();
+        private final AtomicLong mBytesWritten = new AtomicLong();
+        private final AtomicInteger mConnections = new AtomicInteger();
+
+        StandInServer(String body) throws IOException {
+            mSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+            mBody = body.getBytes("UTF-8");
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+            gzip.write(mBody);
+            gzip.close();
+            mGzipBody = compressed.toByteArray();
+            this.setDaemon(true);
+        }
+
+        void close() throws IOException {
+            mSocket.close();
+        }
+
+        long getBytesRead() {
+            return mBytesRead.get();
+        }
+
+        long getBytesWritten() {
+            return mBytesWritten.get();
+        }
+
+        int getConnections() {
+            return mConnections.get();
+        }
+
+        String getUrl() {
+            return "http://127.0.0.1:" + mSocket.getLocalPort();
+        }
+
+        void resetCounters() {
+            mBytesRead.set(0);
+            mBytesWritten.set(0);
+            mConnections.set(0);
+        }
+
+        @Override
+        public void run() {
+            while (!mSocket.isClosed()) {
+                try {
+                    final Socket client = mSocket.accept();
+                    mConnections.incrementAndGet();
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            StandInServer.this.serve(client);
+                        }
+                    }.start();
+                } catch (IOException e) {
+                    // Server closed
+                }
+            }
+        }
+
+        private String readHead(InputStream in) throws IOException {
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            int matched = 0;
+            int b;
+            while ((matched < 4) && ((b = in.read()) != -1)) {
+                head.write(b);
+                matched = ((b == '\r') || (b == '\n')) ? matched + 1 : 0;
+            }
+            mBytesRead.addAndGet(head.size());
+            return (matched == 4) ? head.toString("ISO-8859-1") : null;
+        }
+
+        private void serve(Socket client) {
+            try {
+                InputStream in = client.getInputStream();
+                OutputStream out = client.getOutputStream();
+                String head;
+                while ((head = this.readHead(in)) != null) {
+                    String lowerHead = head.toLowerCase(Locale.US);
+
+                    int length = 0;
+                    for (String line : lowerHead.split("\r\n")) {
+                        if (line.startsWith("content-length:")) {
+                            length = Integer.parseInt(line.substring("content-length:".length()).trim());
+                        }
+                    }
+                    byte[] requestBody = new byte[length];
+                    int offset = 0;
+                    while (offset < length) {
+                        int read = in.read(requestBody, offset, length - offset);
+                        if (read == -1) {
+                            throw new IOException("Truncated request body");
+                        }
+                        offset += read;
+                    }
+                    mBytesRead.addAndGet(length);
+                    if (lowerHead.contains("content-encoding: gzip")) {
+                        // Ensures the client sent a valid gzip body
+                        InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(requestBody));
+                        while (gzip.read() != -1) {
+                            // Decompress entirely
+                        }
+                    }
+
+                    boolean gzip = lowerHead.contains("accept-encoding: gzip");
+                    boolean keepAlive = !lowerHead.contains("connection: close");
+                    byte[] body = gzip ? mGzipBody : mBody;
+
+                    StringBuilder response =
+                        new StringBuilder("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n");
+                    if (gzip) {
+                        response.append("Content-Encoding: gzip\r\n");
+                    }
+                    response.append("Content-Length: ").append(body.length).append("\r\n");
+                    response.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+                    byte[] responseHead = response.toString().getBytes("ISO-8859-1");
+
+                    out.write(responseHead);
+                    out.write(body);
+                    out.flush();
+                    mBytesWritten.addAndGet(responseHead.length + body.length);
+
+                    if (!keepAlive) {
+                        break;
+                    }
+                }
+                client.close();
+            } catch (IOException e) {
+                Log.d(TAG, "Stand-in server connection closed: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package ch.epfl.smartmap.test.severcom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import android.test.AndroidTestCase;
+import ch.epfl.smartmap.background.ServiceContainer;
+import ch.epfl.smartmap.cache.EventContainer;
+import ch.epfl.smartmap.cache.UserContainer;
+import ch.epfl.smartmap.servercom.NetworkSmartMapClient;
+import ch.epfl.smartmap.servercom.ParallelFetcher;
+import ch.epfl.smartmap.servercom.SmartMapClient;
+import ch.epfl.smartmap.servercom.SmartMapClientException;
+
+/**
+ * Tests for {@link ParallelFetcher}
+ *
+ * @author Pamoi
+ */
+public class ParallelFetcherTest extends AndroidTestCase {
+
+    private SmartMapClient mClient;
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mConcurrentRequests = new AtomicInteger();
+    private final AtomicInteger mMaxConcurrentRequests = new AtomicInteger();
+    private CountDownLatch mRelease;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRelease = new CountDownLatch(0);
+        mClient = Mockito.mock(NetworkSmartMapClient.class);
+        Mockito.when(mClient.getEventsInfo(Mockito.anyCollectionOf(Long.class))).thenAnswer(
+            new Answer<List<EventContainer>>() {
+                @Override
+                public List<EventContainer> answer(InvocationOnMock invocation) throws Throwable {
+                    int concurrent = mConcurrentRequests.incrementAndGet();
+                    mRequests.incrementAndGet();
+                    synchronized (mMaxConcurrentRequests) {
+                        mMaxConcurrentRequests.set(Math.max(mMaxConcurrentRequests.get(), concurrent));
+                    }
+                    mRelease.await(2, TimeUnit.SECONDS);
+                    mConcurrentRequests.decrementAndGet();
+
+                    List<EventContainer> events = new ArrayList<EventContainer>();
+                    for (Object id : (Collection<?>) invocation.getArguments()[0]) {
+                        events.add(new EventContainer((Long) id, null, null, null, null, null, null, null,
+                            null));
+                    }
+                    return events;
+                }
+            });
+        ServiceContainer.setNetworkClient(mClient);
+    }
+
+    @Test
+    public void testConcurrencyIsBounded() {
+        ParallelFetcher fetcher = new ParallelFetcher(2, 1);
+
+        Set<EventContainer> events = fetcher.fetchEvents(Arrays.asList(1L, 2L, 3L, 4L, 5L));
+
+        assertEquals(5, events.size());
+        assertEquals(5, mRequests.get());
+        assertTrue(mMaxConcurrentRequests.get() <= 2);
+        fetcher.shutdown();
+    }
+
+    @Test
+    public void testIdsAreBatched() {
+        ParallelFetcher fetcher = new ParallelFetcher(4, 10);
+
+        List<Long> ids = new ArrayList<Long>();
+        for (long id = 1; id <= 25; id++) {
+            ids.add(id);
+        }
+
+        assertEquals(25, fetcher.fetchEvents(ids).size());
+        assertEquals(3, mRequests.get());
+        fetcher.shutdown();
+    }
+
+    @Test
+    public void testInFlightRequestsAreShared() throws Exception {
+        final ParallelFetcher fetcher = new ParallelFetcher(4, 10);
+        mRelease = new CountDownLatch(1);
+
+        final Set<EventContainer> firstResult = new HashSet<EventContainer>();
+        Thread first = new Thread() {
+            @Override
+            public void run() {
+                firstResult.addAll(fetcher.fetchEvents(Arrays.asList(1L, 2L)));
+            }
+        };
+        first.start();
+        // Wait for the first request to be sent
+        while (mRequests.get() == 0) {
+            Thread.sleep(10);
+        }
+
+        Thread release = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // Release anyway
+                }
+                mRelease.countDown();
+            }
+        };
+        release.start();
+
+        Set<EventContainer> secondResult = fetcher.fetchEvents(Arrays.asList(2L));
+        first.join();
+
+        assertEquals(1, mRequests.get());
+        assertEquals(2, firstResult.size());
+        assertEquals(1, secondResult.size());
+        assertEquals(2, secondResult.iterator().next().getId());
+        fetcher.shutdown();
+    }
+
+    @Test
+    public void testFailedRequestsAreSkipped() throws SmartMapClientException {
+        Mockito.when(mClient.getUsersInfo(Mockito.anyCollectionOf(Long.class))).thenThrow(
+            new SmartMapClientException("Network error"));
+        ParallelFetcher fetcher = new ParallelFetcher();
+
+        Set<UserContainer> users = fetcher.fetchUsers(Arrays.asList(1L, 2L));
+
+        assertTrue(users.isEmpty());
+        fetcher.shutdown();
+    }
+
+    @Test
+    public void testFailedSingleFetchIsNotRemembered() throws SmartMapClientException {
+        Mockito.when(mClient.getUsersInfo(Mockito.anyCollectionOf(Long.class))).thenThrow(
+            new SmartMapClientException("Network error"));
+        ParallelFetcher fetcher = new ParallelFetcher();
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                fetcher.fetchUser(1L);
+                fail("Network errors should be thrown");
+            } catch (SmartMapClientException e) {
+                // Expected
+            }
+        }
+
+        Mockito.verify(mClient, Mockito.times(2)).getUsersInfo(Arrays.asList(1L));
+        fetcher.shutdown();
+    }
+
+    @Test
+    public void testSingleFetchJoinsBatch() throws Exception {
+        final ParallelFetcher fetcher = new ParallelFetcher(4, 10);
+        mRelease = new CountDownLatch(1);
+
+        Thread batch = new Thread() {
+            @Override
+            public void run() {
+                fetcher.fetchEvents(Arrays.asList(1L, 2L));
+            }
+        };
+        batch.start();
+        while (mRequests.get() == 0) {
+            Thread.sleep(10);
+        }
+
+        Thread release = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // Release anyway
+                }
+                mRelease.countDown();
+            }
+        };
+        release.start();
+
+        EventContainer event = fetcher.fetchEvent(2L);
+        batch.join();
+
+        assertEquals(2, event.getId());
+        assertEquals(1, mRequests.get());
+        Mockito.verify(mClient, Mockito.never()).getEventInfo(Mockito.anyLong());
+        fetcher.shutdown();
+    }
+
+    @Test
+    public void testUnknownIdsAreNotRequestedAgain() throws Exception {
+        Mockito.when(mClient.getUsersInfo(Mockito.anyCollectionOf(Long.class))).thenReturn(
+            new ArrayList<UserContainer>());
+        ParallelFetcher fetcher = new ParallelFetcher(4, 10, 200);
+
+        assertTrue(fetcher.fetchUsers(Arrays.asList(1L, 2L)).isEmpty());
+        assertTrue(fetcher.fetchUsers(Arrays.asList(1L, 2L)).isEmpty());
+        assertNull(fetcher.fetchUser(1L));
+        Mockito.verify(mClient, Mockito.times(1)).getUsersInfo(Mockito.anyCollectionOf(Long.class));
+        Mockito.verify(mClient, Mockito.never()).getUserInfo(Mockito.anyLong());
+
+        Thread.sleep(300);
+        assertTrue(fetcher.fetchUsers(Arrays.asList(1L)).isEmpty());
+        Mockito.verify(mClient, Mockito.times(2)).getUsersInfo(Mockito.anyCollectionOf(Long.class));
+        fetcher.shutdown();
+    }
+
+    @Test
+    public void testUnknownSingleIdIsNotRequestedAgain() throws Exception {
+        Mockito.when(mClient.getUsersInfo(Mockito.anyCollectionOf(Long.class))).thenReturn(
+            new ArrayList<UserContainer>());
+        ParallelFetcher fetcher = new ParallelFetcher(4, 10, 200);
+
+        assertNull(fetcher.fetchUser(1L));
+        assertNull(fetcher.fetchUser(1L));
+        assertTrue(fetcher.fetchUsers(Arrays.asList(1L)).isEmpty());
+        Mockito.verify(mClient, Mockito.times(1)).getUsersInfo(Arrays.asList(1L));
+        Mockito.verify(mClient, Mockito.never()).getUserInfo(Mockito.anyLong());
+
+        Thread.sleep(300);
+        assertNull(fetcher.fetchUser(1L));
+        Mockito.verify(mClient, Mockito.times(2)).getUsersInfo(Arrays.asList(1L));
+        fetcher.shutdown();
+    }
+}
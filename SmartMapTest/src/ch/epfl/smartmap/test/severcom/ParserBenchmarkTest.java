@@ -0,0 +1,141 @@
+package ch.epfl.smartmap.test.severcom;
+
+import java.io.ByteArrayInputStream;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import ch.epfl.smartmap.background.ServiceContainer;
+import ch.epfl.smartmap.servercom.JsonSmartMapParser;
+import ch.epfl.smartmap.servercom.SmartMapParser;
+import ch.epfl.smartmap.servercom.StreamingJsonSmartMapParser;
+import ch.epfl.smartmap.servercom.StreamingSmartMapParser;
+
+/**
+ * Micro-benchmark comparing {@link JsonSmartMapParser}, used as the client did (status check then payload
+ * parsing of a buffered string), with {@link StreamingJsonSmartMapParser} reading the bytes of the
+ * response in a single pass. Each case is warmed up, then its throughput and allocated bytes per operation
+ * are reported in the log under the tag of this class.
+ *
+ * @author marion-S
+ */
+public class ParserBenchmarkTest extends AndroidTestCase {
+
+    private static final String TAG = ParserBenchmarkTest.class.getSimpleName();
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 20;
+
+    private static final int EVENTS = 500;
+    private static final int POSITIONS = 200;
+
+    private byte[] mEventsResponse;
+    private byte[] mPositionsResponse;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ServiceContainer.initSmartMapServices(this.getContext());
+
+        StringBuilder events = new StringBuilder("{\"status\":\"Ok\",\"message\":\"Fetched events.\",\"events\":[");
+        for (int i = 1; i <= EVENTS; i++) {
+            if (i > 1) {
+                events.append(',');
+            }
+            events.append("{\"id\":").append(i).append(",\"creator\":{\"id\":").append(i)
+                .append(",\"name\":\"Creator ").append(i).append("\"},")
+                .append("\"startingDate\":\"2014-12-24 20:30:00\",\"endingDate\":\"2014-12-25 02:00:00\",")
+                .append("\"longitude\":6.56186974,\"latitude\":46.51895762,\"positionName\":\"Lausanne\",")
+                .append("\"name\":\"Event ").append(i).append("\",\"description\":\"Gifts for everyone !\",")
+                .append("\"participants\":[1,2,3,4,5,6,7,8]}");
+        }
+        mEventsResponse = events.append("]}").toString().getBytes("UTF-8");
+
+        StringBuilder positions =
+            new StringBuilder("{\"status\":\"Ok\",\"message\":\"Fetched friends positions !\",\"positions\":[");
+        for (int i = 1; i <= POSITIONS; i++) {
+            if (i > 1) {
+                positions.append(',');
+            }
+            positions.append("{\"id\":").append(i).append(",\"longitude\":6.56186974,\"latitude\":46.51895762,")
+                .append("\"lastUpdate\":\"2014-11-12 13:33:45\",\"isFriend\":1}");
+        }
+        mPositionsResponse = positions.append("]}").toString().getBytes("UTF-8");
+    }
+
+    @Test
+    public void testParseEventList() throws Exception {
+        this.measure("parseEventList, tree", new Operation() {
+            @Override
+            public int run() throws Exception {
+                SmartMapParser parser = new JsonSmartMapParser();
+                String response = new String(mEventsResponse, "UTF-8");
+                parser.checkServerError(response);
+                return parser.parseEventList(response).size();
+            }
+        });
+        this.measure("readEventList, streaming", new Operation() {
+            @Override
+            public int run() throws Exception {
+                StreamingSmartMapParser parser = new StreamingJsonSmartMapParser();
+                return parser.readEventList(new ByteArrayInputStream(mEventsResponse)).size();
+            }
+        });
+    }
+
+    @Test
+    public void testParsePositions() throws Exception {
+        this.measure("parsePositions, tree", new Operation() {
+            @Override
+            public int run() throws Exception {
+                SmartMapParser parser = new JsonSmartMapParser();
+                String response = new String(mPositionsResponse, "UTF-8");
+                parser.checkServerError(response);
+                return parser.parsePositions(response).size();
+            }
+        });
+        this.measure("readPositions, streaming", new Operation() {
+            @Override
+            public int run() throws Exception {
+                StreamingSmartMapParser parser = new StreamingJsonSmartMapParser();
+                return parser.readPositions(new ByteArrayInputStream(mPositionsResponse)).size();
+            }
+        });
+    }
+
+    @SuppressWarnings("deprecation")
+    private void measure(String label, Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            operation.run();
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        int items = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            items = operation.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+
+        assertTrue(items > 0);
+        Log.i(TAG, String.format(Locale.US, "%s: %.1f ops/s, %d bytes and %d objects allocated per op", label,
+            (MEASURED_ITERATIONS * 1e9) / elapsed, Debug.getThreadAllocSize() / MEASURED_ITERATIONS,
+            Debug.getThreadAllocCount() / MEASURED_ITERATIONS));
+    }
+
+    /**
+     * A benchmarked operation
+     */
+    private interface Operation {
+        /**
+         * @return the number of parsed items
+         */
+        int run() throws Exception;
+    }
+}
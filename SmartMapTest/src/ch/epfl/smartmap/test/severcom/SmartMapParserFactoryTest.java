@@ -6,6 +6,7 @@ import org.junit.Test;
 
 import ch.epfl.smartmap.servercom.NoSuchFormatException;
 import ch.epfl.smartmap.servercom.SmartMapParserFactory;
+import ch.epfl.smartmap.servercom.StreamingSmartMapParser;
 
 public class SmartMapParserFactoryTest extends TestCase {
 
@@ -22,6 +23,12 @@ public class SmartMapParserFactoryTest extends TestCase {
 		SmartMapParserFactory.parserForContentType(JSON_CONTENT_TYPE);
 	}
 
+	@Test
+	public void testSupportedContentTypeIsStreaming() throws NoSuchFormatException {
+		assertTrue(SmartMapParserFactory.parserForContentType(JSON_CONTENT_TYPE)
+				instanceof StreamingSmartMapParser);
+	}
+
 	@Test
 	public void testUnsupportedContentType() {
 		try {
@@ -0,0 +1,232 @@
+package ch.epfl.smartmap.test.severcom;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import android.test.AndroidTestCase;
+import ch.epfl.smartmap.background.ServiceContainer;
+import ch.epfl.smartmap.cache.EventContainer;
+import ch.epfl.smartmap.cache.UserContainer;
+import ch.epfl.smartmap.servercom.JsonSmartMapParser;
+import ch.epfl.smartmap.servercom.NetworkFriendInvitationBag;
+import ch.epfl.smartmap.servercom.ServerFeedbackException;
+import ch.epfl.smartmap.servercom.SmartMapClientException;
+import ch.epfl.smartmap.servercom.SmartMapParseException;
+import ch.epfl.smartmap.servercom.SmartMapParser;
+import ch.epfl.smartmap.servercom.StreamingJsonSmartMapParser;
+import ch.epfl.smartmap.servercom.StreamingSmartMapParser;
+import ch.epfl.smartmap.servercom.SyncBag;
+
+/**
+ * Tests whether the streaming parser gives the same results as {@link JsonSmartMapParser}, and checks the
+ * server status while reading the payload
+ *
+ * @author marion-S
+ */
+public class StreamingJSONParsingTest extends AndroidTestCase {
+
+    private static final String EVENT_LIST_JSON = "{\"status\":\"Ok\",\"message\":\"Fetched events.\","
+        + "\"events\":[{\"id\":13,\"creator\":{\"id\":3,\"name\":\"Georges\"},"
+        + "\"startingDate\":\"2014-10-23 05:07:54\",\"endingDate\":\"2014-11-12 23:54:22\","
+        + "\"longitude\":\"26.85\",\"latitude\":20.03,\"positionName\":\"Tokyo\",\"name\":\"MyEvent\","
+        + "\"description\":\"description\",\"participants\":[3,4,1]}]}";
+
+    private static final String FRIEND_LIST_JSON = "{\"status\":\"Ok\",\"message\":\"Fetched users info !\","
+        + "\"unused\":{\"nested\":[1,2,{\"a\":null}]},"
+        + "\"users\":[{\"id\":\"13\",\"name\":\"Georges\",\"isFriend\":1,"
+        + "\"pictureVersion\":\"\\\"ab12\\\"\"},"
+        + "{\"id\":18,\"name\":\"Alice\",\"latitude\":40.0,\"longitude\":3.0,"
+        + "\"lastUpdate\":\"2014-10-23 05:07:54\",\"pictureVersion\":null}]}";
+
+    private static final String POSITIONS_JSON = "{\"status\":\"Ok\",\"message\":\"Fetched friends positions !\","
+        + "\"positions\":[{\"id\":13,\"latitude\":20.03,\"longitude\":26.85,"
+        + "\"lastUpdate\":\"2014-11-12 23:54:22\",\"isFriend\":1}]}";
+
+    private static final String POSITIONS_SINCE_JSON = "{\"status\":\"Ok\","
+        + "\"positions\":[{\"id\":13,\"latitude\":20.03,\"longitude\":26.85,"
+        + "\"lastUpdate\":\"2014-11-12 23:54:22\"}],\"cursor\":\"2014-11-12 23:55:00\","
+        + "\"removedIds\":[4,6],\"message\":\"Fetched friends positions !\"}";
+
+    private static final String INVITATIONS_JSON = "{\"status\":\"Ok\",\"message\":\"Fetched invitations.\","
+        + "\"invitations\":[{\"id\":13,\"name\":\"Georges\"}],"
+        + "\"newFriends\":[{\"id\":18,\"name\":\"Alice\"}],\"removedFriends\":[4,6]}";
+
+    private static final String ID_LIST_JSON = "{\"status\":\"Ok\",\"message\":\"Fetched friends ids.\","
+        + "\"friends\":[3,4,1]}";
+
+    private static final String ERROR_JSON = "{\"status\":\"error\",\"message\":\"wrong parameters\"}";
+
+    private static final String FEEDBACK_JSON = "{\"status\":\"feedback\",\"message\":\"Already friends\"}";
+
+    private static final String INVALID_EVENT_LIST_JSON = "{\"status\":\"Ok\",\"message\":\"Fetched events.\","
+        + "\"events\":[{\"id\":-13,\"creator\":{\"id\":3,\"name\":\"Georges\"}}]}";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ServiceContainer.initSmartMapServices(this.getContext());
+    }
+
+    @Test
+    public void testCheckServerErrorWhenError() throws SmartMapParseException {
+        try {
+            new StreamingJsonSmartMapParser().checkServerError(ERROR_JSON);
+            fail("Did not throw a SmartMapClientException whereas the server got an error");
+        } catch (SmartMapClientException e) {
+            assertEquals("wrong parameters", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testEventListMatchesTreeParser() throws Exception {
+        SmartMapParser treeParser = new JsonSmartMapParser();
+        StreamingSmartMapParser parser = new StreamingJsonSmartMapParser();
+
+        EventContainer expected = treeParser.parseEventList(EVENT_LIST_JSON).get(0);
+        EventContainer fromString = parser.parseEventList(EVENT_LIST_JSON).get(0);
+        EventContainer fromStream = parser.readEventList(this.stream(EVENT_LIST_JSON)).get(0);
+
+        for (EventContainer event : new EventContainer[]{fromString, fromStream}) {
+            assertEquals(expected.getId(), event.getId());
+            assertEquals(expected.getName(), event.getName());
+            assertEquals(expected.getDescription(), event.getDescription());
+            assertEquals(expected.getLocationString(), event.getLocationString());
+            assertEquals(expected.getCreatorContainer().getId(), event.getCreatorContainer().getId());
+            assertEquals(expected.getLocation().getLatitude(), event.getLocation().getLatitude());
+            assertEquals(expected.getLocation().getLongitude(), event.getLocation().getLongitude());
+            assertEquals(expected.getStartDate().getTimeInMillis(), event.getStartDate().getTimeInMillis(),
+                1000);
+            assertEquals(expected.getParticipantIds(), event.getParticipantIds());
+        }
+    }
+
+    @Test
+    public void testFriendListMatchesTreeParser() throws Exception {
+        List<UserContainer> expected = new JsonSmartMapParser().parseFriendList(FRIEND_LIST_JSON, "users");
+        List<UserContainer> users =
+            new StreamingJsonSmartMapParser().readFriendList(this.stream(FRIEND_LIST_JSON), "users");
+
+        assertEquals(expected.size(), users.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), users.get(i).getId());
+            assertEquals(expected.get(i).getName(), users.get(i).getName());
+            assertEquals(expected.get(i).getFriendship(), users.get(i).getFriendship());
+            assertEquals(expected.get(i).getLocation() == null, users.get(i).getLocation() == null);
+            assertEquals(expected.get(i).getPictureVersion(), users.get(i).getPictureVersion());
+        }
+        assertEquals("\"ab12\"", users.get(0).getPictureVersion());
+        assertNull(users.get(1).getPictureVersion());
+    }
+
+    @Test
+    public void testIdListMatchesTreeParser() throws Exception {
+        List<Long> expected = new JsonSmartMapParser().parseIdList(ID_LIST_JSON, "friends");
+        List<Long> ids =
+            new StreamingJsonSmartMapParser().readIdList(this.stream(ID_LIST_JSON), "friends");
+
+        assertEquals(expected, ids);
+    }
+
+    @Test
+    public void testInvalidDataIsRejected() throws SmartMapClientException {
+        try {
+            new StreamingJsonSmartMapParser().readEventList(this.stream(INVALID_EVENT_LIST_JSON));
+            fail("Parsed an event with missing fields and negative id");
+        } catch (SmartMapParseException e) {
+            // success
+        }
+    }
+
+    @Test
+    public void testInvitationsFromStream() throws Exception {
+        NetworkFriendInvitationBag bag =
+            (NetworkFriendInvitationBag) new StreamingJsonSmartMapParser().readFriendInvitations(this
+                .stream(INVITATIONS_JSON));
+
+        assertEquals(2, bag.getInvitations().size());
+        assertEquals(new HashSet<Long>(Arrays.asList(4L, 6L)), bag.getRemovedFriendsIds());
+    }
+
+    @Test
+    public void testInvitationsWithMissingListAreRejected() throws SmartMapClientException {
+        try {
+            new StreamingJsonSmartMapParser().readFriendInvitations(this.stream(ID_LIST_JSON));
+            fail("Parsed invitations whereas the lists are missing");
+        } catch (SmartMapParseException e) {
+            // success
+        } catch (UnsupportedEncodingException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testPositionsFromStream() throws Exception {
+        List<UserContainer> users = new StreamingJsonSmartMapParser().readPositions(this.stream(POSITIONS_JSON));
+
+        assertEquals(1, users.size());
+        assertEquals(13, users.get(0).getId());
+        assertEquals(20.03, users.get(0).getLocation().getLatitude());
+        assertEquals(26.85, users.get(0).getLocation().getLongitude());
+    }
+
+    @Test
+    public void testPositionsSinceFromStream() throws Exception {
+        SyncBag<UserContainer> bag =
+            new StreamingJsonSmartMapParser().readPositionsSince(this.stream(POSITIONS_SINCE_JSON));
+
+        assertEquals("2014-11-12 23:55:00", bag.getCursor());
+        assertEquals(1, bag.getItems().size());
+        assertEquals(13, bag.getItems().get(0).getId());
+        assertEquals(Arrays.asList(4L, 6L), bag.getRemovedIds());
+    }
+
+    @Test
+    public void testReadSinceWithoutCursor() throws Exception {
+        try {
+            new StreamingJsonSmartMapParser().readPositionsSince(this.stream(POSITIONS_JSON));
+            fail("Did not throw a SmartMapParseException whereas the cursor is missing");
+        } catch (SmartMapParseException e) {
+            // success
+        }
+    }
+
+    @Test
+    public void testReadSinceWhenError() throws Exception {
+        try {
+            new StreamingJsonSmartMapParser().readEventListSince(this.stream(ERROR_JSON));
+            fail("Did not throw a SmartMapClientException whereas the server got an error");
+        } catch (SmartMapClientException e) {
+            assertEquals("wrong parameters", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testReadWhenError() throws SmartMapParseException {
+        try {
+            new StreamingJsonSmartMapParser().readEventList(this.stream(ERROR_JSON));
+            fail("Did not throw a SmartMapClientException whereas the server got an error");
+        } catch (SmartMapClientException e) {
+            assertFalse(e instanceof ServerFeedbackException);
+        }
+    }
+
+    @Test
+    public void testReadWhenFeedback() throws SmartMapParseException, SmartMapClientException {
+        try {
+            new StreamingJsonSmartMapParser().readPositions(this.stream(FEEDBACK_JSON));
+            fail("Did not throw a ServerFeedbackException whereas the server sent a feedback");
+        } catch (ServerFeedbackException e) {
+            assertEquals("Already friends", e.getMessage());
+        }
+    }
+
+    private InputStream stream(String s) throws UnsupportedEncodingException {
+        return new ByteArrayInputStream(s.getBytes("UTF-8"));
+    }
+}
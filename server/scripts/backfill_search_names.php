@@ -0,0 +1,46 @@
+<?php
+
+use SmartMap\DBInterface\UserRepository;
+
+use Doctrine\DBAL\DriverManager;
+use Doctrine\DBAL\Configuration;
+
+/**
+ * Writes the search names of the users created before the user_search_names table existed, so that
+ * findUsersByPartialName finds them without waiting for their next position update. It can be run again
+ * safely: the users whose search names are up to date are skipped.
+ * To run it, create the user_search_names table, then run
+ * $> php scripts/backfill_search_names.php [batch size]
+ * from the server directory. It uses the database configured in config.json.
+ *
+ * @author Pamoi
+ *
+ */
+
+require __DIR__ . '/../vendor/autoload.php';
+
+$batchSize = isset($argv[1]) ? (int) $argv[1] : 1000;
+
+if ($batchSize <= 0)
+{
+    fwrite(STDERR, "The batch size must be positive.\n");
+    exit(1);
+}
+
+$options = json_decode(file_get_contents(__DIR__ . '/../config.json'), true);
+
+$db = DriverManager::getConnection(array(
+    'driver' => $options['db']['driver'],
+    'host' => $options['db']['host'],
+    'dbname' => $options['db']['dbname'],
+    'user' => $options['db']['user'],
+    'password' => $options['db']['password'],
+    'charset' => $options['db']['charset']
+), new Configuration());
+
+$repo = new UserRepository($db);
+
+$start = microtime(true);
+$written = $repo->backfillSearchNames($batchSize);
+
+printf("Search names written for %d users in %.1f s.\n", $written, microtime(true) - $start);
@@ -125,10 +125,18 @@ class AuthenticationController implements AuthenticationControllerInterface
             // Getting the user facebook profile image to set it as default.
             $pic = file_get_contents(self::$GRAPH_API_URL . $user->getFbId() . self::$PICTURE_REQUEST);
         
-            file_put_contents(ProfileController::$PICTURES_PATH . $user->getId() . '.jpg', $pic);
+            ProfileController::savePicture($user->getId(), $pic);
         }
         else
         {
+            // Keeps the name, and thus the search names, in sync with Facebook
+            $user = $this->mRepo->getUser($userId);
+            if ($user->getName() != $name)
+            {
+                $user->setName($name);
+                $this->mRepo->updateUser($user, true);
+            }
+            
             $session->set('userId', $userId);
         }
         
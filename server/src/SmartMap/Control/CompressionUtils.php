@@ -0,0 +1,89 @@
+<?php
+
+namespace SmartMap\Control;
+
+
+use Symfony\Component\HttpFoundation\Request;
+use Symfony\Component\HttpFoundation\Response;
+
+/**
+ * This class contains static utility methods to handle gzip compressed request
+ * bodies and to compress responses for clients accepting it.
+ *
+ * @package SmartMap\Control
+ *
+ * @author Pamoi
+ */
+class CompressionUtils
+{
+    // Responses smaller than this are sent as is, as gzip would barely reduce their size.
+    public static $MIN_COMPRESSED_LENGTH = 512;
+
+    // Decoded request bodies longer than this are rejected, so that a small compressed body cannot
+    // exhaust the server memory.
+    public static $MAX_DECODED_LENGTH = 1048576;
+
+    /**
+     * If the request body is gzip encoded, decodes it and replaces the post parameters
+     * with the decoded ones.
+     *
+     * @param Request $request
+     * @throws InvalidRequestException if the body cannot be decoded or is too long once decoded
+     */
+    public static function decodeRequest(Request $request)
+    {
+        if ($request->headers->get('Content-Encoding') != 'gzip')
+        {
+            return;
+        }
+
+        $content = $request->getContent();
+
+        // The gzip trailer ends with the decoded length, which lets us reject most long bodies early.
+        // It can be forged, so the decoding itself is limited too.
+        if (strlen($content) >= 4)
+        {
+            $trailer = unpack('Vlength', substr($content, -4));
+            if ($trailer['length'] > self::$MAX_DECODED_LENGTH OR $trailer['length'] < 0)
+            {
+                throw new InvalidRequestException('Request body too long.');
+            }
+        }
+
+        $body = @gzdecode($content, self::$MAX_DECODED_LENGTH);
+
+        if ($body === false)
+        {
+            throw new InvalidRequestException('Invalid gzip request body.');
+        }
+
+        $params = array();
+        parse_str($body, $params);
+
+        $request->request->replace($params);
+    }
+
+    /**
+     * Compresses the response content with gzip if the client accepts it and the content
+     * is long enough.
+     *
+     * @param Request $request
+     * @param Response $response
+     */
+    public static function encodeResponse(Request $request, Response $response)
+    {
+        $content = $response->getContent();
+
+        if ($content === false OR strlen($content) < self::$MIN_COMPRESSED_LENGTH
+            OR $response->headers->has('Content-Encoding')
+            OR !in_array('gzip', $request->getEncodings()))
+        {
+            return;
+        }
+
+        $response->setContent(gzencode($content));
+        $response->headers->set('Content-Encoding', 'gzip');
+        $response->headers->set('Content-Length', strlen($response->getContent()));
+        $response->setVary('Accept-Encoding', false);
+    }
+}
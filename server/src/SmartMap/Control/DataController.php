@@ -5,6 +5,7 @@ namespace SmartMap\Control;
 use Symfony\Component\HttpFoundation\Request;
 use Symfony\Component\HttpFoundation\JsonResponse;
 
+use SmartMap\DBInterface\User;
 use SmartMap\DBInterface\UserRepositoryInterface;
 use SmartMap\DBInterface\DatabaseException;
 
@@ -73,7 +74,10 @@ class DataController implements DataControllerInterface
     }
 
     /**
-     * Gets the position of followed friends allowing it.
+     * Gets the position of followed friends allowing it. If the optional since POST parameter
+     * is set, only the positions updated since this date are returned, along with a cursor to
+     * send as since in the next request and, as removedIds, the ids of the friends whose position
+     * is not shared anymore since this date. An empty since returns all positions.
      *
      * @param Request $request
      * @return JsonResponse
@@ -83,6 +87,11 @@ class DataController implements DataControllerInterface
     public function listFriendsPos(Request $request)
     {
         $userId = RequestUtils::getIdFromRequest($request);
+
+        $since = RequestUtils::getPostParam($request, 'since', false);
+
+        // The cursor is taken before querying so that no position update happening meanwhile is missed.
+        $cursor = date(User::$DATE_FORMAT);
         
         try
         {
@@ -91,6 +100,19 @@ class DataController implements DataControllerInterface
             $friendIds = $this->mRepo->getFriendsIds($userId, array('ALLOWED'), array('FOLLOWED'));
             
             $friends = $this->mRepo->getUsers($friendIds, array('VISIBLE'));
+
+            $changedIds = array();
+            $hiddenFriends = array();
+            if ($since !== null)
+            {
+                // A friend who starts or stops sharing a position may not have moved since.
+                if ($since != null)
+                {
+                    $changedIds = $this->mRepo->getFriendsIdsChangedSince($userId, $since);
+                }
+
+                $hiddenFriends = $this->mRepo->getUsers($friendIds, array('INVISIBLE'));
+            }
         }
         catch (DatabaseException $e)
         {
@@ -98,11 +120,19 @@ class DataController implements DataControllerInterface
         }
         
         $list = array();
+        $removedIds = array();
 
         // The user must be visible to see it's friends positions.
         if ($user->getVisibility() == 'VISIBLE')
         {
             foreach ($friends as $friend) {
+                // Dates in format User::$DATE_FORMAT can be compared as strings
+                if ($since != null AND $friend->getLastUpdate() < $since AND
+                    !in_array($friend->getId(), $changedIds))
+                {
+                    continue;
+                }
+
                 $list[] = array(
                     'id' => $friend->getId(),
                     'longitude' => $friend->getLongitude(),
@@ -111,6 +141,27 @@ class DataController implements DataControllerInterface
                     'isFriend' => 1
                 );
             }
+
+            if ($since !== null)
+            {
+                // Changing the visibility of a user also updates the last update date, and an
+                // empty since reports all hidden friends.
+                foreach ($hiddenFriends as $friend)
+                {
+                    if ($friend->getLastUpdate() >= $since OR in_array($friend->getId(), $changedIds))
+                    {
+                        $removedIds[] = $friend->getId();
+                    }
+                }
+
+                // The friends that are not allowed or not followed anymore
+                $removedIds = array_merge($removedIds, array_diff($changedIds, $friendIds));
+            }
+        }
+        else
+        {
+            // Nothing was sent, so the next request must ask again for everything since the same date.
+            $cursor = ($since != null) ? $since : date(User::$DATE_FORMAT, 0);
         }
         
         $response = array(
@@ -118,6 +169,12 @@ class DataController implements DataControllerInterface
             'message' => 'Fetched friends positions !',
             'positions' => $list
         );
+
+        if ($since !== null)
+        {
+            $response['cursor'] = $cursor;
+            $response['removedIds'] = array_values(array_unique($removedIds));
+        }
         
         return new JsonResponse($response);
     }
@@ -196,6 +253,63 @@ class DataController implements DataControllerInterface
         return new JsonResponse($response);
     }
 
+    /**
+     * Gets the information for the users whose ids are given in users_ids POST parameter,
+     * as a list of numbers separated by commas. Ids that do not match any user are ignored.
+     * Each user comes with the version of its profile picture, which is the ETag getProfilePicture
+     * sends, so that clients only download the pictures that changed.
+     *
+     * @param Request $request
+     * @return JsonResponse
+     * @throws ControlLogicException
+     * @throws InvalidRequestException
+     */
+    public function getUsersInfo(Request $request)
+    {
+        $userId = RequestUtils::getIdFromRequest($request);
+
+        $ids = RequestUtils::getIntArrayFromString(RequestUtils::getPostParam($request, 'users_ids'));
+
+        try
+        {
+            $users = $this->mRepo->getUsers($ids);
+
+            $friendsIds = $this->mRepo->getFriendsIds($userId);
+        }
+        catch (DatabaseException $e)
+        {
+            throw new ControlLogicException('Error in getUsersInfo.', 2, $e);
+        }
+
+        $list = array();
+
+        foreach ($users as $user)
+        {
+            $isFriend = 0;
+
+            if (in_array($user->getId(), $friendsIds))
+            {
+                $isFriend = 1;
+            }
+            else if ($userId == $user->getId())
+            {
+                $isFriend = 2;
+            }
+
+            // We only send public data
+            $list[] = array(
+                'id' => $user->getId(),
+                'name' => $user->getName(),
+                'isFriend' => $isFriend,
+                'pictureVersion' => ProfileController::getPictureVersion($user->getId())
+            );
+        }
+
+        $response = array('status' => 'Ok', 'message' => 'Fetched users info !', 'users' => $list);
+
+        return new JsonResponse($response);
+    }
+
     /**
      * Sends an invitation to the user with id in post parameter.
      *
@@ -30,7 +30,10 @@ interface DataControllerInterface
     public function updatePos(Request $request);
 
     /**
-     * Gets the position of followed friends allowing it.
+     * Gets the position of followed friends allowing it. If the optional since POST parameter
+     * is set, only the positions updated since this date are returned, along with a cursor to
+     * send as since in the next request and, as removedIds, the ids of the friends whose position
+     * is not shared anymore since this date. An empty since returns all positions.
      *
      * @param Request $request
      * @return JsonResponse
@@ -59,6 +62,19 @@ interface DataControllerInterface
      */
     public function getUserInfo(Request $request);
 
+    /**
+     * Gets the information for the users whose ids are given in users_ids POST parameter,
+     * as a list of numbers separated by commas. Ids that do not match any user are ignored.
+     * Each user comes with the version of its profile picture, which is the ETag getProfilePicture
+     * sends, so that clients only download the pictures that changed.
+     *
+     * @param Request $request
+     * @return JsonResponse
+     * @throws ControlLogicException
+     * @throws InvalidRequestException
+     */
+    public function getUsersInfo(Request $request);
+
     /**
      * Sends an invitation to the user with id in post parameter.
      *
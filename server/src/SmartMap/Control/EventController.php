@@ -371,6 +371,92 @@ class EventController implements EventControllerInterface
         return new JsonResponse($response);
     }
 
+    /**
+     * Get the information of the events whose ids are given in events_ids POST parameter,
+     * as a list of numbers separated by commas. Ids that do not match any event are ignored.
+     * If the optional since POST parameter is set, only the events modified since this date are
+     * returned, along with a cursor to send as since in the next request and, as removedIds, the ids
+     * of the given events that were deleted or cannot be displayed anymore. An empty since returns
+     * all events.
+     *
+     * @param Request $request
+     * @return JsonResponse
+     * @throws ControlLogicException
+     * @throws InvalidRequestException
+     */
+    public function getEventsInfo(Request $request)
+    {
+        RequestUtils::getIdFromRequest($request);
+
+        $eventsIds = RequestUtils::getIntArrayFromString(RequestUtils::getPostParam($request, 'events_ids'));
+
+        $since = RequestUtils::getPostParam($request, 'since', false);
+
+        // The cursor is taken before querying so that no modification happening meanwhile is missed.
+        $cursor = date(Event::$DATE_FORMAT);
+
+        try
+        {
+            $events = $this->mEventRepo->getEvents($eventsIds, ($since == null) ? null : $since);
+
+            // Deleted events are not returned, so the client must be told to forget them.
+            $removedIds = array();
+            if ($since !== null)
+            {
+                $removedIds = array_diff($eventsIds, $this->mEventRepo->getExistingEventsIds($eventsIds));
+            }
+
+            $foundIds = array();
+            $creatorsIds = array();
+
+            foreach ($events as $event)
+            {
+                $foundIds[] = $event->getId();
+                $creatorsIds[] = $event->getCreatorId();
+            }
+
+            $participants = $this->mEventRepo->getEventsParticipants($foundIds);
+
+            $creators = array();
+
+            foreach ($this->mUserRepo->getUsers(array_values(array_unique($creatorsIds))) as $creator)
+            {
+                $creators[$creator->getId()] = $creator;
+            }
+        }
+        catch (DatabaseException $e)
+        {
+            throw new ControlLogicException('Error in getEventsInfo.', 2, $e);
+        }
+
+        $eventList = array();
+
+        foreach ($events as $event)
+        {
+            // An event whose creator does not exist anymore cannot be displayed by the client.
+            if (isset($creators[$event->getCreatorId()]))
+            {
+                $eventParticipants = isset($participants[$event->getId()]) ? $participants[$event->getId()] : array();
+
+                $eventList[] = $this->eventInfoArray($event, $creators[$event->getCreatorId()], $eventParticipants);
+            }
+            else
+            {
+                $removedIds[] = $event->getId();
+            }
+        }
+
+        $response = array('status' => 'Ok', 'message' => 'Fetched events.', 'events' => $eventList);
+
+        if ($since !== null)
+        {
+            $response['cursor'] = $cursor;
+            $response['removedIds'] = array_values(array_unique($removedIds));
+        }
+
+        return new JsonResponse($response);
+    }
+
     /**
      * Utility function generating an associative array from an event and
      * a list of participants to generate JSON.
@@ -96,4 +96,19 @@ interface EventControllerInterface
      * @throws InvalidRequestException
      */
     public function getEventInfo(Request $request);
+
+    /**
+     * Get the information of the events whose ids are given in events_ids POST parameter,
+     * as a list of numbers separated by commas. Ids that do not match any event are ignored.
+     * If the optional since POST parameter is set, only the events modified since this date are
+     * returned, along with a cursor to send as since in the next request and, as removedIds, the ids
+     * of the given events that were deleted or cannot be displayed anymore. An empty since returns
+     * all events.
+     *
+     * @param Request $request
+     * @return JsonResponse
+     * @throws ControlLogicException
+     * @throws InvalidRequestException
+     */
+    public function getEventsInfo(Request $request);
 }
\ No newline at end of file
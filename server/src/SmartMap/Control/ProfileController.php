@@ -10,9 +10,16 @@ class ProfileController implements ProfileControllerInterface
 {
     public static $PICTURES_PATH = '../pictures/';
 
+    // Extension of the files storing the version of each picture
+    private static $VERSION_EXTENSION = '.version';
+
     /**
      * Get the profile picture of a user.
      *
+     * The response has an ETag computed from the content of the picture, so
+     * that a client sending it back in an If-None-Match header gets an empty
+     * 304 Not Modified response if the picture did not change.
+     *
      * @param Request $request
      * @param Application $app
      * @return \Symfony\Component\HttpFoundation\BinaryFileResponse
@@ -26,17 +33,88 @@ class ProfileController implements ProfileControllerInterface
         // We cast the value of the post parameter to int to avoid path injection
         $id = (int) RequestUtils::getPostParam($request, 'user_id');
         
-        $imagePath = self::$PICTURES_PATH . $id . '.jpg';
-        if (!file_exists($imagePath))
+        if (!file_exists(self::$PICTURES_PATH . $id . '.jpg'))
         {
             // This is should not happen in production !
             if ($app['debug'] == false)
             {
                 $app['monolog']->addWarning('Missing profile picture for user with id ' . $id . ' !');
             }
-            return $app->sendFile(self::$PICTURES_PATH . 'default.jpg');
         }
         
-        return $app->sendFile($imagePath);
+        $response = $app->sendFile(self::getPicturePath($id));
+        $response->setEtag(self::getPictureVersion($id));
+
+        // Response::isNotModified ignores POST requests, so we compare the ETags ourselves.
+        if (in_array($response->getEtag(), $request->getETags()))
+        {
+            $response->setNotModified();
+        }
+
+        return $response;
+    }
+
+    /**
+     * Gets the version of the profile picture of a user, which is the ETag of the response of
+     * getProfilePicture. It is a hash of the content of the picture, computed when the picture is
+     * written and stored next to it, so that it is not computed again for each request.
+     *
+     * @param int $id
+     * @return string the version, or null if there is no picture to send
+     */
+    public static function getPictureVersion($id)
+    {
+        $imagePath = self::getPicturePath($id);
+        $versionPath = $imagePath . self::$VERSION_EXTENSION;
+
+        $version = @file_get_contents($versionPath);
+        if ($version !== false)
+        {
+            return $version;
+        }
+
+        if (!file_exists($imagePath))
+        {
+            return null;
+        }
+
+        // Pictures written before the versions were stored, and the default picture
+        $version = '"' . sha1_file($imagePath) . '"';
+        file_put_contents($versionPath, $version);
+
+        return $version;
+    }
+
+    /**
+     * Writes the profile picture of a user along with its version.
+     *
+     * @param int $id
+     * @param string $picture the content of the picture
+     */
+    public static function savePicture($id, $picture)
+    {
+        $imagePath = self::$PICTURES_PATH . ((int) $id) . '.jpg';
+
+        file_put_contents($imagePath, $picture);
+        file_put_contents($imagePath . self::$VERSION_EXTENSION, '"' . sha1($picture) . '"');
+    }
+
+    /**
+     * Gets the path of the picture to send as profile picture of a user, the default one
+     * if the user has none.
+     *
+     * @param int $id
+     * @return string
+     */
+    private static function getPicturePath($id)
+    {
+        $imagePath = self::$PICTURES_PATH . ((int) $id) . '.jpg';
+
+        if (!file_exists($imagePath))
+        {
+            $imagePath = self::$PICTURES_PATH . 'default.jpg';
+        }
+
+        return $imagePath;
     }
 }
\ No newline at end of file
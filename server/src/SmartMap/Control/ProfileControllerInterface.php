@@ -13,7 +13,8 @@ use Symfony\Component\HttpFoundation\Request;
 interface ProfileControllerInterface
 {
     /**
-     * Get the profile picture of a user.
+     * Get the profile picture of a user, or an empty 304 Not Modified
+     * response if it matches the ETag given in the If-None-Match header.
      *
      * @param Request $request
      * @param Application $app
@@ -50,7 +50,8 @@ class EventRepository implements EventRepositoryInterface
                     'latitude' => $event->getLatitude(),
                     'position_name' => $event->getPositionName(),
                     'name' => $event->getName(),
-                    'description' => $event->getDescription()
+                    'description' => $event->getDescription(),
+                    'last_update' => date(Event::$DATE_FORMAT)
                 ));
 
             $event->setId($this->mDb->fetchColumn('SELECT LAST_INSERT_ID()', array(), 0));
@@ -83,7 +84,8 @@ class EventRepository implements EventRepositoryInterface
                     'latitude' => $event->getLatitude(),
                     'position_name' => $event->getPositionName(),
                     'name' => $event->getName(),
-                    'description' => $event->getDescription()
+                    'description' => $event->getDescription(),
+                    'last_update' => date(Event::$DATE_FORMAT)
                 ), array('id' => $event->getId()));
         }
         catch (\Exception $e)
@@ -139,6 +141,120 @@ class EventRepository implements EventRepositoryInterface
         return $event;
     }
 
+    /**
+     * Gets a list of events, given a list of ids. Ids that do not match any event are ignored.
+     * If $since is set, only the events modified at or after this date (in format Event::$DATE_FORMAT)
+     * are returned.
+     *
+     * @param array $ids
+     * @param string $since
+     * @return array
+     * @throws DatabaseException
+     */
+    public function getEvents($ids, $since = null)
+    {
+        if (!is_array($ids))
+        {
+            throw new DatabaseException('Argument $ids must be an array in getEvents.');
+        }
+
+        // mysql does not accept IN () conditions with an empty array.
+        if (count($ids) == 0)
+        {
+            return array();
+        }
+
+        try
+        {
+            if ($since == null)
+            {
+                $req = "SELECT * FROM " . self::$TABLE_EVENT . " WHERE id IN (?)";
+
+                $stmt = $this->mDb->executeQuery($req, array($ids), array(Connection::PARAM_INT_ARRAY));
+            }
+            else
+            {
+                $req = "SELECT * FROM " . self::$TABLE_EVENT . " WHERE id IN (?) AND last_update >= ?";
+
+                $stmt = $this->mDb->executeQuery($req, array($ids, $since),
+                    array(Connection::PARAM_INT_ARRAY, \PDO::PARAM_STR));
+            }
+        }
+        catch (\Exception $e)
+        {
+            throw new DatabaseException('Error in getEvents.', 1, $e);
+        }
+
+        $events = array();
+
+        while ($eventData = $stmt->fetch())
+        {
+            try
+            {
+                $events[] = new Event(
+                    (int) $eventData['id'],
+                    (int) $eventData['creator_id'],
+                    $eventData['starting_date'],
+                    $eventData['ending_date'],
+                    (double) $eventData['longitude'],
+                    (double) $eventData['latitude'],
+                    $eventData['position_name'],
+                    $eventData['name'],
+                    $eventData['description']
+                );
+            }
+            catch (\InvalidArgumentException $e)
+            {
+                throw new DatabaseException('Event with invalid state in database with id ' . $eventData['id'] .
+                    '.', 1, $e);
+            }
+        }
+
+        return $events;
+    }
+
+    /**
+     * Gets the ids of the events that exist among the given ids, for instance to tell clients which of
+     * their events were deleted.
+     *
+     * @param array $ids
+     * @return array
+     * @throws DatabaseException
+     */
+    public function getExistingEventsIds($ids)
+    {
+        if (!is_array($ids))
+        {
+            throw new DatabaseException('Argument $ids must be an array in getExistingEventsIds.');
+        }
+
+        // mysql does not accept IN () conditions with an empty array.
+        if (count($ids) == 0)
+        {
+            return array();
+        }
+
+        try
+        {
+            $req = "SELECT id FROM " . self::$TABLE_EVENT . " WHERE id IN (?)";
+
+            $stmt = $this->mDb->executeQuery($req, array($ids), array(Connection::PARAM_INT_ARRAY));
+        }
+        catch (\Exception $e)
+        {
+            throw new DatabaseException('Error in getExistingEventsIds.', 1, $e);
+        }
+
+        $existingIds = array();
+
+        while ($eventData = $stmt->fetch())
+        {
+            $existingIds[] = (int) $eventData['id'];
+        }
+
+        return $existingIds;
+    }
+
     /**
      * Gets the not finished yet events in a radius of $radius kilometers around position
      * given by $longitude and $latitude.
@@ -151,12 +267,34 @@ class EventRepository implements EventRepositoryInterface
      */
     public function getEventsInRadius($longitude, $latitude, $radius)
     {
-        // We only send events that are not finished yet.
-        $req = "SELECT id, longitude, latitude FROM events WHERE ending_date > NOW()";
+        // We only send events that are not finished yet, and first select the candidates in a
+        // bounding box around the position, which can be answered with the position index.
+        $req = "SELECT id, longitude, latitude FROM " . self::$TABLE_EVENT .
+            " WHERE ending_date > ? AND latitude BETWEEN ? AND ?";
+        $params = array(date(Event::$DATE_FORMAT));
+
+        $box = self::boundingBox($longitude, $latitude, $radius);
+
+        $params[] = $box['minLatitude'];
+        $params[] = $box['maxLatitude'];
+
+        if (count($box['longitudeRanges']) > 0)
+        {
+            $conditions = array();
+
+            foreach ($box['longitudeRanges'] as $range)
+            {
+                $conditions[] = "longitude BETWEEN ? AND ?";
+                $params[] = $range[0];
+                $params[] = $range[1];
+            }
+
+            $req .= " AND (" . implode(" OR ", $conditions) . ")";
+        }
 
         try
         {
-            $stmt = $this->mDb->executeQuery($req);
+            $stmt = $this->mDb->executeQuery($req, $params);
         }
         catch (\Exception $e)
         {
@@ -168,6 +306,7 @@ class EventRepository implements EventRepositoryInterface
         $lat1 = deg2rad($latitude);
         $long1 = deg2rad($longitude);
 
+        // Exact distance is only computed for the candidates in the box
         while ($eventData = $stmt->fetch())
         {
             $lat2 = deg2rad($eventData['latitude']);
@@ -190,6 +329,61 @@ class EventRepository implements EventRepositoryInterface
         return $eventsIds;
     }
 
+    /**
+     * Computes the box of coordinates containing the circle of given radius (in km) around a position.
+     * The longitude ranges are split in two when the box crosses the antimeridian, and are empty
+     * when all longitudes must be considered (for instance near the poles).
+     *
+     * @param $longitude
+     * @param $latitude
+     * @param $radius
+     * @return array with keys minLatitude, maxLatitude and longitudeRanges
+     */
+    public static function boundingBox($longitude, $latitude, $radius)
+    {
+        $angularRadius = $radius / self::$EARTH_RADIUS;
+
+        $minLatitude = $latitude - rad2deg($angularRadius);
+        $maxLatitude = $latitude + rad2deg($angularRadius);
+
+        $longitudeRanges = array();
+
+        if ($minLatitude > -90 AND $maxLatitude < 90)
+        {
+            // Widest longitude span of the circle, reached at the tangent latitude.
+            $sinRatio = sin($angularRadius) / cos(deg2rad($latitude));
+
+            if ($sinRatio < 1)
+            {
+                $deltaLongitude = rad2deg(asin($sinRatio));
+
+                $minLongitude = $longitude - $deltaLongitude;
+                $maxLongitude = $longitude + $deltaLongitude;
+
+                if ($minLongitude < -180)
+                {
+                    $longitudeRanges[] = array($minLongitude + 360, 180);
+                    $longitudeRanges[] = array(-180, $maxLongitude);
+                }
+                else if ($maxLongitude > 180)
+                {
+                    $longitudeRanges[] = array($minLongitude, 180);
+                    $longitudeRanges[] = array(-180, $maxLongitude - 360);
+                }
+                else
+                {
+                    $longitudeRanges[] = array($minLongitude, $maxLongitude);
+                }
+            }
+        }
+
+        return array(
+            'minLatitude' => max($minLatitude, -90),
+            'maxLatitude' => min($maxLatitude, 90),
+            'longitudeRanges' => $longitudeRanges
+        );
+    }
+
     /**
      * Adds an invitation for a user to an event.
      *
@@ -292,6 +486,8 @@ class EventRepository implements EventRepositoryInterface
             if (!$participant) {
                 $req = "INSERT INTO " . self::$TABLE_EVENT_PARTICIPANTS . " VALUES (?, ?)";
                 $this->mDb->executeQuery($req, array((int)$eventId, (int)$userId));
+
+                $this->touchEvent($eventId);
             }
         }
         catch (\Exception $e)
@@ -311,9 +507,14 @@ class EventRepository implements EventRepositoryInterface
     {
         try
         {
-            $this->mDb->delete(self::$TABLE_EVENT_PARTICIPANTS, array(
+            $removed = $this->mDb->delete(self::$TABLE_EVENT_PARTICIPANTS, array(
                 'id_event' => (int)$eventId,
                 'id_user' => (int)$userId));
+
+            if ($removed > 0)
+            {
+                $this->touchEvent($eventId);
+            }
         }
         catch (\Exception $e)
         {
@@ -350,6 +551,52 @@ class EventRepository implements EventRepositoryInterface
         return $users;
     }
 
+    /**
+     * Get the ids of users participating to each event of a list, as an array mapping
+     * each event id to the array of its participants ids.
+     *
+     * @param array $eventsIds
+     * @return array
+     * @throws DatabaseException
+     */
+    public function getEventsParticipants($eventsIds)
+    {
+        if (!is_array($eventsIds))
+        {
+            throw new DatabaseException('Argument $eventsIds must be an array in getEventsParticipants.');
+        }
+
+        $participants = array();
+
+        // Events without participants must still appear in the result.
+        foreach ($eventsIds as $eventId)
+        {
+            $participants[(int) $eventId] = array();
+        }
+
+        if (count($eventsIds) == 0)
+        {
+            return $participants;
+        }
+
+        try
+        {
+            $req = "SELECT id_event, id_user FROM " . self::$TABLE_EVENT_PARTICIPANTS . " WHERE id_event IN (?)";
+            $stmt = $this->mDb->executeQuery($req, array($eventsIds), array(Connection::PARAM_INT_ARRAY));
+        }
+        catch (\Exception $e)
+        {
+            throw new DatabaseException('Error in getEventsParticipants.', 1, $e);
+        }
+
+        while ($row = $stmt->fetch())
+        {
+            $participants[(int) $row['id_event']][] = (int) $row['id_user'];
+        }
+
+        return $participants;
+    }
+
     /**
      * Get the ids of the events to which a user is invited.
      *
@@ -378,4 +625,16 @@ class EventRepository implements EventRepositoryInterface
 
         return $eventsIds;
     }
+
+    /**
+     * Sets the last update date of an event to now, so that clients synchronizing their events
+     * since an earlier date fetch it again.
+     *
+     * @param $eventId
+     */
+    private function touchEvent($eventId)
+    {
+        $this->mDb->update(self::$TABLE_EVENT, array('last_update' => date(Event::$DATE_FORMAT)),
+            array('id' => (int) $eventId));
+    }
 }
\ No newline at end of file
@@ -41,6 +41,28 @@ interface EventRepositoryInterface
      */
     public function getEvent($id);
 
+    /**
+     * Gets a list of events, given a list of ids. Ids that do not match any event are ignored.
+     * If $since is set, only the events modified at or after this date (in format Event::$DATE_FORMAT)
+     * are returned.
+     *
+     * @param array $ids
+     * @param string $since
+     * @return array
+     * @throws DatabaseException
+     */
+    public function getEvents($ids, $since = null);
+
+    /**
+     * Gets the ids of the events that exist among the given ids, for instance to tell clients which of
+     * their events were deleted.
+     *
+     * @param array $ids
+     * @return array
+     * @throws DatabaseException
+     */
+    public function getExistingEventsIds($ids);
+
     /**
      * Gets the not finished yet events in a radius of $radius kilometers around position
      * given by $longitude and $latitude.
@@ -98,6 +120,16 @@ interface EventRepositoryInterface
      */
     public function getEventParticipants($eventId);
 
+    /**
+     * Get the ids of users participating to each event of a list, as an array mapping
+     * each event id to the array of its participants ids.
+     *
+     * @param array $eventsIds
+     * @return array
+     * @throws DatabaseException
+     */
+    public function getEventsParticipants($eventsIds);
+
     /**
      * Get the ids of the events to which a user is invited.
      *
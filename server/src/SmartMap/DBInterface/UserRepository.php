@@ -19,6 +19,10 @@ class UserRepository implements UserRepositoryInterface
     private static $TABLE_INVITATIONS = 'invitations';
     private static $TABLE_ACCEPTED_INVITATIONS = 'accepted_invitations';
     private static $TABLE_REMOVED_FRIENDS = 'removed_friends';
+    private static $TABLE_SEARCH_NAMES = 'user_search_names';
+    
+    // Maximum number of users returned by findUsersByPartialName
+    private static $MAX_SEARCH_RESULTS = 10;
     
     private $mDb;
     
@@ -150,7 +154,9 @@ class UserRepository implements UserRepositoryInterface
     }
     
     /**
-     * Gets a list of users whose name is starting by $partialName
+     * Gets a list of users with a word of their name starting by $partialName, ignoring case and accents.
+     * The search names of the users are looked up in their index with a prefix range, so the users table
+     * is not scanned. At most 10 users are returned, ordered by id.
      * 
      * @param String $partialName
      * @throws DatabaseException
@@ -158,9 +164,9 @@ class UserRepository implements UserRepositoryInterface
      */
     public function findUsersByPartialName($partialName, $excludedIds)
     {
-        $length = strlen($partialName);
+        $prefix = self::normalizeSearchText($partialName);
         
-        if ($length == 0)
+        if (strlen($prefix) == 0)
         {
             return array();
         }
@@ -170,27 +176,29 @@ class UserRepository implements UserRepositoryInterface
             throw new DatabaseException('Parameter $excludedIds must be array in findUsersByPartialName.');
         }
         
+        // The normalized prefix only has letters, digits and spaces, so it needs no escaping for LIKE.
+        $params = array($prefix . '%');
+        $types = array(\PDO::PARAM_STR);
+        $req = "SELECT DISTINCT idusers FROM " . self::$TABLE_SEARCH_NAMES . " WHERE search_name LIKE ?";
+        
+        // We need to do two cases because mysql doesn't like IN () conditions with nothing in array.
+        if (!empty($excludedIds))
+        {
+            $req .= " AND idusers NOT IN (?)";
+            $params[] = $excludedIds;
+            $types[] = \Doctrine\DBAL\Connection::PARAM_INT_ARRAY;
+        }
+        
+        $req .= " LIMIT " . self::$MAX_SEARCH_RESULTS;
+        
         try
         {
-            // We need to do two cases because mysql doesn't like IN () conditions with nothing in array.
-            if (!empty($excludedIds))
+            $stmt = $this->mDb->executeQuery($req, $params, $types);
+            
+            $ids = array();
+            while ($id = $stmt->fetchColumn())
             {
-                $req = "SELECT * FROM " . self::$TABLE_USER . " WHERE idusers NOT IN (?) AND SUBSTR(LOWER(name), 1, ?)".
-                     " = ? LIMIT 10";
-                
-                $stmt = $this->mDb->executeQuery($req,
-                                                 array($excludedIds, $length, strtolower($partialName)),
-                                                 array(\Doctrine\DBAL\Connection::PARAM_INT_ARRAY,
-                                                     \PDO::PARAM_INT,
-                                                     \PDO::PARAM_STR));
-            }
-            else
-            {
-                $req = "SELECT * FROM " . self::$TABLE_USER . " WHERE SUBSTR(LOWER(name), 1, ?) = ? LIMIT 10";
-                
-                $stmt = $this->mDb->executeQuery($req,
-                    array($length, strtolower($partialName)),
-                    array(\PDO::PARAM_INT, \PDO::PARAM_STR));
+                $ids[] = (int) $id;
             }
         }
         catch (\Exception $e)
@@ -198,7 +206,7 @@ class UserRepository implements UserRepositoryInterface
             throw new DatabaseException('Error retrieving users in findUsersByPartialName.', 1, $e);
         }
         
-        return $this->userArrayFromStmt($stmt);
+        return $this->getUsers($ids);
     }
     
     /**
@@ -225,6 +233,8 @@ class UserRepository implements UserRepositoryInterface
                 ));
 
             $user->setId($this->mDb->fetchColumn('SELECT LAST_INSERT_ID()', array(), 0));
+            
+            $this->updateSearchNames($user->getId(), $user->getName());
         }
         catch (\Exception $e)
         {
@@ -236,12 +246,14 @@ class UserRepository implements UserRepositoryInterface
     
     /**
      * Updates an existing user in the database. Modifiable entries are
-     * name, visibility, longitude and latitude.
+     * name, visibility, longitude and latitude. The search names are only
+     * rewritten if $nameChanged is true, as most updates are position updates.
      * 
      * @param User $user
+     * @param boolean $nameChanged
      * @throws DatabaseException
      */
-    public function updateUser(User $user)
+    public function updateUser(User $user, $nameChanged = false)
     {
         try
         {
@@ -254,6 +266,11 @@ class UserRepository implements UserRepositoryInterface
                     'latitude' => $user->getLatitude(),
                     'last_update' => date(User::$DATE_FORMAT)
                 ), array('idusers' => $user->getId()));
+            
+            if ($nameChanged)
+            {
+                $this->updateSearchNames($user->getId(), $user->getName());
+            }
         }
         catch (\Exception $e)
         {
@@ -261,6 +278,49 @@ class UserRepository implements UserRepositoryInterface
         }
     }
     
+    /**
+     * Writes the search names of every user whose names are missing or outdated, for instance the users
+     * created before the search names existed. The users are read by batches of $batchSize, ordered by id.
+     * Returns the number of users whose search names were written.
+     * 
+     * @param int $batchSize
+     * @throws DatabaseException
+     * @return int
+     */
+    public function backfillSearchNames($batchSize = 1000)
+    {
+        $lastId = 0;
+        $written = 0;
+        
+        try
+        {
+            do
+            {
+                $stmt = $this->mDb->executeQuery("SELECT idusers, name FROM " . self::$TABLE_USER .
+                    " WHERE idusers > ? ORDER BY idusers LIMIT " . (int) $batchSize, array($lastId));
+                
+                $count = 0;
+                while ($userData = $stmt->fetch())
+                {
+                    $lastId = (int) $userData['idusers'];
+                    $count++;
+                    
+                    if ($this->updateSearchNames($lastId, $userData['name']))
+                    {
+                        $written++;
+                    }
+                }
+            }
+            while ($count == $batchSize);
+        }
+        catch (\Exception $e)
+        {
+            throw new DatabaseException('Error writing search names in backfillSearchNames.', 1, $e);
+        }
+        
+        return $written;
+    }
+    
     // Friendship management
     
     /**
@@ -313,6 +373,39 @@ class UserRepository implements UserRepositoryInterface
         return $ids;
     }
     
+    /**
+     * Gets the ids of the friends of the user with id $userId whose friendship was created, or
+     * whose status or following status changed, at or after $since (in format User::$DATE_FORMAT).
+     * 
+     * @param long $userId
+     * @param string $since
+     * @throws DatabaseException
+     * @return array
+     */
+    public function getFriendsIdsChangedSince($userId, $since)
+    {
+        $req = "SELECT id2 FROM " . self::$TABLE_FRIENDSHIP . " WHERE id1 = ? AND last_update >= ?";
+        
+        try
+        {
+            $stmt = $this->mDb->executeQuery($req, array((int) $userId, $since),
+                array(\PDO::PARAM_INT, \PDO::PARAM_STR));
+        }
+        catch (\Exception $e)
+        {
+            throw new DatabaseException('Error getting friends ids in getFriendsIdsChangedSince.', 1, $e);
+        }
+        
+        $ids = array();
+        
+        while ($id = $stmt->fetch())
+        {
+            $ids[] = (int) $id['id2'];
+        }
+        
+        return $ids;
+    }
+    
     /**
      * Add a bidirectional friendship link between two users, with status set to ALLOWED
      * and follow to FOLLOWED.
@@ -350,7 +443,8 @@ class UserRepository implements UserRepositoryInterface
                     'id1' => (int) $idUser,
                     'id2' => (int) $idFriend,
                     'status' => 'ALLOWED',
-                    'follow' => 'FOLLOWED'
+                    'follow' => 'FOLLOWED',
+                    'last_update' => date(User::$DATE_FORMAT)
                 ));
 
             $this->mDb->insert(self::$TABLE_FRIENDSHIP,
@@ -358,7 +452,8 @@ class UserRepository implements UserRepositoryInterface
                     'id1' => (int) $idFriend,
                     'id2' => (int) $idUser,
                     'status' => 'ALLOWED',
-                    'follow' => 'FOLLOWED'
+                    'follow' => 'FOLLOWED',
+                    'last_update' => date(User::$DATE_FORMAT)
                 ));
         }
         catch (\Exception $e)
@@ -429,7 +524,7 @@ class UserRepository implements UserRepositoryInterface
         try
         {
             $this->mDb->update(self::$TABLE_FRIENDSHIP,
-                               array('status' => $status),
+                               array('status' => $status, 'last_update' => date(User::$DATE_FORMAT)),
                                array('id1' => (int) $idFriend, 'id2' => (int) $idUser)
                               );
         }
@@ -459,13 +554,14 @@ class UserRepository implements UserRepositoryInterface
         }
         
         $req = "UPDATE " . self::$TABLE_FRIENDSHIP .
-               " SET status = ? WHERE id1 IN (?) AND id2 = ?";
+               " SET status = ?, last_update = ? WHERE id1 IN (?) AND id2 = ?";
         
         try
         {
             $stmt = $this->mDb->executeQuery($req,
-                array($status, $idsFriends, $idUser),
+                array($status, date(User::$DATE_FORMAT), $idsFriends, $idUser),
                 array(\PDO::PARAM_STR,
+                    \PDO::PARAM_STR,
                     \Doctrine\DBAL\Connection::PARAM_INT_ARRAY,
                     \PDO::PARAM_INT
                 ));
@@ -493,7 +589,7 @@ class UserRepository implements UserRepositoryInterface
         try
         {
             $this->mDb->update(self::$TABLE_FRIENDSHIP,
-                array('follow' => $follow),
+                array('follow' => $follow, 'last_update' => date(User::$DATE_FORMAT)),
                 array('id1' => (int) $idUser, 'id2' => (int) $friendId)
             );
         }
@@ -777,6 +873,85 @@ class UserRepository implements UserRepositoryInterface
 
     // Utility functions
 
+    /**
+     * Folds a text for the search: accents are removed, letters are put in lower case, and every sequence of
+     * other characters than letters and digits becomes a single space. Does the same as the normalization of
+     * the client, so that it can narrow the results of a query for a longer one.
+     *
+     * @param String $text
+     * @return String
+     */
+    public static function normalizeSearchText($text)
+    {
+        if (class_exists('\Normalizer'))
+        {
+            $text = preg_replace('/\p{Mn}+/u', '', \Normalizer::normalize($text, \Normalizer::FORM_D));
+        }
+        else
+        {
+            $text = iconv('UTF-8', 'ASCII//TRANSLIT//IGNORE', $text);
+        }
+        
+        return trim(preg_replace('/[^\p{L}\p{Nd}]+/u', ' ', mb_strtolower($text, 'UTF-8')));
+    }
+    
+    /**
+     * Gets the search names of a user name: its normalized form and each of its ends starting by a word,
+     * so that a prefix of any of them finds the user.
+     *
+     * @param String $name
+     * @return array
+     */
+    public static function searchNamesOf($name)
+    {
+        $normalized = self::normalizeSearchText($name);
+        
+        if (strlen($normalized) == 0)
+        {
+            return array();
+        }
+        
+        $searchNames = array($normalized);
+        $offset = 0;
+        while (($offset = strpos($normalized, ' ', $offset)) !== false)
+        {
+            $offset++;
+            $searchNames[] = substr($normalized, $offset);
+        }
+        
+        return array_unique($searchNames);
+    }
+    
+    /**
+     * Replaces the search names of a user, unless they are already those of this name, which is checked
+     * with a lookup in their index. This also fills the search names of the users created before they
+     * existed.
+     *
+     * @param long $userId
+     * @param String $name
+     * @return boolean whether the search names were written
+     */
+    private function updateSearchNames($userId, $name)
+    {
+        $isUpToDate = $this->mDb->fetchColumn("SELECT COUNT(*) FROM " . self::$TABLE_SEARCH_NAMES .
+            " WHERE search_name = ? AND idusers = ?", array(self::normalizeSearchText($name), $userId), 0);
+        
+        if ($isUpToDate > 0)
+        {
+            return false;
+        }
+        
+        $this->mDb->delete(self::$TABLE_SEARCH_NAMES, array('idusers' => $userId));
+        
+        foreach (self::searchNamesOf($name) as $searchName)
+        {
+            $this->mDb->insert(self::$TABLE_SEARCH_NAMES,
+                array('idusers' => $userId, 'search_name' => $searchName));
+        }
+        
+        return true;
+    }
+
     /**
      * Gets an array of users given a database query statement.
      *
@@ -48,7 +48,7 @@ interface UserRepositoryInterface
     public function getUsers($ids, $visibility = array('VISIBLE', 'INVISIBLE'));
 
     /**
-     * Gets a list of users whose name is starting by $partialName
+     * Gets a list of users with a word of their name starting by $partialName, ignoring case and accents.
      *
      * @param String $partialName
      * @throws DatabaseException
@@ -68,12 +68,24 @@ interface UserRepositoryInterface
 
     /**
      * Updates an existing user in the database. Modifiable entries are
-     * name, visibility, longitude and latitude.
+     * name, visibility, longitude and latitude. The search names are only
+     * rewritten if $nameChanged is true.
      *
      * @param User $user
+     * @param boolean $nameChanged
      * @throws DatabaseException
      */
-    public function updateUser(User $user);
+    public function updateUser(User $user, $nameChanged = false);
+    
+    /**
+     * Writes the search names of every user whose names are missing or outdated, and returns the number
+     * of these users.
+     *
+     * @param int $batchSize
+     * @throws DatabaseException
+     * @return int
+     */
+    public function backfillSearchNames($batchSize = 1000);
 
     /**
      * Gets the ids of the friends of the user with id $userId,
@@ -90,6 +102,17 @@ interface UserRepositoryInterface
      */
     public function getFriendsIds($userId, $status = array('ALLOWED', 'DISALLOWED'), $follow = array('FOLLOWED', 'UNFOLLOWED'));
 
+    /**
+     * Gets the ids of the friends of the user with id $userId whose friendship was created, or
+     * whose status or following status changed, at or after $since (in format User::$DATE_FORMAT).
+     *
+     * @param long $userId
+     * @param string $since
+     * @throws DatabaseException
+     * @return array
+     */
+    public function getFriendsIdsChangedSince($userId, $since);
+
     /**
      * Add a bidirectional friendship link between two users, with status set to ALLOWED
      * and follow to FOLLOWED.
@@ -77,6 +77,13 @@ class AuthenticationControllerTest extends PHPUnit_Framework_TestCase
              ->method('getUserIdFromFb')
              ->with($this->equalTo(1482245642055847));
 
+        $this->mockRepo
+             ->method('getUser')
+             ->willReturn(new User(1, 1482245642055847, 'SmartMap SwEng', 'VISIBLE', 1.0, 2.0));
+
+        $this->mockRepo->expects($this->never())
+             ->method('updateUser');
+
         $request = new Request($getRequest = array(), $this->validPostRequest);
         
         $session = new Session(new MockFileSessionStorage());
@@ -90,6 +97,31 @@ class AuthenticationControllerTest extends PHPUnit_Framework_TestCase
     
     }
     
+    public function testLoginUpdatesChangedName()
+    {
+        $this->mockRepo
+             ->method('getUserIdFromFb')
+             ->willReturn(1);
+
+        $this->mockRepo
+             ->method('getUser')
+             ->willReturn(new User(1, 1482245642055847, 'Old Name', 'VISIBLE', 1.0, 2.0));
+
+        $this->mockRepo->expects($this->once())
+             ->method('updateUser')
+             ->with($this->callback(function ($user)
+             {
+                 return $user->getName() == 'SmartMap SwEng';
+             }), $this->equalTo(true));
+
+        $request = new Request($getRequest = array(), $this->validPostRequest);
+        
+        $session = new Session(new MockFileSessionStorage());
+        $request->setSession($session);
+
+        $this->authController->authenticate($request);
+    }
+    
     /**
      * @expectedException SmartMap\Control\InvalidRequestException
      * @expectedExceptionMessage Session is null. Did you send session cookie ?
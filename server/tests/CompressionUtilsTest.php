@@ -0,0 +1,114 @@
+<?php
+
+use SmartMap\Control\CompressionUtils;
+
+use Symfony\Component\HttpFoundation\JsonResponse;
+use Symfony\Component\HttpFoundation\Request;
+
+/** Tests for the CompressionUtils class.
+ * To run them, run
+ * $> phpunit --bootstrap vendor/autoload.php tests/CompressionUtilsTest.php
+ * from the server directory.
+ *
+ * @author Pamoi
+ *
+ */
+class CompressionUtilsTest extends PHPUnit_Framework_TestCase
+{
+    public function testDecodeGzipRequest()
+    {
+        $request = new Request($query = array(), $request = array(), array(), array(), array(),
+            array('HTTP_CONTENT_ENCODING' => 'gzip'), gzencode('events_ids=1%2C2%2C&since='));
+
+        CompressionUtils::decodeRequest($request);
+
+        $this->assertEquals('1,2,', $request->request->get('events_ids'));
+        $this->assertEquals('', $request->request->get('since'));
+    }
+
+    public function testDecodeUncompressedRequest()
+    {
+        $request = new Request($query = array(), $request = array('param' => 'toto'));
+
+        CompressionUtils::decodeRequest($request);
+
+        $this->assertEquals('toto', $request->request->get('param'));
+    }
+
+    /**
+     * @expectedException SmartMap\Control\InvalidRequestException
+     * @expectedExceptionMessage Invalid gzip request body.
+     */
+    public function testDecodeInvalidGzipRequest()
+    {
+        $request = new Request($query = array(), $request = array(), array(), array(), array(),
+            array('HTTP_CONTENT_ENCODING' => 'gzip'), 'not gzip');
+
+        CompressionUtils::decodeRequest($request);
+    }
+
+    /**
+     * @expectedException SmartMap\Control\InvalidRequestException
+     * @expectedExceptionMessage Request body too long.
+     */
+    public function testDecodeTooLongGzipRequest()
+    {
+        $body = gzencode(str_repeat('a', CompressionUtils::$MAX_DECODED_LENGTH + 1));
+        $request = new Request($query = array(), $request = array(), array(), array(), array(),
+            array('HTTP_CONTENT_ENCODING' => 'gzip'), $body);
+
+        CompressionUtils::decodeRequest($request);
+    }
+
+    /**
+     * @expectedException SmartMap\Control\InvalidRequestException
+     * @expectedExceptionMessage Invalid gzip request body.
+     */
+    public function testDecodeGzipRequestWithForgedLength()
+    {
+        $body = gzencode(str_repeat('a', CompressionUtils::$MAX_DECODED_LENGTH + 1));
+        // Claims a short decoded body
+        $body = substr($body, 0, -4) . pack('V', 10);
+        $request = new Request($query = array(), $request = array(), array(), array(), array(),
+            array('HTTP_CONTENT_ENCODING' => 'gzip'), $body);
+
+        CompressionUtils::decodeRequest($request);
+    }
+
+    public function testEncodeLongResponse()
+    {
+        $request = new Request();
+        $request->headers->set('Accept-Encoding', 'gzip');
+
+        $data = array('status' => 'Ok', 'message' => str_repeat('Fetched events. ', 100));
+        $response = new JsonResponse($data);
+
+        CompressionUtils::encodeResponse($request, $response);
+
+        $this->assertEquals('gzip', $response->headers->get('Content-Encoding'));
+        $this->assertEquals(json_encode($data), gzdecode($response->getContent()));
+    }
+
+    public function testDoNotEncodeShortResponse()
+    {
+        $request = new Request();
+        $request->headers->set('Accept-Encoding', 'gzip');
+
+        $response = new JsonResponse(array('status' => 'Ok', 'message' => 'Short'));
+
+        CompressionUtils::encodeResponse($request, $response);
+
+        $this->assertFalse($response->headers->has('Content-Encoding'));
+    }
+
+    public function testDoNotEncodeWhenNotAccepted()
+    {
+        $request = new Request();
+
+        $response = new JsonResponse(array('status' => 'Ok', 'message' => str_repeat('Fetched events. ', 100)));
+
+        CompressionUtils::encodeResponse($request, $response);
+
+        $this->assertFalse($response->headers->has('Content-Encoding'));
+    }
+}
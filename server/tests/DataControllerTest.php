@@ -229,6 +229,99 @@ class DataControllerTest extends PHPUnit_Framework_TestCase
         $this->assertEquals($response->getContent(), json_encode($validResponse));
     }
     
+    public function testListFriendsPosSince()
+    {
+        $user = new User(14, 1234, 'Me', 'VISIBLE', 10, 20, '2014-11-21 21:44:54');
+
+        $friendsIds = array(1, 2, 3, 4, 5);
+
+        $visibleUsers = array(
+            new User(1, 2, 'Toto', 'VISIBLE', 1.0, 2.0, '2014-11-12 13:33:45'),
+            new User(2, 3, 'Titi', 'VISIBLE', 3.0, 4.0, '2014-11-13 01:56:22'),
+            // Friendship accepted after its last move
+            new User(3, 4, 'Tata', 'VISIBLE', 5.0, 6.0, '2014-11-10 10:00:00')
+        );
+
+        $invisibleUsers = array(
+            // Became invisible
+            new User(4, 5, 'Tutu', 'INVISIBLE', 7.0, 8.0, '2014-11-13 12:00:00'),
+            new User(5, 6, 'Tete', 'INVISIBLE', 9.0, 10.0, '2014-11-01 12:00:00')
+        );
+
+        $this->mockRepo
+            ->method('getUser')
+            ->willReturn($user);
+
+        $this->mockRepo
+            ->method('getFriendsIds')
+            ->willReturn($friendsIds);
+
+        // Friend 6 stopped sharing the position with us
+        $this->mockRepo->expects($this->once())
+            ->method('getFriendsIdsChangedSince')
+            ->with($this->equalTo(14), $this->equalTo('2014-11-13 00:00:00'))
+            ->willReturn(array(3, 6));
+
+        $this->mockRepo
+            ->method('getUsers')
+            ->will($this->returnValueMap(array(
+                array($friendsIds, array('VISIBLE'), $visibleUsers),
+                array($friendsIds, array('INVISIBLE'), $invisibleUsers)
+            )));
+
+        $request = new Request($query = array(), $request = array('since' => '2014-11-13 00:00:00'));
+
+        $session =  new Session(new MockArraySessionStorage());
+        $session->set('userId', 14);
+        $request->setSession($session);
+
+        $controller = new DataController($this->mockRepo);
+
+        $response = json_decode($controller->listFriendsPos($request)->getContent(), true);
+
+        $this->assertEquals('Ok', $response['status']);
+        $this->assertEquals(2, count($response['positions']));
+        $this->assertEquals(2, $response['positions'][0]['id']);
+        $this->assertEquals(3, $response['positions'][1]['id']);
+        $this->assertEquals(array(4, 6), $response['removedIds']);
+        $this->assertArrayHasKey('cursor', $response);
+    }
+
+    public function testInvisibleListFriendsPosSinceKeepsCursor()
+    {
+        $user = new User(14, 1234, 'Me', 'INVISIBLE', 10, 20, '2014-11-21 21:44:54');
+
+        $this->mockRepo
+            ->method('getUser')
+            ->willReturn($user);
+
+        $this->mockRepo
+            ->method('getFriendsIds')
+            ->willReturn(array(1));
+
+        $this->mockRepo
+            ->method('getFriendsIdsChangedSince')
+            ->willReturn(array());
+
+        $this->mockRepo
+            ->method('getUsers')
+            ->willReturn(array(new User(1, 2, 'Toto', 'VISIBLE', 1.0, 2.0, '2014-11-13 13:33:45')));
+
+        $request = new Request($query = array(), $request = array('since' => '2014-11-13 00:00:00'));
+
+        $session =  new Session(new MockArraySessionStorage());
+        $session->set('userId', 14);
+        $request->setSession($session);
+
+        $controller = new DataController($this->mockRepo);
+
+        $response = json_decode($controller->listFriendsPos($request)->getContent(), true);
+
+        // Positions updated while the user is invisible must be sent once visible again
+        $this->assertEquals(array(), $response['positions']);
+        $this->assertEquals('2014-11-13 00:00:00', $response['cursor']);
+    }
+
     public function testValidGetFriendsIds()
     {
         $friendsIds = array(2, 6, 12);
@@ -376,6 +469,73 @@ class DataControllerTest extends PHPUnit_Framework_TestCase
         $this->assertEquals($response->getContent(), json_encode($validResponse));
     }
     
+    public function testValidGetUsersInfo()
+    {
+        $returnUsers = array(
+            new User(14, 12345, 'Toto', 'VISIBLE', 1.0, 2.0),
+            new User(15, 12346, 'Titi', 'VISIBLE', 1.0, 2.0),
+            new User(16, 12347, 'Tata', 'INVISIBLE', 1.0, 2.0)
+        );
+
+        $this->mockRepo
+            ->method('getUsers')
+            ->willReturn($returnUsers);
+
+        $this->mockRepo->expects($this->once())
+            ->method('getUsers')
+            ->with($this->equalTo(array(14, 15, 16)));
+
+        $this->mockRepo
+            ->method('getFriendsIds')
+            ->willReturn(array(11, 15));
+
+        $this->mockRepo->expects($this->once())
+            ->method('getFriendsIds')
+            ->with($this->equalTo(14));
+
+        $request = new Request($query = array(), $request = array('users_ids' => '14,15,16,'));
+
+        $session =  new Session(new MockArraySessionStorage());
+        $session->set('userId', 14);
+        $request->setSession($session);
+
+        $controller = new DataController($this->mockRepo);
+
+        $response = $controller->getUsersInfo($request);
+
+        $validResponse = array('status' => 'Ok',
+            'message' => 'Fetched users info !',
+            'users' => array(
+                array('id' => 14, 'name' => 'Toto', 'isFriend' => 2, 'pictureVersion' => null),
+                array('id' => 15, 'name' => 'Titi', 'isFriend' => 1, 'pictureVersion' => null),
+                array('id' => 16, 'name' => 'Tata', 'isFriend' => 0, 'pictureVersion' => null)
+            )
+        );
+
+        $this->assertEquals($response->getContent(), json_encode($validResponse));
+    }
+
+    /**
+     * @expectedException SmartMap\Control\ControlLogicException
+     * @expectedExceptionMessage Error in getUsersInfo.
+     */
+    public function testGetUsersInfoDBException()
+    {
+        $this->mockRepo
+            ->method('getUsers')
+            ->will($this->throwException(new \SmartMap\DBInterface\DatabaseException()));
+
+        $request = new Request($query = array(), $request = array('users_ids' => '15,16'));
+
+        $session =  new Session(new MockArraySessionStorage());
+        $session->set('userId', 14);
+        $request->setSession($session);
+
+        $controller = new DataController($this->mockRepo);
+
+        $controller->getUsersInfo($request);
+    }
+
     public function testValidInviteFriend()
     {
         $this->mockRepo
@@ -746,4 +746,120 @@ class EventControllerTest extends PHPUnit_Framework_TestCase
 
         $controller->getEventInfo($request);
     }
-}
+
+    public function testGetEventsInfo()
+    {
+        $creator = new User(123, 2, 'Toto', 'VISIBLE', 1.0, 2.0);
+
+        $this->mockEventRepo
+             ->method('getEvents')
+             ->willReturn(array($this->mValidEvent));
+
+        $this->mockEventRepo->expects($this->once())
+             ->method('getEvents')
+             ->with($this->equalTo(array(1, 36)));
+
+        $this->mockEventRepo
+             ->method('getEventsParticipants')
+             ->willReturn(array(1 => array(1, 2, 3)));
+
+        $this->mockEventRepo->expects($this->once())
+             ->method('getEventsParticipants')
+             ->with($this->equalTo(array(1)));
+
+        $this->mockUserRepo
+             ->method('getUsers')
+             ->willReturn(array($creator));
+
+        $this->mockUserRepo->expects($this->once())
+             ->method('getUsers')
+             ->with($this->equalTo(array(123)));
+
+        $request = new Request($query = array(), $request = array('events_ids' => '1,36'));
+
+        $session =  new Session(new MockArraySessionStorage());
+        $session->set('userId', 14);
+        $request->setSession($session);
+
+        $controller = new EventController($this->mockEventRepo, $this->mockUserRepo);
+
+        $response = $controller->getEventsInfo($request);
+
+        $event = array(
+            'id' => $this->mValidEvent->getId(),
+            'creator' => array('id' => 123, 'name' => 'Toto'),
+            'startingDate' => $this->mValidEvent->getStartingDate(),
+            'endingDate' => $this->mValidEvent->getEndingDate(),
+            'longitude' => $this->mValidEvent->getLongitude(),
+            'latitude' => $this->mValidEvent->getLatitude(),
+            'positionName' => $this->mValidEvent->getPositionName(),
+            'name' => $this->mValidEvent->getName(),
+            'description' => $this->mValidEvent->getDescription(),
+            'participants' => array(1, 2, 3)
+        );
+
+        $validResponse = array('status' => 'Ok', 'message' => 'Fetched events.', 'events' => array($event));
+
+        $this->assertEquals(json_encode($validResponse), $response->getContent());
+    }
+
+    public function testGetEventsInfoSince()
+    {
+        $this->mockEventRepo
+             ->method('getEvents')
+             ->willReturn(array());
+
+        $this->mockEventRepo->expects($this->once())
+             ->method('getEvents')
+             ->with($this->equalTo(array(1, 36)), $this->equalTo('2014-11-13 00:00:00'));
+
+        // Event 36 was deleted
+        $this->mockEventRepo
+             ->method('getExistingEventsIds')
+             ->willReturn(array(1));
+
+        $this->mockEventRepo
+             ->method('getEventsParticipants')
+             ->willReturn(array());
+
+        $this->mockUserRepo
+             ->method('getUsers')
+             ->willReturn(array());
+
+        $request = new Request($query = array(),
+            $request = array('events_ids' => '1,36', 'since' => '2014-11-13 00:00:00'));
+
+        $session =  new Session(new MockArraySessionStorage());
+        $session->set('userId', 14);
+        $request->setSession($session);
+
+        $controller = new EventController($this->mockEventRepo, $this->mockUserRepo);
+
+        $response = json_decode($controller->getEventsInfo($request)->getContent(), true);
+
+        $this->assertEquals(array(), $response['events']);
+        $this->assertEquals(array(36), $response['removedIds']);
+        $this->assertArrayHasKey('cursor', $response);
+    }
+
+    /**
+     * @expectedException SmartMap\Control\ControlLogicException
+     * @expectedExceptionMessage Error in getEventsInfo.
+     */
+    public function testGetEventsInfoDBException()
+    {
+        $this->mockEventRepo
+            ->method('getEvents')
+            ->will($this->throwException(new \SmartMap\DBInterface\DatabaseException()));
+
+        $request = new Request($query = array(), $request = array('events_ids' => '1,36'));
+
+        $session =  new Session(new MockArraySessionStorage());
+        $session->set('userId', 14);
+        $request->setSession($session);
+
+        $controller = new EventController($this->mockEventRepo, $this->mockUserRepo);
+
+        $controller->getEventsInfo($request);
+    }
+}
\ No newline at end of file
@@ -105,11 +105,16 @@ class EventRepositoryTest extends PHPUnit_Extensions_Database_TestCase
             'description' => 'SmartMap is an app that shows you your friends and events on a map.'
         );
 
-        $queryTable = $this->getConnection()->createQueryTable('events', 'SELECT * FROM events WHERE id = 1');
+        $queryTable = $this->getConnection()->createQueryTable('events', 'SELECT id, creator_id, starting_date, ' .
+            'ending_date, longitude, latitude, position_name, name, description FROM events WHERE id = 1');
 
         $row = $queryTable->getRow(0);
 
         $this->assertEquals($correctRow, $row);
+
+        // The update must be visible to clients synchronizing since before it
+        $this->assertEquals(array(), $repo->getEvents(array(1), '2100-01-01 00:00:00'));
+        $this->assertEquals(1, count($repo->getEvents(array(1), '2014-11-18 00:00:00')));
     }
 
     public function testGetEvent()
@@ -155,6 +160,58 @@ class EventRepositoryTest extends PHPUnit_Extensions_Database_TestCase
         $repo->getEvent(3);
     }
 
+    public function testGetEvents()
+    {
+        $repo = new EventRepository(self::$doctrine);
+
+        $correct = new Event(
+            2,
+            1,
+            '2014-12-24 20:30:00',
+            '2014-12-25 00:00:00',
+            45.46734,
+            76.637524,
+            'Somewhere',
+            'Christmas night',
+            'Gifts for everyone !'
+        );
+
+        // Non existing ids are ignored
+        $events = $repo->getEvents(array(2, 10));
+
+        $this->assertEquals(array($correct), $events);
+    }
+
+    public function testGetEventsSince()
+    {
+        $repo = new EventRepository(self::$doctrine);
+
+        // Events in fixture were never modified
+        $this->assertEquals(array(), $repo->getEvents(array(1, 2), '2014-11-18 00:00:00'));
+
+        $repo->addUserToEvent(2, 12);
+
+        $events = $repo->getEvents(array(1, 2), '2014-11-18 00:00:00');
+
+        $this->assertEquals(1, count($events));
+        $this->assertEquals(2, $events[0]->getId());
+    }
+
+    public function testGetEventsWithEmptyList()
+    {
+        $repo = new EventRepository(self::$doctrine);
+
+        $this->assertEquals(array(), $repo->getEvents(array()));
+    }
+
+    public function testGetExistingEventsIds()
+    {
+        $repo = new EventRepository(self::$doctrine);
+
+        $this->assertEquals(array(2), $repo->getExistingEventsIds(array(2, 10)));
+        $this->assertEquals(array(), $repo->getExistingEventsIds(array()));
+    }
+
     public function testGetEventsInRadius()
     {
         $repo = new EventRepository(self::$doctrine);
@@ -167,6 +224,45 @@ class EventRepositoryTest extends PHPUnit_Extensions_Database_TestCase
         $this->assertEquals($correct, $events);
     }
 
+    public function testGetEventsInSmallRadius()
+    {
+        $repo = new EventRepository(self::$doctrine);
+
+        // Event 4 is about 40 km away, outside of the box
+        $this->assertEquals(array(), $repo->getEventsInRadius(6.76186181 ,46.81875763, 10));
+
+        $this->assertEquals(array(4), $repo->getEventsInRadius(6.56186974 ,46.51895762, 1));
+    }
+
+    public function testBoundingBoxContainsCircle()
+    {
+        $box = EventRepository::boundingBox(6.5, 46.5, 100);
+
+        $this->assertEquals(1, count($box['longitudeRanges']));
+        $this->assertTrue($box['minLatitude'] < 46.5 - 0.89 AND $box['minLatitude'] > 46.5 - 0.91);
+        $this->assertTrue($box['maxLatitude'] > 46.5 + 0.89 AND $box['maxLatitude'] < 46.5 + 0.91);
+        $this->assertTrue($box['longitudeRanges'][0][0] < 6.5 - 1.3);
+        $this->assertTrue($box['longitudeRanges'][0][1] > 6.5 + 1.3);
+    }
+
+    public function testBoundingBoxAcrossAntimeridian()
+    {
+        $box = EventRepository::boundingBox(179.5, 0, 200);
+
+        $this->assertEquals(2, count($box['longitudeRanges']));
+        $this->assertEquals(180, $box['longitudeRanges'][0][1]);
+        $this->assertEquals(-180, $box['longitudeRanges'][1][0]);
+        $this->assertTrue($box['longitudeRanges'][1][1] > -179.0);
+    }
+
+    public function testBoundingBoxNearPole()
+    {
+        $box = EventRepository::boundingBox(10, 89.5, 100);
+
+        $this->assertEquals(90, $box['maxLatitude']);
+        $this->assertEquals(array(), $box['longitudeRanges']);
+    }
+
     public function testAddEventInvitations()
     {
         $this->assertEquals(4, $this->getConnection()->getRowCount('events_invitations'), "Pre-Condition");
@@ -286,6 +382,15 @@ class EventRepositoryTest extends PHPUnit_Extensions_Database_TestCase
         $this->assertEquals(array(13, 5), $participants);
     }
 
+    public function testGetEventsParticipants()
+    {
+        $repo = new EventRepository(self::$doctrine);
+
+        $participants = $repo->getEventsParticipants(array(1, 2));
+
+        $this->assertEquals(array(1 => array(13, 5), 2 => array()), $participants);
+    }
+
     public function testGetEventInvitations()
     {
         $repo = new EventRepository(self::$doctrine);
@@ -0,0 +1,129 @@
+<?php
+
+use Silex\Application;
+
+use SmartMap\Control\ProfileController;
+
+use Symfony\Component\HttpFoundation\Request;
+use Symfony\Component\HttpFoundation\Session\Session;
+use Symfony\Component\HttpFoundation\Session\Storage\MockArraySessionStorage;
+
+/**
+ * Tests for the ProfileController class.
+ * To run them, run
+ * $> phpunit --bootstrap vendor/autoload.php tests/ProfileControllerTest.php
+ * from the server directory.
+ *
+ * @author Pamoi
+ *
+ */
+class ProfileControllerTest extends PHPUnit_Framework_TestCase
+{
+    private $app;
+    private $picturesPath;
+    private $previousPicturesPath;
+
+    public function setUp()
+    {
+        $this->app = new Application();
+        $this->app['debug'] = true;
+
+        $this->previousPicturesPath = ProfileController::$PICTURES_PATH;
+        $this->picturesPath = sys_get_temp_dir() . '/smartmap_pictures_' . uniqid() . '/';
+        mkdir($this->picturesPath);
+        ProfileController::$PICTURES_PATH = $this->picturesPath;
+
+        file_put_contents($this->picturesPath . '14.jpg', 'first picture');
+        file_put_contents($this->picturesPath . 'default.jpg', 'default picture');
+    }
+
+    public function tearDown()
+    {
+        array_map('unlink', glob($this->picturesPath . '*'));
+        rmdir($this->picturesPath);
+        ProfileController::$PICTURES_PATH = $this->previousPicturesPath;
+    }
+
+    public function testPictureHasEtag()
+    {
+        $response = $this->getPicture(14);
+
+        $this->assertEquals(200, $response->getStatusCode());
+        $this->assertNotNull($response->getEtag());
+    }
+
+    public function testUnchangedPictureIsNotSentAgain()
+    {
+        $etag = $this->getPicture(14)->getEtag();
+
+        // The picture may be written again
+        ProfileController::savePicture(14, 'first picture');
+        $response = $this->getPicture(14, $etag);
+
+        $this->assertEquals(304, $response->getStatusCode());
+        $this->assertEquals($etag, $response->getEtag());
+    }
+
+    public function testChangedPictureIsSent()
+    {
+        $etag = $this->getPicture(14)->getEtag();
+
+        ProfileController::savePicture(14, 'second picture');
+        $response = $this->getPicture(14, $etag);
+
+        $this->assertEquals(200, $response->getStatusCode());
+        $this->assertNotEquals($etag, $response->getEtag());
+    }
+
+    public function testDefaultPictureHasEtag()
+    {
+        $etag = $this->getPicture(15)->getEtag();
+
+        $this->assertNotNull($etag);
+        $this->assertEquals(304, $this->getPicture(15, $etag)->getStatusCode());
+    }
+
+    public function testPictureVersionIsEtag()
+    {
+        $this->assertEquals($this->getPicture(14)->getEtag(), ProfileController::getPictureVersion(14));
+        $this->assertEquals($this->getPicture(15)->getEtag(), ProfileController::getPictureVersion(15));
+    }
+
+    public function testPictureVersionIsStored()
+    {
+        ProfileController::savePicture(16, 'saved picture');
+        $version = ProfileController::getPictureVersion(16);
+
+        $this->assertEquals('"' . sha1('saved picture') . '"', $version);
+
+        // The version is not computed again from the picture
+        file_put_contents($this->picturesPath . '16.jpg', 'modified elsewhere');
+        $this->assertEquals($version, ProfileController::getPictureVersion(16));
+    }
+
+    public function testNoPictureVersionWithoutPicture()
+    {
+        unlink($this->picturesPath . 'default.jpg');
+        @unlink($this->picturesPath . 'default.jpg.version');
+
+        $this->assertNull(ProfileController::getPictureVersion(15));
+    }
+
+    private function getPicture($id, $etag = null)
+    {
+        $request = new Request($query = array(), $request = array('user_id' => $id));
+        $request->setMethod('POST');
+        if ($etag !== null)
+        {
+            $request->headers->set('If-None-Match', $etag);
+        }
+
+        $session =  new Session(new MockArraySessionStorage());
+        $session->set('userId', 14);
+        $request->setSession($session);
+
+        $controller = new ProfileController();
+
+        return $controller->getProfilePicture($request, $this->app);
+    }
+}
@@ -206,6 +206,64 @@ class UserRepositoryTest extends PHPUnit_Extensions_Database_TestCase
 	    $this->assertEquals($correct, $users);
 	}
 	
+	public function testFindUsersByPartialNameMatchesWordsIgnoringAccents()
+	{
+	    $repo = new UserRepository(self::$doctrine);
+	    
+	    $repo->updateUser(new User(1, 274, 'Jean-Luc Dupré', 'VISIBLE', 42.05, 23.77), true);
+	    
+	    $this->assertEquals(array(1), $this->idsOf($repo->findUsersByPartialName('DUPRE', array())));
+	    $this->assertEquals(array(1), $this->idsOf($repo->findUsersByPartialName('luc', array())));
+	    $this->assertEquals(array(1), $this->idsOf($repo->findUsersByPartialName('jean luc d', array())));
+	    $this->assertEquals(array(), $repo->findUsersByPartialName('toto', array()));
+	    $this->assertEquals(array(), $repo->findUsersByPartialName('ean', array()));
+	}
+	
+	public function testUpdateUserKeepsSearchNamesUnlessNameChanged()
+	{
+	    $repo = new UserRepository(self::$doctrine);
+	    
+	    $searchNamesCount = $this->getConnection()->getRowCount('user_search_names');
+	    
+	    $repo->updateUser(new User(1, 274, 'Jean-Luc Dupré', 'VISIBLE', 42.05, 23.77));
+	    
+	    $this->assertEquals($searchNamesCount, $this->getConnection()->getRowCount('user_search_names'));
+	    $this->assertEquals(array(), $repo->findUsersByPartialName('dupre', array()));
+	}
+	
+	public function testFindCreatedUserByPartialName()
+	{
+	    $repo = new UserRepository(self::$doctrine);
+	    
+	    $user = $repo->createUser(new User(1, 56789, 'Hélène Martin', 'VISIBLE', 1.0, 2.0));
+	    
+	    $users = $repo->findUsersByPartialName('mar', array());
+	    
+	    $this->assertEquals(array($user->getId()), $this->idsOf($users));
+	}
+	
+	public function testBackfillSearchNames()
+	{
+	    self::$doctrine->executeUpdate("DELETE FROM user_search_names WHERE idusers IN (2, 3)");
+	    self::$doctrine->executeUpdate("UPDATE users SET name = 'Tata Martin' WHERE idusers = 3");
+	    
+	    $repo = new UserRepository(self::$doctrine);
+	    
+	    $this->assertEquals(2, $repo->backfillSearchNames(1));
+	    $this->assertEquals(array(2), $this->idsOf($repo->findUsersByPartialName('tit', array())));
+	    $this->assertEquals(array(3), $this->idsOf($repo->findUsersByPartialName('mart', array())));
+	    
+	    $this->assertEquals(0, $repo->backfillSearchNames());
+	}
+	
+	public function testSearchNamesOf()
+	{
+	    $this->assertEquals('jean luc picard', UserRepository::normalizeSearchText('  Jean-Luc  PICARD! '));
+	    $this->assertEquals(array('jean luc picard', 'luc picard', 'picard'),
+	        array_values(UserRepository::searchNamesOf('Jean-Luc Picard')));
+	    $this->assertEquals(array(), UserRepository::searchNamesOf(' - '));
+	}
+	
 	public function testCreateUser()
 	{
 	    $this->assertEquals(4, $this->getConnection()->getRowCount('users'), "Pre-Condition");
@@ -430,7 +488,8 @@ class UserRepositoryTest extends PHPUnit_Extensions_Database_TestCase
 	        dirname(__FILE__)."/fixtures/UserRepositorySetFriendshipsStatus.yml");
 	    $correctTable = $correctDataSet->getTable('friendships');
 	    
-	    $queryTable = $this->getConnection()->createQueryTable('friendships', 'SELECT * FROM friendships');
+	    $queryTable = $this->getConnection()->createQueryTable('friendships',
+	        'SELECT id1, id2, status, follow FROM friendships');
 	    
 	    $this->assertTablesEqual($correctTable, $queryTable);
 	}
@@ -474,6 +533,24 @@ class UserRepositoryTest extends PHPUnit_Extensions_Database_TestCase
 	    
 	    $this->assertEquals('UNFOLLOWED', $row['follow']);
 	}
+
+	public function testGetFriendsIdsChangedSince()
+	{
+	    $repo = new UserRepository(self::$doctrine);
+	    
+	    $this->assertEquals(array(), $repo->getFriendsIdsChangedSince(1, '2014-01-01 00:00:00'));
+	    
+	    $repo->setFriendshipFollow(1, 2, 'UNFOLLOWED');
+	    // User 3 stops sharing the position with user 1
+	    $repo->setFriendshipStatus(3, 1, 'DISALLOWED');
+	    
+	    $changedIds = $repo->getFriendsIdsChangedSince(1, '2014-01-01 00:00:00');
+	    sort($changedIds);
+	    
+	    $this->assertEquals(array(2, 3), $changedIds);
+	    $this->assertEquals(array(), $repo->getFriendsIdsChangedSince(2, '2014-01-01 00:00:00'));
+	    $this->assertEquals(array(), $repo->getFriendsIdsChangedSince(1, '2100-01-01 00:00:00'));
+	}
 	
 	/**
 	 * @expectedException SmartMap\DBInterface\DatabaseException
@@ -598,4 +675,15 @@ class UserRepositoryTest extends PHPUnit_Extensions_Database_TestCase
 
         $this->assertEquals(0, $this->getConnection()->getRowCount('removed_friends'), "Post-Condition");
     }
+
+    private function idsOf(array $users)
+    {
+        $ids = array();
+        foreach ($users as $user)
+        {
+            $ids[] = $user->getId();
+        }
+
+        return $ids;
+    }
 }
@@ -0,0 +1,196 @@
+<?php
+
+use SmartMap\DBInterface\Event;
+use SmartMap\DBInterface\EventRepository;
+
+use Doctrine\DBAL\DriverManager;
+use Doctrine\DBAL\Configuration;
+
+/**
+ * Load test for EventRepository::getEventsInRadius. Fills an events table with growing numbers of random
+ * events and reports the latency of the bounding box query, compared to the former full scan computing the
+ * distance to every unfinished event in PHP.
+ * To run it, run
+ * $> php tests/load/events_in_radius.php [sqlite|mysql] [max events]
+ * from the server directory. The sqlite mode uses an in memory database and needs pdo_sqlite. The mysql mode
+ * uses the database configured in tests/phpunit.xml, and DROPS its events table.
+ *
+ * @author Pamoi
+ *
+ */
+
+require __DIR__ . '/../../vendor/autoload.php';
+
+$mode = isset($argv[1]) ? $argv[1] : 'sqlite';
+$maxEvents = isset($argv[2]) ? (int) $argv[2] : 1000000;
+
+$queriesPerStep = 50;
+$radius = 10;
+$insertBatch = 1000;
+
+$config = new Configuration();
+
+if ($mode == 'mysql')
+{
+    $xml = simplexml_load_file(__DIR__ . '/../phpunit.xml');
+    $vars = array();
+    foreach ($xml->php->var as $var)
+    {
+        $vars[(string) $var['name']] = (string) $var['value'];
+    }
+
+    $db = DriverManager::getConnection(array(
+        'dbname' => $vars['DB_DBNAME'],
+        'user' => $vars['DB_USER'],
+        'password' => $vars['DB_PASSWD'],
+        'host' => 'localhost',
+        'driver' => 'pdo_mysql',
+    ), $config);
+
+    $db->executeUpdate("DROP TABLE IF EXISTS events");
+    $db->executeUpdate("CREATE TABLE events (
+        id bigint(20) unsigned NOT NULL AUTO_INCREMENT PRIMARY KEY,
+        creator_id bigint(20) unsigned NOT NULL,
+        starting_date datetime NOT NULL,
+        ending_date datetime NOT NULL,
+        longitude double NOT NULL,
+        latitude double NOT NULL,
+        position_name varchar(60) NOT NULL,
+        name varchar(60) NOT NULL,
+        description varchar(255) NOT NULL,
+        last_update datetime NOT NULL DEFAULT '1970-01-01 00:00:00',
+        KEY idx_events_position (latitude, longitude)
+    ) ENGINE=InnoDB");
+}
+else
+{
+    $db = DriverManager::getConnection(array('driver' => 'pdo_sqlite', 'memory' => true), $config);
+
+    $db->executeUpdate("CREATE TABLE events (
+        id INTEGER PRIMARY KEY AUTOINCREMENT,
+        creator_id INTEGER NOT NULL,
+        starting_date TEXT NOT NULL,
+        ending_date TEXT NOT NULL,
+        longitude REAL NOT NULL,
+        latitude REAL NOT NULL,
+        position_name TEXT NOT NULL,
+        name TEXT NOT NULL,
+        description TEXT NOT NULL,
+        last_update TEXT NOT NULL DEFAULT '1970-01-01 00:00:00'
+    )");
+    $db->executeUpdate("CREATE INDEX idx_events_position ON events (latitude, longitude)");
+}
+
+$repo = new EventRepository($db);
+
+/**
+ * The query used before the bounding box prefilter, kept as a reference.
+ */
+function legacyEventsInRadius($db, $longitude, $latitude, $radius)
+{
+    $stmt = $db->executeQuery("SELECT id, longitude, latitude FROM events WHERE ending_date > ?",
+        array(date(Event::$DATE_FORMAT)));
+
+    $eventsIds = array();
+
+    $lat1 = deg2rad($latitude);
+    $long1 = deg2rad($longitude);
+
+    while ($eventData = $stmt->fetch())
+    {
+        $lat2 = deg2rad($eventData['latitude']);
+        $long2 = deg2rad($eventData['longitude']);
+
+        $dlat = $lat1 - $lat2;
+        $dlon = $long1 - $long2;
+
+        $a = sin($dlat / 2) * sin($dlat / 2) + cos($lat1) * cos($lat2) * sin($dlon / 2) * sin($dlon / 2);
+
+        if (6373 * 2 * atan2(sqrt($a), sqrt(1 - $a)) <= $radius)
+        {
+            $eventsIds[] = $eventData['id'];
+        }
+    }
+
+    return $eventsIds;
+}
+
+function percentile(array $values, $p)
+{
+    sort($values);
+    return $values[(int) floor((count($values) - 1) * $p)];
+}
+
+function randomPosition()
+{
+    // Events are concentrated around a few cities, as in real usage.
+    $cities = array(array(6.63, 46.52), array(8.54, 47.37), array(2.35, 48.86), array(-0.13, 51.51),
+        array(139.69, 35.69), array(-74.0, 40.71));
+    $city = $cities[mt_rand(0, count($cities) - 1)];
+
+    return array($city[0] + (mt_rand() / mt_getrandmax() - 0.5) * 4,
+        $city[1] + (mt_rand() / mt_getrandmax() - 0.5) * 4);
+}
+
+mt_srand(42);
+
+$inserted = 0;
+$future = date(Event::$DATE_FORMAT, time() + 86400);
+$past = date(Event::$DATE_FORMAT, time() - 86400);
+
+printf("%10s %12s %12s %12s %12s %8s\n", 'events', 'box p50 ms', 'box p95 ms', 'scan p50 ms',
+    'scan p95 ms', 'found');
+
+for ($step = 1000; $step <= $maxEvents; $step *= 10)
+{
+    $db->beginTransaction();
+    $stmt = $db->prepare("INSERT INTO events (creator_id, starting_date, ending_date, longitude, latitude,
+        position_name, name, description) VALUES (1, ?, ?, ?, ?, 'Somewhere', 'Event', 'Load test event')");
+
+    while ($inserted < $step)
+    {
+        $position = randomPosition();
+        // A quarter of the events are finished
+        $stmt->execute(array($past, (mt_rand(0, 3) == 0) ? $past : $future, $position[0], $position[1]));
+        $inserted++;
+
+        if ($inserted % $insertBatch == 0)
+        {
+            $db->commit();
+            $db->beginTransaction();
+        }
+    }
+    $db->commit();
+
+    $boxTimes = array();
+    $scanTimes = array();
+    $found = 0;
+
+    for ($i = 0; $i < $queriesPerStep; $i++)
+    {
+        $position = randomPosition();
+
+        $start = microtime(true);
+        $ids = $repo->getEventsInRadius($position[0], $position[1], $radius);
+        $boxTimes[] = (microtime(true) - $start) * 1000;
+        $found += count($ids);
+
+        // The full scan gets too slow to be run for every query on big tables.
+        if ($i < 5)
+        {
+            $start = microtime(true);
+            $legacyIds = legacyEventsInRadius($db, $position[0], $position[1], $radius);
+            $scanTimes[] = (microtime(true) - $start) * 1000;
+
+            if (count(array_diff($ids, $legacyIds)) > 0 OR count(array_diff($legacyIds, $ids)) > 0)
+            {
+                fwrite(STDERR, "Bounding box query and full scan returned different events.\n");
+                exit(1);
+            }
+        }
+    }
+
+    printf("%10d %12.2f %12.2f %12.2f %12.2f %8.1f\n", $step, percentile($boxTimes, 0.5),
+        percentile($boxTimes, 0.95), percentile($scanTimes, 0.5), percentile($scanTimes, 0.95),
+        $found / $queriesPerStep);
+}
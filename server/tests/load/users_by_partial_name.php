@@ -0,0 +1,198 @@
+<?php
+
+use SmartMap\DBInterface\UserRepository;
+
+use Doctrine\DBAL\DriverManager;
+use Doctrine\DBAL\Configuration;
+
+/**
+ * Load test for UserRepository::findUsersByPartialName. Fills a users table with growing numbers of users
+ * with random names and reports the latency of the prefix range scan on the search names, compared to the
+ * former query comparing the beginning of every lower case name.
+ * To run it, run
+ * $> php tests/load/users_by_partial_name.php [sqlite|mysql] [max users]
+ * from the server directory. The sqlite mode uses an in memory database and needs pdo_sqlite. The mysql mode
+ * uses the database configured in tests/phpunit.xml, and DROPS its users and user_search_names tables.
+ *
+ * @author Pamoi
+ *
+ */
+
+require __DIR__ . '/../../vendor/autoload.php';
+
+$mode = isset($argv[1]) ? $argv[1] : 'sqlite';
+$maxUsers = isset($argv[2]) ? (int) $argv[2] : 1000000;
+
+$queriesPerStep = 50;
+$insertBatch = 1000;
+
+$config = new Configuration();
+
+if ($mode == 'mysql')
+{
+    $xml = simplexml_load_file(__DIR__ . '/../phpunit.xml');
+    $vars = array();
+    foreach ($xml->php->var as $var)
+    {
+        $vars[(string) $var['name']] = (string) $var['value'];
+    }
+
+    $db = DriverManager::getConnection(array(
+        'dbname' => $vars['DB_DBNAME'],
+        'user' => $vars['DB_USER'],
+        'password' => $vars['DB_PASSWD'],
+        'host' => 'localhost',
+        'driver' => 'pdo_mysql',
+    ), $config);
+
+    $db->executeUpdate("DROP TABLE IF EXISTS users");
+    $db->executeUpdate("CREATE TABLE users (
+        idusers bigint(20) unsigned NOT NULL AUTO_INCREMENT PRIMARY KEY,
+        fbid bigint(20) unsigned NOT NULL,
+        name varchar(60) NOT NULL,
+        visibility enum('VISIBLE','INVISIBLE') NOT NULL,
+        longitude double NOT NULL,
+        latitude double NOT NULL,
+        last_update datetime NOT NULL
+    ) ENGINE=InnoDB DEFAULT CHARSET=utf8");
+    $db->executeUpdate("DROP TABLE IF EXISTS user_search_names");
+    $db->executeUpdate("CREATE TABLE user_search_names (
+        search_name varchar(120) NOT NULL,
+        idusers bigint(20) unsigned NOT NULL,
+        PRIMARY KEY (search_name, idusers),
+        KEY idx_user_search_names_user (idusers)
+    ) ENGINE=InnoDB DEFAULT CHARSET=utf8");
+}
+else
+{
+    $db = DriverManager::getConnection(array('driver' => 'pdo_sqlite', 'memory' => true), $config);
+
+    $db->executeUpdate("CREATE TABLE users (
+        idusers INTEGER PRIMARY KEY AUTOINCREMENT,
+        fbid INTEGER NOT NULL,
+        name TEXT NOT NULL,
+        visibility TEXT NOT NULL,
+        longitude REAL NOT NULL,
+        latitude REAL NOT NULL,
+        last_update TEXT NOT NULL
+    )");
+    // SQLite only uses an index for LIKE on a case insensitive column.
+    $db->executeUpdate("CREATE TABLE user_search_names (
+        search_name TEXT NOT NULL COLLATE NOCASE,
+        idusers INTEGER NOT NULL,
+        PRIMARY KEY (search_name, idusers)
+    )");
+    $db->executeUpdate("CREATE INDEX idx_user_search_names_user ON user_search_names (idusers)");
+}
+
+$repo = new UserRepository($db);
+
+/**
+ * The query used before the search names, kept as a reference.
+ */
+function legacyFindUsersByPartialName($db, $partialName)
+{
+    $stmt = $db->executeQuery("SELECT * FROM users WHERE SUBSTR(LOWER(name), 1, ?) = ? LIMIT 10",
+        array(strlen($partialName), strtolower($partialName)), array(\PDO::PARAM_INT, \PDO::PARAM_STR));
+
+    return $stmt->fetchAll();
+}
+
+function percentile(array $values, $p)
+{
+    sort($values);
+    return $values[(int) floor((count($values) - 1) * $p)];
+}
+
+function randomWord()
+{
+    $syllables = array('an', 'be', 'ca', 'do', 'el', 'fa', 'gi', 'ho', 'jo', 'ka', 'lu', 'ma', 'ne', 'ol',
+        'pi', 'ra', 'sé', 'ti', 'un', 'vè', 'wa', 'xi', 'yo', 'zu', 'ch', 'st', 'ri', 'mi', 'na', 'lé');
+
+    $word = '';
+    for ($i = mt_rand(2, 4); $i > 0; $i--)
+    {
+        $word .= $syllables[mt_rand(0, count($syllables) - 1)];
+    }
+
+    return mb_convert_case($word, MB_CASE_TITLE, 'UTF-8');
+}
+
+/**
+ * A query as typed in the search bar: the first letters of the first or last name of a user.
+ */
+function randomQuery()
+{
+    $word = UserRepository::normalizeSearchText(randomWord());
+
+    return substr($word, 0, mt_rand(2, 5));
+}
+
+mt_srand(42);
+
+$inserted = 0;
+$now = date('Y-m-d H:i:s');
+
+printf("%10s %12s %12s %12s %12s %8s\n", 'users', 'index p50 ms', 'index p95 ms', 'scan p50 ms',
+    'scan p95 ms', 'found');
+
+for ($step = 1000; $step <= $maxUsers; $step *= 10)
+{
+    $db->beginTransaction();
+    $userStmt = $db->prepare("INSERT INTO users (fbid, name, visibility, longitude, latitude, last_update)
+        VALUES (?, ?, 'VISIBLE', 6.56, 46.51, ?)");
+    $searchNameStmt = $db->prepare("INSERT INTO user_search_names (search_name, idusers) VALUES (?, ?)");
+
+    while ($inserted < $step)
+    {
+        $name = randomWord() . ' ' . randomWord();
+        $inserted++;
+
+        $userStmt->execute(array($inserted, $name, $now));
+        foreach (UserRepository::searchNamesOf($name) as $searchName)
+        {
+            $searchNameStmt->execute(array($searchName, $inserted));
+        }
+
+        if ($inserted % $insertBatch == 0)
+        {
+            $db->commit();
+            $db->beginTransaction();
+        }
+    }
+    $db->commit();
+
+    $indexTimes = array();
+    $scanTimes = array();
+    $found = 0;
+
+    for ($i = 0; $i < $queriesPerStep; $i++)
+    {
+        $query = randomQuery();
+        // Excludes some users, as done for the friends of the user searching.
+        $excluded = array(mt_rand(1, $inserted), mt_rand(1, $inserted));
+
+        $start = microtime(true);
+        $users = $repo->findUsersByPartialName($query, $excluded);
+        $indexTimes[] = (microtime(true) - $start) * 1000;
+        $found += count($users);
+
+        foreach ($users as $user)
+        {
+            $searchName = ' ' . UserRepository::normalizeSearchText($user->getName());
+            if (strpos($searchName, ' ' . $query) === false OR in_array($user->getId(), $excluded))
+            {
+                fwrite(STDERR, "User " . $user->getName() . " should not be found for " . $query . ".\n");
+                exit(1);
+            }
+        }
+
+        $start = microtime(true);
+        legacyFindUsersByPartialName($db, $query);
+        $scanTimes[] = (microtime(true) - $start) * 1000;
+    }
+
+    printf("%10d %12.2f %12.2f %12.2f %12.2f %8.1f\n", $step, percentile($indexTimes, 0.5),
+        percentile($indexTimes, 0.95), percentile($scanTimes, 0.5), percentile($scanTimes, 0.95),
+        $found / $queriesPerStep);
+}
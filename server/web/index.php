@@ -4,6 +4,7 @@ require_once __DIR__.'/../vendor/autoload.php';
 
 use Symfony\Component\HttpFoundation\JsonResponse;
 use Symfony\Component\HttpFoundation\Request;
+use Symfony\Component\HttpFoundation\Response;
 
 use Monolog\Logger;
 use Monolog\Handler\StreamHandler;
@@ -136,6 +137,8 @@ $app->post('/setVisibility', 'authorization.controller:setVisibility');
 
 $app->post('/getUserInfo', 'data.controller:getUserInfo');
 
+$app->post('/getUsersInfo', 'data.controller:getUsersInfo');
+
 $app->post('/getProfilePicture', 'profile.controller:getProfilePicture');
 
 $app->post('/inviteFriend', 'data.controller:inviteFriend');
@@ -178,6 +181,8 @@ $app->post('/ackEventInvitation', 'event.controller:ackEventInvitation');
 
 $app->post('/getEventInfo', 'event.controller:getEventInfo');
 
+$app->post('/getEventsInfo', 'event.controller:getEventsInfo');
+
 // Easy authentication for testing
 if ($app['debug'] == true)
 {
@@ -190,4 +195,13 @@ $app->before(function(Request $request, Application $app) {
         ' from ip ' . $request->getClientIp() . '.');
 });
 
+// Compression of request and response bodies
+$app->before(function(Request $request) {
+    SmartMap\Control\CompressionUtils::decodeRequest($request);
+});
+
+$app->after(function(Request $request, Response $response) {
+    SmartMap\Control\CompressionUtils::encodeResponse($request, $response);
+});
+
 $app->run();